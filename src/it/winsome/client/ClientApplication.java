@@ -5,6 +5,7 @@ import it.winsome.common.dto.*;
 import it.winsome.common.entity.Comment;
 import it.winsome.common.entity.Post;
 import it.winsome.common.entity.User;
+import it.winsome.common.entity.WalletPage;
 import it.winsome.common.entity.enums.CurrencyType;
 import it.winsome.common.entity.enums.VotableType;
 import it.winsome.common.entity.enums.VoteType;
@@ -25,8 +26,11 @@ import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.sql.Timestamp;
+import java.time.LocalDate;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiFunction;
 
 /**
@@ -45,6 +49,7 @@ public class ClientApplication implements AutoCloseable {
     private final ClientConfiguration configuration = new ClientConfiguration();
 
     private final AtomicBoolean walletUpdatable = new AtomicBoolean();
+    private final AtomicReference<WalletDeltaDTO> walletDelta = new AtomicReference<>();
     private UserCallbackServer regUserSrv;
 
     public ClientApplication() {
@@ -64,6 +69,14 @@ public class ClientApplication implements AutoCloseable {
         return false;
     }
 
+    /**
+     * Take the wallet deltas pushed by the server since the last call, merged in a single one
+     * @return the delta or null if the wallet did not change
+     */
+    public WalletDeltaDTO consumeWalletDelta() {
+        return walletDelta.getAndSet(null);
+    }
+
     /**
      * Load the configuration if the file exists otherwise throw an exception
      * @param path file location
@@ -170,7 +183,7 @@ public class ClientApplication implements AutoCloseable {
                 "rewin postId\n" +
                 "rate postId [+1 or -1]\n" +
                 "comment postId \"content\"\n" +
-                "wallet currencyName\n");
+                "wallet [currencyName] [page] [lastDays] [daily]\n");
         return NetResponseType.Success;
     }
 
@@ -571,11 +584,11 @@ public class ClientApplication implements AutoCloseable {
                         } else {
                             Post rewin = currentPost.getOriginalPost();
                             outputString.append(rewin.getTitle()).append("  ")
-                                    .append("  [ID:").append(rewin.getId()).append("] ").append(rewin.getCreationDate().toString()).append('\n');
+                                    .append("  [ID:").append(rewin.getId()).append("] ").append(new Timestamp(rewin.getCreationTime()).toString()).append('\n');
                             outputString.append(rewin.getContent()).append('\n');
                         }
 
-                        outputString.append("Published in ").append(currentPost.getCreationDate()).append('\n');
+                        outputString.append("Published in ").append(new Timestamp(currentPost.getCreationTime())).append('\n');
                         outputString.append("Comments: ").append(currentPost.getCommentCount())
                                 .append(" | ").append("UPS: ").append(currentPost.getTotalUpvotes()).append(" DOWNS: ")
                                 .append(currentPost.getTotalDownvotes());
@@ -682,11 +695,11 @@ public class ClientApplication implements AutoCloseable {
                         } else {
                             Post rewin = currentPost.getOriginalPost();
                             outputString.append(rewin.getTitle()).append("  ")
-                                    .append("  [ID:").append(rewin.getId()).append("] ").append(rewin.getCreationDate().toString()).append('\n');
+                                    .append("  [ID:").append(rewin.getId()).append("] ").append(new Timestamp(rewin.getCreationTime()).toString()).append('\n');
                             outputString.append(rewin.getContent()).append('\n');
                         }
 
-                        outputString.append("Published in ").append(currentPost.getCreationDate()).append('\n');
+                        outputString.append("Published in ").append(new Timestamp(currentPost.getCreationTime())).append('\n');
                         outputString.append("Comments: ").append(currentPost.getCommentCount())
                                 .append(" | ").append("UPS: ").append(currentPost.getTotalUpvotes()).append(" DOWNS: ")
                                 .append(currentPost.getTotalDownvotes());
@@ -750,16 +763,16 @@ public class ClientApplication implements AutoCloseable {
                     } else {
                         Post rewin = currentPost.getOriginalPost();
                         outputString.append(rewin.getTitle()).append("  ")
-                                .append("  [ID:").append(rewin.getId()).append("] ").append(rewin.getCreationDate().toString()).append('\n');
+                                .append("  [ID:").append(rewin.getId()).append("] ").append(new Timestamp(rewin.getCreationTime()).toString()).append('\n');
                         outputString.append(rewin.getContent()).append('\n');
                     }
 
-                    outputString.append("Published in ").append(currentPost.getCreationDate()).append('\n');
+                    outputString.append("Published in ").append(new Timestamp(currentPost.getCreationTime())).append('\n');
                     outputString.append("Comments: ").append(currentPost.getCommentCount())
                             .append(" | ").append("UPS: ").append(currentPost.getTotalUpvotes()).append(" DOWNS: ")
                             .append(currentPost.getTotalDownvotes()).append('\n');
 
-                    Set<Comment> comments = currentPost.getComments();
+                    List<Comment> comments = currentPost.getComments();
                     if(comments.size() > 0) {
                         outputString.append("> [Comments] <\n");
                         Iterator<Comment> it = comments.iterator();
@@ -983,10 +996,27 @@ public class ClientApplication implements AutoCloseable {
 
             currencyType = CurrencyType.fromString(args[0]);
         }
+        int page = 0;
+        if(args.length > 1) {
+            page = Integer.parseInt(args[1]);
+        }
+        Validator.validatePage(page);
+        // the last days, 0 for the whole history
+        int lastDays = 0;
+        if(args.length > 2) {
+            lastDays = Integer.parseInt(args[2]);
+        }
+        Validator.validatePage(lastDays);
+        boolean daily = args.length > 3 && args[3].equalsIgnoreCase("daily");
+        long fromTime = lastDays == 0 ? 0 : Math.max(0, System.currentTimeMillis() - lastDays * 86_400_000L);
 
         sender.cachedMessage = NetMessage.reuseWritableNetMessageOrCreate(sender.cachedMessage,
-                        NetMessageType.Wallet, 4)
-                .writeInt(currencyType.getId());
+                        NetMessageType.Wallet, 4 * 3 + 8 * 2)
+                .writeInt(currencyType.getId())
+                .writeInt(page)
+                .writeLong(fromTime)
+                .writeLong(Long.MAX_VALUE)
+                .writeInt(daily ? 1 : 0);
         try {
             NetMessage responseMessage = sender.sendAndAwaitResponse();
             if(responseMessage.getType() == NetMessageType.Wallet) {
@@ -995,15 +1025,21 @@ public class ClientApplication implements AutoCloseable {
                     String message = responseMessage.readString();
                     printError(message);
                 } else if(result == NetResponseType.Success) {
-                    GetWalletDTO dto = responseMessage.readObject(GetWalletDTO::netDeserialize);
+                    WalletPage walletPage = responseMessage.readObject(GetWalletDTO::netDeserialize).page;
                     StringBuilder builder = new StringBuilder(400);
                     builder.append(String.format("------- Wallet in %s --------\n", currencyType))
-                            .append("Amount: ").append(dto.wallet.getAmount()).append('\n')
-                            .append("Transactions: [\n");
-                    dto.wallet.getTransactions().forEach(x -> {
-                        builder.append("Amount :").append(x.amount)
-                                .append(" - Date : ").append(x.time).append('\n');
-                    });
+                            .append("Amount: ").append(walletPage.getAmount()).append('\n')
+                            .append(String.format("%s page %d of %d rows: [\n",
+                                    walletPage.isDaily() ? "Days" : "Transactions", walletPage.getPage(),
+                                    walletPage.getTotalRows()));
+                    for(int i = 0; i < walletPage.getRowCount(); i++) {
+                        Object date = walletPage.isDaily() ?
+                                LocalDate.ofEpochDay(walletPage.getTime(i) / 86_400_000L) :
+                                new Timestamp(walletPage.getTime(i));
+                        builder.append("Amount :").append(walletPage.getAmount(i))
+                                .append(" - Date : ").append(date)
+                                .append(" - Balance : ").append(walletPage.getBalance(i)).append('\n');
+                    }
                     builder.append("]");
                     printResponse(builder.toString());
                 } else if(result == NetResponseType.InternalError) {
@@ -1059,7 +1095,7 @@ public class ClientApplication implements AutoCloseable {
     }
 
     /**
-     * Send the message to the server and wait for a response
+     * Send the message to the server and wait for a response, the wallet deltas pushed before it are consumed
      * @return the response message
      * @throws SocketDisconnectedException if the client disconnected
      */
@@ -1067,6 +1103,12 @@ public class ClientApplication implements AutoCloseable {
         clientConnector.sendTcpMessage(cachedMessage);
         cachedMessageReceive = clientConnector.receiveTcpMessage(cachedMessageReceive);
         cachedMessageReceive.prepareRead();
+        while(cachedMessageReceive.getType() == NetMessageType.WalletDelta) {
+            WalletDeltaDTO delta = cachedMessageReceive.readObject(WalletDeltaDTO::netDeserialize);
+            walletDelta.accumulateAndGet(delta, (previous, next) -> previous == null ? next : previous.merge(next));
+            cachedMessageReceive = clientConnector.receiveTcpMessage(cachedMessageReceive);
+            cachedMessageReceive.prepareRead();
+        }
         return cachedMessageReceive;
     }
 
@@ -2,6 +2,7 @@ package it.winsome.client;
 
 import it.winsome.common.Pair;
 import it.winsome.common.WinsomeHelper;
+import it.winsome.common.dto.WalletDeltaDTO;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -34,7 +35,11 @@ public class ClientMain {
         }
 
         while(true) {
-            if(app.consumeWalletNotification()) {
+            WalletDeltaDTO walletDelta = app.consumeWalletDelta();
+            if(walletDelta != null) {
+                ClientApplication.printResponse("Wallet notification: you earned %f wincoin, your amount is %f wincoin!",
+                        walletDelta.increment, walletDelta.balance);
+            } else if(app.consumeWalletNotification()) {
                 ClientApplication.printResponse("Wallet notification: your amount might be updated!");
             }
 
@@ -88,11 +93,13 @@ public class ClientMain {
             case "rewin":
                 ensureNParameters(args, 1, lineArg, false, 0);
                 break;
-            case "wallet":
             case "show feed":
             case "blog":
                 ensureNParameters(args, 0, lineArg, true, 1);
                 break;
+            case "wallet":
+                ensureNParameters(args, 0, lineArg, true, 4);
+                break;
             case "login":
             case "post":
             case "rate":
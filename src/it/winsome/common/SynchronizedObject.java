@@ -4,17 +4,15 @@ import it.winsome.common.exception.DeadlockPreventionException;
 import it.winsome.common.exception.SynchronizationException;
 import it.winsome.common.exception.SynchronizedInitException;
 
-import java.util.HashSet;
-import java.util.Set;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * This represents a synchronized object, it offers basic read checks and write checks to the classes
- * that extends from this, useful for multithreading safety over the single objects
+ * that extends from this, useful for multithreading safety over the single objects.
+ * The lock is allocated only when the synchronization is enabled, objects never shared do not pay for it
  */
 public abstract class SynchronizedObject implements Cloneable {
     private transient ReentrantReadWriteLock rwLock;
-    private transient Set<Thread> readHolders;
     private transient boolean synchronizationEnabled;
     private transient boolean isInitialized;
 
@@ -30,8 +28,7 @@ public abstract class SynchronizedObject implements Cloneable {
      */
     protected void initSynchronizedObject() throws SynchronizedInitException {
         if(isInitialized) throw new SynchronizedInitException();
-        rwLock = new ReentrantReadWriteLock();
-        readHolders = new HashSet<>();
+        rwLock = null;
         synchronizationEnabled = false;
         isInitialized = true;
     }
@@ -67,7 +64,6 @@ public abstract class SynchronizedObject implements Cloneable {
     public void prepareRead() {
         if(!synchronizationEnabled || isThreadReading()) return;
         rwLock.readLock().lock();
-        readHolders.add(Thread.currentThread());
     }
 
     /**
@@ -80,6 +76,16 @@ public abstract class SynchronizedObject implements Cloneable {
         rwLock.writeLock().lock();
     }
 
+    /**
+     * Acquire the write lock only if it is free, without waiting
+     * @return true if the caller owns the write lock
+     */
+    public boolean tryPrepareWrite() {
+        if(!synchronizationEnabled || isThreadWriting()) return true;
+        if(isThreadReading()) return false;
+        return rwLock.writeLock().tryLock();
+    }
+
     /**
      * Downgrade the caller from having a write lock to a read lock
      * @return if it was downgraded
@@ -97,7 +103,6 @@ public abstract class SynchronizedObject implements Cloneable {
     public void releaseRead() {
         if(!synchronizationEnabled || !isThreadReading()) return;
         rwLock.readLock().unlock();
-        readHolders.remove(Thread.currentThread());
     }
 
     /**
@@ -113,7 +118,7 @@ public abstract class SynchronizedObject implements Cloneable {
      * @return if the current thread is reading
      */
     public boolean isThreadReading() {
-        return readHolders.contains(Thread.currentThread());
+        return rwLock != null && rwLock.getReadHoldCount() > 0;
     }
 
     /**
@@ -121,7 +126,7 @@ public abstract class SynchronizedObject implements Cloneable {
      * @return true if the current thread is writing
      */
     public boolean isThreadWriting() {
-        return rwLock.isWriteLockedByCurrentThread();
+        return rwLock != null && rwLock.isWriteLockedByCurrentThread();
     }
 
     /**
@@ -131,6 +136,9 @@ public abstract class SynchronizedObject implements Cloneable {
      * @return this entity
      */
     public <T extends SynchronizedObject> T enableSynchronization(boolean recursive) {
+        if(rwLock == null) {
+            rwLock = new ReentrantReadWriteLock();
+        }
         synchronizationEnabled = true;
         return (T) this;
     }
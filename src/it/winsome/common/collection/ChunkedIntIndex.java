@@ -0,0 +1,226 @@
+package it.winsome.common.collection;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Append only index of int values kept in ascending order and stored in fixed size chunks.
+ * Removed values leave a tombstone (the complement of the value, always negative) and each chunk keeps
+ * its number of live values, so a position counted from the newest value is found by skipping whole
+ * chunks instead of walking every element. When half of a chunk is made of tombstones the values
+ * from that chunk onwards are compacted.
+ * Only non negative values are permitted. Every index has its own read/write lock, then indexes of
+ * different owners never block each other
+ */
+public class ChunkedIntIndex {
+    private static final int CHUNK_BITS = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int COMPACT_THRESHOLD = CHUNK_SIZE / 2;
+
+    private int[][] chunks;
+    private int[] liveCounts;
+    private int size;
+    private int liveSize;
+    private final ReadWriteLock lock;
+
+    public ChunkedIntIndex() {
+        chunks = new int[1][];
+        liveCounts = new int[1];
+        lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Add a value, usually greater than the previous ones: a smaller value is moved back to
+     * its ordered position, which is cheap when it comes only slightly out of order.
+     * Each value can be added only once, even after being removed
+     * @param value value, cannot be negative
+     */
+    public void add(int value) {
+        if(value < 0) throw new IllegalArgumentException("Value cannot be negative!");
+        Lock wLock = lock.writeLock();
+        wLock.lock();
+        try {
+            int chunk = size >>> CHUNK_BITS;
+            if(chunk == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunks.length * 2);
+                liveCounts = Arrays.copyOf(liveCounts, liveCounts.length * 2);
+            }
+            if(chunks[chunk] == null) {
+                chunks[chunk] = new int[CHUNK_SIZE];
+            }
+
+            chunks[chunk][size & CHUNK_MASK] = value;
+            liveCounts[chunk]++;
+            liveSize++;
+
+            int position = size++;
+            while(position > 0 && decode(get(position - 1)) > value) {
+                swap(position - 1, position);
+                position--;
+            }
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    /**
+     * Remove a value leaving a tombstone in its position
+     * @param value value
+     * @return true if it was present
+     */
+    public boolean remove(int value) {
+        Lock wLock = lock.writeLock();
+        wLock.lock();
+        try {
+            int position = search(value);
+            if(position < 0) return false;
+
+            int chunk = position >>> CHUNK_BITS;
+            chunks[chunk][position & CHUNK_MASK] = ~value;
+            liveCounts[chunk]--;
+            liveSize--;
+            if(chunkLength(chunk) - liveCounts[chunk] >= COMPACT_THRESHOLD) {
+                compactFrom(chunk);
+            }
+            return true;
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of values not removed
+     * @return live values
+     */
+    public int size() {
+        Lock rLock = lock.readLock();
+        rLock.lock();
+        try {
+            return liveSize;
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    /**
+     * Visit the values from the greatest while holding the read lock, it stops as soon as the action returns false
+     * @param skip number of live values to be skipped before the first visited
+     * @param action predicate applied to each value, return false to stop
+     */
+    public void forEachDescending(int skip, IntPredicate action) {
+        Lock rLock = lock.readLock();
+        rLock.lock();
+        try {
+            int chunk = size == 0 ? -1 : (size - 1) >>> CHUNK_BITS;
+            // whole chunks are skipped by their live count
+            while(chunk >= 0 && skip >= liveCounts[chunk]) {
+                skip -= liveCounts[chunk];
+                chunk--;
+            }
+
+            for(; chunk >= 0; chunk--) {
+                int[] values = chunks[chunk];
+                int last = chunkLength(chunk) - 1;
+                for(int i = last; i >= 0; i--) {
+                    if(values[i] < 0) continue;
+                    if(skip > 0) {
+                        skip--;
+                    } else if(!action.test(values[i])) {
+                        return;
+                    }
+                }
+            }
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    /**
+     * Copy the live values from the greatest, the read lock is held only while copying
+     * so the caller can do any work on them without blocking the writers
+     * @param skip number of live values to be skipped before the first copied
+     * @param out destination
+     * @return number of values copied, less than out.length only if there are no more values
+     */
+    public int copyDescending(int skip, int[] out) {
+        if(out.length == 0) return 0;
+        int[] count = { 0 };
+        forEachDescending(skip, value -> {
+            out[count[0]++] = value;
+            return count[0] < out.length;
+        });
+        return count[0];
+    }
+
+    /**
+     * Drop the tombstones from a chunk to the end, the following values are moved back to fill the chunks
+     * @param fromChunk first chunk to be compacted
+     */
+    private void compactFrom(int fromChunk) {
+        int write = fromChunk << CHUNK_BITS;
+        for(int read = write; read < size; read++) {
+            int value = get(read);
+            if(value < 0) continue;
+            chunks[write >>> CHUNK_BITS][write & CHUNK_MASK] = value;
+            write++;
+        }
+        int lastChunk = size == 0 ? -1 : (size - 1) >>> CHUNK_BITS;
+        size = write;
+        for(int chunk = fromChunk; chunk <= lastChunk; chunk++) {
+            if(chunk << CHUNK_BITS >= size) {
+                // emptied, it is allocated again by add
+                chunks[chunk] = null;
+                liveCounts[chunk] = 0;
+            } else {
+                liveCounts[chunk] = chunkLength(chunk);
+            }
+        }
+    }
+
+    private int chunkLength(int chunk) {
+        return Math.min(size - (chunk << CHUNK_BITS), CHUNK_SIZE);
+    }
+
+    private int search(int value) {
+        int low = 0;
+        int high = size - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int current = get(mid);
+            int decoded = decode(current);
+            if(decoded < value) {
+                low = mid + 1;
+            } else if(decoded > value) {
+                high = mid - 1;
+            } else {
+                return current < 0 ? -1 : mid;
+            }
+        }
+        return -1;
+    }
+
+    private int get(int position) {
+        return chunks[position >>> CHUNK_BITS][position & CHUNK_MASK];
+    }
+
+    private void swap(int first, int second) {
+        int a = get(first);
+        int b = get(second);
+        chunks[first >>> CHUNK_BITS][first & CHUNK_MASK] = b;
+        chunks[second >>> CHUNK_BITS][second & CHUNK_MASK] = a;
+        if((first >>> CHUNK_BITS) != (second >>> CHUNK_BITS) && (a < 0) != (b < 0)) {
+            // a tombstone moved to the other chunk
+            int delta = a < 0 ? 1 : -1;
+            liveCounts[first >>> CHUNK_BITS] += delta;
+            liveCounts[second >>> CHUNK_BITS] -= delta;
+        }
+    }
+
+    private static int decode(int value) {
+        return value < 0 ? ~value : value;
+    }
+}
@@ -0,0 +1,93 @@
+package it.winsome.common.collection;
+
+import com.google.gson.annotations.JsonAdapter;
+import it.winsome.common.json.ConcurrentIntLogJsonAdapter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock free append only log of non zero ints, stored in json as a plain array.
+ * A writer reserves its index with a single atomic increment and then publishes the value in its slot,
+ * so appends never block each other. The slots live in buckets doubling in size which are never moved,
+ * a reader may see a reserved slot still empty (zero) while its writer is publishing it
+ */
+@JsonAdapter(ConcurrentIntLogJsonAdapter.class)
+public class ConcurrentIntLog {
+    private static final int FIRST_BUCKET_BITS = 2;
+    private static final int FIRST_BUCKET_SIZE = 1 << FIRST_BUCKET_BITS;
+    private static final int BUCKETS = 32 - FIRST_BUCKET_BITS;
+
+    private final AtomicReferenceArray<AtomicIntegerArray> buckets;
+    private final AtomicInteger size;
+
+    public ConcurrentIntLog() {
+        buckets = new AtomicReferenceArray<>(BUCKETS);
+        size = new AtomicInteger();
+    }
+
+    /**
+     * Append a value at the end of the log
+     * @param value value, cannot be zero
+     * @return the index of the value
+     */
+    public int append(int value) {
+        if(value == 0) throw new IllegalArgumentException("Value cannot be zero!");
+        int index = size.getAndIncrement();
+        if(index < 0) {
+            size.decrementAndGet();
+            throw new IllegalStateException("Log is full!");
+        }
+
+        int bucket = bucketOf(index);
+        AtomicIntegerArray slots = buckets.get(bucket);
+        if(slots == null) {
+            AtomicIntegerArray created = new AtomicIntegerArray(FIRST_BUCKET_SIZE << bucket);
+            slots = buckets.compareAndSet(bucket, null, created) ? created : buckets.get(bucket);
+        }
+        slots.lazySet(index - bucketStart(bucket), value);
+        return index;
+    }
+
+    /**
+     * Get a value by its index
+     * @param index index between 0 and the size
+     * @return the value or zero if its writer did not publish it yet
+     */
+    public int get(int index) {
+        if(index < 0 || index >= size.get()) throw new IndexOutOfBoundsException("Vote index " + index + " out of " + size.get());
+        int bucket = bucketOf(index);
+        AtomicIntegerArray slots = buckets.get(bucket);
+        if(slots == null) return 0;
+        return slots.get(index - bucketStart(bucket));
+    }
+
+    /**
+     * Get the number of reserved slots, the last ones may be still empty
+     * @return reserved slots
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Get the number of values published without gaps from the first one
+     * @return published prefix length
+     */
+    public int publishedSize() {
+        int reserved = size.get();
+        for(int i = 0; i < reserved; i++) {
+            if(get(i) == 0) return i;
+        }
+        return reserved;
+    }
+
+    private static int bucketOf(int index) {
+        return 31 - Integer.numberOfLeadingZeros((index >>> FIRST_BUCKET_BITS) + 1);
+    }
+
+    private static int bucketStart(int bucket) {
+        return FIRST_BUCKET_SIZE * ((1 << bucket) - 1);
+    }
+}
@@ -0,0 +1,126 @@
+package it.winsome.common.collection;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map (linear probing) from primitive int keys to primitive double values,
+ * made to sum amounts by id without boxing anything.
+ * Integer.MIN_VALUE marks an empty slot, then it cannot be used as key.
+ * This map is not thread safe, the caller must take care of the synchronization
+ */
+public class IntDoubleHashMap {
+    private static final int MIN_CAPACITY = 16;
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private double[] values;
+    private int size;
+    private int mask;
+    private int threshold;
+
+    public IntDoubleHashMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Add an amount to the value of this key, a missing key starts from 0
+     * @param key key, not Integer.MIN_VALUE
+     * @param amount amount to be added
+     */
+    public void add(int key, double amount) {
+        if(key == EMPTY) throw new IllegalArgumentException("Invalid key!");
+        int slot = hash(key) & mask;
+        while(keys[slot] != EMPTY) {
+            if(keys[slot] == key) {
+                values[slot] += amount;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = amount;
+        if(++size > threshold) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Get the value of this key
+     * @param key key
+     * @return the value or 0 if not present
+     */
+    public double get(int key) {
+        int slot = hash(key) & mask;
+        while(keys[slot] != EMPTY) {
+            if(keys[slot] == key) return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * Add every entry of another map to this one
+     * @param other map to be merged, it is not changed
+     */
+    public void addAll(IntDoubleHashMap other) {
+        other.forEach(this::add);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Iterate every entry in no particular order
+     * @param action consumer of each entry
+     */
+    public void forEach(IntDoubleConsumer action) {
+        for(int i = 0; i < keys.length; i++) {
+            if(keys[i] != EMPTY) {
+                action.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(newCapacity);
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] != EMPTY) {
+                int slot = hash(oldKeys[i]) & mask;
+                while(keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new double[capacity];
+        mask = capacity - 1;
+        threshold = capacity * 3 / 4;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Consumer of a primitive int key and its primitive double value
+     */
+    @FunctionalInterface
+    public interface IntDoubleConsumer {
+        void accept(int key, double value);
+    }
+}
@@ -0,0 +1,308 @@
+package it.winsome.common.collection;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Open addressing hash map (linear probing) with primitive int keys, lookups do not box the key and do not
+ * allocate anything.
+ * A slot is considered empty when its value is null, then null values are not permitted.
+ * It also offers an iteration ordered by key, useful for entities with incremental ids.
+ * This map is not thread safe, the caller must take care of the synchronization
+ * @param <V> value type
+ */
+public class IntHashMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+    private int threshold;
+    private int minKey;
+    private int maxKey;
+
+    public IntHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public IntHashMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while(capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+        resetBounds();
+    }
+
+    /**
+     * Get the value mapped to this key
+     * @param key key
+     * @return the value or null if not present
+     */
+    public V get(int key) {
+        int slot = findSlot(key);
+        return slot < 0 ? null : valueAt(values, slot);
+    }
+
+    /**
+     * Check if the key is mapped
+     * @param key key
+     * @return true if present
+     */
+    public boolean containsKey(int key) {
+        return findSlot(key) >= 0;
+    }
+
+    /**
+     * Map a value to this key, replacing the previous one
+     * @param key key
+     * @param value value, cannot be null
+     * @return the previous value or null
+     */
+    public V put(int key, V value) {
+        if(value == null) throw new NullPointerException("Value cannot be null!");
+        int slot = hash(key) & mask;
+        while(values[slot] != null) {
+            if(keys[slot] == key) {
+                V old = valueAt(values, slot);
+                values[slot] = value;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        minKey = Math.min(minKey, key);
+        maxKey = Math.max(maxKey, key);
+        if(++size > threshold) {
+            rehash(values.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Map a value to this key only if the key is not already mapped
+     * @param key key
+     * @param value value, cannot be null
+     * @return the current value or null if the new value was inserted
+     */
+    public V putIfAbsent(int key, V value) {
+        V current = get(key);
+        if(current != null) return current;
+        put(key, value);
+        return null;
+    }
+
+    /**
+     * Remove the mapping of this key, the following slots are shifted back so no tombstone is needed
+     * @param key key
+     * @return the removed value or null
+     */
+    public V remove(int key) {
+        int slot = findSlot(key);
+        if(slot < 0) return null;
+
+        V old = valueAt(values, slot);
+        int free = slot;
+        int current = (slot + 1) & mask;
+        while(values[current] != null) {
+            int ideal = hash(keys[current]) & mask;
+            // move back the entry if its ideal slot is not between the free slot and the current one
+            if(((current - ideal) & mask) >= ((current - free) & mask)) {
+                keys[free] = keys[current];
+                values[free] = values[current];
+                free = current;
+            }
+            current = (current + 1) & mask;
+        }
+
+        values[free] = null;
+        if(--size == 0) {
+            resetBounds();
+        }
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+        resetBounds();
+    }
+
+    /**
+     * Iterate every entry in no particular order
+     * @param action consumer of each entry
+     */
+    public void forEach(IntObjectConsumer<? super V> action) {
+        Object[] vals = values;
+        for(int i = 0; i < vals.length; i++) {
+            if(vals[i] != null) {
+                action.accept(keys[i], valueAt(vals, i));
+            }
+        }
+    }
+
+    /**
+     * Iterate every entry ordered by key, the iteration stops as soon as the action returns false.
+     * When the keys are dense (like incremental ids) the key range is scanned without allocating,
+     * otherwise the keys are copied and sorted
+     * @param descending true to start from the highest key
+     * @param action predicate applied to each entry, return false to stop
+     * @return true if every entry was visited
+     */
+    public boolean forEachOrdered(boolean descending, IntObjectPredicate<? super V> action) {
+        if(size == 0) return true;
+
+        if((long) maxKey - minKey < (long) size * 4) {
+            if(descending) {
+                for(long key = maxKey; key >= minKey; key--) {
+                    V value = get((int) key);
+                    if(value != null && !action.test((int) key, value)) return false;
+                }
+            } else {
+                for(long key = minKey; key <= maxKey; key++) {
+                    V value = get((int) key);
+                    if(value != null && !action.test((int) key, value)) return false;
+                }
+            }
+            return true;
+        }
+
+        int[] sorted = new int[size];
+        int count = 0;
+        for(int i = 0; i < values.length; i++) {
+            if(values[i] != null) {
+                sorted[count++] = keys[i];
+            }
+        }
+        Arrays.sort(sorted);
+        for(int i = 0; i < count; i++) {
+            int key = sorted[descending ? count - 1 - i : i];
+            if(!action.test(key, get(key))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * A live view of the values of this map, it does not support removals
+     * @return values view
+     */
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new Iterator<V>() {
+                    private final Object[] vals = values;
+                    private int next = advance(0);
+
+                    private int advance(int from) {
+                        while(from < vals.length && vals[from] == null) from++;
+                        return from;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < vals.length;
+                    }
+
+                    @Override
+                    public V next() {
+                        if(next >= vals.length) throw new NoSuchElementException();
+                        V value = valueAt(vals, next);
+                        next = advance(next + 1);
+                        return value;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private int findSlot(int key) {
+        int slot = hash(key) & mask;
+        while(values[slot] != null) {
+            if(keys[slot] == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(newCapacity);
+        for(int i = 0; i < oldValues.length; i++) {
+            if(oldValues[i] != null) {
+                int slot = hash(oldKeys[i]) & mask;
+                while(values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        threshold = capacity * 3 / 4;
+    }
+
+    private void resetBounds() {
+        minKey = Integer.MAX_VALUE;
+        maxKey = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Read a value of the array, every value stored is a V
+     * @param array values array
+     * @param index index
+     * @return the value
+     */
+    @SuppressWarnings("unchecked")
+    static <V> V valueAt(Object[] array, int index) {
+        return (V) array[index];
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Consumer of a primitive int key and its value
+     * @param <V> value type
+     */
+    @FunctionalInterface
+    public interface IntObjectConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    /**
+     * Predicate over a primitive int key and its value
+     * @param <V> value type
+     */
+    @FunctionalInterface
+    public interface IntObjectPredicate<V> {
+        boolean test(int key, V value);
+    }
+}
@@ -0,0 +1,127 @@
+package it.winsome.common.collection;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Open addressing hash set (linear probing) of primitive int values, made to collect ids without boxing anything.
+ * Integer.MIN_VALUE marks an empty slot, then it cannot be added.
+ * This set is not thread safe, the caller must take care of the synchronization
+ */
+public class IntHashSet {
+    private static final int MIN_CAPACITY = 16;
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private int[] values;
+    private int size;
+    private int mask;
+    private int threshold;
+
+    public IntHashSet() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Add a value to this set
+     * @param value value, not Integer.MIN_VALUE
+     * @return true if added, false if already present
+     */
+    public boolean add(int value) {
+        if(value == EMPTY) throw new IllegalArgumentException("Invalid value!");
+        int slot = hash(value) & mask;
+        while(values[slot] != EMPTY) {
+            if(values[slot] == value) return false;
+            slot = (slot + 1) & mask;
+        }
+
+        values[slot] = value;
+        if(++size > threshold) {
+            rehash(values.length << 1);
+        }
+        return true;
+    }
+
+    /**
+     * Remove a value from this set, the following values of its run are moved back so that no slot is left as
+     * a tombstone
+     * @param value value
+     * @return true if removed, false if not present
+     */
+    public boolean remove(int value) {
+        int slot = hash(value) & mask;
+        while(values[slot] != value) {
+            if(values[slot] == EMPTY) return false;
+            slot = (slot + 1) & mask;
+        }
+
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while(values[next] != EMPTY) {
+            int home = hash(values[next]) & mask;
+            // moved back only if its home slot is not between the hole and its current slot
+            if(((next - home) & mask) >= ((next - hole) & mask)) {
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[hole] = EMPTY;
+        size--;
+        return true;
+    }
+
+    public boolean contains(int value) {
+        int slot = hash(value) & mask;
+        while(values[slot] != EMPTY) {
+            if(values[slot] == value) return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Iterate every value in no particular order
+     * @param action consumer of each value
+     */
+    public void forEach(IntConsumer action) {
+        for(int i = 0; i < values.length; i++) {
+            if(values[i] != EMPTY) {
+                action.accept(values[i]);
+            }
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldValues = values;
+        allocate(newCapacity);
+        for(int i = 0; i < oldValues.length; i++) {
+            if(oldValues[i] != EMPTY) {
+                int slot = hash(oldValues[i]) & mask;
+                while(values[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        values = new int[capacity];
+        Arrays.fill(values, EMPTY);
+        mask = capacity - 1;
+        threshold = capacity * 3 / 4;
+    }
+
+    private static int hash(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
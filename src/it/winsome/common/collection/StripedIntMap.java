@@ -0,0 +1,254 @@
+package it.winsome.common.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Thread safe map with primitive int keys, the keys are partitioned in stripes and each stripe is an
+ * IntHashMap guarded by its own read/write lock, so operations on different stripes proceed in parallel.
+ * Consecutive keys fall in different stripes, which spreads incremental ids evenly.
+ * Iterations are weakly consistent: each stripe is locked only while its values are copied, then the
+ * action runs without holding any lock
+ * @param <V> value type
+ */
+public class StripedIntMap<V> {
+    public static final int DEFAULT_STRIPES = 64;
+
+    private final IntHashMap<V>[] stripes;
+    private final ReadWriteLock[] locks;
+    private final int mask;
+    private final AtomicInteger size;
+    private final AtomicInteger minKey;
+    private final AtomicInteger maxKey;
+
+    public StripedIntMap() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public StripedIntMap(int stripeCount) {
+        int count = 1;
+        while(count < stripeCount) {
+            count <<= 1;
+        }
+
+        stripes = newStripes(count);
+        locks = new ReadWriteLock[count];
+        for(int i = 0; i < count; i++) {
+            stripes[i] = new IntHashMap<>();
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        mask = count - 1;
+        size = new AtomicInteger();
+        minKey = new AtomicInteger(Integer.MAX_VALUE);
+        maxKey = new AtomicInteger(Integer.MIN_VALUE);
+    }
+
+    public V get(int key) {
+        int stripe = key & mask;
+        Lock rLock = locks[stripe].readLock();
+        rLock.lock();
+        try {
+            return stripes[stripe].get(key);
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    public V put(int key, V value) {
+        int stripe = key & mask;
+        Lock wLock = locks[stripe].writeLock();
+        wLock.lock();
+        try {
+            V old = stripes[stripe].put(key, value);
+            if(old == null) onInsert(key);
+            return old;
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    public V putIfAbsent(int key, V value) {
+        int stripe = key & mask;
+        Lock wLock = locks[stripe].writeLock();
+        wLock.lock();
+        try {
+            V current = stripes[stripe].putIfAbsent(key, value);
+            if(current == null) onInsert(key);
+            return current;
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    public V remove(int key) {
+        int stripe = key & mask;
+        Lock wLock = locks[stripe].writeLock();
+        wLock.lock();
+        try {
+            V old = stripes[stripe].remove(key);
+            if(old != null) size.decrementAndGet();
+            return old;
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    /**
+     * Remove the mapping only if the key is mapped to this exact value
+     * @param key key
+     * @param expected value expected
+     * @return true if removed
+     */
+    public boolean remove(int key, V expected) {
+        int stripe = key & mask;
+        Lock wLock = locks[stripe].writeLock();
+        wLock.lock();
+        try {
+            IntHashMap<V> map = stripes[stripe];
+            if(map.get(key) != expected) return false;
+            map.remove(key);
+            size.decrementAndGet();
+            return true;
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Iterate every value in no particular order, weakly consistent
+     * @param action consumer of each value
+     */
+    public void forEach(Consumer<? super V> action) {
+        Object[] buffer = new Object[0];
+        for(int i = 0; i < stripes.length; i++) {
+            int count;
+            Lock rLock = locks[i].readLock();
+            rLock.lock();
+            try {
+                IntHashMap<V> stripe = stripes[i];
+                if(buffer.length < stripe.size()) {
+                    buffer = new Object[stripe.size()];
+                }
+                count = copyValues(stripe, buffer);
+            } finally {
+                rLock.unlock();
+            }
+
+            for(int j = 0; j < count; j++) {
+                action.accept(IntHashMap.<V>valueAt(buffer, j));
+                buffer[j] = null;
+            }
+        }
+    }
+
+    /**
+     * Copy every value in a new list, weakly consistent
+     * @return list of values
+     */
+    public List<V> valuesSnapshot() {
+        List<V> result = new ArrayList<>(size());
+        forEach(result::add);
+        return result;
+    }
+
+    /**
+     * Iterate the entries ordered by key, weakly consistent, it stops as soon as the action returns false.
+     * When the keys are dense the key range is scanned with single lookups without allocating,
+     * otherwise the keys are collected from every stripe and sorted
+     * @param descending true to start from the highest key
+     * @param action predicate applied to each entry, return false to stop
+     * @return true if every entry was visited
+     */
+    public boolean forEachOrdered(boolean descending, IntHashMap.IntObjectPredicate<? super V> action) {
+        int currentSize = size();
+        if(currentSize == 0) return true;
+        int min = minKey.get();
+        int max = maxKey.get();
+
+        if((long) max - min < (long) currentSize * 4) {
+            if(descending) {
+                for(long key = max; key >= min; key--) {
+                    V value = get((int) key);
+                    if(value != null && !action.test((int) key, value)) return false;
+                }
+            } else {
+                for(long key = min; key <= max; key++) {
+                    V value = get((int) key);
+                    if(value != null && !action.test((int) key, value)) return false;
+                }
+            }
+            return true;
+        }
+
+        int[] sorted = sortedKeys();
+        for(int i = 0; i < sorted.length; i++) {
+            int key = sorted[descending ? sorted.length - 1 - i : i];
+            V value = get(key);
+            if(value != null && !action.test(key, value)) return false;
+        }
+        return true;
+    }
+
+    private int[] sortedKeys() {
+        int[] keys = new int[Math.max(size(), 16)];
+        int count = 0;
+        for(int i = 0; i < stripes.length; i++) {
+            Lock rLock = locks[i].readLock();
+            rLock.lock();
+            try {
+                IntHashMap<V> stripe = stripes[i];
+                if(keys.length < count + stripe.size()) {
+                    keys = Arrays.copyOf(keys, (count + stripe.size()) * 2);
+                }
+                int[] cursor = { count };
+                int[] target = keys;
+                stripe.forEach((k, v) -> target[cursor[0]++] = k);
+                count = cursor[0];
+            } finally {
+                rLock.unlock();
+            }
+        }
+
+        int[] result = Arrays.copyOf(keys, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private int copyValues(IntHashMap<V> stripe, Object[] buffer) {
+        int count = 0;
+        for(V value : stripe.values()) {
+            buffer[count++] = value;
+        }
+        return count;
+    }
+
+    private void onInsert(int key) {
+        size.incrementAndGet();
+        if(key < minKey.get()) minKey.accumulateAndGet(key, Math::min);
+        if(key > maxKey.get()) maxKey.accumulateAndGet(key, Math::max);
+    }
+
+    /**
+     * Allocate the stripes, a generic array cannot be created directly
+     * @param count amount of stripes
+     * @return empty stripes array
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> IntHashMap<V>[] newStripes(int count) {
+        return (IntHashMap<V>[]) new IntHashMap<?>[count];
+    }
+}
@@ -1,57 +1,59 @@
 package it.winsome.common.dto;
 
-import it.winsome.common.entity.Transaction;
-import it.winsome.common.entity.Wallet;
+import it.winsome.common.entity.WalletPage;
 import it.winsome.common.network.NetMessage;
 
-import java.sql.Timestamp;
-import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Collection;
-
 /**
- * Wallet command data transfer
+ * Wallet command data transfer, the amount with a page of the transactions.
+ * The page is in wincoin and its amounts are multiplied by the rate while they are serialized
  */
 public class GetWalletDTO {
-    public Wallet wallet;
+    public WalletPage page;
+    public double rate = 1;
 
     public GetWalletDTO() {  }
-    public GetWalletDTO(Wallet wallet) {
-        this.wallet = wallet;
+    public GetWalletDTO(WalletPage page) {
+        this.page = page;
+    }
+
+    public GetWalletDTO(WalletPage page, double rate) {
+        this.page = page;
+        this.rate = rate;
     }
 
     public static void netSerialize(NetMessage to, GetWalletDTO dto) {
-        to.writeDouble(dto.wallet.getAmount());
-        to.writeCollection(dto.wallet.getTransactions(), GetWalletDTO::netTransactionSerialize);
+        WalletPage page = dto.page;
+        double rate = dto.rate;
+        to.writeDouble(page.getAmount() * rate);
+        to.writeInt(page.getPage());
+        to.writeInt(page.getTotalRows());
+        to.writeInt(page.isDaily() ? 1 : 0);
+        to.writeInt(page.getRowCount());
+        for(int i = 0; i < page.getRowCount(); i++) {
+            to.writeLong(page.getTime(i));
+            to.writeDouble(page.getAmount(i) * rate);
+            to.writeDouble(page.getBalance(i) * rate);
+        }
     }
 
     public static GetWalletDTO netDeserialize(NetMessage from) {
-        GetWalletDTO dto = new GetWalletDTO();
         double amount = from.readDouble();
-        Collection<Transaction> transactions = new ArrayList<>();
-        from.readCollection(transactions, GetWalletDTO::netTransactionDeserialize);
-        Wallet wallet = new Wallet(transactions);
-        wallet.setAmount(amount);
-        dto.wallet = wallet;
-        return dto;
-    }
-
-    public static int netSize(GetWalletDTO list) {
-        return 8 + NetMessage.getCollectionSize(list.wallet.getTransactions(), GetWalletDTO::netTransactionSize);
-    }
-
-    private static void netTransactionSerialize(NetMessage to, Transaction t) {
-        to.writeLong(t.time.getTime());
-        to.writeDouble(t.amount);
-    }
-
-    private static Transaction netTransactionDeserialize(NetMessage from) {
-        return new Transaction(Timestamp.from(Instant.ofEpochSecond(from.readLong())),
-                from.readDouble());
+        int pageIndex = from.readInt();
+        int totalRows = from.readInt();
+        boolean daily = from.readInt() != 0;
+        int rows = from.readInt();
+        long[] times = new long[rows];
+        double[] amounts = new double[rows];
+        double[] balances = new double[rows];
+        for(int i = 0; i < rows; i++) {
+            times[i] = from.readLong();
+            amounts[i] = from.readDouble();
+            balances[i] = from.readDouble();
+        }
+        return new GetWalletDTO(new WalletPage(amount, pageIndex, totalRows, daily, times, amounts, balances));
     }
 
-    private static int netTransactionSize(Transaction transaction) {
-        if(transaction == null) return 4;
-        return 16; // 8 timestamp 8 double
+    public static int netSize(GetWalletDTO dto) {
+        return 8 + 4 * 4 + dto.page.getRowCount() * 24; // 8 time 8 amount 8 balance
     }
 }
@@ -0,0 +1,65 @@
+package it.winsome.common.dto;
+
+import it.winsome.common.entity.PostSnapshot;
+import it.winsome.common.network.NetMessage;
+
+/**
+ * Wire format of a page of post snapshots shared by the feed and the blog, written without creating any post.
+ * It matches the format of the post lists of ShowFeedDTO and ViewBlogDTO, the blog omits the author
+ */
+final class PostSnapshotPage {
+    private PostSnapshotPage() { }
+
+    /**
+     * Serialize a page of post snapshots
+     * @param to message
+     * @param posts snapshots
+     * @param count number of snapshots to be written
+     * @param withUsername true to write the author of each post
+     */
+    static void netSerialize(NetMessage to, PostSnapshot[] posts, int count, boolean withUsername) {
+        to.writeInt(count);
+        for(int i = 0; i < count; i++) {
+            PostSnapshot post = posts[i];
+            to.writeInt(post.getId());
+            if(withUsername) to.writeString(post.getUsername());
+            PostSnapshot original = post.getOriginalSnapshot();
+            if(original != null) {
+                to.writeInt(original.getId())
+                    .writeString(original.getUsername());
+                original.writeTitle(to);
+                original.writeContent(to);
+                to.writeLong(original.getCreationTime());
+            } else {
+                to.writeNull();
+                post.writeTitle(to);
+                post.writeContent(to);
+            }
+
+            to.writeLong(post.getCreationTime())
+                .writeInt(post.getCommentCount())
+                .writeInt(post.getTotalUpvotes())
+                .writeInt(post.getTotalDownvotes());
+        }
+    }
+
+    /**
+     * Size of a page of post snapshots
+     * @param posts snapshots
+     * @param count number of snapshots to be written
+     * @param withUsername true if the author of each post is written
+     * @return size in bytes
+     */
+    static int netSize(PostSnapshot[] posts, int count, boolean withUsername) {
+        int size = 4;
+        for(int i = 0; i < count; i++) {
+            PostSnapshot post = posts[i];
+            PostSnapshot original = post.getOriginalSnapshot();
+            // id 4, time 8, upvotes 4, downvote 4, comments 4
+            size += 24 + (withUsername ? NetMessage.getStringSize(post.getUsername()) : 0)
+                    + (original == null ? 4 + post.getTextNetSize() :
+                        12 + NetMessage.getStringSize(original.getUsername()) + original.getTextNetSize());
+        }
+        return size;
+    }
+}
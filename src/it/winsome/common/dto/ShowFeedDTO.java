@@ -1,11 +1,10 @@
 package it.winsome.common.dto;
 
 import it.winsome.common.entity.Post;
+import it.winsome.common.entity.PostSnapshot;
 import it.winsome.common.network.NetMessage;
 import it.winsome.common.WinsomeHelper;
 
-import java.sql.Timestamp;
-import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -42,6 +41,26 @@ public class ShowFeedDTO {
         return NetMessage.getCollectionSize(feed.postList, ShowFeedDTO::netPostSize);
     }
 
+    /**
+     * Serialize a page of post snapshots with the same format of netSerialize, without creating any post
+     * @param to message
+     * @param posts snapshots
+     * @param count number of snapshots to be written
+     */
+    public static void netSerialize(NetMessage to, PostSnapshot[] posts, int count) {
+        PostSnapshotPage.netSerialize(to, posts, count, true);
+    }
+
+    /**
+     * Size of a page of post snapshots
+     * @param posts snapshots
+     * @param count number of snapshots to be written
+     * @return size in bytes
+     */
+    public static int netSize(PostSnapshot[] posts, int count) {
+        return PostSnapshotPage.netSize(posts, count, true);
+    }
+
      private static void netPostSerialize(NetMessage to, Post post) {
         if(to.writeNullIfInvalid(post)) return;
 
@@ -52,15 +71,15 @@ public class ShowFeedDTO {
                 .writeString(post.getOriginalPost().getUsername())
                 .writeString(post.getOriginalPost().getTitle())
                 .writeString(post.getOriginalPost().getContent())
-                .writeLong(post.getOriginalPost().getCreationDate().getTime());
+                .writeLong(post.getOriginalPost().getCreationTime());
         } else {
             to.writeNull()
                 .writeString(post.getTitle())
                 .writeString(post.getContent());
         }
 
-        to.writeLong(post.getCreationDate().getTime());
-        to.writeInt(post.getCommentCount())
+        to.writeLong(post.getCreationTime());
+        to.writeInt(post.getTotalComments())
                 .writeInt(post.getTotalUpvotes())
                 .writeInt(post.getTotalDownvotes());
 
@@ -75,14 +94,14 @@ public class ShowFeedDTO {
         int rewinId = from.readInt();
         if(rewinId != NetMessage.NULL_IDENTIFIER) {
             Post original = new Post(rewinId, from.readString(), from.readString(), from.readString());
-            original.setCreationDate(Timestamp.from(Instant.ofEpochMilli(from.readLong())));
+            original.setCreationTime(from.readLong());
             post.setOriginalPost(original);
         } else {
             post.setTitle(from.readString());
             post.setContent(from.readString());
         }
 
-        post.setCreationDate(Timestamp.from(Instant.ofEpochMilli(from.readLong())));
+        post.setCreationTime(from.readLong());
         post.setTotalComments(from.readInt());
         post.setTotalUpvotes(from.readInt());
         post.setTotalDownvotes(from.readInt());
@@ -1,11 +1,11 @@
 package it.winsome.common.dto;
 
 import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.CommentSnapshot;
 import it.winsome.common.entity.Post;
+import it.winsome.common.entity.PostSnapshot;
 import it.winsome.common.network.NetMessage;
 
-import java.sql.Timestamp;
-import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 
@@ -32,6 +32,65 @@ public class ShowPostDTO {
         return netPostSize(showPost.post);
     }
 
+    /**
+     * Serialize a post snapshot with the same format of netSerialize, without creating the post
+     * and its comments
+     * @param to message
+     * @param post snapshot, can be null
+     */
+    public static void netSerialize(NetMessage to, PostSnapshot post) {
+        if(to.writeNullIfInvalid(post)) return;
+
+        to.writeInt(post.getId());
+        to.writeString(post.getUsername());
+        PostSnapshot original = post.getOriginalSnapshot();
+        if(original != null) {
+            to.writeInt(original.getId());
+            to.writeString(original.getUsername());
+            original.writeTitle(to);
+            original.writeContent(to);
+            to.writeLong(original.getCreationTime());
+        } else {
+            to.writeNull();
+            post.writeTitle(to);
+            post.writeContent(to);
+        }
+
+        to.writeLong(post.getCreationTime());
+        to.writeInt(post.getTotalUpvotes());
+        to.writeInt(post.getTotalDownvotes());
+        to.writeInt(post.getCommentCount());
+        for(int i = 0; i < post.getCommentCount(); i++) {
+            CommentSnapshot comment = post.getCommentSnapshot(i);
+            to.writeInt(comment.getId());
+            to.writeString(comment.getOwner());
+            comment.writeContent(to);
+            to.writeLong(comment.getCreationTime());
+            to.writeInt(comment.getTotalUpvotes());
+            to.writeInt(comment.getTotalDownvotes());
+        }
+    }
+
+    /**
+     * Size of a post snapshot
+     * @param post snapshot, can be null
+     * @return size in bytes
+     */
+    public static int netSize(PostSnapshot post) {
+        if(post == null) return 4;
+
+        PostSnapshot original = post.getOriginalSnapshot();
+        int size = 24 // id 4, time 8, upvote 4, downvote 4, comment count 4
+                + NetMessage.getStringSize(post.getUsername())
+                + (original != null ? 12 + NetMessage.getStringSize(original.getUsername()) + original.getTextNetSize() :
+                                    4 + post.getTextNetSize());
+        for(int i = 0; i < post.getCommentCount(); i++) {
+            CommentSnapshot comment = post.getCommentSnapshot(i);
+            size += 20 + NetMessage.getStringSize(comment.getOwner()) + comment.getContentNetSize();
+        }
+        return size;
+    }
+
     private static void netPostSerialize(NetMessage to, Post post) {
         if(to.writeNullIfInvalid(post)) return;
 
@@ -42,14 +101,14 @@ public class ShowPostDTO {
             to.writeString(post.getOriginalPost().getUsername());
             to.writeString(post.getOriginalPost().getTitle());
             to.writeString(post.getOriginalPost().getContent());
-            to.writeLong(post.getOriginalPost().getCreationDate().getTime());
+            to.writeLong(post.getOriginalPost().getCreationTime());
         } else {
             to.writeNull();
             to.writeString(post.getTitle());
             to.writeString(post.getContent());
         }
 
-        to.writeLong(post.getCreationDate().getTime());
+        to.writeLong(post.getCreationTime());
         to.writeInt(post.getTotalUpvotes());
         to.writeInt(post.getTotalDownvotes());
         to.writeCollection(post.getComments(), ShowPostDTO::netCommentSerialize);
@@ -63,14 +122,14 @@ public class ShowPostDTO {
         int rewinId = from.readInt();
         if(rewinId != NetMessage.NULL_IDENTIFIER) {
             Post rewin = new Post(rewinId, from.readString(), from.readString(), from.readString());
-            rewin.setCreationDate(Timestamp.from(Instant.ofEpochMilli(from.readLong())));
+            rewin.setCreationTime(from.readLong());
             post.setOriginalPost(rewin);
         } else {
             post.setTitle(from.readString());
             post.setContent(from.readString());
         }
 
-        post.setCreationDate(Timestamp.from(Instant.ofEpochMilli(from.readLong())));
+        post.setCreationTime(from.readLong());
         post.setTotalUpvotes(from.readInt());
         post.setTotalDownvotes(from.readInt());
 
@@ -86,7 +145,7 @@ public class ShowPostDTO {
         to.writeInt(comment.getId());
         to.writeString(comment.getOwner());
         to.writeString(comment.getContent());
-        to.writeLong(comment.getCreationDate().getTime());
+        to.writeLong(comment.getCreationTime());
         to.writeInt(comment.getTotalUpvotes());
         to.writeInt(comment.getTotalDownvotes());
     }
@@ -95,7 +154,7 @@ public class ShowPostDTO {
         if(from.isPeekingNull()) return null;
 
         Comment comment = new Comment(from.readInt(), from.readString(), from.readString());
-        comment.setCreationDate(Timestamp.from(Instant.ofEpochMilli(from.readLong())));
+        comment.setCreationTime(from.readLong());
         comment.setTotalUpvotes(from.readInt());
         comment.setTotalDownvotes(from.readInt());
         return comment;
@@ -0,0 +1,39 @@
+package it.winsome.common.dto;
+
+import it.winsome.common.network.NetMessage;
+
+/**
+ * Wallet delta data transfer, pushed by the server to a logged user after the rewards changed its wallet
+ */
+public class WalletDeltaDTO {
+    public double balance;
+    public double increment;
+
+    public WalletDeltaDTO() {  }
+    public WalletDeltaDTO(double balance, double increment) {
+        this.balance = balance;
+        this.increment = increment;
+    }
+
+    /**
+     * Merge a later delta into this one, for a user not reached yet
+     * @param later delta computed after this one
+     * @return the delta with the latest balance and both increments
+     */
+    public WalletDeltaDTO merge(WalletDeltaDTO later) {
+        return new WalletDeltaDTO(later.balance, increment + later.increment);
+    }
+
+    public static void netSerialize(NetMessage to, WalletDeltaDTO dto) {
+        to.writeDouble(dto.balance);
+        to.writeDouble(dto.increment);
+    }
+
+    public static WalletDeltaDTO netDeserialize(NetMessage from) {
+        return new WalletDeltaDTO(from.readDouble(), from.readDouble());
+    }
+
+    public static int netSize(WalletDeltaDTO dto) {
+        return 16; // 8 balance 8 increment
+    }
+}
@@ -1,17 +1,23 @@
 package it.winsome.common.entity;
 
 import it.winsome.common.SynchronizedObject;
+import it.winsome.common.entity.abstracts.BaseSocialEntity;
 import it.winsome.common.entity.abstracts.BaseVotableEntity;
+import it.winsome.common.memory.TextArena;
 
 /**
  * This represents a comment in the WINSOME social network
- * This entity can be synchronizable since it extends SynchronizedObject
+ * Comments are leaf entities guarded by the lock of their post, they never allocate a lock of their own
  */
 public class Comment extends BaseVotableEntity {
     private String owner;
     private String content;
+    // block of the content in the text arena once the comment is shared, then it is null
+    private transient int textRef;
     private int postId;
     boolean needIteration = true;
+    private transient volatile CommentSnapshot snapshot;
+    private transient boolean shared;
 
     public Comment() {
         this(-1);
@@ -25,6 +31,7 @@ public class Comment extends BaseVotableEntity {
         super(id);
         this.owner = owner;
         this.content = content;
+        publishSnapshot();
     }
 
     public String getOwner() {
@@ -35,16 +42,42 @@ public class Comment extends BaseVotableEntity {
     public void setOwner(String owner) {
         checkWriteSynchronization();
         this.owner = owner;
+        publishSnapshot();
     }
 
     public String getContent() {
         checkReadSynchronization();
-        return content;
+        return textRef != TextArena.NONE ? TextArena.get().read(textRef, 0) : content;
     }
 
     public void setContent(String content) {
         checkWriteSynchronization();
+        boolean inArena = textRef != TextArena.NONE;
+        releaseText();
         this.content = content;
+        if(inArena) moveTextToArena();
+        publishSnapshot();
+    }
+
+    /**
+     * Move back the content on the heap and free its block of the text arena,
+     * to be called when the server discards this comment
+     */
+    public void releaseText() {
+        checkWriteSynchronization();
+        if(textRef == TextArena.NONE) return;
+        TextArena arena = TextArena.get();
+        content = arena.read(textRef, 0);
+        arena.free(textRef);
+        textRef = TextArena.NONE;
+        publishSnapshot();
+    }
+
+    private void moveTextToArena() {
+        TextArena arena = TextArena.get();
+        if(arena == null || textRef != TextArena.NONE || content == null) return;
+        textRef = arena.store(content);
+        if(textRef != TextArena.NONE) content = null;
     }
 
     public int getPostId() {
@@ -55,6 +88,7 @@ public class Comment extends BaseVotableEntity {
     public void setPostId(int postId) {
         checkWriteSynchronization();
         this.postId = postId;
+        publishSnapshot();
     }
 
     @Override
@@ -63,9 +97,9 @@ public class Comment extends BaseVotableEntity {
         return "Comment{" +
                 "id='" + getId() + '\'' +
                 ", owner='" + owner + '\'' +
-                ", content='" + content + '\'' +
+                ", content='" + getContent() + '\'' +
                 ", postId=" + postId + '\'' +
-                ", creationDate=" + getCreationDate() +
+                ", creationDate=" + getCreationTime() +
                 '}';
     }
 
@@ -79,11 +113,56 @@ public class Comment extends BaseVotableEntity {
         this.needIteration = needIteration;
     }
 
+    /**
+     * Get the current immutable version of this comment, no lock is required
+     * @return comment snapshot
+     */
+    public CommentSnapshot getSnapshot() {
+        CommentSnapshot current = snapshot;
+        if(current == null) {
+            // not shared yet, built on demand
+            current = buildSnapshot();
+            snapshot = current;
+        }
+        return current;
+    }
+
+    @Override
+    protected void publishSnapshot() {
+        snapshot = shared ? buildSnapshot() : null;
+    }
+
+    private CommentSnapshot buildSnapshot() {
+        return new CommentSnapshot(getId(), owner, content, textRef, postId, getCreationTime(), this);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends BaseSocialEntity> T deepCopyAs() {
+        Comment comment = super.deepCopyAs();
+        if(textRef != TextArena.NONE) {
+            // the block stays owned by this comment only
+            comment.content = TextArena.get().read(textRef, 0);
+            comment.textRef = TextArena.NONE;
+        }
+        comment.snapshot = null;
+        comment.shared = false;
+        return (T) comment;
+    }
+
+    /**
+     * The comment is guarded by the lock of its post, this only marks it as shared so that from now on
+     * every mutation publishes a new snapshot
+     * @param recursive unused
+     * @param <T> conversion type
+     * @return this entity
+     */
     @Override
     public <T extends SynchronizedObject> T enableSynchronization(boolean recursive) {
-        super.enableSynchronization(recursive);
-        if(recursive) {
-            votesMap.forEach((k, v) -> v.enableSynchronization(true));
+        if(!shared) {
+            moveTextToArena();
+            snapshot = buildSnapshot();
+            shared = true;
         }
         return (T) this;
     }
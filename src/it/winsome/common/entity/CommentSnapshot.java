@@ -0,0 +1,81 @@
+package it.winsome.common.entity;
+
+import it.winsome.common.memory.TextArena;
+import it.winsome.common.network.NetMessage;
+
+/**
+ * Immutable version of a comment, a new one is published by the comment on every mutation.
+ * Votes never publish a new snapshot, their totals are read from the counters of the comment
+ */
+public final class CommentSnapshot {
+    private final int id;
+    private final String owner;
+    private final String content;
+    private final int textRef;
+    private final int postId;
+    private final long creationTime;
+    private final Comment source;
+
+    CommentSnapshot(int id, String owner, String content, int textRef, int postId, long creationTime, Comment source) {
+        this.id = id;
+        this.owner = owner;
+        this.content = content;
+        this.textRef = textRef;
+        this.postId = postId;
+        this.creationTime = creationTime;
+        this.source = source;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public String getContent() {
+        return textRef != TextArena.NONE ? TextArena.get().read(textRef, 0) : content;
+    }
+
+    /**
+     * Write the content as NetMessage.writeString, the bytes in the text arena are copied without decoding them
+     * @param to message
+     */
+    public void writeContent(NetMessage to) {
+        to.writeText(content, textRef, 0);
+    }
+
+    public int getContentNetSize() {
+        return NetMessage.getTextSize(content, textRef, 0);
+    }
+
+    public int getPostId() {
+        return postId;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public int getTotalUpvotes() {
+        return source.getTotalUpvotes();
+    }
+
+    public int getTotalDownvotes() {
+        return source.getTotalDownvotes();
+    }
+
+    /**
+     * Create a new comment, not synchronized, with the values of this snapshot
+     * @return a detached comment
+     */
+    public Comment toComment() {
+        Comment comment = new Comment(id, owner, getContent());
+        comment.setPostId(postId);
+        comment.setCreationTime(creationTime);
+        comment.setTotalUpvotes(getTotalUpvotes());
+        comment.setTotalDownvotes(getTotalDownvotes());
+        return comment;
+    }
+}
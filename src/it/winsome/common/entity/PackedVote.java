@@ -0,0 +1,34 @@
+package it.winsome.common.entity;
+
+import it.winsome.common.entity.enums.VoteType;
+
+/**
+ * A vote packed in a single int: the voter id in the high bits, then the type and the
+ * need iteration flag in the two lowest bits
+ */
+public final class PackedVote {
+    private static final int UP_BIT = 0b10;
+    private static final int ITERATION_BIT = 0b01;
+
+    private PackedVote() { }
+
+    public static int pack(int voterId, VoteType type, boolean needIteration) {
+        return (voterId << 2) | (type == VoteType.UP ? UP_BIT : 0) | (needIteration ? ITERATION_BIT : 0);
+    }
+
+    public static int getVoterId(int vote) {
+        return vote >>> 2;
+    }
+
+    public static VoteType getType(int vote) {
+        return (vote & UP_BIT) != 0 ? VoteType.UP : VoteType.DOWN;
+    }
+
+    public static boolean isNeedIteration(int vote) {
+        return (vote & ITERATION_BIT) != 0;
+    }
+
+    public static int withNeedIteration(int vote, boolean needIteration) {
+        return needIteration ? vote | ITERATION_BIT : vote & ~ITERATION_BIT;
+    }
+}
@@ -3,48 +3,64 @@ package it.winsome.common.entity;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.JsonAdapter;
 import it.winsome.common.SynchronizedObject;
-import it.winsome.common.WinsomeHelper;
 import it.winsome.common.entity.abstracts.BaseSocialEntity;
 import it.winsome.common.entity.abstracts.BaseVotableEntity;
-import it.winsome.common.json.PostCommentMapJsonAdapter;
+import it.winsome.common.json.PostCommentArrayJsonAdapter;
 import it.winsome.common.json.PostIdJsonAdapter;
+import it.winsome.common.memory.TextArena;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * This represents a post inside the social network, it includes a list of comments and eventually
  * a "rewinned" post.
- * This entity can be synchronizable since it extends SynchronizedObject
+ * This entity can be synchronizable since it extends SynchronizedObject, its lock guards also its comments
  */
 public class Post extends BaseVotableEntity {
+    private static final AtomicIntegerFieldUpdater<Post> REWARD_PENDING =
+            AtomicIntegerFieldUpdater.newUpdater(Post.class, "rewardPending");
+
+    private static final Comment[] EMPTY_COMMENTS = new Comment[0];
+
     private String username;
     private String title;
     private String content;
+    // block of the title and the content in the text arena once the post is shared, then they are null
+    private transient int textRef;
 
     @JsonAdapter(PostIdJsonAdapter.class)
     private Post originalPost;
-    @JsonAdapter(PostCommentMapJsonAdapter.class)
-    private Map<Comment, Comment> comments;
+    // append only, the slots after commentCount are empty and the array is shared with the snapshots
+    @JsonAdapter(PostCommentArrayJsonAdapter.class)
+    private Comment[] comments;
+    private transient int commentCount;
     @Expose(deserialize = false)
     private int totalComments;
     int currentIteration = 0;
 
+    private transient volatile PostSnapshot snapshot;
+    // seconds of the last access, approximate and used only to choose the posts moved out of memory
+    private transient int lastAccess;
+    // 1 if queued for the next reward calculation, never persisted
+    private transient volatile int rewardPending;
+
     public Post() {
         this(-1);
     }
 
     public Post(int id) {
         super(id);
-        comments = new LinkedHashMap<>();
+        comments = EMPTY_COMMENTS;
     }
 
-    public Post(int id, String username, String title, String content, Map<Comment, Comment> comments) {
+    public Post(int id, String username, String title, String content, Collection<Comment> comments) {
         super(id);
         this.username = username;
         this.title = title;
         this.content = content;
-        this.comments = comments != null ? comments : new HashMap<>(0);
+        this.comments = comments != null ? comments.toArray(EMPTY_COMMENTS) : EMPTY_COMMENTS;
+        this.commentCount = this.comments.length;
     }
 
     public Post(int id, String username, String title, String content) {
@@ -54,30 +70,38 @@ public class Post extends BaseVotableEntity {
     public boolean addComment(Comment comment) {
         checkWriteSynchronization();
         if(comment == null) return false;
-        if(comments.containsKey(comment))
-            return false;
 
-        comments.put(comment, comment);
+        if(commentCount == comments.length) {
+            // the published snapshots keep the old array
+            comments = Arrays.copyOf(comments, Math.max(2, commentCount + (commentCount >> 1) + 1));
+        }
+        comments[commentCount++] = comment;
         totalComments++;
+        publishSnapshot();
         return true;
     }
 
-    public Set<Comment> getComments() {
+    /**
+     * Get the comments in insertion order
+     * @return unmodifiable view of the comments
+     */
+    public List<Comment> getComments() {
         checkReadSynchronization();
-        return Collections.unmodifiableSet(comments.keySet());
+        return Collections.unmodifiableList(Arrays.asList(comments).subList(0, commentCount));
     }
 
     public void setComments(Collection<Comment> comments) {
         checkWriteSynchronization();
         if(comments == null) throw new NullPointerException();
-        // map each of them in the map
-        this.comments = comments.stream().collect(Collectors.toMap(x -> x, x -> x));
-        totalComments = comments.size();
+        this.comments = comments.toArray(EMPTY_COMMENTS);
+        commentCount = this.comments.length;
+        totalComments = commentCount;
+        publishSnapshot();
     }
 
     public int getCommentCount() {
         checkReadSynchronization();
-        return comments.size();
+        return commentCount;
     }
 
     public String getUsername() {
@@ -88,26 +112,89 @@ public class Post extends BaseVotableEntity {
     public void setUsername(String username) {
         checkWriteSynchronization();
         this.username = username;
+        publishSnapshot();
     }
 
     public String getTitle() {
         checkReadSynchronization();
-        return title;
+        return textRef != TextArena.NONE ? TextArena.get().read(textRef, 0) : title;
     }
 
     public void setTitle(String title) {
         checkWriteSynchronization();
+        boolean inArena = textRef != TextArena.NONE;
+        moveTextToHeap();
         this.title = title;
+        if(inArena) moveTextToArena();
+        publishSnapshot();
     }
 
     public String getContent() {
         checkReadSynchronization();
-        return content;
+        return textRef != TextArena.NONE ? TextArena.get().read(textRef, 1) : content;
     }
 
     public void setContent(String content) {
         checkWriteSynchronization();
+        boolean inArena = textRef != TextArena.NONE;
+        moveTextToHeap();
         this.content = content;
+        if(inArena) moveTextToArena();
+        publishSnapshot();
+    }
+
+    /**
+     * Move back the title and the content on the heap and free their block of the text arena,
+     * to be called when the server discards this post
+     */
+    public void releaseText() {
+        checkWriteSynchronization();
+        if(textRef == TextArena.NONE) return;
+        moveTextToHeap();
+        publishSnapshot();
+    }
+
+    /**
+     * Like releaseText, it also releases the texts of the comments, to be called when the server discards
+     * this post while holding its write lock
+     */
+    public void releaseAllText() {
+        if(TextArena.get() == null) return;
+        releaseText();
+        for(int i = 0; i < commentCount; i++) {
+            comments[i].releaseText();
+        }
+    }
+
+    private void moveTextToArena() {
+        TextArena arena = TextArena.get();
+        if(arena == null || textRef != TextArena.NONE || (title == null && content == null)) return;
+        textRef = arena.store(title, content);
+        if(textRef != TextArena.NONE) {
+            title = null;
+            content = null;
+        }
+    }
+
+    private void moveTextToHeap() {
+        if(textRef == TextArena.NONE) return;
+        TextArena arena = TextArena.get();
+        title = arena.read(textRef, 0);
+        content = arena.read(textRef, 1);
+        arena.free(textRef);
+        textRef = TextArena.NONE;
+    }
+
+    /**
+     * Copy the texts on the heap of a copy of this post, the block of the arena stays owned by this post only
+     * @param copy the cloned post
+     */
+    private void copyTextTo(Post copy) {
+        if(textRef == TextArena.NONE) return;
+        TextArena arena = TextArena.get();
+        copy.textRef = TextArena.NONE;
+        copy.title = arena.read(textRef, 0);
+        copy.content = arena.read(textRef, 1);
     }
 
     public boolean isRewin() {
@@ -128,6 +215,7 @@ public class Post extends BaseVotableEntity {
     public void setTotalComments(int totalComments) {
         checkWriteSynchronization();
         this.totalComments = totalComments;
+        publishSnapshot();
     }
 
     public void setOriginalPost(Post originalPost) {
@@ -139,12 +227,18 @@ public class Post extends BaseVotableEntity {
         }
 
         this.originalPost = originalPost;
+        publishSnapshot();
     }
 
     @Override
     public <T extends BaseSocialEntity> T deepCopyAs() {
         Post post = super.deepCopyAs();
-        post.comments = WinsomeHelper.deepCopySynchronizedMap(comments.values().stream(), x->x, y->y);
+        copyTextTo(post);
+        post.comments = new Comment[commentCount];
+        for(int i = 0; i < commentCount; i++) {
+            post.comments[i] = comments[i].deepCopyAs();
+        }
+        post.snapshot = null;
 
         if(originalPost != null) {
             originalPost.prepareRead();
@@ -155,16 +249,98 @@ public class Post extends BaseVotableEntity {
         return (T) post;
     }
 
+    /**
+     * Copy this post to be persisted, only the ids of its comments and of its original post are written
+     * then they are not copied
+     * @return a copy of this post detached from the other entities
+     */
+    public Post persistentCopy() {
+        Post post = super.deepCopyAs();
+        copyTextTo(post);
+        post.comments = Arrays.copyOf(comments, commentCount);
+        post.snapshot = null;
+        if(originalPost != null) {
+            post.originalPost = new Post(originalPost.getSnapshot().getId());
+        }
+        return post;
+    }
+
+    /**
+     * Get the current immutable version of this post, no lock is required and the writers are never
+     * blocked by who is reading it
+     * @return post snapshot
+     */
+    public PostSnapshot getSnapshot() {
+        PostSnapshot current = snapshot;
+        if(current == null) {
+            // not shared yet, built on demand
+            current = buildSnapshot();
+            snapshot = current;
+        }
+        return current;
+    }
+
+    @Override
+    protected void publishSnapshot() {
+        snapshot = isSynchronizationEnabled() ? buildSnapshot() : null;
+    }
+
+    private PostSnapshot buildSnapshot() {
+        return new PostSnapshot(getId(), username, title, content, textRef, getCreationTime(), originalPost,
+                comments, commentCount, this);
+    }
+
+    /**
+     * Flag this post as having votes or comments to be rewarded, no lock is required
+     * @return true if it was not flagged, then the caller has to queue it for the next reward calculation
+     */
+    public boolean markRewardPending() {
+        // two concurrent voters cannot both queue it
+        return rewardPending == 0 && REWARD_PENDING.compareAndSet(this, 0, 1);
+    }
+
+    /**
+     * Clear the flag right before the rewards of this post are calculated, a later vote or comment flags it again
+     */
+    public void clearRewardPending() {
+        REWARD_PENDING.compareAndSet(this, 1, 0);
+    }
+
+    /**
+     * Check if any vote or comment has not been rewarded yet
+     * @return true if the next reward calculation has something to do for this post
+     */
+    public boolean hasPendingRewards() {
+        checkReadSynchronization();
+        if(getRewardCursor() < getVoteCount()) return true;
+        for(int i = 0; i < commentCount; i++) {
+            if(comments[i].isNeedIteration()) return true;
+        }
+        return false;
+    }
+
+    public int getLastAccess() {
+        return lastAccess;
+    }
+
+    /**
+     * Record an access to this post, no lock is required
+     * @param seconds time of the access in seconds
+     */
+    public void touch(int seconds) {
+        if(lastAccess != seconds) lastAccess = seconds;
+    }
+
     @Override
     public String toString() {
         checkReadSynchronization();
         return "Post{" +
                 "id='" + getId() + '\'' +
                 ", username='" + username + '\'' +
-                ", title='" + title + '\'' +
-                ", content='" + content + '\'' +
+                ", title='" + getTitle() + '\'' +
+                ", content='" + getContent() + '\'' +
                 ", originalPost=" + originalPost + '\'' +
-                ", creationDate=" + getCreationDate() +
+                ", creationDate=" + getCreationTime() +
                 '}';
     }
 
@@ -180,13 +356,19 @@ public class Post extends BaseVotableEntity {
 
     @Override
     public <T extends SynchronizedObject> T enableSynchronization(boolean recursive) {
+        if(!isSynchronizationEnabled()) {
+            // from now on it is shared, the mutations will publish the next versions
+            moveTextToArena();
+            snapshot = buildSnapshot();
+        }
         super.enableSynchronization(recursive);
         if(recursive) {
             if(originalPost != null)
                 originalPost.enableSynchronization(true);
 
-            comments.forEach((k, v) -> v.enableSynchronization(true));
-            votesMap.forEach((k, v) -> v.enableSynchronization(true));
+            for(int i = 0; i < commentCount; i++) {
+                comments[i].enableSynchronization(true);
+            }
         }
         return (T) this;
     }
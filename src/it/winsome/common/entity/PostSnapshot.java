@@ -0,0 +1,140 @@
+package it.winsome.common.entity;
+
+import it.winsome.common.memory.TextArena;
+import it.winsome.common.network.NetMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable version of a post, a new one is published by the post on every mutation.
+ * The comments are shared with the post: the post only appends to the array beyond the count
+ * of any published snapshot, so a snapshot reads always the same comments without locking.
+ * The original post is kept as reference, its current version is taken when requested.
+ * Votes never publish a new snapshot, their totals are read from the counters of the post
+ */
+public final class PostSnapshot {
+    private final int id;
+    private final String username;
+    private final String title;
+    private final String content;
+    private final int textRef;
+    private final long creationTime;
+    private final Post originalPost;
+    private final Comment[] comments;
+    private final int commentCount;
+    private final Post source;
+
+    PostSnapshot(int id, String username, String title, String content, int textRef, long creationTime,
+                 Post originalPost, Comment[] comments, int commentCount, Post source) {
+        this.id = id;
+        this.username = username;
+        this.title = title;
+        this.content = content;
+        this.textRef = textRef;
+        this.creationTime = creationTime;
+        this.originalPost = originalPost;
+        this.comments = comments;
+        this.commentCount = commentCount;
+        this.source = source;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getTitle() {
+        return textRef != TextArena.NONE ? TextArena.get().read(textRef, 0) : title;
+    }
+
+    public String getContent() {
+        return textRef != TextArena.NONE ? TextArena.get().read(textRef, 1) : content;
+    }
+
+    /**
+     * Write the title as NetMessage.writeString, the bytes in the text arena are copied without decoding them
+     * @param to message
+     */
+    public void writeTitle(NetMessage to) {
+        to.writeText(title, textRef, 0);
+    }
+
+    public void writeContent(NetMessage to) {
+        to.writeText(content, textRef, 1);
+    }
+
+    /**
+     * Get the size of the title and of the content written into a message
+     * @return size in bytes
+     */
+    public int getTextNetSize() {
+        return NetMessage.getTextSize(title, textRef, 0) + NetMessage.getTextSize(content, textRef, 1);
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public boolean isRewin() {
+        return originalPost != null;
+    }
+
+    /**
+     * Get the current version of the original post
+     * @return the original post snapshot or null if this is not a rewin
+     */
+    public PostSnapshot getOriginalSnapshot() {
+        return originalPost != null ? originalPost.getSnapshot() : null;
+    }
+
+    public int getCommentCount() {
+        return commentCount;
+    }
+
+    /**
+     * Get the current version of a comment of this snapshot
+     * @param index index between 0 and the comment count, in insertion order
+     * @return comment snapshot
+     */
+    public CommentSnapshot getCommentSnapshot(int index) {
+        if(index < 0 || index >= commentCount) throw new IndexOutOfBoundsException("Comment index " + index + " out of " + commentCount);
+        return comments[index].getSnapshot();
+    }
+
+    public int getTotalUpvotes() {
+        return source.getTotalUpvotes();
+    }
+
+    public int getTotalDownvotes() {
+        return source.getTotalDownvotes();
+    }
+
+    /**
+     * Create a new post, not synchronized, with the values of this snapshot
+     * @param withComments true to copy also the comments, otherwise only their count is set
+     * @return a detached post
+     */
+    public Post toPost(boolean withComments) {
+        Post post = new Post(id, username, getTitle(), getContent());
+        post.setCreationTime(creationTime);
+        post.setTotalUpvotes(getTotalUpvotes());
+        post.setTotalDownvotes(getTotalDownvotes());
+        if(originalPost != null) {
+            post.setOriginalPost(getOriginalSnapshot().toPost(false));
+        }
+
+        if(withComments) {
+            List<Comment> copies = new ArrayList<>(commentCount);
+            for(int i = 0; i < commentCount; i++) {
+                copies.add(comments[i].getSnapshot().toComment());
+            }
+            post.setComments(copies);
+        }
+        post.setTotalComments(commentCount);
+        return post;
+    }
+}
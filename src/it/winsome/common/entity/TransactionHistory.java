@@ -0,0 +1,197 @@
+package it.winsome.common.entity;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Transactions of a wallet stored by column in chunks of primitive arrays: the time, the amount and the running
+ * balance after each transaction, the sum of the amounts from the first one.
+ * The transactions are kept in time order, a transaction older than the last one takes its time.
+ * An index with the first transaction of each UTC day makes the daily totals cheap.
+ * Appending never copies the full chunks, only the last one grows up to the chunk size.
+ * This class is not thread safe, the wallet takes care of the synchronization
+ */
+class TransactionHistory implements Serializable {
+    static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int MIN_CHUNK = 8;
+
+    private long[][] times;
+    private double[][] amounts;
+    private double[][] balances;
+    private int size;
+    // start of each day with transactions and the index of its first transaction
+    private long[] days;
+    private int[] dayFirst;
+    private int dayCount;
+
+    TransactionHistory() {
+        times = new long[0][];
+        amounts = new double[0][];
+        balances = new double[0][];
+        days = new long[0];
+        dayFirst = new int[0];
+    }
+
+    /**
+     * Append a transaction
+     * @param time epoch millis
+     * @param amount amount
+     */
+    void add(long time, double amount) {
+        if(size > 0) time = Math.max(time, getTime(size - 1));
+        double balance = (size > 0 ? getBalance(size - 1) : 0) + amount;
+
+        int chunk = size >>> CHUNK_SHIFT;
+        int offset = size & CHUNK_MASK;
+        if(chunk == times.length) {
+            times = Arrays.copyOf(times, chunk + 1);
+            amounts = Arrays.copyOf(amounts, chunk + 1);
+            balances = Arrays.copyOf(balances, chunk + 1);
+            int capacity = chunk == 0 ? MIN_CHUNK : CHUNK_SIZE;
+            times[chunk] = new long[capacity];
+            amounts[chunk] = new double[capacity];
+            balances[chunk] = new double[capacity];
+        } else if(offset == times[chunk].length) {
+            int capacity = Math.min(offset * 2, CHUNK_SIZE);
+            times[chunk] = Arrays.copyOf(times[chunk], capacity);
+            amounts[chunk] = Arrays.copyOf(amounts[chunk], capacity);
+            balances[chunk] = Arrays.copyOf(balances[chunk], capacity);
+        }
+        times[chunk][offset] = time;
+        amounts[chunk][offset] = amount;
+        balances[chunk][offset] = balance;
+
+        long day = Math.floorDiv(time, DAY_MILLIS) * DAY_MILLIS;
+        if(dayCount == 0 || days[dayCount - 1] != day) {
+            if(dayCount == days.length) {
+                int capacity = Math.max(MIN_CHUNK, dayCount * 2);
+                days = Arrays.copyOf(days, capacity);
+                dayFirst = Arrays.copyOf(dayFirst, capacity);
+            }
+            days[dayCount] = day;
+            dayFirst[dayCount++] = size;
+        }
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getTime(int index) {
+        return times[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    double getAmount(int index) {
+        return amounts[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * Get the sum of the amounts up to a transaction
+     * @param index index of the transaction
+     * @return the sum from the first transaction, this one included
+     */
+    double getBalance(int index) {
+        return balances[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * Get the sum of the amounts of a range of transactions
+     * @param from first index
+     * @param to index after the last one
+     * @return the sum or 0 if the range is empty
+     */
+    double sum(int from, int to) {
+        if(from >= to) return 0;
+        return getBalance(to - 1) - (from > 0 ? getBalance(from - 1) : 0);
+    }
+
+    /**
+     * Find the first transaction not older than a time
+     * @param time epoch millis
+     * @return its index or size if every transaction is older
+     */
+    int indexOfTime(long time) {
+        int low = 0;
+        int high = size;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(getTime(middle) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    int getDayCount() {
+        return dayCount;
+    }
+
+    long getDay(int day) {
+        return days[day];
+    }
+
+    int getDayFirst(int day) {
+        return dayFirst[day];
+    }
+
+    int getDayEnd(int day) {
+        return day + 1 < dayCount ? dayFirst[day + 1] : size;
+    }
+
+    /**
+     * Find the day of a transaction
+     * @param index index of the transaction
+     * @return the index of its day
+     */
+    int dayOf(int index) {
+        int low = 0;
+        int high = dayCount - 1;
+        while(low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if(dayFirst[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Copy the transactions multiplying the amounts
+     * @param multiplier multiplier of the amounts, 1 to copy them as they are
+     * @return the copy
+     */
+    TransactionHistory copy(double multiplier) {
+        TransactionHistory copy = new TransactionHistory();
+        copy.times = new long[times.length][];
+        copy.amounts = new double[amounts.length][];
+        copy.balances = new double[balances.length][];
+        for(int i = 0; i < times.length; i++) {
+            copy.times[i] = times[i].clone();
+            copy.amounts[i] = multiply(amounts[i], multiplier);
+            copy.balances[i] = multiply(balances[i], multiplier);
+        }
+        copy.size = size;
+        copy.days = days.clone();
+        copy.dayFirst = dayFirst.clone();
+        copy.dayCount = dayCount;
+        return copy;
+    }
+
+    private static double[] multiply(double[] values, double multiplier) {
+        double[] copy = values.clone();
+        if(multiplier != 1) {
+            for(int i = 0; i < copy.length; i++) {
+                copy[i] *= multiplier;
+            }
+        }
+        return copy;
+    }
+}
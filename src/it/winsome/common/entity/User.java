@@ -2,7 +2,6 @@ package it.winsome.common.entity;
 
 import it.winsome.common.WinsomeHelper;
 import it.winsome.common.SynchronizedObject;
-import it.winsome.common.entity.enums.CurrencyType;
 import it.winsome.common.exception.SynchronizedInitException;
 
 import java.io.Serializable;
@@ -13,12 +12,16 @@ import java.util.*;
  * This entity can be synchronizable since it extends SynchronizedObject
  */
 public class User extends SynchronizedObject implements Serializable {
+    // assigned by the server, used to refer the user inside the packed entities
+    private int id;
     private String username;
     private String password;
     private Set<String> tagsInterests;
     private Set<String> usersFollowed;
     private Set<String> usersFollowing;
     private Wallet wallet;
+    // changed after the last checkpoint, never persisted
+    private transient volatile boolean dirty;
 
     public User() {
         tagsInterests = new HashSet<>();
@@ -127,6 +130,16 @@ public class User extends SynchronizedObject implements Serializable {
         return tagsInterests.size() > 0;
     }
 
+    public int getId() {
+        checkReadSynchronization();
+        return id;
+    }
+
+    public void setId(int id) {
+        checkWriteSynchronization();
+        this.id = id;
+    }
+
     public String getUsername() {
         checkReadSynchronization();
         return username;
@@ -177,11 +190,33 @@ public class User extends SynchronizedObject implements Serializable {
         return Collections.unmodifiableSet(usersFollowing);
     }
 
+    /**
+     * Flag this user as changed after the last checkpoint, no lock is required
+     * @return true if it was clean, then the caller has to queue it for the next delta
+     */
+    public boolean markDirty() {
+        if(dirty) return false;
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * Clear the flag right before the user is written into a delta, a later change flags it again
+     */
+    public void clearDirty() {
+        dirty = false;
+    }
+
     public Wallet getWallet() {
         checkReadSynchronization();
         return wallet;
     }
 
+    public void setWallet(Wallet wallet) {
+        checkWriteSynchronization();
+        this.wallet = wallet;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -220,7 +255,7 @@ public class User extends SynchronizedObject implements Serializable {
             user.usersFollowed = new HashSet<>(usersFollowed);
 
             wallet.prepareRead();
-            user.wallet = wallet.deepCopyByCurrency(CurrencyType.Winsome);
+            user.wallet = wallet.deepCopy(1);
             wallet.releaseRead();
 
             return user;
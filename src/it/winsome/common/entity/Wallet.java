@@ -1,29 +1,29 @@
 package it.winsome.common.entity;
 
 import it.winsome.common.SynchronizedObject;
-import it.winsome.common.entity.enums.CurrencyType;
 
 import java.io.Serializable;
 import java.sql.Timestamp;
-import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * This represents a wallet in the social network, it includes a total amount and a transaction list
+ * The transactions are stored by column, they are read a page at a time or one by one without creating objects.
  * This entity can be synchronizable since it extends SynchronizedObject
  */
 public class Wallet extends SynchronizedObject implements Serializable {
     private double amount;
-    private transient double rateBtc;
-    private Collection<Transaction> transactions;
+    private TransactionHistory transactions;
 
     public Wallet() {
-        transactions = new ArrayList<>();
+        transactions = new TransactionHistory();
     }
 
     public Wallet(Collection<Transaction> transactions) {
-        this.transactions = transactions;
+        this();
+        for(Transaction transaction : transactions) {
+            this.transactions.add(transaction.time.getTime(), transaction.amount);
+        }
     }
 
     public double getAmount() {
@@ -31,54 +31,114 @@ public class Wallet extends SynchronizedObject implements Serializable {
         return amount;
     }
 
-    public double getAmount(CurrencyType currencyType) {
-        checkReadSynchronization();
-        if(currencyType == CurrencyType.Winsome) {
-            return amount;
-        } else if(currencyType == CurrencyType.Bitcoin) {
-            return amount * rateBtc;
-        }
-
-        return amount;
-    }
-
     public void setAmount(double amount) {
         checkWriteSynchronization();
         this.amount = amount;
     }
 
-    public void setRateInBTC(double rateBTC) {
-        checkWriteSynchronization();
-        this.rateBtc = rateBTC;
-    }
-
     public void addTransaction(double amount) {
-        addTransaction(Timestamp.from(Instant.now()), amount);
+        addTransaction(System.currentTimeMillis(), amount);
     }
 
     public void addTransaction(Timestamp time, double amount) {
+        addTransaction(time == null ? System.currentTimeMillis() : time.getTime(), amount);
+    }
+
+    /**
+     * Add a transaction to the amount and to the history, a transaction older than the last one takes its time
+     * @param time epoch millis
+     * @param amount amount, nothing is added if 0
+     */
+    public void addTransaction(long time, double amount) {
         checkWriteSynchronization();
         if(amount == 0) return;
         this.amount += amount;
-        transactions.add(new Transaction(time == null ?
-                Timestamp.from(Instant.now()) : time, amount));
+        transactions.add(time, amount);
     }
 
+    public int getTransactionCount() {
+        checkReadSynchronization();
+        return transactions.size();
+    }
+
+    /**
+     * Get a view of the transactions, each one is created when read
+     * @return the transactions from the oldest
+     */
     public Collection<Transaction> getTransactions() {
         checkReadSynchronization();
-        return Collections.unmodifiableCollection(transactions);
+        return new AbstractList<Transaction>() {
+            @Override
+            public Transaction get(int index) {
+                if(index < 0 || index >= transactions.size()) {
+                    throw new IndexOutOfBoundsException("Transaction index " + index + " out of " + transactions.size());
+                }
+                return new Transaction(new Timestamp(transactions.getTime(index)), transactions.getAmount(index));
+            }
+
+            @Override
+            public int size() {
+                return transactions.size();
+            }
+        };
     }
 
-    public Collection<Transaction> getTransactionsInCurrency(CurrencyType type) {
+    /**
+     * Iterate the transactions from the oldest without creating objects
+     * @param action consumer of each transaction
+     */
+    public void forEachTransaction(TransactionConsumer action) {
         checkReadSynchronization();
-        if(type == CurrencyType.Winsome) {
-            return new ArrayList<>(transactions);
-        } else if(type == CurrencyType.Bitcoin) {
-            return transactions.stream().map(x -> new Transaction(x.time, x.amount * this.rateBtc))
-                    .collect(Collectors.toList());
+        for(int i = 0; i < transactions.size(); i++) {
+            action.accept(transactions.getTime(i), transactions.getAmount(i));
         }
+    }
 
-        return new ArrayList<>(transactions);
+    /**
+     * Get a page of the transactions in a time range, from the newest. The cost depends on the page size
+     * and not on the transactions of the wallet
+     * @param page page index
+     * @param pageSize rows of a page
+     * @param fromTime epoch millis of the range start, included
+     * @param toTime epoch millis of the range end, excluded
+     * @param daily true to have the total of each UTC day instead of each transaction
+     * @return the page, empty if past the last one
+     */
+    public WalletPage getPage(int page, int pageSize, long fromTime, long toTime, boolean daily) {
+        checkReadSynchronization();
+        int from = transactions.indexOfTime(fromTime);
+        int to = Math.max(from, transactions.indexOfTime(toTime));
+        // the balance after a transaction is the current amount minus the transactions after it
+        double lastBalance = transactions.size() > 0 ? transactions.getBalance(transactions.size() - 1) : 0;
+
+        int firstRow = from;
+        int totalRows = to - from;
+        if(daily && from < to) {
+            firstRow = transactions.dayOf(from);
+            totalRows = transactions.dayOf(to - 1) + 1 - firstRow;
+        }
+        int lastRow = firstRow + totalRows - 1 - (int) Math.min((long) page * pageSize, totalRows);
+        int rows = Math.max(0, Math.min(pageSize, lastRow - firstRow + 1));
+
+        long[] times = new long[rows];
+        double[] amounts = new double[rows];
+        double[] balances = new double[rows];
+        for(int i = 0; i < rows; i++) {
+            int row = lastRow - i;
+            int end;
+            if(daily) {
+                int start = Math.max(from, transactions.getDayFirst(row));
+                end = Math.min(to, transactions.getDayEnd(row));
+                times[i] = transactions.getDay(row);
+                amounts[i] = transactions.sum(start, end);
+            } else {
+                end = row + 1;
+                times[i] = transactions.getTime(row);
+                amounts[i] = transactions.getAmount(row);
+            }
+            balances[i] = amount - (lastBalance - transactions.getBalance(end - 1));
+        }
+        return new WalletPage(amount, page, totalRows, daily, times, amounts, balances);
     }
 
     @Override
@@ -87,18 +147,16 @@ public class Wallet extends SynchronizedObject implements Serializable {
         return super.clone();
     }
 
-    public Wallet deepCopyByCurrency(CurrencyType currencyType) {
+    /**
+     * Copy the wallet converting its amounts, this wallet is not changed
+     * @param rate conversion rate from wincoin, 1 for a copy in wincoin
+     * @return the detached copy
+     */
+    public Wallet deepCopy(double rate) {
         checkReadSynchronization();
         Wallet wallet = new Wallet();
-        if(currencyType == CurrencyType.Winsome) {
-            wallet.amount = amount;
-        } else if(currencyType == CurrencyType.Bitcoin) {
-            wallet.amount = amount * rateBtc;
-        } else {
-            wallet.amount = amount;
-        }
-
-        wallet.transactions = getTransactionsInCurrency(currencyType);
+        wallet.amount = amount * rate;
+        wallet.transactions = transactions.copy(rate);
         return wallet;
     }
 
@@ -107,7 +165,15 @@ public class Wallet extends SynchronizedObject implements Serializable {
         checkReadSynchronization();
         return "Wallet{" +
                 "amount=" + amount +
-                ", transactions=" + transactions +
+                ", transactions=" + transactions.size() +
                 '}';
     }
+
+    /**
+     * Consumer of a transaction read from the columns
+     */
+    @FunctionalInterface
+    public interface TransactionConsumer {
+        void accept(long time, double amount);
+    }
 }
@@ -0,0 +1,67 @@
+package it.winsome.common.entity;
+
+/**
+ * A page of the transactions of a wallet in a time range, from the newest to the oldest. The rows are single
+ * transactions or, for a daily page, the total of each UTC day. Each row has the balance of the wallet after it
+ */
+public class WalletPage {
+    private final double amount;
+    private final int page;
+    private final int totalRows;
+    private final boolean daily;
+    private final long[] times;
+    private final double[] amounts;
+    private final double[] balances;
+
+    /**
+     * @param amount current amount of the wallet
+     * @param page page index
+     * @param totalRows rows of the whole time range
+     * @param daily true if every row is the total of a day
+     * @param times time of each row, the start of the day for a daily page
+     * @param amounts amount of each row
+     * @param balances balance after each row
+     */
+    public WalletPage(double amount, int page, int totalRows, boolean daily,
+                      long[] times, double[] amounts, double[] balances) {
+        this.amount = amount;
+        this.page = page;
+        this.totalRows = totalRows;
+        this.daily = daily;
+        this.times = times;
+        this.amounts = amounts;
+        this.balances = balances;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public int getTotalRows() {
+        return totalRows;
+    }
+
+    public boolean isDaily() {
+        return daily;
+    }
+
+    public int getRowCount() {
+        return times.length;
+    }
+
+    public long getTime(int row) {
+        return times[row];
+    }
+
+    public double getAmount(int row) {
+        return amounts[row];
+    }
+
+    public double getBalance(int row) {
+        return balances[row];
+    }
+}
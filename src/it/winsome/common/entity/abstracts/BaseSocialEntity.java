@@ -1,10 +1,10 @@
 package it.winsome.common.entity.abstracts;
 
+import com.google.gson.annotations.JsonAdapter;
 import it.winsome.common.SynchronizedObject;
+import it.winsome.common.json.EpochMillisJsonAdapter;
 
 import java.io.Serializable;
-import java.sql.Timestamp;
-import java.time.Instant;
 import java.util.Objects;
 
 /**
@@ -14,10 +14,14 @@ import java.util.Objects;
  */
 public abstract class BaseSocialEntity extends SynchronizedObject implements Serializable {
     private int id;
-    private Timestamp creationDate;
+    // epoch millis
+    @JsonAdapter(EpochMillisJsonAdapter.class)
+    private long creationDate;
+    // changed after the last checkpoint, never persisted
+    private transient volatile boolean dirty;
 
     public BaseSocialEntity() {
-        creationDate = Timestamp.from(Instant.now());
+        creationDate = System.currentTimeMillis();
     }
 
     public BaseSocialEntity(int id) {
@@ -33,18 +37,51 @@ public abstract class BaseSocialEntity extends SynchronizedObject implements Ser
     public void setId(int id) {
         checkWriteSynchronization();
         this.id = id;
+        publishSnapshot();
     }
 
-    public Timestamp getCreationDate() {
+    public long getCreationTime() {
         checkReadSynchronization();
         return creationDate;
     }
 
-    public void setCreationDate(Timestamp creationDate) {
+    public void setCreationTime(long creationDate) {
         checkWriteSynchronization();
         this.creationDate = creationDate;
+        publishSnapshot();
     }
 
+    /**
+     * Flag this entity as changed after the last checkpoint, no lock is required
+     * @return true if it was clean, then the caller has to queue it for the next delta
+     */
+    public boolean markDirty() {
+        if(dirty) return false;
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * Check if this entity has been changed after the last checkpoint, no lock is required
+     * @return true if it is waiting to be written
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Clear the flag right before the entity is copied into a delta, a later change flags it again
+     */
+    public void clearDirty() {
+        dirty = false;
+    }
+
+    /**
+     * Called after every mutation, entities which offer an immutable version of themselves
+     * publish here the new one. The caller owns the write lock when the synchronization is enabled
+     */
+    protected void publishSnapshot() { }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -1,20 +1,49 @@
 package it.winsome.common.entity.abstracts;
 
+import com.google.gson.annotations.JsonAdapter;
+import it.winsome.common.collection.ConcurrentIntLog;
+import it.winsome.common.entity.PackedVote;
 import it.winsome.common.entity.Vote;
 import it.winsome.common.entity.enums.VoteType;
+import it.winsome.common.json.LongAdderJsonAdapter;
 
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
 
 /**
  * Base class for votable entities, it extends from BaseSocialEntity then it is also
  * synchronizable.
- * This class offers a way to vote (like/dislike) an existing entity
+ * This class offers a way to vote (like/dislike) an existing entity, each vote is stored as a packed int
+ * (see PackedVote) in insertion order.
+ * Votes do not need the entity lock: the voters are deduplicated by a concurrent set, the totals are
+ * LongAdders and the votes are appended to a lock free log, the ones after the reward cursor are still
+ * waiting to be rewarded
  */
 public abstract class BaseVotableEntity extends BaseSocialEntity {
-    protected Map<String, Vote> votesMap;
-    private int totalUpvotes;
-    private int totalDownvotes;
+    private static final AtomicReferenceFieldUpdater<BaseVotableEntity, ConcurrentIntLog> VOTES =
+            AtomicReferenceFieldUpdater.newUpdater(BaseVotableEntity.class, ConcurrentIntLog.class, "votes");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<BaseVotableEntity, Set> VOTERS =
+            AtomicReferenceFieldUpdater.newUpdater(BaseVotableEntity.class, Set.class, "voters");
+
+    // allocated with the first vote
+    private volatile ConcurrentIntLog votes;
+    @JsonAdapter(LongAdderJsonAdapter.class)
+    private LongAdder totalUpvotes;
+    @JsonAdapter(LongAdderJsonAdapter.class)
+    private LongAdder totalDownvotes;
+    // written only by the previous versions, converted by migrateLegacyVotes
+    private Map<String, Vote> votesMap;
+    // allocated with the first vote after the creation or the load
+    private transient volatile Set<Integer> voters;
+    // number of votes already rewarded, -1 until it is read from the iteration flag of the loaded votes
+    private transient volatile int rewardCursor = -1;
 
     public BaseVotableEntity() {
         this(0);
@@ -22,61 +51,204 @@ public abstract class BaseVotableEntity extends BaseSocialEntity {
 
     public BaseVotableEntity(int id) {
         super(id);
-        votesMap = new HashMap<>(0);
+        totalUpvotes = new LongAdder();
+        totalDownvotes = new LongAdder();
     }
 
-    public boolean addVote(Vote vote) {
-        checkWriteSynchronization();
-        if(votesMap.containsKey(vote.getFrom())) {
+    /**
+     * Add a vote if the user did not vote yet, it can be called concurrently without any lock
+     * @param voterId user id of the voter
+     * @param type vote type
+     * @return true if added
+     */
+    public boolean addVote(int voterId, VoteType type) {
+        if(!getVoters().add(voterId)) {
             return false;
         }
 
-        votesMap.put(vote.getFrom(), vote);
-        if(vote.getType() == VoteType.UP) {
-            totalUpvotes++;
+        getVotes().append(PackedVote.pack(voterId, type, true));
+        if(type == VoteType.UP) {
+            totalUpvotes.increment();
         } else {
-            totalDownvotes--;
+            totalDownvotes.decrement();
         }
         return true;
     }
 
-    public Vote getVote(String username) {
-        checkReadSynchronization();
-        return votesMap.get(username);
+    public boolean hasVoted(int voterId) {
+        return getVoters().contains(voterId);
+    }
+
+    /**
+     * Get the number of votes, the last ones may be still being appended
+     * @return vote count
+     */
+    public int getVoteCount() {
+        ConcurrentIntLog current = votes;
+        return current == null ? 0 : current.size();
+    }
+
+    /**
+     * Get a vote by its insertion order
+     * @param index index between 0 and the vote count
+     * @return the packed vote or 0 if it is still being appended
+     */
+    public int getVote(int index) {
+        ConcurrentIntLog current = votes;
+        if(current == null) throw new IndexOutOfBoundsException("Vote index " + index + " out of 0");
+        return current.get(index);
+    }
+
+    /**
+     * Get the number of votes already counted by the rewards
+     * @return index of the first vote waiting to be rewarded
+     */
+    public int getRewardCursor() {
+        int cursor = rewardCursor;
+        return cursor >= 0 ? cursor : loadedRewardCursor();
+    }
+
+    /**
+     * Mark the votes before the cursor as counted by the rewards, only the rewards calculation moves it
+     * @param cursor index of the first vote waiting to be rewarded
+     */
+    public void setRewardCursor(int cursor) {
+        rewardCursor = cursor;
     }
 
-    public Collection<Vote> getVotes() { return Collections.unmodifiableCollection(votesMap.values()); }
+    /**
+     * Convert the votes read from the data files of the previous versions, where each vote was
+     * an object mapped by username. The votes already rewarded are placed first
+     * @param userIds resolver of the user id by username, negative if the user does not exist
+     * @return true if the entity had legacy votes
+     */
+    public boolean migrateLegacyVotes(ToIntFunction<String> userIds) {
+        checkWriteSynchronization();
+        if(votesMap == null) return false;
+        List<Vote> ordered = new ArrayList<>(votesMap.size());
+        for(Vote vote : votesMap.values()) {
+            if(!vote.isNeedIteration()) ordered.add(vote);
+        }
+        for(Vote vote : votesMap.values()) {
+            if(vote.isNeedIteration()) ordered.add(vote);
+        }
 
+        for(Vote vote : ordered) {
+            int voterId = userIds.applyAsInt(vote.getFrom());
+            if(voterId <= 0 || hasVoted(voterId)) continue;
+            getVoters().add(voterId);
+            getVotes().append(PackedVote.pack(voterId, vote.getType(), vote.isNeedIteration()));
+        }
+        votesMap = null;
+        return true;
+    }
+
+    /**
+     * Set the votes mapped by username read from the data files of the previous versions,
+     * they are converted by migrateLegacyVotes
+     * @param legacyVotes votes by username
+     */
+    public void setLegacyVotes(Map<String, Vote> legacyVotes) {
+        checkWriteSynchronization();
+        votesMap = legacyVotes;
+    }
+
+    /**
+     * Append the votes read from a snapshot, already packed and in their original order
+     * @param packedVotes packed votes
+     */
+    public void restoreVotes(int[] packedVotes) {
+        checkWriteSynchronization();
+        for(int vote : packedVotes) {
+            getVotes().append(vote);
+        }
+    }
+
+    /**
+     * Get the total of the up votes, no lock is required
+     * @return up votes
+     */
     public int getTotalUpvotes() {
-        checkReadSynchronization();
-        return totalUpvotes;
+        return totalUpvotes.intValue();
     }
 
     public void setTotalUpvotes(int totalUpvotes) {
         checkWriteSynchronization();
-        this.totalUpvotes = totalUpvotes;
+        this.totalUpvotes.reset();
+        this.totalUpvotes.add(totalUpvotes);
     }
 
+    /**
+     * Get the total of the down votes, no lock is required
+     * @return down votes
+     */
     public int getTotalDownvotes() {
-        checkReadSynchronization();
-        return totalDownvotes;
+        return totalDownvotes.intValue();
     }
 
     public void setTotalDownvotes(int totalDownvotes) {
         checkWriteSynchronization();
-        this.totalDownvotes = totalDownvotes;
+        this.totalDownvotes.reset();
+        this.totalDownvotes.add(totalDownvotes);
     }
 
+    /**
+     * Create a deep copy of this entity, the iteration flag of each copied vote tells if it was
+     * already rewarded
+     * @param <T> conversion
+     * @return an identical entity of this one
+     */
     @Override
     public <T extends BaseSocialEntity> T deepCopyAs() {
         BaseVotableEntity base = super.deepCopyAs();
-        base.votesMap = votesMap.values().stream().map(x -> {
-            x.prepareRead();
-            Vote dc = new Vote(x.getFrom(), x.getType());
-            dc.setNeedIteration(x.isNeedIteration());
-            x.releaseRead();
-            return dc;
-        }).collect(Collectors.toMap(Vote::getFrom, y->y));
+        ConcurrentIntLog current = votes;
+        int cursor = getRewardCursor();
+        int size = current == null ? 0 : current.publishedSize();
+        base.votes = null;
+        if(size > 0) {
+            base.votes = new ConcurrentIntLog();
+            for(int i = 0; i < size; i++) {
+                base.votes.append(PackedVote.withNeedIteration(current.get(i), i >= cursor));
+            }
+        }
+        base.totalUpvotes = new LongAdder();
+        base.totalUpvotes.add(totalUpvotes.sum());
+        base.totalDownvotes = new LongAdder();
+        base.totalDownvotes.add(totalDownvotes.sum());
+        base.voters = null;
+        base.rewardCursor = Math.min(cursor, size);
         return (T) base;
     }
+
+    private ConcurrentIntLog getVotes() {
+        ConcurrentIntLog current = votes;
+        if(current != null) return current;
+
+        ConcurrentIntLog created = new ConcurrentIntLog();
+        return VOTES.compareAndSet(this, null, created) ? created : votes;
+    }
+
+    private Set<Integer> getVoters() {
+        Set<Integer> current = voters;
+        if(current != null) return current;
+
+        // the votes loaded from disk are the only ones not added through this set
+        Set<Integer> created = ConcurrentHashMap.newKeySet();
+        ConcurrentIntLog loaded = votes;
+        int size = loaded == null ? 0 : loaded.publishedSize();
+        for(int i = 0; i < size; i++) {
+            created.add(PackedVote.getVoterId(loaded.get(i)));
+        }
+        return VOTERS.compareAndSet(this, null, created) ? created : voters;
+    }
+
+    private int loadedRewardCursor() {
+        // the rewards always count every pending vote, then the rewarded ones are a prefix
+        ConcurrentIntLog loaded = votes;
+        int size = loaded == null ? 0 : loaded.publishedSize();
+        for(int i = 0; i < size; i++) {
+            if(PackedVote.isNeedIteration(loaded.get(i))) return i;
+        }
+        return size;
+    }
 }
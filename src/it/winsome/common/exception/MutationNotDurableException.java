@@ -0,0 +1,6 @@
+package it.winsome.common.exception;
+
+public class MutationNotDurableException extends RuntimeException {
+    public MutationNotDurableException() { }
+    public MutationNotDurableException(String msg) { super(msg); }
+}
@@ -0,0 +1,71 @@
+package it.winsome.common.json;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import it.winsome.common.entity.Comment;
+
+import java.io.IOException;
+
+/**
+ * Streaming adapter of a detached comment: {"id", "ts", "up", "dn", "v", "a": owner, "c": content,
+ * "p": post id, "n": need iteration}
+ */
+public class CommentJsonAdapter extends VotableEntityJsonAdapter<Comment> {
+    @Override
+    public void write(JsonWriter out, Comment value) throws IOException {
+        if(value == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        writeVotableFields(out, value);
+        out.name("a").value(value.getOwner());
+        out.name("c").value(value.getContent());
+        out.name("p").value(value.getPostId());
+        out.name("n").value(value.isNeedIteration());
+        out.endObject();
+    }
+
+    @Override
+    public Comment read(JsonReader in) throws IOException {
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        Comment comment = new Comment();
+        in.beginObject();
+        while(in.hasNext()) {
+            String name = in.nextName();
+            if(readVotableField(name, in, comment)) continue;
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "a":
+                case "owner":
+                    comment.setOwner(in.nextString());
+                    break;
+                case "c":
+                case "content":
+                    comment.setContent(in.nextString());
+                    break;
+                case "p":
+                case "postId":
+                    comment.setPostId(in.nextInt());
+                    break;
+                case "n":
+                case "needIteration":
+                    comment.setNeedIteration(in.nextBoolean());
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return comment;
+    }
+}
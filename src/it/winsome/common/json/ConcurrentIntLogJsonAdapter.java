@@ -0,0 +1,40 @@
+package it.winsome.common.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import it.winsome.common.collection.ConcurrentIntLog;
+
+import java.io.IOException;
+
+/**
+ * Serialize and Deserialize a ConcurrentIntLog as an array of numbers, only the values
+ * published without gaps are written
+ */
+public class ConcurrentIntLogJsonAdapter extends TypeAdapter<ConcurrentIntLog> {
+    @Override
+    public void write(JsonWriter out, ConcurrentIntLog value) throws IOException {
+        if(value == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginArray();
+        int size = value.publishedSize();
+        for(int i = 0; i < size; i++) {
+            out.value(value.get(i));
+        }
+        out.endArray();
+    }
+
+    @Override
+    public ConcurrentIntLog read(JsonReader in) throws IOException {
+        ConcurrentIntLog log = new ConcurrentIntLog();
+        in.beginArray();
+        while(in.hasNext()) {
+            log.append(in.nextInt());
+        }
+        in.endArray();
+        return log;
+    }
+}
@@ -0,0 +1,41 @@
+package it.winsome.common.json;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+import it.winsome.common.entity.Vote;
+import it.winsome.common.entity.Wallet;
+
+/**
+ * Gson configured with the streaming adapters of the entities, used for every entity written to or read
+ * from disk. The adapters write short field names, dates as epoch millis and none of the synchronization
+ * state, without going through reflection
+ */
+public final class EntityGson {
+    private static final Gson gson = builder().create();
+
+    private EntityGson() { }
+
+    /**
+     * Get the shared instance, it is thread safe
+     * @return configured gson
+     */
+    public static Gson get() {
+        return gson;
+    }
+
+    /**
+     * Create a builder with the entity adapters already registered
+     * @return gson builder
+     */
+    public static GsonBuilder builder() {
+        return new GsonBuilder()
+                .registerTypeAdapter(Post.class, new PostJsonAdapter())
+                .registerTypeAdapter(Comment.class, new CommentJsonAdapter())
+                .registerTypeAdapter(User.class, new UserJsonAdapter())
+                .registerTypeAdapter(Wallet.class, new WalletJsonAdapter())
+                .registerTypeAdapter(Vote.class, new VoteJsonAdapter());
+    }
+}
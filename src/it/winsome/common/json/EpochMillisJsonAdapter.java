@@ -0,0 +1,33 @@
+package it.winsome.common.json;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+
+/**
+ * Serialize and Deserialize a date stored as epoch millis, it also reads the dates written as
+ * Timestamp by the previous versions
+ */
+public class EpochMillisJsonAdapter extends TypeAdapter<Long> {
+    private static final Gson legacyGson = new Gson();
+
+    @Override
+    public void write(JsonWriter out, Long value) throws IOException {
+        out.value(value);
+    }
+
+    @Override
+    public Long read(JsonReader in) throws IOException {
+        if(in.peek() == JsonToken.STRING) {
+            Timestamp legacy = legacyGson.fromJson(new JsonPrimitive(in.nextString()), Timestamp.class);
+            return legacy.getTime();
+        }
+        return in.nextLong();
+    }
+}
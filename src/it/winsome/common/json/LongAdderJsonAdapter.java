@@ -0,0 +1,30 @@
+package it.winsome.common.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serialize and Deserialize a LongAdder as the number of its current sum
+ */
+public class LongAdderJsonAdapter extends TypeAdapter<LongAdder> {
+    @Override
+    public void write(JsonWriter out, LongAdder value) throws IOException {
+        if(value == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.value(value.sum());
+    }
+
+    @Override
+    public LongAdder read(JsonReader in) throws IOException {
+        LongAdder adder = new LongAdder();
+        adder.add(in.nextLong());
+        return adder;
+    }
+}
@@ -0,0 +1,37 @@
+package it.winsome.common.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import it.winsome.common.entity.Comment;
+
+import java.io.IOException;
+
+/**
+ * Serialize the comments of a post as a list of ids, the comments are stored apart and
+ * attached again on load, then the deserialization gives always an empty array
+ */
+public class PostCommentArrayJsonAdapter extends TypeAdapter<Comment[]> {
+    private static final Comment[] EMPTY = new Comment[0];
+
+    @Override
+    public void write(JsonWriter out, Comment[] value) throws IOException {
+        out.beginArray();
+        for(Comment comment : value) {
+            // the array is filled only up to the comment count
+            if(comment == null) break;
+            out.value(comment.getId());
+        }
+        out.endArray();
+    }
+
+    @Override
+    public Comment[] read(JsonReader in) throws IOException {
+        in.beginArray();
+        while(in.hasNext()) {
+            in.nextInt();
+        }
+        in.endArray();
+        return EMPTY;
+    }
+}
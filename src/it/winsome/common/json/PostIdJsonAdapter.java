@@ -13,7 +13,9 @@ import java.io.IOException;
 public class PostIdJsonAdapter extends TypeAdapter<Post> {
     @Override
     public void write(JsonWriter out, Post value) throws IOException {
+        value.prepareRead();
         out.value(value.getId());
+        value.releaseRead();
     }
 
     @Override
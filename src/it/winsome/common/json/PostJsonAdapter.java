@@ -0,0 +1,84 @@
+package it.winsome.common.json;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import it.winsome.common.entity.Post;
+
+import java.io.IOException;
+
+/**
+ * Streaming adapter of a detached post: {"id", "ts", "up", "dn", "v", "a": author, "t": title, "c": content,
+ * "o": original post id, "it": current iteration}.
+ * The comments are stored apart and attached again on load, then they are not written; the comment ids
+ * written by the previous versions are skipped
+ */
+public class PostJsonAdapter extends VotableEntityJsonAdapter<Post> {
+    @Override
+    public void write(JsonWriter out, Post value) throws IOException {
+        if(value == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        writeVotableFields(out, value);
+        out.name("a").value(value.getUsername());
+        out.name("t").value(value.getTitle());
+        out.name("c").value(value.getContent());
+        if(value.isRewin()) {
+            Post original = value.getOriginalPost();
+            original.prepareRead();
+            out.name("o").value(original.getId());
+            original.releaseRead();
+        }
+        out.name("it").value(value.getCurrentIteration());
+        out.endObject();
+    }
+
+    @Override
+    public Post read(JsonReader in) throws IOException {
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        Post post = new Post();
+        in.beginObject();
+        while(in.hasNext()) {
+            String name = in.nextName();
+            if(readVotableField(name, in, post)) continue;
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "a":
+                case "username":
+                    post.setUsername(in.nextString());
+                    break;
+                case "t":
+                case "title":
+                    post.setTitle(in.nextString());
+                    break;
+                case "c":
+                case "content":
+                    post.setContent(in.nextString());
+                    break;
+                case "o":
+                case "originalPost":
+                    post.setOriginalPost(new Post(in.nextInt()));
+                    break;
+                case "it":
+                case "currentIteration":
+                    post.setCurrentIteration(in.nextInt());
+                    break;
+                default:
+                    // comment ids and total comments
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return post;
+    }
+}
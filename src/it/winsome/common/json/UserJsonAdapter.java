@@ -0,0 +1,118 @@
+package it.winsome.common.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import it.winsome.common.entity.User;
+import it.winsome.common.entity.Wallet;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Streaming adapter of a detached user: {"id", "un": username, "pw": password, "tg": tags,
+ * "fd": followed, "fg": following, "wl": wallet}, it also reads the field names of the previous versions
+ */
+public class UserJsonAdapter extends TypeAdapter<User> {
+    private final WalletJsonAdapter walletAdapter = new WalletJsonAdapter();
+
+    @Override
+    public void write(JsonWriter out, User value) throws IOException {
+        if(value == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name("id").value(value.getId());
+        out.name("un").value(value.getUsername());
+        out.name("pw").value(value.getPassword());
+        writeStringSet(out.name("tg"), value.getTags());
+        writeStringSet(out.name("fd"), value.getFollowed());
+        writeStringSet(out.name("fg"), value.getFollowing());
+        out.name("wl");
+        walletAdapter.write(out, value.getWallet());
+        out.endObject();
+    }
+
+    @Override
+    public User read(JsonReader in) throws IOException {
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        int id = 0;
+        String username = null;
+        String password = null;
+        Set<String> tags = null;
+        Set<String> followed = null;
+        Set<String> following = null;
+        Wallet wallet = null;
+        in.beginObject();
+        while(in.hasNext()) {
+            String name = in.nextName();
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    id = in.nextInt();
+                    break;
+                case "un":
+                case "username":
+                    username = in.nextString();
+                    break;
+                case "pw":
+                case "password":
+                    password = in.nextString();
+                    break;
+                case "tg":
+                case "tagsInterests":
+                    tags = readStringSet(in);
+                    break;
+                case "fd":
+                case "usersFollowed":
+                    followed = readStringSet(in);
+                    break;
+                case "fg":
+                case "usersFollowing":
+                    following = readStringSet(in);
+                    break;
+                case "wl":
+                case "wallet":
+                    wallet = walletAdapter.read(in);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        User user = new User(username, password, tags, following, followed);
+        user.setId(id);
+        user.setWallet(wallet != null ? wallet : new Wallet());
+        return user;
+    }
+
+    private static void writeStringSet(JsonWriter out, Set<String> values) throws IOException {
+        out.beginArray();
+        for(String value : values) {
+            out.value(value);
+        }
+        out.endArray();
+    }
+
+    private static Set<String> readStringSet(JsonReader in) throws IOException {
+        Set<String> values = new HashSet<>();
+        in.beginArray();
+        while(in.hasNext()) {
+            values.add(in.nextString());
+        }
+        in.endArray();
+        return values;
+    }
+}
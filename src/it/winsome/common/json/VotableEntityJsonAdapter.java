@@ -0,0 +1,105 @@
+package it.winsome.common.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import it.winsome.common.entity.Vote;
+import it.winsome.common.entity.abstracts.BaseVotableEntity;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Base of the streaming adapters of the votable entities, it writes the fields shared by every votable
+ * entity with short names: the id, the creation time as epoch millis and the packed votes with their totals.
+ * The names written by the reflective serialization of the previous versions are still read
+ * @param <T> entity type
+ */
+public abstract class VotableEntityJsonAdapter<T extends BaseVotableEntity> extends TypeAdapter<T> {
+    private static final EpochMillisJsonAdapter dateAdapter = new EpochMillisJsonAdapter();
+    private static final VoteJsonAdapter voteAdapter = new VoteJsonAdapter();
+
+    /**
+     * Write the shared fields, the caller has already opened the object
+     * @param out writer
+     * @param entity detached entity
+     * @throws IOException if it cannot be written
+     */
+    protected void writeVotableFields(JsonWriter out, T entity) throws IOException {
+        out.name("id").value(entity.getId());
+        out.name("ts").value(entity.getCreationTime());
+        out.name("up").value(entity.getTotalUpvotes());
+        out.name("dn").value(entity.getTotalDownvotes());
+        int votes = entity.getVoteCount();
+        if(votes > 0) {
+            out.name("v").beginArray();
+            for(int i = 0; i < votes; i++) {
+                out.value(entity.getVote(i));
+            }
+            out.endArray();
+        }
+    }
+
+    /**
+     * Read a shared field
+     * @param name field name
+     * @param in reader positioned on the field value
+     * @param entity entity being read
+     * @return false if the field is not a shared one and it has not been consumed
+     * @throws IOException if it cannot be read
+     */
+    protected boolean readVotableField(String name, JsonReader in, T entity) throws IOException {
+        switch (name) {
+            case "id":
+                entity.setId(in.nextInt());
+                return true;
+            case "ts":
+            case "creationDate":
+                entity.setCreationTime(dateAdapter.read(in));
+                return true;
+            case "up":
+            case "totalUpvotes":
+                entity.setTotalUpvotes(in.nextInt());
+                return true;
+            case "dn":
+            case "totalDownvotes":
+                entity.setTotalDownvotes(in.nextInt());
+                return true;
+            case "v":
+            case "votes":
+                entity.restoreVotes(readVotes(in));
+                return true;
+            case "votesMap":
+                entity.setLegacyVotes(readLegacyVotes(in));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static int[] readVotes(JsonReader in) throws IOException {
+        int[] votes = new int[8];
+        int size = 0;
+        in.beginArray();
+        while(in.hasNext()) {
+            if(size == votes.length) votes = Arrays.copyOf(votes, size * 2);
+            votes[size++] = in.nextInt();
+        }
+        in.endArray();
+        return Arrays.copyOf(votes, size);
+    }
+
+    private static Map<String, Vote> readLegacyVotes(JsonReader in) throws IOException {
+        Map<String, Vote> votes = new LinkedHashMap<>();
+        in.beginObject();
+        while(in.hasNext()) {
+            String username = in.nextName();
+            Vote vote = voteAdapter.read(in);
+            if(vote != null) votes.put(username, vote);
+        }
+        in.endObject();
+        return votes;
+    }
+}
@@ -0,0 +1,63 @@
+package it.winsome.common.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import it.winsome.common.entity.Vote;
+import it.winsome.common.entity.enums.VoteType;
+
+import java.io.IOException;
+
+/**
+ * Serialize and Deserialize a legacy vote as {"f": voter, "t": 0 or 1, "n": need iteration}, it also
+ * reads the votes written with the field names and the type name by the previous versions
+ */
+public class VoteJsonAdapter extends TypeAdapter<Vote> {
+    @Override
+    public void write(JsonWriter out, Vote value) throws IOException {
+        if(value == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name("f").value(value.getFrom());
+        out.name("t").value(value.getType().getId());
+        out.name("n").value(value.isNeedIteration());
+        out.endObject();
+    }
+
+    @Override
+    public Vote read(JsonReader in) throws IOException {
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        String from = null;
+        VoteType type = null;
+        boolean needIteration = true;
+        in.beginObject();
+        while(in.hasNext()) {
+            switch (in.nextName()) {
+                case "f":
+                case "from":
+                    from = in.nextString();
+                    break;
+                case "t":
+                case "type":
+                    type = in.peek() == JsonToken.NUMBER ? VoteType.fromId(in.nextInt()) : VoteType.valueOf(in.nextString());
+                    break;
+                case "n":
+                case "needIteration":
+                    needIteration = in.nextBoolean();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Vote(from, type, needIteration);
+    }
+}
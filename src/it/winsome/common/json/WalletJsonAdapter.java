@@ -0,0 +1,107 @@
+package it.winsome.common.json;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import it.winsome.common.entity.Wallet;
+
+import java.io.IOException;
+
+/**
+ * Streaming adapter of a detached wallet: {"am": amount, "tx": [[epoch millis, amount], ...]}.
+ * It also reads the transactions written as objects with a Timestamp by the previous versions
+ */
+public class WalletJsonAdapter extends TypeAdapter<Wallet> {
+    private static final EpochMillisJsonAdapter dateAdapter = new EpochMillisJsonAdapter();
+
+    @Override
+    public void write(JsonWriter out, Wallet value) throws IOException {
+        if(value == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name("am").value(value.getAmount());
+        out.name("tx").beginArray();
+        IOException[] error = { null };
+        value.forEachTransaction((time, amount) -> {
+            if(error[0] != null) return;
+            try {
+                out.beginArray();
+                out.value(time);
+                out.value(amount);
+                out.endArray();
+            } catch (IOException e) {
+                error[0] = e;
+            }
+        });
+        if(error[0] != null) throw error[0];
+        out.endArray();
+        out.endObject();
+    }
+
+    @Override
+    public Wallet read(JsonReader in) throws IOException {
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        double amount = 0;
+        Wallet wallet = new Wallet();
+        in.beginObject();
+        while(in.hasNext()) {
+            switch (in.nextName()) {
+                case "am":
+                case "amount":
+                    amount = in.nextDouble();
+                    break;
+                case "tx":
+                case "transactions":
+                    in.beginArray();
+                    while(in.hasNext()) {
+                        readTransaction(in, wallet);
+                    }
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        wallet.setAmount(amount);
+        return wallet;
+    }
+
+    private static void readTransaction(JsonReader in, Wallet wallet) throws IOException {
+        if(in.peek() == JsonToken.BEGIN_ARRAY) {
+            in.beginArray();
+            long time = in.nextLong();
+            double amount = in.nextDouble();
+            in.endArray();
+            wallet.addTransaction(time, amount);
+            return;
+        }
+
+        long time = 0;
+        double amount = 0;
+        in.beginObject();
+        while(in.hasNext()) {
+            switch (in.nextName()) {
+                case "time":
+                    time = dateAdapter.read(in);
+                    break;
+                case "amount":
+                    amount = in.nextDouble();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        wallet.addTransaction(time, amount);
+    }
+}
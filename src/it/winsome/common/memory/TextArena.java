@@ -0,0 +1,294 @@
+package it.winsome.common.memory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Off-heap storage of the texts of the posts and of the comments shared by the server, encoded in UTF-8
+ * inside direct slabs of 1MB which the garbage collector never visits.
+ * The texts of an entity are stored together in a block of a power of two size, from 16 to 4096 bytes,
+ * and are addressed by an int: the slab in the high bits and the block position in the low ones.
+ * A block starts with its size class, then every text has 2 bytes of length (0xFFFF for null) followed by its bytes.
+ * The blocks are written once and read without locks. A freed block may still be read by a snapshot taken before,
+ * then the lock free readers run between enterRead and exitRead, tracked by epoch: every reclaim starts a new epoch
+ * and a block freed before the previous one is reused only once no reader of the previous epoch is left.
+ * The server reclaims at every automatic save, a long reader only delays the reuse
+ */
+public final class TextArena {
+    public static final int NONE = 0;
+    private static final int SLAB_SHIFT = 20;
+    private static final int SLAB_SIZE = 1 << SLAB_SHIFT;
+    private static final int BLOCK_SHIFT = 4;
+    private static final int MIN_CLASS = 4;
+    private static final int MAX_CLASS = 12;
+    private static final int MAX_SLABS = (1 << (31 - (SLAB_SHIFT - BLOCK_SHIFT))) - 1;
+    private static final int NULL_LENGTH = 0xFFFF;
+
+    private static volatile TextArena shared;
+
+    private volatile ByteBuffer[] slabs;
+    private int slabCount;
+    private int nextBlock;
+    private final IntStack[] freeBlocks;
+    // freed after the last reclaim, then after the previous one
+    private IntStack freed;
+    private IntStack retired;
+    private long usedBytes;
+    // readers inside a read section by parity of the epoch they entered in
+    private final LongAdder[] readers;
+    private volatile int epoch;
+
+    public TextArena() {
+        slabs = new ByteBuffer[8];
+        nextBlock = SLAB_SIZE;
+        freeBlocks = new IntStack[MAX_CLASS + 1];
+        for(int i = MIN_CLASS; i <= MAX_CLASS; i++) {
+            freeBlocks[i] = new IntStack();
+        }
+        freed = new IntStack();
+        retired = new IntStack();
+        readers = new LongAdder[] { new LongAdder(), new LongAdder() };
+    }
+
+    /**
+     * Create the arena used by the entities from now on, nothing changes if it already exists
+     */
+    public static synchronized void enable() {
+        if(shared == null) shared = new TextArena();
+    }
+
+    /**
+     * Get the arena used by the entities
+     * @return the arena or null if the texts are kept on the heap
+     */
+    public static TextArena get() {
+        return shared;
+    }
+
+    /**
+     * Start a read section of the shared arena, the blocks freed meanwhile are not reused until it ends.
+     * The addresses read must be taken inside the section
+     * @return token to be passed to exitRead
+     */
+    public static int enterRead() {
+        TextArena arena = shared;
+        return arena != null ? arena.enter() : 0;
+    }
+
+    /**
+     * End a read section
+     * @param token token returned by enterRead
+     */
+    public static void exitRead(int token) {
+        // 0 if the arena did not exist when the section started
+        if(token != 0) shared.readers[token - 1].decrement();
+    }
+
+    private int enter() {
+        while(true) {
+            int current = epoch;
+            LongAdder counter = readers[current & 1];
+            counter.increment();
+            // a reclaim in between could miss this reader, then it enters the new epoch
+            if(epoch == current) return (current & 1) + 1;
+            counter.decrement();
+        }
+    }
+
+    /**
+     * Store texts together in a new block
+     * @param texts texts, they can be null
+     * @return address of the block or NONE if they are too long, then they have to stay on the heap
+     */
+    public int store(String... texts) {
+        byte[][] encoded = new byte[texts.length][];
+        int size = 1;
+        for(int i = 0; i < texts.length; i++) {
+            if(texts[i] != null) {
+                encoded[i] = texts[i].getBytes(StandardCharsets.UTF_8);
+                size += encoded[i].length;
+            }
+            size += 2;
+        }
+        int sizeClass = Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(size - 1));
+        if(sizeClass > MAX_CLASS) return NONE;
+
+        int ref = allocate(sizeClass);
+        if(ref == NONE) return NONE;
+        ByteBuffer slab = slabs[slabOf(ref)];
+        int position = positionOf(ref);
+        slab.put(position++, (byte) sizeClass);
+        for(byte[] bytes : encoded) {
+            if(bytes == null) {
+                slab.putShort(position, (short) NULL_LENGTH);
+                position += 2;
+                continue;
+            }
+            slab.putShort(position, (short) bytes.length);
+            view(slab, position + 2).put(bytes);
+            position += 2 + bytes.length;
+        }
+        return ref;
+    }
+
+    /**
+     * Decode a text of a block
+     * @param ref address of the block
+     * @param index index of the text in the block
+     * @return the text, can be null
+     */
+    public String read(int ref, int index) {
+        ByteBuffer slab = slabs[slabOf(ref)];
+        int position = find(slab, ref, index);
+        int length = slab.getShort(position) & 0xFFFF;
+        if(length == NULL_LENGTH) return null;
+
+        byte[] bytes = new byte[length];
+        view(slab, position + 2).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the length in bytes of a text of a block
+     * @param ref address of the block
+     * @param index index of the text in the block
+     * @return length in UTF-8 or -1 if the text is null
+     */
+    public int getLength(int ref, int index) {
+        ByteBuffer slab = slabs[slabOf(ref)];
+        int length = slab.getShort(find(slab, ref, index)) & 0xFFFF;
+        return length == NULL_LENGTH ? -1 : length;
+    }
+
+    /**
+     * Copy the UTF-8 bytes of a text into a buffer at its position, without decoding them
+     * @param ref address of the block
+     * @param index index of the text in the block
+     * @param target buffer, its position is moved after the bytes
+     * @return number of bytes copied, 0 for a null text
+     */
+    public int copyTo(int ref, int index, ByteBuffer target) {
+        ByteBuffer slab = slabs[slabOf(ref)];
+        int position = find(slab, ref, index);
+        int length = slab.getShort(position) & 0xFFFF;
+        if(length == NULL_LENGTH) return 0;
+
+        ByteBuffer source = view(slab, position + 2);
+        source.limit(position + 2 + length);
+        target.put(source);
+        return length;
+    }
+
+    /**
+     * Get a view of a slab for the relative bulk reads and writes, the slabs are shared by the threads and
+     * their own position is never moved
+     * @param slab slab
+     * @param position start of the view
+     * @return independent buffer on the same memory
+     */
+    private static ByteBuffer view(ByteBuffer slab, int position) {
+        ByteBuffer view = slab.duplicate();
+        view.position(position);
+        return view;
+    }
+
+    /**
+     * Give back a block, it can be still read by the read sections started before
+     * @param ref address of the block
+     */
+    public synchronized void free(int ref) {
+        if(ref == NONE) return;
+        freed.push(ref);
+    }
+
+    /**
+     * Make reusable the blocks freed before the previous call and start a new epoch. Nothing happens while a
+     * read section of the previous epoch is running, the blocks wait for the next call
+     */
+    public synchronized void reclaim() {
+        int current = epoch;
+        if(readers[(current + 1) & 1].sum() != 0) return;
+
+        for(int i = 0; i < retired.size; i++) {
+            int ref = retired.values[i];
+            int sizeClass = slabs[slabOf(ref)].get(positionOf(ref));
+            freeBlocks[sizeClass].push(ref);
+            usedBytes -= 1 << sizeClass;
+        }
+        IntStack empty = retired;
+        empty.size = 0;
+        retired = freed;
+        freed = empty;
+        epoch = current + 1;
+    }
+
+    /**
+     * Get the bytes of the blocks in use, the freed ones included until they are reclaimed
+     * @return bytes in use
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Get the memory reserved outside the heap
+     * @return bytes of the slabs
+     */
+    public synchronized long getReservedBytes() {
+        return (long) slabCount * SLAB_SIZE;
+    }
+
+    private synchronized int allocate(int sizeClass) {
+        int blockSize = 1 << sizeClass;
+        IntStack free = freeBlocks[sizeClass];
+        if(free.size > 0) {
+            usedBytes += blockSize;
+            return free.values[--free.size];
+        }
+
+        if(nextBlock + blockSize > SLAB_SIZE) {
+            if(slabCount == MAX_SLABS) return NONE;
+            ByteBuffer[] current = slabs;
+            if(slabCount == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[slabCount++] = ByteBuffer.allocateDirect(SLAB_SIZE);
+            // published before any address of the new slab
+            slabs = current;
+            nextBlock = 0;
+        }
+        int ref = (slabCount << (SLAB_SHIFT - BLOCK_SHIFT)) | (nextBlock >>> BLOCK_SHIFT);
+        nextBlock += blockSize;
+        usedBytes += blockSize;
+        return ref;
+    }
+
+    private static int find(ByteBuffer slab, int ref, int index) {
+        int position = positionOf(ref) + 1;
+        for(int i = 0; i < index; i++) {
+            int length = slab.getShort(position) & 0xFFFF;
+            position += 2 + (length == NULL_LENGTH ? 0 : length);
+        }
+        return position;
+    }
+
+    private static int slabOf(int ref) {
+        return (ref >>> (SLAB_SHIFT - BLOCK_SHIFT)) - 1;
+    }
+
+    private static int positionOf(int ref) {
+        return (ref & ((1 << (SLAB_SHIFT - BLOCK_SHIFT)) - 1)) << BLOCK_SHIFT;
+    }
+
+    private static class IntStack {
+        int[] values = new int[64];
+        int size;
+
+        void push(int value) {
+            if(size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+}
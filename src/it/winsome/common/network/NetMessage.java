@@ -1,6 +1,7 @@
 package it.winsome.common.network;
 
 import it.winsome.common.exception.InvalidParameterException;
+import it.winsome.common.memory.TextArena;
 import it.winsome.common.exception.SocketDisconnectedException;
 import it.winsome.common.network.enums.NetMessageType;
 import it.winsome.common.WinsomeHelper;
@@ -447,16 +448,70 @@ public class NetMessage {
             return this;
         }
 
-        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
-        this.data.putInt(bytes.length);
+        int length = getUtf8Length(str);
+        this.data.putInt(length);
         messageLength += 4;
         if(!hasChanged) hasChanged = true;
 
-        this.data.put(bytes);
-        messageLength += bytes.length;
+        putUtf8(str);
+        messageLength += length;
         return this;
     }
 
+    /**
+     * Write a text with the same format of writeString, when it is kept in the text arena its bytes are copied
+     * as they are without creating the string
+     * @param str text on the heap, used if the text is not in the arena
+     * @param arenaRef address of the block in the arena or TextArena.NONE
+     * @param index index of the text in the block
+     * @return this message
+     */
+    public NetMessage writeText(String str, int arenaRef, int index) {
+        if(arenaRef == TextArena.NONE) return writeString(str);
+        if(readOnly) throw new ReadOnlyBufferException();
+
+        int lengthPosition = this.data.position();
+        this.data.putInt(0);
+        int length = TextArena.get().copyTo(arenaRef, index, this.data);
+        this.data.putInt(lengthPosition, length);
+        messageLength += 4 + length;
+        if(!hasChanged) hasChanged = true;
+        return this;
+    }
+
+    /**
+     * Encode the string in UTF-8 directly inside the buffer without allocating a byte array,
+     * the output is the same of String.getBytes(UTF_8) (unpaired surrogates become '?')
+     * @param str string to encode
+     */
+    private void putUtf8(String str) {
+        ByteBuffer buffer = this.data;
+        int len = str.length();
+        for(int i = 0; i < len; i++) {
+            char c = str.charAt(i);
+            if(c < 0x80) {
+                buffer.put((byte) c);
+            } else if(c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if(Character.isSurrogate(c)) {
+                if(Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, str.charAt(++i));
+                    buffer.put((byte) (0xF0 | (cp >> 18)));
+                    buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                    buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (cp & 0x3F)));
+                } else {
+                    buffer.put((byte) '?');
+                }
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
     public <T> boolean writeNullIfInvalid(T obj) {
         if(obj == null) {
             writeNull();
@@ -595,14 +650,53 @@ public class NetMessage {
 
     public static int getStringSize(String str) {
         if(str == null) return 4;
-        return 4 + str.getBytes(StandardCharsets.UTF_8).length;
+        return 4 + getUtf8Length(str);
+    }
+
+    /**
+     * Size of a text written by writeText
+     * @param str text on the heap, used if the text is not in the arena
+     * @param arenaRef address of the block in the arena or TextArena.NONE
+     * @param index index of the text in the block
+     * @return size in bytes
+     */
+    public static int getTextSize(String str, int arenaRef, int index) {
+        if(arenaRef == TextArena.NONE) return getStringSize(str);
+        return 4 + Math.max(TextArena.get().getLength(arenaRef, index), 0);
     }
 
     public static int getStringSize(String... strings) {
         int count = 4 * strings.length;
         for(String str : strings) {
             if(str != null) {
-                count += str.getBytes(StandardCharsets.UTF_8).length;
+                count += getUtf8Length(str);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Count the bytes of the string encoded in UTF-8 without encoding it
+     * @param str string
+     * @return number of bytes
+     */
+    public static int getUtf8Length(String str) {
+        int len = str.length();
+        int count = len;
+        for(int i = 0; i < len; i++) {
+            char c = str.charAt(i);
+            if(c < 0x80) continue;
+            if(c < 0x800) {
+                count++;
+            } else if(Character.isSurrogate(c)) {
+                if(Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+                    // 4 bytes for 2 chars
+                    count += 2;
+                    i++;
+                }
+                // unpaired surrogates are replaced by a single byte
+            } else {
+                count += 2;
             }
         }
         return count;
@@ -20,7 +20,9 @@ public enum NetMessageType {
     CreateComment(13),
     ViewBlog(14),
     NotifyWallet(15),
-    Wallet(16);
+    Wallet(16),
+    // pushed by the server without a request
+    WalletDelta(17);
 
     private final int id;
     NetMessageType(int id) {
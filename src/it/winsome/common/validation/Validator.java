@@ -72,6 +72,11 @@ public class Validator {
             throw new InvalidParameterException("The page number must be positive (>= 0)!");
     }
 
+    public static void validateTime(Long time) throws InvalidParameterException {
+        if(time == null || time < 0)
+            throw new InvalidParameterException("The time must be positive (>= 0)!");
+    }
+
     public static void validatePostId(Integer id) throws InvalidParameterException {
         if(validateEntityId(id))
             throw new InvalidParameterException("The post id must be positive (>= 0)");
@@ -1,33 +1,60 @@
 package it.winsome.server;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import it.winsome.common.SynchronizedObject;
 import it.winsome.common.WinsomeHelper;
+import it.winsome.common.collection.ChunkedIntIndex;
+import it.winsome.common.collection.IntHashMap;
+import it.winsome.common.collection.StripedIntMap;
 import it.winsome.common.entity.*;
+import it.winsome.common.entity.abstracts.BaseVotableEntity;
 import it.winsome.common.entity.enums.CurrencyType;
+import it.winsome.common.dto.WalletDeltaDTO;
 import it.winsome.common.entity.enums.VotableType;
 import it.winsome.common.entity.enums.VoteType;
 import it.winsome.common.exception.*;
+import it.winsome.common.json.EntityGson;
+import it.winsome.common.memory.TextArena;
 import it.winsome.common.network.enums.NetResponseType;
 import it.winsome.common.service.interfaces.UserCallbackClient;
+import it.winsome.server.cache.ColdPostCache;
+import it.winsome.server.cache.PostCacheStats;
+import it.winsome.server.cache.RewardBuckets;
+import it.winsome.server.config.ServerConfiguration;
+import it.winsome.server.rate.ExchangeRateProvider;
+import it.winsome.server.rate.ExchangeRateProviders;
 import it.winsome.server.session.ConnectionSession;
+import it.winsome.server.snapshot.BinarySnapshot;
+import it.winsome.server.snapshot.BinarySnapshotFile;
+import it.winsome.server.snapshot.DeltaOverlay;
+import it.winsome.server.snapshot.DeltaStore;
+import it.winsome.server.snapshot.DirtyEntities;
+import it.winsome.server.snapshot.JsonSnapshotFiles;
+import it.winsome.server.snapshot.LazySnapshotPosts;
+import it.winsome.server.snapshot.LiveSnapshotContent;
+import it.winsome.server.snapshot.ParallelLoader;
+import it.winsome.server.snapshot.PostInstaller;
+import it.winsome.server.store.ExternalStore;
+import it.winsome.server.store.SocialStores;
+import it.winsome.server.wal.WalMutations;
+import it.winsome.server.wal.WalRecord;
+import it.winsome.server.wal.WriteAheadLog;
 
 import java.io.*;
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
 import java.nio.channels.SelectionKey;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.rmi.RemoteException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static it.winsome.common.network.enums.NetResponseType.*;
@@ -38,47 +65,153 @@ import static it.winsome.common.network.enums.NetResponseType.*;
  * It is pure social network logic and does not involve any client socket except from the makeSession which needs a SelectionKey
  */
 public class ServerLogic {
+    public static final int POST_PAGE_SIZE = 5;
+    public static final int WALLET_PAGE_SIZE = 20;
+
     private final Map<String, User> registeredUsers;
+    // guarded by registeredUsersRW as well
+    private final IntHashMap<User> usersById;
+    private final AtomicInteger maxUserId;
     private final ReadWriteLock registeredUsersRW;
     private final Map<String, UserCallbackClient> registeredCallbacks;
     private final Map<String, SelectionKey> currentSessions;
     private final ReadWriteLock currentSessionsRW;
-    private final Map<String, LinkedList<Post>> cachedBlogs;
-    private final ReadWriteLock cachedBlogsRW;
+    // post ids of each user ordered by creation, every blog has its own lock
+    private final Map<String, ChunkedIntIndex> cachedBlogs;
 
     private final AtomicInteger maxPostId;
-    private final Map<Post, Post> postMap;
-    private final List<Post> postList;
-    private final ReadWriteLock postMapRW;
+    private final StripedIntMap<Post> postMap;
     private final AtomicInteger maxCommentId;
-    private final Map<Integer, Comment> commentMap;
-    private final ReadWriteLock commentMapRW;
+    private final StripedIntMap<Comment> commentMap;
+    // original post id -> ids of its rewins
+    private final StripedIntMap<Set<Integer>> rewinIndex;
 
     private final String dataFolder;
-    private final URL btcConverterURL;
+    private final ServerConfiguration configuration;
+    private final ExchangeRateProvider exchangeRates;
     private boolean initialized;
+    // null while replaying or if disabled, the mutations are not logged
+    private WriteAheadLog wal;
+
+    private final DeltaStore deltaStore;
+    private final BinarySnapshotFile snapshotFile;
+    // snapshot of the previous versions, read until the first full checkpoint
+    private final JsonSnapshotFiles jsonFiles;
+    // storage engine chosen in the configuration, null with the built-in binary snapshot
+    private ExternalStore store;
+    // entities flagged dirty after the last checkpoint, queued once until they are written in a delta
+    private final DirtyEntities dirtyEntities;
+    // held while the base snapshot files are written
+    private final Object baseSnapshotLock;
+    // the rewards are not logged, then a checkpoint includes a whole calculation or none of it
+    private final Lock rewardsLock;
+    // posts with votes or comments added after the last reward calculation of their bucket
+    private final RewardBuckets pendingRewards;
+    // the posts of the binary snapshot left with pending rewards have been read
+    private volatile boolean lazyRewardsLoaded;
+
+    // posts of the binary snapshot loaded on startup, read on their first access, null without it
+    private volatile LazySnapshotPosts lazyPosts;
+    private final PostInstaller postInstaller;
+    // applies the mutations read from the write ahead log
+    private final WalMutations.Target replayTarget;
+    // posts moved out of memory by the eviction, null if every post is kept in memory
+    private ColdPostCache coldPosts;
 
     public ServerLogic(String dataFolder) throws MalformedURLException {
+        this(dataFolder, new ServerConfiguration());
+    }
+
+    public ServerLogic(String dataFolder, ServerConfiguration configuration) throws MalformedURLException {
         super();
         this.dataFolder = dataFolder;
+        this.configuration = configuration;
         registeredCallbacks = new HashMap<>();
         registeredUsers = new HashMap<>();
-        postMap = new LinkedHashMap<>();
-        postList = new ArrayList<>();
-        commentMap = new HashMap<>();
+        usersById = new IntHashMap<>();
+        maxUserId = new AtomicInteger();
+        postMap = new StripedIntMap<>();
+        commentMap = new StripedIntMap<>();
+        rewinIndex = new StripedIntMap<>();
         currentSessions = new HashMap<>();
-        cachedBlogs = new HashMap<>();
+        cachedBlogs = new ConcurrentHashMap<>();
 
         maxPostId = new AtomicInteger();
         maxCommentId = new AtomicInteger();
 
+        deltaStore = new DeltaStore(dataFolder + "deltas/");
+        snapshotFile = new BinarySnapshotFile(dataFolder, deltaStore);
+        jsonFiles = new JsonSnapshotFiles(dataFolder, deltaStore);
+        dirtyEntities = new DirtyEntities();
+        baseSnapshotLock = new Object();
+        rewardsLock = new ReentrantLock();
+        pendingRewards = new RewardBuckets(configuration.rewardBuckets);
+        postInstaller = new PostInstaller() {
+            @Override
+            public Post resolve(int id) {
+                return getRealPost(id);
+            }
+
+            @Override
+            public Post getResident(int id) {
+                return postMap.get(id);
+            }
+
+            @Override
+            public void install(Post post, Post original) {
+                installPost(post, original);
+            }
+        };
+        replayTarget = new WalMutations.Target() {
+            @Override
+            public void registerUser(int id, String username, String password, String[] tags) {
+                replayRegisterUser(id, username, password, tags);
+            }
+
+            @Override
+            public void follow(String from, String to, boolean added) {
+                replayFollow(from, to, added);
+            }
+
+            @Override
+            public void addPost(int id, String username, String title, String content, long creationTime,
+                                int originalId) {
+                replayAddPost(id, username, title, content, creationTime, originalId);
+            }
+
+            @Override
+            public void removePost(int id) {
+                // the log is not open while replaying, then it only changes the state and notifies nobody
+                ServerLogic.this.removePost(id);
+            }
+
+            @Override
+            public void addComment(int id, int postId, String owner, String content, long creationTime) {
+                replayAddComment(id, postId, owner, content, creationTime);
+            }
+
+            @Override
+            public void addVote(VotableType type, int entityId, int voterId, VoteType vote) {
+                replayAddVote(type, entityId, voterId, vote);
+            }
+        };
+        if(configuration.offHeapText) {
+            TextArena.enable();
+        }
+        if(configuration.maxResidentPosts > 0) {
+            try {
+                coldPosts = new ColdPostCache(Paths.get(dataFolder + ColdPostCache.FILE_NAME),
+                        postMap, commentMap, rewinIndex, postInstaller);
+            } catch (IOException e) {
+                WinsomeHelper.printlnDebug("The evicted posts cannot be written, every post is kept in memory!");
+                e.printStackTrace();
+            }
+        }
+
         registeredUsersRW = new ReentrantReadWriteLock();
-        cachedBlogsRW = new ReentrantReadWriteLock();
-        postMapRW = new ReentrantReadWriteLock();
-        commentMapRW = new ReentrantReadWriteLock();
         currentSessionsRW = new ReentrantReadWriteLock();
 
-        btcConverterURL = new URL("https://www.random.org/decimal-fractions/?num=1&dec=10&col=1&format=plain&rnd=new");
+        exchangeRates = ExchangeRateProviders.open(configuration);
 
         try {
             if(loadFromDisk()) {
@@ -92,174 +225,772 @@ public class ServerLogic {
     }
 
     /**
-     * Save all entities in different files
-     * @return true if all entities have been saved, false if saved partially
+     * Save all entities in the binary snapshot, the deltas written before are merged into it.
+     * The snapshot is cut at a write ahead log position: the mutations logged before it are all included,
+     * the later ones may be included or not and are replayed on load. Every entity is copied under its
+     * lock and written after releasing it, so the writers are never blocked by the file I/O.
+     * The posts never read since the startup are copied from the loaded snapshot as they are
+     * @return true if all entities have been saved, false if not saved
      */
     public synchronized boolean saveToDisk() {
-        boolean allCompleted = true;
-        Gson gsonPost = new GsonBuilder()
-                .setPrettyPrinting()
-                .create();
-
-        Lock rLock = WinsomeHelper.acquireReadLock(postMapRW);
-        WinsomeHelper.prepareReadCollection(postMap.values());
-        String jsonPost = gsonPost.toJson(postMap.values());
-        WinsomeHelper.releaseReadCollection(postMap.values());
+        if(!isBuiltInStorage()) {
+            // the storage engine already has the entities written before, it gets the changes then it is compacted
+            return saveDelta() && compactStore();
+        }
+
+        boolean allCompleted;
+        long checkpoint = 0;
+        if(wal != null) {
+            // the mutations logged before the checkpoint are all applied and included in the snapshot
+            checkpoint = wal.rotate();
+            wal.awaitApplied(checkpoint);
+        }
+        List<File> mergedDeltas = deltaStore.list();
+        // part of this snapshot, flagged again if it is not saved completely
+        DirtyEntities.Changes saved = dirtyEntities.drain();
+
+        Lock rLock = WinsomeHelper.acquireReadLock(registeredUsersRW);
+        List<User> users = new ArrayList<>(registeredUsers.values());
         rLock.unlock();
 
-        File postFile = new File(dataFolder + "posts.json");
+        // every entity is copied and streamed to the file one at a time, nothing else is buffered
+        rewardsLock.lock();
         try {
-            postFile.getParentFile().mkdirs();
-            postFile.createNewFile();
-            try (FileOutputStream oFile = new FileOutputStream(postFile, false)) {
-                oFile.write(jsonPost.getBytes(StandardCharsets.UTF_8));
-            } catch (FileNotFoundException e) {
-                // Should never reach here
-                WinsomeHelper.printlnDebug("Post file not found!");
-                allCompleted = false;
+            synchronized (baseSnapshotLock) {
+                BinarySnapshot base = getLazySnapshot();
+                allCompleted = snapshotFile.write(base, new LiveSnapshotContent(users, postMap, lazyPosts, base, coldPosts));
+                if(allCompleted) {
+                    deltaStore.delete(mergedDeltas);
+                    jsonFiles.backup();
+                }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            allCompleted = false;
+        } finally {
+            rewardsLock.unlock();
         }
 
-        Gson gson = new GsonBuilder()
-                .setPrettyPrinting()
-                .create();
+        if(!allCompleted) {
+            dirtyEntities.requeue(saved);
+        } else if(wal != null) {
+            wal.deleteSegmentsBefore(checkpoint);
+        }
+        return allCompleted;
+    }
 
-        rLock = WinsomeHelper.acquireReadLock(commentMapRW);
-        WinsomeHelper.prepareReadCollection(commentMap.values());
-        String jsonComment = gson.toJson(commentMap.values());
-        WinsomeHelper.releaseReadCollection(commentMap.values());
-        rLock.unlock();
+    /**
+     * Incremental checkpoint, only the entities changed after the previous checkpoint are written into a new
+     * delta file. Its cost depends on the mutations since the last checkpoint and not on the amount of data
+     * @return true if the delta has been written
+     */
+    public synchronized boolean saveDelta() {
+        long checkpoint = 0;
+        if(wal != null) {
+            // every change logged before the checkpoint is applied and then already flagged
+            checkpoint = wal.rotate();
+            wal.awaitApplied(checkpoint);
+        }
 
-        File commentFile = new File(dataFolder + "comments.json");
+        // the flags are cleared before the copy, an entity changed after it is queued for the next delta
+        DirtyEntities.Changes changes;
+        DeltaStore.Delta delta;
+        rewardsLock.lock();
         try {
-            commentFile.createNewFile();
-            try (FileOutputStream oFile = new FileOutputStream(commentFile, false)) {
-                oFile.write(jsonComment.getBytes(StandardCharsets.UTF_8));
-            } catch (FileNotFoundException e) {
-                // Should never reach here
-                WinsomeHelper.printlnDebug("Comment file not found!");
-                allCompleted = false;
+            changes = dirtyEntities.drain();
+            delta = changes.toDelta(postMap::get, commentMap::get);
+        } finally {
+            rewardsLock.unlock();
+        }
+
+        boolean completed = true;
+        if(!delta.isEmpty()) {
+            try {
+                if(isBuiltInStorage()) {
+                    deltaStore.write(EntityGson.get().toJson(delta));
+                } else {
+                    writeToStore(delta);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                completed = false;
+                dirtyEntities.requeue(changes);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            allCompleted = false;
         }
 
-        rLock = WinsomeHelper.acquireReadLock(registeredUsersRW);
-        WinsomeHelper.prepareReadCollection(registeredUsers.values());
-        String jsonUser = gson.toJson(registeredUsers.values());
-        WinsomeHelper.releaseReadCollection(registeredUsers.values());
-        rLock.unlock();
+        if(wal != null && completed) {
+            wal.deleteSegmentsBefore(checkpoint);
+        }
+        return completed;
+    }
 
-        File userFile = new File(dataFolder + "users.json");
-        try {
-            userFile.createNewFile();
-            try (FileOutputStream oFile = new FileOutputStream(userFile, false)) {
-                oFile.write(jsonUser.getBytes(StandardCharsets.UTF_8));
-            } catch (FileNotFoundException e) {
-                // Should never reach here
-                WinsomeHelper.printlnDebug("User file not found!");
-                allCompleted = false;
+    /**
+     * Move the least recently used posts out of memory until at most maxResidentPosts are left, with their
+     * comments and votes. Only the posts idle for evictionMinIdleSeconds and already saved by a checkpoint are
+     * moved: the file of the evicted posts is never needed to recover the data. The ids, the blogs and the
+     * rewins stay in memory and an evicted post is read back on its next access
+     * @return number of posts evicted
+     */
+    public synchronized int evictColdPosts() {
+        if(coldPosts == null) return 0;
+        // the rewards read only the posts in memory
+        return coldPosts.evict(configuration.maxResidentPosts, configuration.evictionMinIdleSeconds, rewardsLock);
+    }
+
+    /**
+     * Get the counters of the post accesses, meaningful only when the posts can be evicted
+     * @return current counters
+     */
+    public PostCacheStats getPostCacheStats() {
+        ColdPostCache current = coldPosts;
+        return current != null ? current.getStats() : new PostCacheStats(0, 0, 0, postMap.size(), 0, 0);
+    }
+
+    /**
+     * Merge the deltas into the base snapshot and delete them, it only works on the files
+     * and it does not block the mutations or the incremental checkpoints: the posts not changed by the
+     * deltas are copied without being decoded
+     * @param minDeltas minimum number of deltas to start merging
+     * @return true if nothing had to be merged or if the merge completed
+     */
+    public boolean compactDeltas(int minDeltas) {
+        if(!isBuiltInStorage()) return compactStore();
+        synchronized (baseSnapshotLock) {
+            List<File> deltas = deltaStore.list();
+            if(deltas.isEmpty() || deltas.size() < minDeltas) return true;
+            if(snapshotFile.exists()) {
+                return snapshotFile.merge(deltas);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            allCompleted = false;
         }
+        // the base is still made of the JSON files, converted by a full checkpoint
+        return saveToDisk();
+    }
 
-        return allCompleted;
+    /**
+     * Write a delta into the storage engine and make it durable
+     * @param delta delta
+     * @throws IOException if the store cannot be written
+     */
+    private void writeToStore(DeltaStore.Delta delta) throws IOException {
+        ExternalStore current = store;
+        if(current == null) throw new IOException("Storage engine " + configuration.storageEngine + " not opened!");
+        current.write(delta);
+    }
+
+    private boolean compactStore() {
+        ExternalStore current = store;
+        return current != null && current.compact();
+    }
+
+    private boolean isBuiltInStorage() {
+        return SocialStores.BUILT_IN.equals(configuration.storageEngine);
+    }
+
+    /**
+     * Block the checkpoints while the rewards are calculated, they are applied to posts and wallets
+     * without being logged. To be released with endRewards
+     */
+    public void beginRewards() {
+        rewardsLock.lock();
+    }
+
+    /**
+     * Let the checkpoints run again after the rewards calculation
+     */
+    public void endRewards() {
+        rewardsLock.unlock();
+    }
+
+    /**
+     * Queue a post for the next reward calculation of its bucket, no lock is required
+     * @param post real post
+     */
+    private void markRewardPending(Post post) {
+        pendingRewards.markPending(post);
+    }
+
+    /**
+     * Flag a post as changed, it will be written by the next checkpoint
+     * @param post real post
+     */
+    public void markDirty(Post post) {
+        dirtyEntities.markDirty(post);
+    }
+
+    /**
+     * Flag a comment as changed, it will be written by the next checkpoint
+     * @param comment real comment
+     */
+    public void markDirty(Comment comment) {
+        dirtyEntities.markDirty(comment);
+    }
+
+    /**
+     * Flag a user as changed, it will be written by the next checkpoint
+     * @param user real user
+     */
+    public void markDirty(User user) {
+        dirtyEntities.markDirty(user);
     }
 
     /**
-     * Load all entities from disk on startup
+     * Write the pending records of the write ahead log and close it, to be called after the last save
+     */
+    public void close() {
+        exchangeRates.close();
+        if(wal != null) {
+            wal.close();
+            wal = null;
+        }
+        if(store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            store = null;
+        }
+        if(coldPosts != null) {
+            try {
+                coldPosts.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            coldPosts = null;
+        }
+    }
+
+    /**
+     * Load all entities from disk on startup, the base snapshot then its deltas and the write ahead log.
+     * With the binary snapshot only the users and the post index are read, each post is read on its first access
      * @return true if all data have been loaded, false if partially
      * @throws DataAlreadyLoadedException if the load is called more then one time
      */
     public synchronized boolean loadFromDisk() throws DataAlreadyLoadedException {
         if(initialized) throw new DataAlreadyLoadedException();
         initialized = true;
-        boolean allCompleted = true;
-        Gson gsonPost = new GsonBuilder().create();
+        boolean allCompleted;
+        long start = System.nanoTime();
 
-        try {
-            String jsonPost = new String(Files.readAllBytes(Paths.get(dataFolder + "posts.json")), StandardCharsets.UTF_8);
-            List<Post> posts = gsonPost.fromJson(jsonPost, new TypeToken<List<Post>>(){}.getType());
-            posts.sort((o1, o2) -> o2.getCreationDate().compareTo(o1.getCreationDate()));
-            int maxPostIdTemp = 0;
-            for(Post post : posts) {
-                post.setTotalComments(0);
-                postMap.put(post, post);
-                maxPostIdTemp = Math.max(maxPostIdTemp, post.getId());
-            }
-            maxPostId.set(maxPostIdTemp);
-
-            postMap.values().forEach(x -> {
-                if(x.isRewin()) {
-                    x.setOriginalPost(postMap.get(x.getOriginalPost()));
-                }
-            });
-        } catch (IOException e) {
-            if(!(e instanceof NoSuchFileException)) {
+        if(!isBuiltInStorage()) {
+            allCompleted = loadFromStore();
+        } else if(snapshotFile.exists()) {
+            allCompleted = loadBinarySnapshot(snapshotFile.getPath());
+        } else {
+            allCompleted = loadJsonSnapshot();
+        }
+        long phase = System.nanoTime();
+
+        if(configuration.walEnabled) {
+            WriteAheadLog log = new WriteAheadLog(dataFolder + "wal/", configuration.walGroupCommitMs,
+                    configuration.walGroupCommitBytes, configuration.walSegmentBytes);
+            try {
+                // the records may be already part of the snapshot, replaying them is idempotent
+                int replayed = log.replay(record -> WalMutations.replay(record, replayTarget));
+                WinsomeHelper.printfDebug("Replayed %d mutations from the write ahead log!", replayed);
+                log.open();
+                wal = log;
+            } catch (IOException e) {
                 e.printStackTrace();
                 allCompleted = false;
             }
+            ParallelLoader.logPhase("wal", phase);
         }
 
-        Gson gson = new GsonBuilder().create();
+        ParallelLoader.logPhase("total", start);
+        return allCompleted;
+    }
+
+    /**
+     * Load the JSON files written by the previous versions, every entity is read.
+     * The files and the deltas are parsed concurrently, then the posts and the comments are linked and indexed
+     * in parallel ranges
+     * @return true if all data have been loaded, false if partially
+     */
+    private boolean loadJsonSnapshot() {
+        long phase = System.nanoTime();
+        List<User> users = new ArrayList<>();
+        List<Post> posts = new ArrayList<>();
+        List<Comment> comments = new ArrayList<>();
+        boolean allCompleted = jsonFiles.read(users, posts, comments);
+        ParallelLoader.logPhase("read", phase);
+
+        installLoadedEntities(users, posts, comments);
+        return allCompleted;
+    }
 
+    /**
+     * Load every entity from the storage engine chosen in the configuration, through its scans
+     * @return true if all data have been loaded, false if partially
+     */
+    private boolean loadFromStore() {
+        long phase = System.nanoTime();
+        List<User> users = new ArrayList<>();
+        List<Post> posts = new ArrayList<>();
+        List<Comment> comments = new ArrayList<>();
         try {
-            String jsonComment = new String(Files.readAllBytes(Paths.get(dataFolder + "comments.json")), StandardCharsets.UTF_8);
-            List<Comment> comments = gson.fromJson(jsonComment, new TypeToken<List<Comment>>(){}.getType());
-            Post temp = new Post();
-            int maxCommentIdTemp = 0;
-            for(Comment comment : comments) {
-                temp.setId(comment.getPostId());
-                Post referredPost = postMap.get(temp);
-                if(referredPost == null) {
-                    WinsomeHelper.printfDebug("WARNING Load from disk! Comment with id %d set with post id %d but it does not exists!");
+            store = ExternalStore.open(configuration.storageEngine, dataFolder);
+            store.readAll(users, posts, comments);
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return false;
+        }
+        WinsomeHelper.printfDebug("Read %d users, %d posts and %d comments from the %s storage engine!",
+                users.size(), posts.size(), comments.size(), store.getName());
+        ParallelLoader.logPhase("read", phase);
+
+        installLoadedEntities(users, posts, comments);
+        return true;
+    }
+
+    /**
+     * Register the users, posts and comments read from disk, nothing is synchronized yet. The posts and the
+     * comments are linked and indexed in parallel ranges
+     * @param users loaded users
+     * @param posts loaded posts
+     * @param comments loaded comments
+     */
+    private void installLoadedEntities(List<User> users, List<Post> posts, List<Comment> comments) {
+        long phase = System.nanoTime();
+        // users first, the posts refer to them by id
+        registerLoadedUsers(users);
+        phase = ParallelLoader.logPhase("users", phase);
+
+        Post[] loadedPosts = posts.toArray(new Post[0]);
+        AtomicInteger maxPostIdTemp = new AtomicInteger(-1);
+        ParallelLoader.forEachRange(loadedPosts.length, (from, to) -> {
+            int max = -1;
+            for(int i = from; i < to; i++) {
+                loadedPosts[i].setTotalComments(0);
+                postMap.put(loadedPosts[i].getId(), loadedPosts[i]);
+                max = Math.max(max, loadedPosts[i].getId());
+            }
+            maxPostIdTemp.accumulateAndGet(max, Math::max);
+        });
+        // next id to be generated
+        maxPostId.set(maxPostIdTemp.get() + 1);
+
+        ParallelLoader.forEachRange(loadedPosts.length, (from, to) -> {
+            for(int i = from; i < to; i++) {
+                Post post = loadedPosts[i];
+                if(!post.isRewin()) continue;
+                Post original = postMap.get(post.getOriginalPost().getId());
+                if(original == null) {
+                    // saved while its original post was being removed
+                    WinsomeHelper.printfDebug("WARNING Load from disk! Rewin %d refers to a removed post!", post.getId());
+                    postMap.remove(post.getId());
                     continue;
                 }
-                referredPost.addComment(comment);
-                commentMap.put(comment.getId(), comment);
-                maxCommentIdTemp = Math.max(maxCommentIdTemp, comment.getId());
+                post.setOriginalPost(original);
             }
-            maxCommentId.set(maxCommentIdTemp);
-        } catch (IOException e) {
-            if(!(e instanceof NoSuchFileException)) {
-                e.printStackTrace();
-                allCompleted = false;
+        });
+        phase = ParallelLoader.logPhase("posts", phase);
+
+        // grouped by post keeping their order, then each post is filled by a single task
+        Comment[] loadedComments = comments.toArray(new Comment[0]);
+        Arrays.parallelSort(loadedComments, Comparator.comparingInt(Comment::getPostId));
+        AtomicInteger maxCommentIdTemp = new AtomicInteger();
+        ParallelLoader.forEachGroup(loadedComments.length,
+                (previous, next) -> loadedComments[previous].getPostId() == loadedComments[next].getPostId(),
+                (from, to) -> {
+                    int max = 0;
+                    for(int i = from; i < to; i++) {
+                        Comment comment = loadedComments[i];
+                        Post referredPost = postMap.get(comment.getPostId());
+                        if(referredPost == null) {
+                            WinsomeHelper.printfDebug("WARNING Load from disk! Comment with id %d set with post id %d but it does not exists!", comment.getId(), comment.getPostId());
+                            loadedComments[i] = null;
+                            continue;
+                        }
+                        referredPost.addComment(comment);
+                        commentMap.put(comment.getId(), comment);
+                        max = Math.max(max, comment.getId());
+                    }
+                    maxCommentIdTemp.accumulateAndGet(max, Math::max);
+                });
+        maxCommentId.set(maxCommentIdTemp.get());
+        phase = ParallelLoader.logPhase("comments", phase);
+
+        ToIntFunction<String> userIds = username -> {
+            User user = registeredUsers.get(username);
+            return user != null ? user.getId() : -1;
+        };
+        ParallelLoader.forEachRange(loadedPosts.length, (from, to) -> {
+            for(int i = from; i < to; i++) {
+                Post post = loadedPosts[i];
+                if(postMap.get(post.getId()) != post) continue;
+                if(post.migrateLegacyVotes(userIds)) markDirty(post);
+                if(post.hasPendingRewards()) markRewardPending(post);
             }
-        }
+        });
+        ParallelLoader.forEachRange(loadedComments.length, (from, to) -> {
+            for(int i = from; i < to; i++) {
+                if(loadedComments[i] != null && loadedComments[i].migrateLegacyVotes(userIds)) markDirty(loadedComments[i]);
+            }
+        });
+        phase = ParallelLoader.logPhase("votes", phase);
 
-        try {
-            String jsonUser = new String(Files.readAllBytes(Paths.get(dataFolder + "users.json")), StandardCharsets.UTF_8);
-            List<User> users = gson.fromJson(jsonUser, new TypeToken<List<User>>(){}.getType());
-            for(User user : users) {
-                registeredUsers.put(user.getUsername(), user);
+        //enable synchronization and create blogs
+        registeredUsers.forEach((k, v) -> {
+            v.enableSynchronization(true);
+            cachedBlogs.put(k, new ChunkedIntIndex());
+        });
+
+        // each blog is filled by a single task in ascending order
+        Arrays.parallelSort(loadedPosts, Comparator.comparing(Post::getUsername).thenComparingInt(Post::getId));
+        ParallelLoader.forEachGroup(loadedPosts.length,
+                (previous, next) -> loadedPosts[previous].getUsername().equals(loadedPosts[next].getUsername()),
+                (from, to) -> {
+                    for(int i = from; i < to; i++) {
+                        Post post = loadedPosts[i];
+                        if(postMap.get(post.getId()) != post) continue;
+                        cachedBlogs.get(post.getUsername()).add(post.getId());
+                        if(post.isRewin()) {
+                            registerRewin(post.getOriginalPost().getId(), post.getId());
+                        }
+                    }
+                });
+        phase = ParallelLoader.logPhase("blogs", phase);
+
+        // not recursive, every post and comment is enabled by its own task
+        ParallelLoader.forEachRange(loadedPosts.length, (from, to) -> {
+            for(int i = from; i < to; i++) {
+                loadedPosts[i].enableSynchronization(false);
             }
+        });
+        ParallelLoader.forEachRange(loadedComments.length, (from, to) -> {
+            for(int i = from; i < to; i++) {
+                if(loadedComments[i] != null) loadedComments[i].enableSynchronization(false);
+            }
+        });
+        ParallelLoader.logPhase("synchronization", phase);
+    }
+
+    /**
+     * Load the users and the post index of the binary snapshot, the deltas are applied over it and only the
+     * posts changed by them are read. The users and the deltas are parsed concurrently, the blogs and the
+     * rewins are built from the index in parallel ranges
+     * @param path snapshot file
+     * @return true if all data have been loaded, false if partially
+     */
+    private boolean loadBinarySnapshot(Path path) {
+        BinarySnapshot snapshot;
+        try {
+            snapshot = BinarySnapshot.open(path);
         } catch (IOException e) {
-            if(!(e instanceof NoSuchFileException)) {
+            e.printStackTrace();
+            return false;
+        }
+        boolean allCompleted = true;
+        long phase = System.nanoTime();
+
+        CompletableFuture<List<User>> pendingUsers = ParallelLoader.read(snapshot::readUsers);
+        List<File> deltas = deltaStore.list();
+        List<CompletableFuture<DeltaStore.Delta>> pendingDeltas = deltaStore.readAll(deltas);
+        DeltaOverlay overlay = new DeltaOverlay(snapshot);
+        for(int i = 0; i < deltas.size(); i++) {
+            try {
+                overlay.apply(ParallelLoader.join(pendingDeltas.get(i)));
+            } catch (IOException | RuntimeException e) {
+                // the following deltas may depend on this one
+                WinsomeHelper.printfDebug("WARNING Load from disk! Delta %s cannot be read!", deltas.get(i).getName());
                 e.printStackTrace();
                 allCompleted = false;
+                break;
             }
         }
 
-        //enable synchronization and create blogs
+        Map<String, User> usersByName = new LinkedHashMap<>();
+        try {
+            ParallelLoader.join(pendingUsers).forEach(x -> usersByName.put(x.getUsername(), x));
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            allCompleted = false;
+        }
+        overlay.getUsers().forEach(x -> usersByName.put(x.getUsername(), x));
+        phase = ParallelLoader.logPhase("read", phase);
+
+        registerLoadedUsers(usersByName.values());
         registeredUsers.forEach((k, v) -> {
             v.enableSynchronization(true);
-            cachedBlogs.put(k, new LinkedList<>());
+            cachedBlogs.put(k, new ChunkedIntIndex());
+        });
+        phase = ParallelLoader.logPhase("users", phase);
+
+        int count = snapshot.getPostCount();
+        LazySnapshotPosts lazy = new LazySnapshotPosts(snapshot);
+        lazyPosts = lazy;
+        // author in the high bits and slot in the low ones, the removed posts are sorted last
+        long[] blogKeys = new long[count];
+        Queue<Integer> touchedSlots = new ConcurrentLinkedQueue<>();
+        ParallelLoader.forEachRange(count, (from, to) -> {
+            for(int slot = from; slot < to; slot++) {
+                int id = snapshot.getPostId(slot);
+                if(overlay.isRemoved(id)) {
+                    blogKeys[slot] = Long.MAX_VALUE;
+                    lazy.markLoaded(slot);
+                    continue;
+                }
+                blogKeys[slot] = ((long) snapshot.getPostAuthorId(slot) << 32) | slot;
+                int originalId = snapshot.getOriginalPostId(slot);
+                if(originalId >= 0) {
+                    registerRewin(originalId, id);
+                }
+                if(overlay.touches(id)) {
+                    touchedSlots.add(slot);
+                }
+            }
         });
+        // each blog is filled by a single task, the slots are in ascending id order
+        Arrays.parallelSort(blogKeys);
+        ParallelLoader.forEachGroup(lazy.getPendingCount(),
+                (previous, next) -> (blogKeys[previous] >>> 32) == (blogKeys[next] >>> 32),
+                (from, to) -> {
+                    ChunkedIntIndex blog = cachedBlogs.get(snapshot.getString((int) (blogKeys[from] >>> 32)));
+                    for(int i = from; i < to; i++) {
+                        if(i > from && (blogKeys[i] >>> 32) != (blogKeys[i - 1] >>> 32)) {
+                            blog = cachedBlogs.get(snapshot.getString((int) (blogKeys[i] >>> 32)));
+                        }
+                        blog.add(snapshot.getPostId((int) blogKeys[i]));
+                    }
+                });
+        phase = ParallelLoader.logPhase("index", phase);
+
+        int maxPostIdTemp = count > 0 ? snapshot.getPostId(count - 1) : -1;
+        List<Post> mergedPosts = new ArrayList<>();
+        for(int id : overlay.getNewPostIds()) {
+            Post post = overlay.merge(id);
+            maxPostIdTemp = Math.max(maxPostIdTemp, id);
+            addLoadedPost(id, post.getUsername(), post.isRewin() ? post.getOriginalPost().getId() : -1);
+            mergedPosts.add(post);
+        }
+        // next id to be generated
+        maxPostId.set(maxPostIdTemp + 1);
+        maxCommentId.set(Math.max(snapshot.getMaxCommentId(), overlay.getMaxCommentId()));
+
+        // the posts changed by the deltas are never read from the snapshot, not even as original posts
+        Integer[] touched = touchedSlots.toArray(new Integer[0]);
+        for(int slot : touched) {
+            lazy.markLoaded(slot);
+        }
+        Post[] touchedPosts = new Post[touched.length];
+        ParallelLoader.forEachRange(touched.length, (from, to) -> {
+            for(int i = from; i < to; i++) {
+                touchedPosts[i] = overlay.merge(snapshot.getPostId(touched[i]));
+            }
+        });
+        mergedPosts.addAll(Arrays.asList(touchedPosts));
+        // the original posts first, the rewins resolve them by id
+        Post[] merged = mergedPosts.toArray(new Post[0]);
+        boolean[] rewins = new boolean[merged.length];
+        for(int i = 0; i < merged.length; i++) {
+            rewins[i] = merged[i] != null && merged[i].isRewin();
+        }
+        installMergedPosts(merged, rewins, false);
+        installMergedPosts(merged, rewins, true);
+        lazy.finishLoading();
+        ParallelLoader.logPhase("merge", phase);
+        WinsomeHelper.printfDebug("Loaded %d users and the index of %d posts, applied %d deltas!",
+                usersByName.size(), count, deltas.size());
+        return allCompleted;
+    }
 
-        postMap.forEach((k, v) -> {
-            cachedBlogs.get(v.getUsername()).add(v);
-            postList.add(v);
-            v.enableSynchronization(true);
+    private void installMergedPosts(Post[] posts, boolean[] rewins, boolean installRewins) {
+        ParallelLoader.forEachRange(posts.length, (from, to) -> {
+            for(int i = from; i < to; i++) {
+                if(posts[i] != null && rewins[i] == installRewins) {
+                    installPost(posts[i], getLoadedOriginal(posts[i]));
+                }
+            }
         });
-        commentMap.forEach((k, v) -> v.enableSynchronization(true));
+    }
 
-        return allCompleted;
+    /**
+     * Register the loaded users by username and by id
+     * @param users users not synchronized yet
+     */
+    private void registerLoadedUsers(Collection<User> users) {
+        for(User user : users) {
+            registeredUsers.put(user.getUsername(), user);
+            maxUserId.set(Math.max(maxUserId.get(), user.getId()));
+        }
+        for(User user : users) {
+            // saved by a previous version without ids, written again by the next checkpoint to keep them
+            if(user.getId() == 0) {
+                user.setId(maxUserId.incrementAndGet());
+                markDirty(user);
+            }
+            usersById.put(user.getId(), user);
+        }
+    }
+
+    /**
+     * Add a post of the snapshot to the blog of its author and to the rewins of its original post
+     * @param id post id
+     * @param author username of the author
+     * @param originalId original post id, -1 if it is not a rewin
+     */
+    private void addLoadedPost(int id, String author, int originalId) {
+        cachedBlogs.get(author).add(id);
+        if(originalId >= 0) {
+            registerRewin(originalId, id);
+        }
+    }
+
+    private Post getLoadedOriginal(Post post) {
+        return post.isRewin() ? getRealPost(post.getOriginalPost().getId()) : null;
+    }
+
+    /**
+     * Make a post read from the snapshot visible with its comments
+     * @param post post not synchronized yet, a rewin refers to a placeholder of its original post
+     * @param original real original post if it is a rewin, null if it has been removed
+     */
+    private void installPost(Post post, Post original) {
+        int id = post.getId();
+        if(post.isRewin()) {
+            if(original == null) {
+                // saved while its original post was being removed
+                WinsomeHelper.printfDebug("WARNING Load from disk! Rewin %d refers to a removed post!", id);
+                cachedBlogs.get(post.getUsername()).remove(id);
+                dirtyEntities.markRemovedPost(id);
+                return;
+            }
+            post.setOriginalPost(original);
+        }
+
+        List<Comment> comments = post.getComments();
+        boolean pendingRewards = post.hasPendingRewards();
+        post.enableSynchronization(true);
+        for(Comment comment : comments) {
+            commentMap.put(comment.getId(), comment);
+        }
+        postMap.put(id, post);
+        if(pendingRewards) markRewardPending(post);
+    }
+
+    /**
+     * Read every post of the binary snapshot not read yet
+     * @param onlyPendingRewards true to read only the posts with votes or comments not rewarded yet
+     */
+    private void loadLazyPosts(boolean onlyPendingRewards) {
+        LazySnapshotPosts lazy = lazyPosts;
+        if(lazy != null) lazy.loadAll(onlyPendingRewards, postInstaller);
+    }
+
+    /**
+     * Get the binary snapshot loaded on startup while some of its posts are still to be read
+     * @return the snapshot or null
+     */
+    private BinarySnapshot getLazySnapshot() {
+        LazySnapshotPosts lazy = lazyPosts;
+        return lazy != null ? lazy.getSnapshot() : null;
+    }
+
+    private void replayRegisterUser(int id, String username, String password, String[] tags) {
+        if(registeredUsers.containsKey(username)) return;
+        User user = new User(username, password, tags);
+        user.setId(id);
+        user.enableSynchronization(true);
+        registeredUsers.put(username, user);
+        usersById.put(id, user);
+        maxUserId.set(Math.max(maxUserId.get(), id));
+        cachedBlogs.computeIfAbsent(username, x -> new ChunkedIntIndex());
+        markDirty(user);
+    }
+
+    /**
+     * Apply a follow or an unfollow directly to both users, the callbacks are not notified
+     * @param from user following
+     * @param to user followed
+     * @param added true for a follow, false for an unfollow
+     */
+    private void replayFollow(String from, String to, boolean added) {
+        User fromUser = getRealUserByUsername(from);
+        User followedUser = getRealUserByUsername(to);
+        if(fromUser == null || followedUser == null) return;
+
+        SynchronizedObject.prepareInWriteMode(fromUser);
+        boolean changed = added ? fromUser.addUserFollowed(to) : fromUser.removeUserFollowed(to);
+        fromUser.releaseWrite();
+        SynchronizedObject.prepareInWriteMode(followedUser);
+        changed |= added ? followedUser.addUserFollowing(from) : followedUser.removeUserFollowing(from);
+        followedUser.releaseWrite();
+        if(changed) {
+            markDirty(fromUser);
+            markDirty(followedUser);
+        }
+    }
+
+    private void replayAddPost(int id, String username, String title, String content, long creationTime, int originalId) {
+        if(getRealPost(id) != null) return;
+        Post original = null;
+        if(originalId >= 0) {
+            original = getRealPost(originalId);
+            // removed later by a record already replayed
+            if(original == null) return;
+        }
+
+        Post post = new Post(id, username, title, content);
+        post.setCreationTime(creationTime);
+        post.setOriginalPost(original);
+        post.enableSynchronization(true);
+        cachedBlogs.computeIfAbsent(username, x -> new ChunkedIntIndex()).add(id);
+        postMap.put(id, post);
+        if(original != null) {
+            registerRewin(originalId, id);
+        }
+        maxPostId.set(Math.max(maxPostId.get(), id + 1));
+        markDirty(post);
+    }
+
+    private void replayAddComment(int id, int postId, String owner, String content, long creationTime) {
+        if(getRealComment(id) != null) return;
+        Post post = getRealPost(postId);
+        if(post == null) return;
+
+        Comment comment = new Comment(id, owner, content);
+        comment.setPostId(postId);
+        comment.setCreationTime(creationTime);
+        comment.enableSynchronization(true);
+        SynchronizedObject.prepareInWriteMode(post);
+        post.addComment(comment);
+        post.releaseWrite();
+        commentMap.put(id, comment);
+        maxCommentId.set(Math.max(maxCommentId.get(), id));
+        markDirty(comment);
+        markRewardPending(post);
+    }
+
+    private void replayAddVote(VotableType type, int entityId, int voterId, VoteType vote) {
+        BaseVotableEntity entity = type == VotableType.Post ? getRealPost(entityId) : getRealComment(entityId);
+        if(entity != null && entity.addVote(voterId, vote)) {
+            if(type == VotableType.Post) {
+                markDirty((Post) entity);
+                markRewardPending((Post) entity);
+            } else {
+                markDirty((Comment) entity);
+            }
+        }
+    }
+
+    /**
+     * Append a mutation to the write ahead log, before it becomes visible to the other threads
+     * @param record mutation
+     * @return the ticket to be committed after the mutation is applied, null if the log is disabled
+     */
+    private WriteAheadLog.Ticket log(WalRecord record) {
+        WriteAheadLog current = wal;
+        return current != null ? current.append(record) : null;
+    }
+
+    /**
+     * Wait until a logged mutation is durable, to be called without holding any lock
+     * @param ticket ticket returned by log
+     * @throws MutationNotDurableException if the log failed, the mutation must not be acknowledged
+     */
+    private void commit(WriteAheadLog.Ticket ticket) {
+        WriteAheadLog current = wal;
+        if(ticket != null && current != null && !current.commit(ticket)) {
+            throw new MutationNotDurableException("The write ahead log failed, the mutation is not durable!");
+        }
     }
 
     /**
@@ -279,11 +1010,17 @@ public class ServerLogic {
         }
 
         Lock wLock = WinsomeHelper.acquireWriteLock(registeredUsersRW);
-        User oldUser = registeredUsers.putIfAbsent(username, user);
-        wLock.unlock();
-        if(oldUser != null) {
+        if(registeredUsers.containsKey(username)) {
+            wLock.unlock();
             throw new UserAlreadyExistsException();
         }
+        user.setId(maxUserId.incrementAndGet());
+        WriteAheadLog.Ticket ticket = log(WalMutations.registerUser(user.getId(), username, password, tags));
+        registeredUsers.put(username, user);
+        usersById.put(user.getId(), user);
+        wLock.unlock();
+        markDirty(user);
+        commit(ticket);
 
         return user;
     }
@@ -344,15 +1081,31 @@ public class ServerLogic {
         User current = ((ConnectionSession) caller.attachment()).getUserLogged();
         if(current != null) {
             ((ConnectionSession)caller.attachment()).setUserLogged(null);
-            Lock rLock = WinsomeHelper.acquireReadLock(currentSessionsRW);
+            Lock wLock = WinsomeHelper.acquireWriteLock(currentSessionsRW);
             boolean wasRemoved = currentSessions.remove(current.getUsername()) != null;
-            rLock.unlock();
+            wLock.unlock();
             return wasRemoved;
         }
 
         return false;
     }
 
+    /**
+     * Push a wallet delta to the session of a user, it is written as soon as the session is not handled
+     * @param username username
+     * @param delta wallet delta
+     * @return true if the user has a session
+     */
+    public boolean pushWalletDelta(String username, WalletDeltaDTO delta) {
+        Lock rLock = WinsomeHelper.acquireReadLock(currentSessionsRW);
+        SelectionKey key = currentSessions.get(username);
+        rLock.unlock();
+        if(key == null) return false;
+
+        ((ConnectionSession) key.attachment()).pushWalletDelta(key, delta);
+        return true;
+    }
+
     /**
      * Create a new session between this username and this caller
      * @param username username
@@ -388,9 +1141,7 @@ public class ServerLogic {
         WinsomeHelper.releaseAllLocks(sessionLock, userLock);
         ((ConnectionSession)caller.attachment()).setUserLogged(userCopy);
 
-        Lock blogLock = WinsomeHelper.acquireWriteLock(cachedBlogsRW);
-        cachedBlogs.putIfAbsent(username, new LinkedList<>());
-        blogLock.unlock();
+        cachedBlogs.computeIfAbsent(username, x -> new ChunkedIntIndex());
 
         return NetResponseType.Success;
     }
@@ -442,6 +1193,7 @@ public class ServerLogic {
                 return UsernameNotExists;
             } else {
                 User fromUser = getRealUserByUsername(from);
+                WriteAheadLog.Ticket ticket = log(WalMutations.follow(from, to, true));
                 SynchronizedObject.prepareInWriteMode(fromUser);
                 fromUser.addUserFollowed(to);
                 fromUser.releaseWrite();
@@ -457,6 +1209,9 @@ public class ServerLogic {
                     }
                 }
                 followedUser.releaseWrite();
+                markDirty(fromUser);
+                markDirty(followedUser);
+                commit(ticket);
                 return Success;
             }
         }
@@ -478,11 +1233,13 @@ public class ServerLogic {
             } else {
                 User fromUser = getRealUserByUsername(from);
                 SynchronizedObject.prepareInWriteMode(fromUser);
-                if(!fromUser.removeUserFollowed(to)) {
+                if(!fromUser.hasUserFollowed(to)) {
                     fromUser.releaseWrite();
                     return UserNotFollowed;
                 }
                 else {
+                    WriteAheadLog.Ticket ticket = log(WalMutations.follow(from, to, false));
+                    fromUser.removeUserFollowed(to);
                     fromUser.releaseWrite();
                     SynchronizedObject.prepareInWriteMode(followedUser);
                     if(followedUser.removeUserFollowing(from)) {
@@ -494,6 +1251,9 @@ public class ServerLogic {
                         }
                     }
                     followedUser.releaseWrite();
+                    markDirty(fromUser);
+                    markDirty(followedUser);
+                    commit(ticket);
                     return Success;
                 }
             }
@@ -507,48 +1267,95 @@ public class ServerLogic {
      * @return a list copy
      */
     public List<Post> getFeedByUsername(String username, int page) {
-        final int pageSize = 5;
+        PostSnapshot[] snapshots = new PostSnapshot[POST_PAGE_SIZE];
+        int count = getFeedSnapshots(username, page, snapshots);
+        return count < 0 ? null : toPostList(snapshots, count);
+    }
+
+    /**
+     * Collect the current snapshots of a feed page, newest first, without locking any post
+     * @param username username
+     * @param page page
+     * @param out destination, at least POST_PAGE_SIZE long
+     * @return number of snapshots collected or -1 if the user does not exist
+     */
+    public int getFeedSnapshots(String username, int page, PostSnapshot[] out) {
         User user;
 
         Lock userLock = WinsomeHelper.acquireReadLock(registeredUsersRW);
         user = registeredUsers.get(username);
         userLock.unlock();
 
-        if(user == null) return null;
-        List<Post> posts = new ArrayList<>();
-
-        Lock postLock = WinsomeHelper.acquireReadLock(postMapRW);
-        if(postList.size() == 0) {
-            postLock.unlock();
-            return posts;
+        if(user == null) return -1;
+        int postToSkip = page * POST_PAGE_SIZE;
+        if(coldPosts != null || getLazySnapshot() != null) {
+            return getFeedSnapshotsFromBlogs(user, username, postToSkip, out);
         }
-
-        int postToSkip = page * pageSize;
-        int postSkipped = 0;
-        int postAdded = 0;
+        // skipped, collected
+        int[] counters = { 0, 0 };
 
         user.prepareRead();
-        for(int i = postList.size() - 1; i >= 0; i--) {
-            Post post = postList.get(i);
-            post.prepareRead();
-            if(!post.getUsername().equals(username) && user.hasUserFollowed(post.getUsername())) {
-                if(postSkipped < postToSkip) {
-                    postSkipped++;
+        // newest posts first
+        postMap.forEachOrdered(true, (id, post) -> {
+            PostSnapshot snapshot = post.getSnapshot();
+            if(!snapshot.getUsername().equals(username) && user.hasUserFollowed(snapshot.getUsername())) {
+                if(counters[0] < postToSkip) {
+                    counters[0]++;
                 } else {
-                    postAdded++;
-                    posts.add(post.deepCopyAs());
-                    if(postAdded == pageSize) {
-                        post.releaseRead();
-                        break;
-                    }
+                    out[counters[1]++] = snapshot;
                 }
             }
-            post.releaseRead();
-        }
+            return counters[1] < POST_PAGE_SIZE;
+        });
         user.releaseRead();
-        postLock.unlock();
 
-        return posts;
+        return counters[1];
+    }
+
+    /**
+     * Collect a feed page from the blogs of the users followed, used when some posts are not in memory (evicted
+     * or not read yet from the binary snapshot): only the posts of the page are read
+     * @param user real user
+     * @param username username
+     * @param postToSkip posts of the previous pages
+     * @param out destination, at least POST_PAGE_SIZE long
+     * @return number of snapshots collected
+     */
+    private int getFeedSnapshotsFromBlogs(User user, String username, int postToSkip, PostSnapshot[] out) {
+        user.prepareRead();
+        List<String> followed = new ArrayList<>(user.getFollowed());
+        user.releaseRead();
+
+        // the newest posts of each blog which can fall in the page
+        int needed = postToSkip + POST_PAGE_SIZE;
+        int[] ids = new int[needed];
+        int[] newest = new int[needed];
+        int size = 0;
+        for(String author : followed) {
+            ChunkedIntIndex blog = cachedBlogs.get(author);
+            if(blog == null || author.equals(username)) continue;
+            // copied under the blog lock, the posts are read after releasing it
+            int taken = blog.copyDescending(0, newest);
+            if(size + taken > ids.length) ids = Arrays.copyOf(ids, Math.max(size + taken, ids.length * 2));
+            System.arraycopy(newest, 0, ids, size, taken);
+            size += taken;
+        }
+        Arrays.sort(ids, 0, size);
+
+        int count = 0;
+        int toSkip = postToSkip;
+        for(int i = size - 1; i >= 0 && count < POST_PAGE_SIZE; i--) {
+            if(toSkip > 0) {
+                // the skipped posts are not read into memory
+                if(isPostPresent(ids[i])) toSkip--;
+                continue;
+            }
+            Post post = getRealPost(ids[i]);
+            if(post != null) {
+                out[count++] = post.getSnapshot();
+            }
+        }
+        return count;
     }
 
     /**
@@ -558,21 +1365,52 @@ public class ServerLogic {
      * @return result response
      */
     public List<Post> getBlogByUsername(String username, int page) {
-        final int pageSize = 5;
-        int pageStart = page * pageSize;
-        int endPage = pageStart + pageSize;
+        PostSnapshot[] snapshots = new PostSnapshot[POST_PAGE_SIZE];
+        int count = getBlogSnapshots(username, page, snapshots);
+        return toPostList(snapshots, count);
+    }
 
-        List<Post> result;
-        Lock blogLock = WinsomeHelper.acquireReadLock(cachedBlogsRW);
-        List<Post> curr = cachedBlogs.get(username);
-        if(curr.size() < pageStart) {
-            blogLock.unlock();
-            return new ArrayList<>();
+    /**
+     * Collect the current snapshots of a blog page, newest first, without locking any post
+     * @param username username
+     * @param page page
+     * @param out destination, at least POST_PAGE_SIZE long
+     * @return number of snapshots collected
+     */
+    public int getBlogSnapshots(String username, int page, PostSnapshot[] out) {
+        ChunkedIntIndex blog = cachedBlogs.get(username);
+        if(blog == null) return 0;
+
+        int count = 0;
+        // only the ids resolved to a post are skipped, an id being removed does not shorten the page
+        int toSkip = page * POST_PAGE_SIZE;
+        // newest first, the ids are copied under the blog lock and the posts are read after releasing it
+        int[] ids = new int[toSkip + POST_PAGE_SIZE];
+        int copied = 0;
+        while(count < POST_PAGE_SIZE) {
+            int read = blog.copyDescending(copied, ids);
+            copied += read;
+            for(int i = 0; i < read && count < POST_PAGE_SIZE; i++) {
+                if(toSkip > 0) {
+                    // the skipped posts are not read into memory
+                    if(isPostPresent(ids[i])) toSkip--;
+                    continue;
+                }
+                Post post = getRealPost(ids[i]);
+                if(post != null) {
+                    out[count++] = post.getSnapshot();
+                }
+            }
+            if(read < ids.length) break;
         }
+        return count;
+    }
 
-        int toIndex = Math.min(curr.size(), endPage);
-        result = WinsomeHelper.deepCopySynchronizedList(curr.subList(pageStart, toIndex).stream());
-        blogLock.unlock();
+    private static List<Post> toPostList(PostSnapshot[] snapshots, int count) {
+        List<Post> result = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            result.add(snapshots[i].toPost(false));
+        }
         return result;
     }
 
@@ -608,26 +1446,28 @@ public class ServerLogic {
      * @return result response
      */
     public NetResponseType addPost(Post post) {
-        Post inserted;
         Post realOriginalPost = null;
 
-        Lock postLock = WinsomeHelper.acquireWriteLock(postMapRW);
-        int generatedId = maxPostId.get();
         if(post.isRewin()) {
-            realOriginalPost = postMap.get(post.getOriginalPost());
+            // the original post cannot be removed while we hold its read lock
+            realOriginalPost = lockRealPost(post.getOriginalPost().getId(), false);
             if(realOriginalPost == null) {
-                postLock.unlock();
                 return OriginalPostNotExists;
             }
 
-            realOriginalPost.prepareRead();
-            while(realOriginalPost.isRewin()) {
-                realOriginalPost = realOriginalPost.getOriginalPost();
+            if(realOriginalPost.isRewin()) {
+                // rewins always point to the real original post
+                Post rewin = realOriginalPost;
+                int originalId = rewin.getOriginalPost().getSnapshot().getId();
+                rewin.releaseRead();
+                realOriginalPost = lockRealPost(originalId, false);
+                if(realOriginalPost == null) {
+                    return OriginalPostNotExists;
+                }
             }
 
             if(realOriginalPost.getUsername().equals(post.getUsername())) {
                 realOriginalPost.releaseRead();
-                postLock.unlock();
                 return UserSelfRewin;
             }
 
@@ -636,51 +1476,77 @@ public class ServerLogic {
             if(!user.hasUserFollowed(realOriginalPost.getUsername())) {
                 realOriginalPost.releaseRead();
                 user.releaseRead();
-                postLock.unlock();
                 return PostNotInFeed;
             }
-
             user.releaseRead();
-            realOriginalPost.releaseRead();
         }
 
-        do {
-            post.setId(generatedId++);
-        } while(postMap.containsKey(post));
-
-        maxPostId.set(generatedId);
-        inserted = post.deepCopyAs();
+        post.setId(maxPostId.getAndIncrement());
+        WriteAheadLog.Ticket ticket = log(WalMutations.addPost(post.getId(), post.getUsername(), post.getTitle(),
+                post.getContent(), post.getCreationTime(), realOriginalPost != null ? realOriginalPost.getId() : -1));
+        Post inserted = post.deepCopyAs();
         inserted.setOriginalPost(realOriginalPost);
-        postMap.put(inserted, inserted);
-        postList.add(inserted);
         inserted.enableSynchronization(true);
-        postLock.unlock();
-
-        Lock blogLock = WinsomeHelper.acquireWriteLock(cachedBlogsRW);
-        cachedBlogs.get(post.getUsername())
-                .add(0, inserted);
-        blogLock.unlock();
+        if(coldPosts != null) inserted.touch(coldPosts.accessClock());
+
+        // visible by id before being added to the blog, so every id read from a blog resolves to a post
+        postMap.put(post.getId(), inserted);
+        ChunkedIntIndex blog = cachedBlogs.get(post.getUsername());
+        blog.add(post.getId());
+        if(postMap.get(post.getId()) != inserted) {
+            // removed before being added to the blog, the removal could not find it there
+            blog.remove(post.getId());
+        }
+        if(realOriginalPost != null) {
+            // indexed while holding the original read lock, so its removal will find this rewin
+            registerRewin(realOriginalPost.getId(), post.getId());
+            realOriginalPost.releaseRead();
+        }
+        markDirty(inserted);
+        commit(ticket);
         return Success;
     }
 
     /**
-     * Get the post copy
+     * Get the post copy, built from its current snapshot without locking the post
      * @param id id post
      * @return post copy
      */
     public Post getPost(int id) {
-        Lock postLock = WinsomeHelper.acquireReadLock(postMapRW);
-        Post post = postMap.get(new Post(id));
-        postLock.unlock();
+        Post post = getRealPost(id);
+        return post != null ? post.getSnapshot().toPost(true) : null;
+    }
 
-        if(post != null) {
-            post.prepareRead();
-            Post temp = post;
-            post = post.deepCopyAs();
-            temp.releaseRead();
-        }
+    /**
+     * Get the current snapshot of a post, no lock is taken
+     * @param id id post
+     * @return post snapshot or null if it does not exist
+     */
+    public PostSnapshot getPostSnapshot(int id) {
+        Post post = getRealPost(id);
+        return post != null ? post.getSnapshot() : null;
+    }
+
+    /**
+     * Get the current snapshot of a comment, no lock is taken
+     * @param id id comment
+     * @return comment snapshot or null if it does not exist
+     */
+    public CommentSnapshot getCommentSnapshot(int id) {
+        Comment comment = getRealComment(id);
+        return comment != null ? comment.getSnapshot() : null;
+    }
 
-        return post;
+    /**
+     * Check if a post exists without reading it into memory when it is evicted or not read yet
+     * @param id id post
+     * @return true if it exists
+     */
+    private boolean isPostPresent(int id) {
+        if(postMap.get(id) != null) return true;
+        if(coldPosts != null && coldPosts.contains(id)) return true;
+        LazySnapshotPosts lazy = lazyPosts;
+        return lazy != null && lazy.isLazyPost(id);
     }
 
     /**
@@ -689,87 +1555,133 @@ public class ServerLogic {
      * @return post
      */
     private Post getRealPost(int id) {
-        Lock postLock = WinsomeHelper.acquireReadLock(postMapRW);
-        Post post = postMap.get(new Post(id));
-        postLock.unlock();
+        Post post = postMap.get(id);
+        if(coldPosts != null) return coldPosts.get(id, post, this::loadLazyPost);
+        return post != null ? post : loadLazyPost(id);
+    }
+
+    /**
+     * Read a post of the binary snapshot not accessed yet
+     * @param id id post
+     * @return the real post, null if it is not in the snapshot
+     */
+    private Post loadLazyPost(int id) {
+        LazySnapshotPosts lazy = lazyPosts;
+        return lazy != null ? lazy.load(id, postInstaller) : null;
+    }
 
-        return post;
+    /**
+     * Get a post and lock it. A post can be evicted and read back while waiting for its lock, then it is
+     * locked again until the locked one is the real post
+     * @param id id post
+     * @param write true for the write lock, false for the read lock
+     * @return the locked real post or null if it does not exist
+     */
+    private Post lockRealPost(int id, boolean write) {
+        Post post = getRealPost(id);
+        while(post != null) {
+            if(write) SynchronizedObject.prepareInWriteMode(post);
+            else post.prepareRead();
+            Post current = getRealPost(id);
+            if(current == post) return post;
+
+            if(write) post.releaseWrite();
+            else post.releaseRead();
+            post = current;
+        }
+        return null;
     }
 
     /**
-     * Remove a post by id, then remove all rewin and comments referred to that post
+     * Remove a post by id, then remove all rewin and comments referred to that post.
+     * The post is removed from the map under its write lock, after that no rewin can be added to it:
+     * a rewin is indexed while holding the original post read lock and checking it still exists,
+     * so the rewin index contains all of them and no other post is visited
      * @param id id post
      * @return true if removed
      */
     public boolean removePost(int id) {
         List<Post> deletedPosts = new ArrayList<>();
+        List<Integer> deletedCommentsId = new ArrayList<>();
 
-        Lock postLock = WinsomeHelper.acquireWriteLock(postMapRW);
-        Post post = postMap.get(new Post(id));
-        if(post == null) {
-            postLock.unlock();
+        if(getRealPost(id) == null) {
             return false;
         }
 
-        List<Integer> deletedCommentsId = new ArrayList<>();
-        Lock commentLock = WinsomeHelper.acquireWriteLock(commentMapRW);
-        post.prepareRead();
-        if(!post.isRewin()) {
-            postMap.values().removeIf(p -> {
-                if(p == post) return false;
-
-                p.prepareRead();
-                if(p.isRewin()) {
-                    Post originalP = p.getOriginalPost();
-                    originalP.prepareRead();
-                    if(originalP.getId() == id) {
-                        deletedPosts.add(p);
-                        for(Comment comment : p.getComments()) {
-                            comment.prepareRead();
-                            deletedCommentsId.add(comment.getId());
-                            comment.releaseRead();
-                        }
+        WriteAheadLog.Ticket ticket = log(WalMutations.removePost(id));
+        Post original = detachPost(id, deletedPosts, deletedCommentsId);
+        if(original == null) {
+            // removed concurrently
+            commit(ticket);
+            return false;
+        }
 
-                        originalP.releaseRead();
-                        p.releaseRead();
-                        return true;
-                    }
-                    originalP.releaseRead();
+        if(original == deletedPosts.get(0)) {
+            Set<Integer> rewins = rewinIndex.remove(id);
+            if(rewins != null) {
+                for(int rewinId : rewins) {
+                    detachPost(rewinId, deletedPosts, deletedCommentsId);
                 }
-                p.releaseRead();
-                return false;
-            });
+            }
+        } else {
+            Set<Integer> rewins = rewinIndex.get(original.getSnapshot().getId());
+            if(rewins != null) {
+                rewins.remove(id);
+            }
         }
 
-        for(Comment comment : post.getComments()) {
-            comment.prepareRead();
-            deletedCommentsId.add(comment.getId());
-            comment.releaseRead();
+        for (int idComment : deletedCommentsId) {
+            commentMap.remove(idComment);
+            dirtyEntities.markRemovedComment(idComment);
         }
-        post.releaseRead();
 
-        if(deletedCommentsId.size() > 0) {
-            for (Integer idComment : deletedCommentsId) {
-                commentMap.remove(idComment);
-            }
+        for(Post currentPost : deletedPosts) {
+            PostSnapshot snapshot = currentPost.getSnapshot();
+            cachedBlogs.get(snapshot.getUsername()).remove(snapshot.getId());
+            dirtyEntities.markRemovedPost(snapshot.getId());
         }
-        commentLock.unlock();
+        commit(ticket);
+        return true;
+    }
 
+    /**
+     * Remove a post from the map under its write lock and collect it with its comments
+     * @param id id of the post to be removed
+     * @param deletedPosts destination of the removed post
+     * @param deletedCommentsId destination of the comment ids
+     * @return its original post (itself if it is not a rewin) or null if it was already removed
+     */
+    private Post detachPost(int id, List<Post> deletedPosts, List<Integer> deletedCommentsId) {
+        Post post = lockRealPost(id, true);
+        if(post == null) return null;
+        if(!postMap.remove(id, post)) {
+            post.releaseWrite();
+            return null;
+        }
         deletedPosts.add(post);
-        for(Post currentPost : deletedPosts) {
-            postMap.remove(currentPost);
-            postList.remove(currentPost);
+
+        for(Comment comment : post.getComments()) {
+            deletedCommentsId.add(comment.getSnapshot().getId());
         }
-        postLock.unlock();
+        post.releaseAllText();
+        Post original = post.isRewin() ? post.getOriginalPost() : post;
+        post.releaseWrite();
+        return original;
+    }
 
-        Lock blogLock = WinsomeHelper.acquireWriteLock(cachedBlogsRW);
-        for(Post currentPost : deletedPosts) {
-            currentPost.prepareRead();
-            cachedBlogs.get(currentPost.getUsername()).remove(currentPost);
-            currentPost.releaseRead();
+    /**
+     * Add a rewin to the index of its original post
+     * @param originalId original post id
+     * @param rewinId rewin id
+     */
+    private void registerRewin(int originalId, int rewinId) {
+        Set<Integer> rewins = rewinIndex.get(originalId);
+        if(rewins == null) {
+            Set<Integer> created = ConcurrentHashMap.newKeySet();
+            rewins = rewinIndex.putIfAbsent(originalId, created);
+            if(rewins == null) rewins = created;
         }
-        blogLock.unlock();
-        return true;
+        rewins.add(rewinId);
     }
 
     /**
@@ -804,84 +1716,104 @@ public class ServerLogic {
      * @return result response
      */
     public NetResponseType addVote(int entityId, VotableType type, VoteType vote, String username) {
-        if(type == VotableType.Post) {
-            Lock rLock = WinsomeHelper.acquireReadLock(registeredUsersRW);
-            User user = registeredUsers.get(username);
-            rLock.unlock();
+        if(type != VotableType.Post && type != VotableType.Comment) {
+            return NetResponseType.InvalidParameters;
+        }
 
-            if(user == null) {
-                return ClientNotLoggedIn;
-            }
+        Lock rLock = WinsomeHelper.acquireReadLock(registeredUsersRW);
+        User user = registeredUsers.get(username);
+        rLock.unlock();
+
+        if(user == null) {
+            return ClientNotLoggedIn;
+        }
 
+        // votes are lock free on the entity: its owner never changes and the voter set rejects duplicates
+        BaseVotableEntity entity;
+        String entityOwner;
+        int postId;
+        if(type == VotableType.Post) {
             Post post = getRealPost(entityId);
             if(post == null) {
                 return NetResponseType.EntityNotExists;
             }
-
-            SynchronizedObject.prepareInWriteMode(post);
-            user.prepareRead();
-            if(post.getUsername().equals(user.getUsername())) {
-                post.releaseWrite();
-                user.releaseRead();
-                return NetResponseType.UserSelfVote;
+            entity = post;
+            entityOwner = post.getSnapshot().getUsername();
+            postId = entityId;
+        } else {
+            Comment comment = getRealComment(entityId);
+            if(comment == null) {
+                return NetResponseType.EntityNotExists;
             }
-
-            if(!user.hasUserFollowed(post.getUsername())) {
-                post.releaseWrite();
-                user.releaseRead();
-                return NetResponseType.PostNotInFeed;
+            CommentSnapshot snapshot = comment.getSnapshot();
+            if(getRealPost(snapshot.getPostId()) == null) {
+                return NetResponseType.EntityNotExists;
             }
+            entity = comment;
+            entityOwner = snapshot.getOwner();
+            postId = snapshot.getPostId();
+        }
 
-            if(post.getVote(user.getUsername()) != null) {
-                post.releaseWrite();
-                user.releaseRead();
-                return NetResponseType.UserAlreadyVoted;
-            }
+        if(entityOwner.equals(username)) {
+            return NetResponseType.UserSelfVote;
+        }
 
-            Vote voteEntity = new Vote(user.getUsername(), vote);
-            post.addVote(voteEntity);
-            voteEntity.enableSynchronization(true);
-            post.releaseWrite();
+        user.prepareRead();
+        if(type == VotableType.Post && !user.hasUserFollowed(entityOwner)) {
             user.releaseRead();
+            return NetResponseType.PostNotInFeed;
+        }
+        int voterId = user.getId();
+        user.releaseRead();
 
-            return NetResponseType.Success;
-        } else if(type == VotableType.Comment) {
-            Lock rLock = WinsomeHelper.acquireReadLock(registeredUsersRW);
-            User user = registeredUsers.get(username);
-            rLock.unlock();
-
-            if(user == null) {
-                return ClientNotLoggedIn;
-            }
-
-            Comment comment = getRealComment(entityId);
-            if(comment == null) {
-                return NetResponseType.EntityNotExists;
-            }
+        if(!applyVote(entity, type, entityId, postId, voterId, vote)) {
+            return NetResponseType.UserAlreadyVoted;
+        }
+        // no other mutation depends on a vote, then it can be logged after being applied
+        commit(log(WalMutations.addVote(type, entityId, voterId, vote)));
+        return NetResponseType.Success;
+    }
 
-            SynchronizedObject.prepareInWriteMode(comment);
-            user.prepareRead();
-            if(comment.getOwner().equals(user.getUsername())) {
-                comment.releaseWrite();
-                user.releaseRead();
-                return NetResponseType.UserSelfVote;
+    /**
+     * Add a vote and flag its entity as changed. When the posts can be evicted the vote is added under the
+     * read lock of the post, so that it is never added to a post already moved out of memory
+     * @param entity real entity found by the caller
+     * @param type entity type
+     * @param entityId entity id
+     * @param postId id of the post, or of the post of the comment
+     * @param voterId voter id
+     * @param vote vote type
+     * @return true if added, false if the user has already voted
+     */
+    private boolean applyVote(BaseVotableEntity entity, VotableType type, int entityId, int postId, int voterId,
+                              VoteType vote) {
+        if(coldPosts == null) {
+            if(!entity.addVote(voterId, vote)) return false;
+            if(type == VotableType.Post) {
+                markDirty((Post) entity);
+                markRewardPending((Post) entity);
+            } else {
+                markDirty((Comment) entity);
             }
+            return true;
+        }
 
-            if(comment.getVote(user.getUsername()) != null) {
-                comment.releaseWrite();
-                user.releaseRead();
-                return NetResponseType.UserAlreadyVoted;
+        Post post = lockRealPost(postId, false);
+        if(post == null) return false;
+        try {
+            // evicted and read back after the lookup
+            BaseVotableEntity real = type == VotableType.Post ? post : commentMap.get(entityId);
+            if(real == null || !real.addVote(voterId, vote)) return false;
+            if(type == VotableType.Post) {
+                markDirty(post);
+                markRewardPending(post);
+            } else {
+                markDirty((Comment) real);
             }
-
-            Vote voteEntity = new Vote(user.getUsername(), vote);
-            comment.addVote(voteEntity);
-            comment.releaseWrite();
-            user.releaseRead();
-            voteEntity.enableSynchronization(true);
-            return NetResponseType.Success;
+            return true;
+        } finally {
+            post.releaseRead();
         }
-
-        return NetResponseType.InvalidParameters;
     }
 
     /**
@@ -890,8 +1822,7 @@ public class ServerLogic {
      * @return result response
      */
     public NetResponseType addComment(Comment comment) {
-        Post targetPost = getRealPost(comment.getPostId());
-        if(targetPost == null) {
+        if(getRealPost(comment.getPostId()) == null) {
             return EntityNotExists;
         }
 
@@ -900,7 +1831,12 @@ public class ServerLogic {
             return UsernameNotExists;
         }
 
-        SynchronizedObject.prepareInWriteMode(targetPost);
+        Post targetPost = lockRealPost(comment.getPostId(), true);
+        if(targetPost == null) {
+            // removed while we were waiting for the lock
+            return EntityNotExists;
+        }
+
         user.prepareRead();
         if(targetPost.getUsername().equals(user.getUsername())) {
             user.releaseRead();
@@ -915,39 +1851,25 @@ public class ServerLogic {
         }
         user.releaseRead();
 
-        Lock commentLock = WinsomeHelper.acquireWriteLock(commentMapRW);
-        int generatedId = maxCommentId.get();
-        do {
-            generatedId++;
-        } while(commentMap.containsKey(generatedId));
-
+        int generatedId = maxCommentId.incrementAndGet();
         comment.setId(generatedId);
+        WriteAheadLog.Ticket ticket = log(WalMutations.addComment(generatedId, comment.getPostId(), comment.getOwner(),
+                comment.getContent(), comment.getCreationTime()));
         Comment inserted = comment.deepCopyAs();
+        inserted.enableSynchronization(true);
         commentMap.put(generatedId, inserted);
-        maxCommentId.set(generatedId);
-
         targetPost.addComment(inserted);
-        inserted.enableSynchronization(true);
-
-        commentLock.unlock();
         targetPost.releaseWrite();
+        markDirty(inserted);
+        markRewardPending(targetPost);
+        commit(ticket);
         return Success;
     }
 
     //unused
     public Comment getComment(int id) {
-        Lock commentLock = WinsomeHelper.acquireReadLock(commentMapRW);
-        Comment comment = commentMap.get(id);
-        commentLock.unlock();
-
-        if(comment != null) {
-            comment.releaseRead();
-            Comment temp = comment;
-            comment = comment.deepCopyAs();
-            temp.releaseRead();
-        }
-
-        return comment;
+        Comment comment = getRealComment(id);
+        return comment != null ? comment.getSnapshot().toComment() : null;
     }
 
     /**
@@ -956,11 +1878,18 @@ public class ServerLogic {
      * @return comment
      */
     private Comment getRealComment(int id) {
-        Lock commentLock = WinsomeHelper.acquireReadLock(commentMapRW);
         Comment comment = commentMap.get(id);
-        commentLock.unlock();
+        if(comment != null) return comment;
 
-        return comment;
+        // read with its post
+        int coldPostId = coldPosts != null ? coldPosts.getCommentPost(id) : -1;
+        if(coldPostId >= 0) {
+            getRealPost(coldPostId);
+            return commentMap.get(id);
+        }
+        LazySnapshotPosts lazy = lazyPosts;
+        if(lazy != null) lazy.loadCommentPost(id, postInstaller);
+        return commentMap.get(id);
     }
 
     /**
@@ -968,7 +1897,7 @@ public class ServerLogic {
      * @param username username
      * @param currency currency
      * @return the wallet copy
-     * @throws IOException if the btc URL call was unsuccessful
+     * @throws IOException if no exchange rate is available
      */
     public Wallet getWallet(String username, CurrencyType currency) throws IOException {
         User user = getRealUserByUsername(username);
@@ -976,27 +1905,52 @@ public class ServerLogic {
             return null;
         }
 
+        double rate = getExchangeRate(currency);
         user.prepareRead();
         Wallet wallet = user.getWallet();
         user.releaseRead();
 
-        if(currency == CurrencyType.Bitcoin) {
-            URLConnection urlConnection = btcConverterURL.openConnection();
-            urlConnection.connect();
-            BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(urlConnection.getInputStream()));
-            String multiplier = reader.readLine();
-            reader.close();
-            double multiplierDouble = Double.parseDouble(multiplier.trim());
-            SynchronizedObject.prepareInWriteMode(wallet);
-            wallet.setRateInBTC(multiplierDouble);
-            wallet.downgradeToRead();
+        wallet.prepareRead();
+        Wallet copy = wallet.deepCopy(rate);
+        wallet.releaseRead();
+        return copy;
+    }
+
+    /**
+     * Get a page of the wallet of a user in a time range, from the newest transactions. Only the rows of the page
+     * are copied, then the cost does not grow with the history of the wallet
+     * The amounts are in wincoin, they are converted when serialized
+     * @param username username
+     * @param page page index, of WALLET_PAGE_SIZE rows
+     * @param fromTime epoch millis of the range start, included
+     * @param toTime epoch millis of the range end, excluded
+     * @param daily true to have the total of each UTC day instead of each transaction
+     * @return the page or null if the user does not exist
+     */
+    public WalletPage getWalletPage(String username, int page, long fromTime, long toTime, boolean daily) {
+        User user = getRealUserByUsername(username);
+        if(user == null) {
+            return null;
         }
 
+        user.prepareRead();
+        Wallet wallet = user.getWallet();
+        user.releaseRead();
+
         wallet.prepareRead();
-        Wallet copy = wallet.deepCopyByCurrency(currency);
+        WalletPage walletPage = wallet.getPage(page, WALLET_PAGE_SIZE, fromTime, toTime, daily);
         wallet.releaseRead();
-        return copy;
+        return walletPage;
+    }
+
+    /**
+     * Get the conversion rate from wincoin to a currency, the btc one is cached by the provider
+     * @param currency currency
+     * @return the multiplier of the wincoin amounts
+     * @throws IOException if no exchange rate is available
+     */
+    public double getExchangeRate(CurrencyType currency) throws IOException {
+        return currency == CurrencyType.Bitcoin ? exchangeRates.getRate() : 1;
     }
 
     /**
@@ -1012,6 +1966,53 @@ public class ServerLogic {
         return user;
     }
 
+    /**
+     * Get the real reference of a user by id
+     * @param id user id
+     * @return the user or null if not exists
+     */
+    public User getRealUserById(int id) {
+        Lock userLock = WinsomeHelper.acquireReadLock(registeredUsersRW);
+        User user = usersById.get(id);
+        userLock.unlock();
+
+        return user;
+    }
+
+    /**
+     * Get the id of a user by its username
+     * @param username username
+     * @return the user id or -1 if not exists
+     */
+    public int getUserIdByUsername(String username) {
+        Lock userLock = WinsomeHelper.acquireReadLock(registeredUsersRW);
+        User user = registeredUsers.get(username);
+        userLock.unlock();
+
+        if(user == null) return -1;
+        user.prepareRead();
+        int id = user.getId();
+        user.releaseRead();
+        return id;
+    }
+
+    /**
+     * Get the username of a user by its id
+     * @param id user id
+     * @return the username or null if not exists
+     */
+    public String getUsernameById(int id) {
+        Lock userLock = WinsomeHelper.acquireReadLock(registeredUsersRW);
+        User user = usersById.get(id);
+        userLock.unlock();
+
+        if(user == null) return null;
+        user.prepareRead();
+        String username = user.getUsername();
+        user.releaseRead();
+        return username;
+    }
+
     /**
      * Check if the user exists
      * @param username username
@@ -1042,19 +2043,67 @@ public class ServerLogic {
     }
 
     /**
-     * Require the post resources, then acquire a read lock on it (to be released later with unlockPosts)
-     * @return the post resource
+     * Iterate every post without holding any global lock, the iteration is weakly consistent:
+     * posts added or removed during the iteration may or may not be visited
+     * @param action action applied to each post
+     */
+    public void forEachPost(Consumer<Post> action) {
+        loadLazyPosts(false);
+        postMap.forEach(action);
+    }
+
+    /**
+     * Get the amount of buckets the posts to be rewarded are split in
+     * @return the amount of buckets, at least 1
+     */
+    public int getRewardBuckets() {
+        return pendingRewards.size();
+    }
+
+    /**
+     * Get the reward bucket of a post, a post is always in the same bucket
+     * @param postId post id
+     * @return bucket index
+     */
+    public int getRewardBucket(int postId) {
+        return pendingRewards.bucketOf(postId);
+    }
+
+    /**
+     * Take the posts of every bucket with votes or comments added after the previous call
+     * @return the posts to be rewarded, each one once
+     */
+    public List<Post> takePostsToReward() {
+        List<Post> posts = new ArrayList<>();
+        for(int bucket = 0; bucket < pendingRewards.size(); bucket++) {
+            posts.addAll(takePostsToReward(bucket));
+        }
+        return posts;
+    }
+
+    /**
+     * Take the posts of a bucket with votes or comments added after the previous call, the cost depends on the
+     * recent activity and not on the amount of posts. Only the first call reads the posts of the binary snapshot
+     * left with pending rewards, the other ones are queued when they get a vote or a comment
+     * @param bucket bucket index
+     * @return the posts to be rewarded, each one once
      */
-    public Collection<Post> getPostsResource() {
-        WinsomeHelper.acquireReadLock(postMapRW);
-        return postMap.values();
+    public List<Post> takePostsToReward(int bucket) {
+        if(!lazyRewardsLoaded) {
+            loadLazyPosts(true);
+            lazyRewardsLoaded = true;
+        }
+
+        // the posts removed after being queued are dropped
+        return pendingRewards.take(bucket, post -> postMap.get(post.getSnapshot().getId()) == post);
     }
 
     /**
-     * Unlocks the posts lock
+     * Apply an action to the posts returned by takePostsToReward, one at a time
+     * @param action action applied to each post
      */
-    public void unlockPosts() {
-        postMapRW.readLock().unlock();
+    public void forEachPostToReward(Consumer<Post> action) {
+        takePostsToReward().forEach(action);
     }
 
     public int getLatestPostId() {
@@ -1,9 +1,13 @@
 package it.winsome.server;
 
 import it.winsome.server.config.ServerConfiguration;
+import it.winsome.server.rate.FixedRateProvider;
 import it.winsome.common.WinsomeHelper;
 import it.winsome.server.workers.AutoSaveData;
+import it.winsome.server.workers.CompactDeltas;
+import it.winsome.server.workers.EvictColdPosts;
 import it.winsome.server.workers.RecalculateWallet;
+import it.winsome.server.workers.RewardWheel;
 
 import java.io.IOException;
 import java.nio.file.NoSuchFileException;
@@ -16,18 +20,20 @@ import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 public class ServerMain {
     public static boolean isTest = false;
     private static Registry reg;
     private static ServerConnector tcpServer;
-    private static ScheduledExecutorService walletUpdater, autoSaveUpdater;
+    private static ScheduledExecutorService walletUpdater, autoSaveUpdater, compactionUpdater;
 
     private final static ServerConfiguration serverConfiguration = new ServerConfiguration();
     private static boolean configLoadingFailed = false;
     private static RecalculateWallet walletCalculator;
     private static ServerLogic serverLogic;
+    private static ShardedExecutor shardedExecutor;
 
     public static void main(String[] args) throws IOException {
         WinsomeHelper.setDebugMode(true);
@@ -55,9 +61,12 @@ public class ServerMain {
             serverConfiguration.dataFolder = "tests." +
                     new SimpleDateFormat("MM-dd-yyyy HH-mm-ss").format(Timestamp.from(Instant.now())) +
                     "/";
+            // the tests never reach the network for the btc rate
+            serverConfiguration.rateProvider = FixedRateProvider.NAME;
         }
 
-        serverLogic = new ServerLogic(serverConfiguration.dataFolder);
+        serverLogic = new ServerLogic(serverConfiguration.dataFolder, serverConfiguration);
+        shardedExecutor = new ShardedExecutor(serverLogic, serverConfiguration.shardCount);
 
         LocateRegistry.createRegistry(serverConfiguration.rmiServicePort);
         reg = LocateRegistry.getRegistry(serverConfiguration.rmiServicePort);
@@ -74,14 +83,28 @@ public class ServerMain {
 
         AutoSaveData dataSaver = new AutoSaveData(serverLogic);
         walletCalculator = new RecalculateWallet(serverConfiguration.multicastIp,
-                serverConfiguration.multicastPort, serverConfiguration.authorPercentage);
+                serverConfiguration.multicastPort, serverConfiguration.walletMulticast,
+                serverConfiguration.authorPercentage);
+
+        CompactDeltas deltaCompactor = new CompactDeltas(serverLogic, serverConfiguration.compactionMinDeltas);
 
         autoSaveUpdater = Executors.newScheduledThreadPool(1);
         walletUpdater = Executors.newScheduledThreadPool(1);
-        walletUpdater.scheduleWithFixedDelay(walletCalculator, serverConfiguration.walletCalculatorPeriodSeconds,
-                serverConfiguration.walletCalculatorPeriodSeconds, TimeUnit.SECONDS);
+        compactionUpdater = Executors.newScheduledThreadPool(1);
+        // a tick of the wheel rewards a bucket, the random offset keeps the ticks out of phase with the auto save
+        long rewardTickMs = RewardWheel.getTickMillis(serverConfiguration.walletCalculatorPeriodSeconds,
+                serverLogic.getRewardBuckets());
+        walletUpdater.scheduleWithFixedDelay(new RewardWheel(walletCalculator, serverLogic.getRewardBuckets()),
+                rewardTickMs + ThreadLocalRandom.current().nextLong(rewardTickMs), rewardTickMs, TimeUnit.MILLISECONDS);
         autoSaveUpdater.scheduleWithFixedDelay(dataSaver, serverConfiguration.autoSavePeriodSeconds,
                 serverConfiguration.autoSavePeriodSeconds, TimeUnit.SECONDS);
+        compactionUpdater.scheduleWithFixedDelay(deltaCompactor, serverConfiguration.compactionPeriodSeconds,
+                serverConfiguration.compactionPeriodSeconds, TimeUnit.SECONDS);
+        if(serverConfiguration.maxResidentPosts > 0) {
+            // shares the thread of the compaction, both wait for the checkpoints on the server logic anyway
+            compactionUpdater.scheduleWithFixedDelay(new EvictColdPosts(serverLogic),
+                    serverConfiguration.evictionPeriodSeconds, serverConfiguration.evictionPeriodSeconds, TimeUnit.SECONDS);
+        }
         tcpServer.startServer();
     }
 
@@ -94,6 +117,14 @@ public class ServerMain {
     }
     public static ServerConfiguration getServerConfiguration() { return serverConfiguration; }
 
+    /**
+     * Get the executor of the mutations
+     * @return the sharded executor
+     */
+    public static ShardedExecutor getShardedExecutor() {
+        return shardedExecutor;
+    }
+
     /**
      * Clean the connections and additional thread working
      */
@@ -105,14 +136,20 @@ public class ServerMain {
 
             walletUpdater.shutdown();
             autoSaveUpdater.shutdown();
+            compactionUpdater.shutdown();
             if(!autoSaveUpdater.awaitTermination(serverConfiguration.timeoutOnStopAutoSaveSeconds, TimeUnit.SECONDS)) {
                 autoSaveUpdater.shutdownNow();
             }
             if(!walletUpdater.awaitTermination(serverConfiguration.timeoutOnStopAutoSaveSeconds, TimeUnit.SECONDS)) {
                 walletUpdater.shutdownNow();
             }
+            if(!compactionUpdater.awaitTermination(serverConfiguration.timeoutOnStopAutoSaveSeconds, TimeUnit.SECONDS)) {
+                compactionUpdater.shutdownNow();
+            }
 
-            serverLogic.saveToDisk();
+            shardedExecutor.shutdown(serverConfiguration.timeoutTerminationThreadPoolMs);
+            serverLogic.saveDelta();
+            serverLogic.close();
             walletCalculator.shutdownMulticast();
 
             reg.unbind(serverConfiguration.rmiServiceName);
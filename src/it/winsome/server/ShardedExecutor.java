@@ -0,0 +1,166 @@
+package it.winsome.server;
+
+import it.winsome.common.WinsomeHelper;
+import it.winsome.common.entity.CommentSnapshot;
+import it.winsome.common.entity.PostSnapshot;
+import it.winsome.common.entity.enums.VotableType;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional sharded execution of the mutations. The users are partitioned by id into shards, each shard
+ * is owned by a single thread which runs the messages of its mailbox in order.
+ * A mutation is sent to the shard of its main owner: the caller for posts, rewins, deletions and follows,
+ * the author of the target post for comments and votes, then the caller waits for the reply.
+ * A mutation can also write the entities of other users: a follow changes the followed user, a deletion removes
+ * the rewins of other authors, a comment or a vote changes the state of its author. These writes can come from
+ * different shards at the same time, then the entity locks are still required and only their contention is
+ * reduced. With zero shards the mutations run directly on the caller thread
+ */
+public class ShardedExecutor {
+    private final ServerLogic serverLogic;
+    private final ExecutorService[] shards;
+    private final Thread[] owners;
+
+    public ShardedExecutor(ServerLogic serverLogic, int shardCount) {
+        this.serverLogic = serverLogic;
+        shards = new ExecutorService[Math.max(shardCount, 0)];
+        owners = new Thread[shards.length];
+        for(int i = 0; i < shards.length; i++) {
+            final int shard = i;
+            shards[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "shard-" + shard);
+                thread.setDaemon(true);
+                owners[shard] = thread;
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Run a mutation on the shard of a user and wait for its result
+     * @param username owner of the modified entities
+     * @param task mutation
+     * @param <T> result type
+     * @param <E> exception thrown by the mutation
+     * @return the mutation result
+     * @throws E the exception thrown by the mutation
+     */
+    public <T, E extends Exception> T call(String username, ShardTask<T, E> task) throws E {
+        if(shards.length == 0) {
+            return task.run();
+        }
+
+        int shard = getShard(username);
+        if(Thread.currentThread() == owners[shard]) {
+            // already on the owner thread, queueing would wait for itself
+            return task.run();
+        }
+
+        Future<T> reply = shards[shard].submit(task::run);
+        try {
+            return reply.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reply.cancel(false);
+            throw new IllegalStateException("Interrupted while waiting for shard " + shard, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if(cause instanceof Error) throw (Error) cause;
+            throw ShardedExecutor.<E>asChecked(cause);
+        }
+    }
+
+    /**
+     * Run a mutation on the shard of the author of a post
+     * @param postId target post
+     * @param fallbackUsername used if the post does not exist, the mutation is expected to report it
+     * @param task mutation
+     * @param <T> result type
+     * @param <E> exception thrown by the mutation
+     * @return the mutation result
+     * @throws E the exception thrown by the mutation
+     */
+    public <T, E extends Exception> T callOnPostAuthor(int postId, String fallbackUsername, ShardTask<T, E> task) throws E {
+        PostSnapshot post = serverLogic.getPostSnapshot(postId);
+        return call(post != null ? post.getUsername() : fallbackUsername, task);
+    }
+
+    /**
+     * Run a vote on the shard of the author of the voted post, the post of the comment for comment votes
+     * @param entityId voted entity
+     * @param type entity type
+     * @param fallbackUsername used if the entity does not exist, the vote is expected to report it
+     * @param task mutation
+     * @param <T> result type
+     * @param <E> exception thrown by the mutation
+     * @return the mutation result
+     * @throws E the exception thrown by the mutation
+     */
+    public <T, E extends Exception> T callOnVotedAuthor(int entityId, VotableType type, String fallbackUsername,
+                                                        ShardTask<T, E> task) throws E {
+        int postId = entityId;
+        if(type == VotableType.Comment) {
+            CommentSnapshot comment = serverLogic.getCommentSnapshot(entityId);
+            if(comment == null) return call(fallbackUsername, task);
+            postId = comment.getPostId();
+        }
+        return callOnPostAuthor(postId, fallbackUsername, task);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Stop every shard after its mailbox is empty
+     * @param timeoutMs time to wait for each shard
+     */
+    public void shutdown(long timeoutMs) {
+        for(ExecutorService shard : shards) {
+            shard.shutdown();
+        }
+
+        try {
+            for(ExecutorService shard : shards) {
+                if(!shard.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                    shard.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        WinsomeHelper.printlnDebug("Shards stopped!");
+    }
+
+    /**
+     * The task can only throw E as a checked exception, then any other checked cause is an E
+     * @param cause cause of the failed task
+     * @param <E> exception thrown by the task
+     * @return the cause as E
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> E asChecked(Throwable cause) {
+        return (E) cause;
+    }
+
+    private int getShard(String username) {
+        int id = serverLogic.getUserIdByUsername(username);
+        return id < 0 ? 0 : id % shards.length;
+    }
+
+    /**
+     * Mutation sent to a shard
+     * @param <T> result type
+     * @param <E> exception thrown
+     */
+    @FunctionalInterface
+    public interface ShardTask<T, E extends Exception> {
+        T run() throws E;
+    }
+}
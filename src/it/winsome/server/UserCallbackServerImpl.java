@@ -33,6 +33,8 @@ public class UserCallbackServerImpl extends UnicastRemoteObject implements UserC
             throw new InvalidParameterException("This username already exists!");
         } catch (NoTagsFoundException e) {
             throw new InvalidParameterException("No tags where found!");
+        } catch (MutationNotDurableException e) {
+            throw new RemoteException(e.getMessage());
         }
     }
 
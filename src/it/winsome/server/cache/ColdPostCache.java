@@ -0,0 +1,268 @@
+package it.winsome.server.cache;
+
+import it.winsome.common.WinsomeHelper;
+import it.winsome.common.collection.StripedIntMap;
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.server.snapshot.EntityCopies;
+import it.winsome.server.snapshot.PostInstaller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.function.IntFunction;
+
+/**
+ * Least recently used eviction of the live posts into a ColdPostStore, an evicted post is read back on its next
+ * access. Only the posts idle for a while and already saved by a checkpoint are moved: the file of the evicted
+ * posts is never needed to recover the data. The ids, the blogs and the rewins stay in memory.
+ * It also counts the accesses served from memory or read back from disk
+ */
+public class ColdPostCache implements Closeable {
+    public static final String FILE_NAME = "cold-posts.bin";
+    private static final int LOCK_STRIPES = 64;
+
+    private final ColdPostStore store;
+    private final StripedIntMap<Post> posts;
+    private final StripedIntMap<Comment> comments;
+    private final StripedIntMap<Set<Integer>> rewins;
+    private final PostInstaller installer;
+    // a post is evicted and read back holding the lock of its id
+    private final Object[] locks;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final long clockOrigin;
+
+    /**
+     * Open the cache on a new empty file
+     * @param path file of the evicted posts, replaced if it exists
+     * @param posts live posts
+     * @param comments live comments
+     * @param rewins original post id -> ids of its rewins
+     * @param installer owner of the live posts
+     * @throws IOException if the file cannot be created
+     */
+    public ColdPostCache(Path path, StripedIntMap<Post> posts, StripedIntMap<Comment> comments,
+                         StripedIntMap<Set<Integer>> rewins, PostInstaller installer) throws IOException {
+        store = new ColdPostStore(path);
+        this.posts = posts;
+        this.comments = comments;
+        this.rewins = rewins;
+        this.installer = installer;
+        locks = new Object[LOCK_STRIPES];
+        for(int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+        clockOrigin = System.nanoTime();
+    }
+
+    /**
+     * Get the clock of the accesses
+     * @return seconds since the cache has been opened
+     */
+    public int accessClock() {
+        return (int) ((System.nanoTime() - clockOrigin) / 1_000_000_000L);
+    }
+
+    /**
+     * Move the least recently used posts out of memory until at most maxResident are left, with their
+     * comments and votes. The caller must not write a checkpoint meanwhile
+     * @param maxResident posts to be kept in memory
+     * @param minIdleSeconds seconds since the last access of an evictable post
+     * @param movingLock held while the posts are moved, the rewards read only the posts in memory
+     * @return number of posts evicted
+     */
+    public int evict(int maxResident, long minIdleSeconds, Lock movingLock) {
+        int excess = posts.size() - maxResident;
+        int evicted = 0;
+        if(excess > 0) {
+            int idleSince = accessClock() - (int) minIdleSeconds;
+            // last access in the high bits and id in the low ones, the least recently used first
+            long[] candidates = new long[posts.size() + 16];
+            int[] count = { 0 };
+            posts.forEach(post -> {
+                int lastAccess = post.getLastAccess();
+                if(lastAccess > idleSince || count[0] == candidates.length) return;
+                candidates[count[0]++] = ((long) lastAccess << 32) | post.getSnapshot().getId();
+            });
+            Arrays.sort(candidates, 0, count[0]);
+
+            movingLock.lock();
+            try {
+                for(int i = 0; i < count[0] && evicted < excess; i++) {
+                    if(evictPost((int) candidates[i])) evicted++;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                movingLock.unlock();
+            }
+            evictions.add(evicted);
+        }
+
+        try {
+            store.compactIfNeeded();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        WinsomeHelper.printfDebug("Post cache: %s", getStats());
+        return evicted;
+    }
+
+    /**
+     * Get a post recording the access, it is read back if it has been evicted
+     * @param id post id
+     * @param resident post found in memory, null if not in memory
+     * @param fallback source of the posts neither in memory nor evicted
+     * @return the real post or null if it does not exist
+     */
+    public Post get(int id, Post resident, IntFunction<Post> fallback) {
+        Post post = resident;
+        if(post != null) {
+            hits.increment();
+        } else {
+            post = readBack(id);
+            if(post == null) {
+                post = fallback.apply(id);
+            }
+            if(post == null) return null;
+            misses.increment();
+        }
+        post.touch(accessClock());
+        return post;
+    }
+
+    /**
+     * Check if a post is evicted without reading it back
+     * @param id post id
+     * @return true if evicted
+     */
+    public boolean contains(int id) {
+        return store.getOriginalId(id) != ColdPostStore.ABSENT;
+    }
+
+    /**
+     * Get the post of an evicted comment
+     * @param commentId comment id
+     * @return post id or -1 if the comment is not evicted
+     */
+    public int getCommentPost(int commentId) {
+        return store.getCommentPost(commentId);
+    }
+
+    /**
+     * Get the ids of the evicted posts
+     * @return ids in ascending order
+     */
+    public int[] getPostIds() {
+        return store.getPostIds();
+    }
+
+    /**
+     * Read an evicted post without moving it back into memory
+     * @param id post id
+     * @return the post with its comments, null if not evicted
+     * @throws IOException if the post cannot be read
+     */
+    public Post read(int id) throws IOException {
+        return store.read(id);
+    }
+
+    /**
+     * Get the counters of the post accesses
+     * @return current counters
+     */
+    public PostCacheStats getStats() {
+        return new PostCacheStats(hits.sum(), misses.sum(), evictions.sum(), posts.size(),
+                store.size(), store.getFileSize());
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+
+    /**
+     * Move a post out of memory if nothing of it is waiting for a checkpoint or for the rewards.
+     * A post is changed only while holding its lock, the write lock is taken without waiting so that the
+     * eviction never blocks a request
+     * @param id post id
+     * @return true if evicted
+     * @throws IOException if the post cannot be written
+     */
+    private boolean evictPost(int id) throws IOException {
+        synchronized (locks[id & (LOCK_STRIPES - 1)]) {
+            Post post = posts.get(id);
+            if(post == null || !post.tryPrepareWrite()) return false;
+            try {
+                if(!isEvictable(post)) return false;
+                List<Comment> copies = EntityCopies.copyComments(post);
+                store.put(post.persistentCopy(), copies);
+                posts.remove(id, post);
+                for(Comment comment : copies) {
+                    comments.remove(comment.getId());
+                }
+                post.releaseAllText();
+                return true;
+            } finally {
+                post.releaseWrite();
+            }
+        }
+    }
+
+    /**
+     * Check if a post can be evicted, the caller owns its write lock
+     * @param post real post
+     * @return true if it is saved, fully rewarded and none of its rewins is in memory
+     */
+    private boolean isEvictable(Post post) {
+        if(post.isDirty() || post.getRewardCursor() < post.getVoteCount()) return false;
+        for(Comment comment : post.getComments()) {
+            if(comment.isDirty() || comment.isNeedIteration()) return false;
+        }
+        // the rewins in memory refer to this post object
+        Set<Integer> postRewins = rewins.get(post.getId());
+        if(postRewins != null) {
+            for(int rewinId : postRewins) {
+                if(posts.containsKey(rewinId)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read back into memory a post evicted before, every post is read once
+     * @param id post id
+     * @return the real post, null if it is neither in memory nor evicted
+     */
+    private Post readBack(int id) {
+        int originalId = store.getOriginalId(id);
+        if(originalId == ColdPostStore.ABSENT) return posts.get(id);
+        // the original post is read first, a lock is never held while waiting for another one
+        Post original = originalId >= 0 ? installer.resolve(originalId) : null;
+        synchronized (locks[id & (LOCK_STRIPES - 1)]) {
+            if(posts.get(id) == null) {
+                try {
+                    Post evicted = store.read(id);
+                    if(evicted != null) {
+                        installer.install(evicted, original);
+                        store.remove(id);
+                    }
+                } catch (IOException e) {
+                    WinsomeHelper.printfDebug("WARNING Evicted post %d cannot be read!", id);
+                    e.printStackTrace();
+                }
+            }
+        }
+        return posts.get(id);
+    }
+}
@@ -0,0 +1,281 @@
+package it.winsome.server.cache;
+
+import com.google.gson.Gson;
+import it.winsome.common.collection.StripedIntMap;
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.json.EntityGson;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * File of the posts moved out of memory, each post is appended with its comments as a JSON record and only
+ * the position of the record, the original post and the comment ids are kept in memory.
+ * The file is not durable: a post is moved here only when it is already saved by a checkpoint, then the file
+ * is emptied on open. A post read back into memory is removed and its record becomes garbage, the file is
+ * rewritten when the garbage is more than the live records.
+ * The posts are written by a single thread, while they can be read by many
+ */
+public class ColdPostStore implements Closeable {
+    // returned by getOriginalId for a post not in this store
+    public static final int ABSENT = -2;
+    private static final long MIN_COMPACTION_BYTES = 1024L * 1024;
+
+    private final Path path;
+    private final Gson gson;
+    private final StripedIntMap<Entry> posts;
+    // comment id -> post id
+    private final StripedIntMap<Integer> commentPosts;
+    // held for writing only while the file is replaced by the compaction
+    private final ReadWriteLock fileLock;
+    private final AtomicLong liveBytes;
+    private FileChannel channel;
+    private long fileSize;
+
+    /**
+     * Open the store on a new empty file
+     * @param path file of the records, replaced if it exists
+     * @throws IOException if the file cannot be created
+     */
+    public ColdPostStore(Path path) throws IOException {
+        this.path = path;
+        gson = EntityGson.get();
+        posts = new StripedIntMap<>();
+        commentPosts = new StripedIntMap<>();
+        fileLock = new ReentrantReadWriteLock();
+        liveBytes = new AtomicLong();
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Append a post with its comments, to be called by the writer thread only
+     * @param post detached post
+     * @param comments its detached comments
+     * @throws IOException if the record cannot be written
+     */
+    public void put(Post post, List<Comment> comments) throws IOException {
+        byte[] bytes = gson.toJson(new Record(post, comments.toArray(new Comment[0])), Record.class)
+                .getBytes(StandardCharsets.UTF_8);
+        int[] commentIds = new int[comments.size()];
+        for(int i = 0; i < commentIds.length; i++) {
+            commentIds[i] = comments.get(i).getId();
+        }
+
+        fileLock.readLock().lock();
+        try {
+            writeFully(channel, ByteBuffer.wrap(bytes), fileSize);
+        } finally {
+            fileLock.readLock().unlock();
+        }
+        Entry entry = new Entry(fileSize, bytes.length, post.isRewin() ? post.getOriginalPost().getId() : -1,
+                commentIds);
+        fileSize += bytes.length;
+        liveBytes.addAndGet(bytes.length);
+
+        // the comments first, a post found by id always finds its comments
+        Integer postId = post.getId();
+        for(int commentId : commentIds) {
+            commentPosts.put(commentId, postId);
+        }
+        posts.put(post.getId(), entry);
+    }
+
+    /**
+     * Read a post with its comments, it stays in this store
+     * @param postId post id
+     * @return the post not synchronized, a rewin refers to a placeholder of its original post, or null
+     * if the post is not in this store
+     * @throws IOException if the record cannot be read
+     */
+    public Post read(int postId) throws IOException {
+        Entry entry = posts.get(postId);
+        if(entry == null) return null;
+
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+        fileLock.readLock().lock();
+        try {
+            long offset = entry.offset;
+            while(buffer.hasRemaining()) {
+                if(channel.read(buffer, offset + buffer.position()) < 0) throw new EOFException();
+            }
+        } finally {
+            fileLock.readLock().unlock();
+        }
+
+        Record record = gson.fromJson(new String(buffer.array(), StandardCharsets.UTF_8), Record.class);
+        Post post = record.post;
+        for(Comment comment : record.comments) {
+            comment.setPostId(postId);
+            post.addComment(comment);
+        }
+        return post;
+    }
+
+    /**
+     * Remove a post, its record becomes garbage
+     * @param postId post id
+     * @return true if it was in this store
+     */
+    public boolean remove(int postId) {
+        Entry entry = posts.remove(postId);
+        if(entry == null) return false;
+        for(int commentId : entry.commentIds) {
+            commentPosts.remove(commentId);
+        }
+        liveBytes.addAndGet(-entry.length);
+        return true;
+    }
+
+    /**
+     * Get the original post of a stored post without reading it
+     * @param postId post id
+     * @return original post id, -1 if it is not a rewin or ABSENT if the post is not in this store
+     */
+    public int getOriginalId(int postId) {
+        Entry entry = posts.get(postId);
+        return entry != null ? entry.originalId : ABSENT;
+    }
+
+    /**
+     * Find the stored post of a comment
+     * @param commentId comment id
+     * @return post id or -1 if the comment is not in this store
+     */
+    public int getCommentPost(int commentId) {
+        Integer postId = commentPosts.get(commentId);
+        return postId != null ? postId : -1;
+    }
+
+    /**
+     * Get the ids of the stored posts
+     * @return ids in ascending order
+     */
+    public int[] getPostIds() {
+        int[] ids = new int[Math.max(posts.size(), 16)];
+        int[] count = { 0 };
+        posts.forEachOrdered(false, (id, entry) -> {
+            if(count[0] == ids.length) return false;
+            ids[count[0]++] = id;
+            return true;
+        });
+        return Arrays.copyOf(ids, count[0]);
+    }
+
+    public int size() {
+        return posts.size();
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Rewrite the file with only the live records when the garbage is more than them,
+     * to be called by the writer thread only. The readers wait while the new file replaces the old one
+     * @return true if the file has been rewritten
+     * @throws IOException if the new file cannot be written, the old one is kept
+     */
+    public boolean compactIfNeeded() throws IOException {
+        long live = liveBytes.get();
+        long garbage = fileSize - live;
+        if(garbage < MIN_COMPACTION_BYTES || garbage < live) return false;
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        fileLock.writeLock().lock();
+        try {
+            List<Entry> entries = posts.valuesSnapshot();
+            long[] offsets = new long[entries.size()];
+            long position = 0;
+            try (FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                for(int i = 0; i < offsets.length; i++) {
+                    Entry entry = entries.get(i);
+                    long transferred = 0;
+                    while(transferred < entry.length) {
+                        transferred += channel.transferTo(entry.offset + transferred, entry.length - transferred, target);
+                    }
+                    offsets[i] = position;
+                    position += entry.length;
+                }
+            }
+
+            // the old channel keeps reading the replaced file until the new one is open
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            FileChannel previous = channel;
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            previous.close();
+            for(int i = 0; i < offsets.length; i++) {
+                entries.get(i).offset = offsets[i];
+            }
+            fileSize = position;
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Close and delete the file
+     * @throws IOException if it cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        fileLock.writeLock().lock();
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    private static void writeFully(FileChannel target, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            position += target.write(buffer, position);
+        }
+    }
+
+    private static class Entry {
+        // changed only by the compaction under the file write lock
+        long offset;
+        final int length;
+        final int originalId;
+        final int[] commentIds;
+
+        Entry(long offset, int length, int originalId, int[] commentIds) {
+            this.offset = offset;
+            this.length = length;
+            this.originalId = originalId;
+            this.commentIds = commentIds;
+        }
+    }
+
+    private static class Record {
+        final Post post;
+        final Comment[] comments;
+
+        Record(Post post, Comment[] comments) {
+            this.post = post;
+            this.comments = comments;
+        }
+    }
+}
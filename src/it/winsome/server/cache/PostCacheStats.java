@@ -0,0 +1,62 @@
+package it.winsome.server.cache;
+
+/**
+ * Counters of the post accesses served from memory or read back from disk, taken at a point in time
+ */
+public class PostCacheStats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int residentPosts;
+    private final int coldPosts;
+    private final long coldFileBytes;
+
+    public PostCacheStats(long hits, long misses, long evictions, int residentPosts, int coldPosts, long coldFileBytes) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.residentPosts = residentPosts;
+        this.coldPosts = coldPosts;
+        this.coldFileBytes = coldFileBytes;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the accesses which read the post from disk, from the snapshot or from the evicted posts
+     * @return number of misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public int getResidentPosts() {
+        return residentPosts;
+    }
+
+    public int getColdPosts() {
+        return coldPosts;
+    }
+
+    public long getColdFileBytes() {
+        return coldFileBytes;
+    }
+
+    public double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 1 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d resident posts, %d on disk (%.1f MB), hits %d, misses %d (%.2f%% hits), evicted %d",
+                residentPosts, coldPosts, coldFileBytes / (1024.0 * 1024.0), hits, misses, getHitRatio() * 100,
+                evictions);
+    }
+}
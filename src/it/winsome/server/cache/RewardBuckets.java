@@ -0,0 +1,72 @@
+package it.winsome.server.cache;
+
+import it.winsome.common.entity.Post;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Predicate;
+
+/**
+ * Posts with votes or comments added after the last reward calculation, split in buckets by id.
+ * A post is queued once until its bucket is taken, then the cost of a calculation depends on the recent activity
+ * and not on the amount of posts
+ */
+public class RewardBuckets {
+    private final List<Queue<Post>> buckets;
+
+    /**
+     * @param count amount of buckets, at least 1 is created
+     */
+    public RewardBuckets(int count) {
+        buckets = new ArrayList<>();
+        for(int i = Math.max(1, count); i > 0; i--) {
+            buckets.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * Get the amount of buckets
+     * @return the amount of buckets, at least 1
+     */
+    public int size() {
+        return buckets.size();
+    }
+
+    /**
+     * Get the bucket of a post, a post is always in the same bucket
+     * @param postId post id
+     * @return bucket index
+     */
+    public int bucketOf(int postId) {
+        // the ids are mixed, then the posts of a burst of activity are not in the same bucket
+        return Integer.remainderUnsigned(postId * 0x9E3779B9, buckets.size());
+    }
+
+    /**
+     * Queue a post in its bucket unless it is already queued, no lock is required
+     * @param post real post
+     */
+    public void markPending(Post post) {
+        if(post.markRewardPending()) buckets.get(bucketOf(post.getSnapshot().getId())).add(post);
+    }
+
+    /**
+     * Take the posts queued in a bucket, a post queued again meanwhile waits for the next call
+     * @param bucket bucket index
+     * @param live tells if a post is still in the social network, the removed ones are dropped
+     * @return the posts to be rewarded, each one once
+     */
+    public List<Post> take(int bucket, Predicate<Post> live) {
+        Queue<Post> queue = buckets.get(bucket);
+        List<Post> posts = new ArrayList<>();
+        for(int count = queue.size(); count > 0; count--) {
+            Post post = queue.poll();
+            if(post == null) break;
+            post.clearRewardPending();
+            if(live.test(post)) posts.add(post);
+        }
+        return posts;
+    }
+}
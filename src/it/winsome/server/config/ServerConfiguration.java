@@ -21,13 +21,43 @@ public class ServerConfiguration {
     public int tcpPort = 5959;
     public String multicastIp = "237.0.10.10";
     public int multicastPort = 10909;
+    // the wallet deltas are pushed to the logged users, the multicast notification is sent only if enabled
+    public boolean walletMulticast = false;
     public double authorPercentage = 80D;
     public String dataFolder = "data/";
     public long autoSavePeriodSeconds = 20L;
     public long walletCalculatorPeriodSeconds = 20L;
+    // the posts are rewarded a bucket at a time, spread over the wallet calculator period
+    public int rewardBuckets = 16;
     public long timeoutOnStopAutoSaveSeconds = 3L;
     public long keepAliveThreadPoolMinutes = 5L;
     public long timeoutTerminationThreadPoolMs = 2000L;
+    // 0 runs the mutations on the request threads, otherwise on shards partitioned by user id, a thread each
+    public int shardCount = 0;
+    public boolean walEnabled = true;
+    // 0 fsyncs the write ahead log as soon as there are records, otherwise waits at most this delay
+    public long walGroupCommitMs = 0L;
+    public int walGroupCommitBytes = 64 * 1024;
+    public long walSegmentBytes = 16L * 1024 * 1024;
+    // the autosave writes only the changed entities in delta files, merged in the snapshot by the compactor
+    public long compactionPeriodSeconds = 300L;
+    public int compactionMinDeltas = 8;
+    // binary (lazy binary snapshot with deltas), json, wal (binary snapshot with a log of writes) or lsm
+    public String storageEngine = "binary";
+    // 0 keeps every post in memory, otherwise the least recently used posts over the limit are moved to disk
+    public int maxResidentPosts = 0;
+    // the posts read or changed in the last seconds are never moved to disk
+    public long evictionMinIdleSeconds = 600L;
+    public long evictionPeriodSeconds = 60L;
+    // titles and contents of the posts and of the comments kept in UTF-8 outside the heap
+    public boolean offHeapText = true;
+    // random.org (cached and refreshed in the background) or fixed
+    public String rateProvider = "random.org";
+    public double fixedRate = 1D;
+    // a rate older than the ttl is refreshed in the background, older than the max staleness it is not used anymore
+    public long rateTtlSeconds = 60L;
+    public long rateMaxStaleSeconds = 3600L;
+    public int rateTimeoutMs = 2000;
 
     /**Load a configuration from a path
      * @param path path of the json file
@@ -44,12 +74,31 @@ public class ServerConfiguration {
         dataFolder = config.dataFolder;
         autoSavePeriodSeconds = config.autoSavePeriodSeconds;
         walletCalculatorPeriodSeconds = config.walletCalculatorPeriodSeconds;
+        rewardBuckets = config.rewardBuckets;
         timeoutOnStopAutoSaveSeconds = config.timeoutOnStopAutoSaveSeconds;
         keepAliveThreadPoolMinutes = config.keepAliveThreadPoolMinutes;
         timeoutTerminationThreadPoolMs = config.timeoutTerminationThreadPoolMs;
         multicastIp = config.multicastIp;
         multicastPort = config.multicastPort;
+        walletMulticast = config.walletMulticast;
         authorPercentage = config.authorPercentage;
+        shardCount = config.shardCount;
+        walEnabled = config.walEnabled;
+        walGroupCommitMs = config.walGroupCommitMs;
+        walGroupCommitBytes = config.walGroupCommitBytes;
+        walSegmentBytes = config.walSegmentBytes;
+        compactionPeriodSeconds = config.compactionPeriodSeconds;
+        compactionMinDeltas = config.compactionMinDeltas;
+        storageEngine = config.storageEngine;
+        maxResidentPosts = config.maxResidentPosts;
+        evictionMinIdleSeconds = config.evictionMinIdleSeconds;
+        evictionPeriodSeconds = config.evictionPeriodSeconds;
+        offHeapText = config.offHeapText;
+        rateProvider = config.rateProvider;
+        fixedRate = config.fixedRate;
+        rateTtlSeconds = config.rateTtlSeconds;
+        rateMaxStaleSeconds = config.rateMaxStaleSeconds;
+        rateTimeoutMs = config.rateTimeoutMs;
     }
 
     /**Generated a template configuration located at path
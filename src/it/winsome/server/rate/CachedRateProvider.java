@@ -0,0 +1,125 @@
+package it.winsome.server.rate;
+
+import it.winsome.common.WinsomeHelper;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+
+/**
+ * Cache of the rate of another provider, refreshed by a background thread so the callers never wait for it
+ * while the cached rate is usable. A rate older than the time to live is still returned while a refresh
+ * is started, until it gets older than the maximum staleness: then the callers wait for the refresh at most
+ * the timeout. A single refresh runs at a time, a failed one keeps the previous rate
+ */
+public class CachedRateProvider implements ExchangeRateProvider {
+    private final ExchangeRateProvider source;
+    private final long ttlNanos;
+    private final long maxStaleNanos;
+    private final long timeoutMs;
+    private final ExecutorService refresher;
+    private volatile CachedRate current;
+    // the running refresh, null when idle
+    private CompletableFuture<CachedRate> refreshing;
+
+    /**
+     * Create the cache, the first rate is read on the first call
+     * @param source provider of the rates, usually with network calls
+     * @param ttlMs age after which a rate is refreshed
+     * @param maxStaleMs age after which a rate is not returned anymore
+     * @param timeoutMs maximum wait of a caller when no rate can be returned
+     */
+    public CachedRateProvider(ExchangeRateProvider source, long ttlMs, long maxStaleMs, long timeoutMs) {
+        this.source = source;
+        ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        maxStaleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(ttlMs, maxStaleMs));
+        this.timeoutMs = timeoutMs;
+        refresher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String getName() {
+        return source.getName();
+    }
+
+    @Override
+    public double getRate() throws IOException {
+        CachedRate rate = current;
+        long now = System.nanoTime();
+        if(rate != null && now - rate.time < ttlNanos) {
+            return rate.value;
+        }
+
+        CompletableFuture<CachedRate> refresh = refresh();
+        if(rate != null && now - rate.time < maxStaleNanos) {
+            return rate.value;
+        }
+
+        try {
+            return refresh.get(timeoutMs, TimeUnit.MILLISECONDS).value;
+        } catch (TimeoutException e) {
+            throw new IOException("No rate from " + source.getName() + " in " + timeoutMs + "ms");
+        } catch (ExecutionException e) {
+            throw new IOException("No rate from " + source.getName(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting the rate", e);
+        }
+    }
+
+    /**
+     * Start a refresh if none is running
+     * @return the running refresh
+     */
+    private synchronized CompletableFuture<CachedRate> refresh() {
+        if(refreshing != null) return refreshing;
+
+        CompletableFuture<CachedRate> refresh = new CompletableFuture<>();
+        refreshing = refresh;
+        try {
+            refresher.execute(() -> {
+                CachedRate rate = null;
+                Exception failure = null;
+                try {
+                    rate = new CachedRate(source.getRate(), System.nanoTime());
+                    current = rate;
+                } catch (Exception e) {
+                    WinsomeHelper.printfDebug("Rate refresh from %s failed: %s", source.getName(), e.getMessage());
+                    failure = e;
+                }
+                // idle before waking up the callers, the next stale read starts a new refresh
+                synchronized (this) {
+                    refreshing = null;
+                }
+                if(failure == null) {
+                    refresh.complete(rate);
+                } else {
+                    refresh.completeExceptionally(failure);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing = null;
+            refresh.completeExceptionally(new IOException("Rate provider closed", e));
+        }
+        return refresh;
+    }
+
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+        source.close();
+    }
+
+    private static class CachedRate {
+        final double value;
+        final long time;
+
+        CachedRate(double value, long time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
+}
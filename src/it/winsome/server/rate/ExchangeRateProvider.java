@@ -0,0 +1,26 @@
+package it.winsome.server.rate;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Source of the conversion rate from wincoin to btc. The rate multiplies the wincoin amounts when they are
+ * serialized, the wallets are never changed by it
+ */
+public interface ExchangeRateProvider extends Closeable {
+    /**
+     * Get the provider name, as written in the server configuration
+     * @return provider name
+     */
+    String getName();
+
+    /**
+     * Get the current rate, it can be called by many threads
+     * @return btc for a wincoin
+     * @throws IOException if no rate is available in time
+     */
+    double getRate() throws IOException;
+
+    @Override
+    default void close() { }
+}
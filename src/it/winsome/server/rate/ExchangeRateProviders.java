@@ -0,0 +1,32 @@
+package it.winsome.server.rate;
+
+import it.winsome.server.config.ServerConfiguration;
+
+import java.net.MalformedURLException;
+
+/**
+ * Open the exchange rate provider chosen in the server configuration
+ */
+public final class ExchangeRateProviders {
+    private ExchangeRateProviders() { }
+
+    /**
+     * Open the provider of the configuration, the network ones are wrapped by a cache
+     * @param configuration server configuration
+     * @return the opened provider
+     * @throws MalformedURLException if the URL of the provider is not valid
+     * @throws IllegalArgumentException if the provider does not exist
+     */
+    public static ExchangeRateProvider open(ServerConfiguration configuration) throws MalformedURLException {
+        switch (configuration.rateProvider) {
+            case FixedRateProvider.NAME:
+                return new FixedRateProvider(configuration.fixedRate);
+            case RandomOrgRateProvider.NAME:
+                return new CachedRateProvider(new RandomOrgRateProvider(configuration.rateTimeoutMs),
+                        configuration.rateTtlSeconds * 1000, configuration.rateMaxStaleSeconds * 1000,
+                        configuration.rateTimeoutMs);
+            default:
+                throw new IllegalArgumentException("Unknown rate provider " + configuration.rateProvider);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package it.winsome.server.rate;
+
+/**
+ * Always the same rate without any network call, for the tests and the benchmarks
+ */
+public class FixedRateProvider implements ExchangeRateProvider {
+    public static final String NAME = "fixed";
+
+    private final double rate;
+
+    public FixedRateProvider(double rate) {
+        this.rate = rate;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public double getRate() {
+        return rate;
+    }
+}
@@ -0,0 +1,53 @@
+package it.winsome.server.rate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Rate read from random.org as a random decimal fraction, every call is a blocking HTTP request
+ * bounded by the timeout both to connect and to read
+ */
+public class RandomOrgRateProvider implements ExchangeRateProvider {
+    public static final String NAME = "random.org";
+    private static final String RATE_URL =
+            "https://www.random.org/decimal-fractions/?num=1&dec=10&col=1&format=plain&rnd=new";
+
+    private final URL url;
+    private final int timeoutMs;
+
+    /**
+     * @param timeoutMs maximum wait to connect and then to read the response
+     * @throws MalformedURLException if the URL is not valid
+     */
+    public RandomOrgRateProvider(int timeoutMs) throws MalformedURLException {
+        url = new URL(RATE_URL);
+        this.timeoutMs = timeoutMs;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public double getRate() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(timeoutMs);
+        connection.setReadTimeout(timeoutMs);
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            if(line == null) throw new IOException("Empty rate from " + NAME);
+            return Double.parseDouble(line.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid rate from " + NAME, e);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
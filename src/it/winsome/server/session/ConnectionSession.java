@@ -1,15 +1,24 @@
 package it.winsome.server.session;
 
+import it.winsome.common.dto.WalletDeltaDTO;
 import it.winsome.common.entity.User;
 import it.winsome.common.network.NetMessage;
 
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+
 /**
  * It represents a session of a generic SelectionKey (NIO) or more practically, a client socket connection
+ * A worker handles the session at a time, the messages pushed meanwhile are written when it finishes
  */
 public class ConnectionSession {
     private NetMessage writableMessage;
     private NetMessage readableMessage;
     private User userLogged;
+    // guarded by this session together with the interest set of its key
+    private boolean busy;
+    private boolean writePending;
+    private WalletDeltaDTO pendingDelta;
 
     public void setWritableMessage(NetMessage writableMessage) {
         this.writableMessage = writableMessage;
@@ -34,4 +43,59 @@ public class ConnectionSession {
     public void setUserLogged(User userLogged) {
         this.userLogged = userLogged;
     }
+
+    /**
+     * Mark the session as handled by a worker, the key is not selected until endHandling
+     * @param key key of this session
+     */
+    public synchronized void beginHandling(SelectionKey key) {
+        busy = true;
+        key.interestOps(0);
+    }
+
+    /**
+     * Give back the session to the selector, to write if a message is pending
+     * @param key key of this session
+     * @param writePending true if the current message is not written fully
+     */
+    public synchronized void endHandling(SelectionKey key, boolean writePending) {
+        busy = false;
+        this.writePending = writePending;
+        key.interestOps(writePending || pendingDelta != null ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    /**
+     * @return true if the writable message was not written fully by the last worker
+     */
+    public synchronized boolean isWritePending() {
+        return writePending;
+    }
+
+    /**
+     * Queue a wallet delta to be written as soon as no worker handles the session, a delta not written yet
+     * is merged with the new one
+     * @param key key of this session
+     * @param delta wallet delta
+     */
+    public synchronized void pushWalletDelta(SelectionKey key, WalletDeltaDTO delta) {
+        pendingDelta = pendingDelta == null ? delta : pendingDelta.merge(delta);
+        if(busy) return;
+
+        try {
+            key.interestOps(SelectionKey.OP_WRITE);
+            key.selector().wakeup();
+        } catch (CancelledKeyException e) {
+            // disconnected, the delta is dropped with the session
+        }
+    }
+
+    /**
+     * Take the wallet delta to be written
+     * @return the delta or null if none is pending
+     */
+    public synchronized WalletDeltaDTO takeWalletDelta() {
+        WalletDeltaDTO delta = pendingDelta;
+        pendingDelta = null;
+        return delta;
+    }
 }
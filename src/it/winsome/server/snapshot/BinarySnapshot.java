@@ -0,0 +1,333 @@
+package it.winsome.server.snapshot;
+
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+import it.winsome.common.entity.Wallet;
+import it.winsome.common.entity.abstracts.BaseVotableEntity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Versioned binary snapshot of the social network, opened with a memory mapping so that the posts are
+ * decoded only when they are needed.
+ * Layout: a fixed header, the user records, the post records (each one contains its comments), the string
+ * table shared by usernames and tags, the post index sorted by id and the comment index sorted by id.
+ * Every record is prefixed by its length; an entry of the post index holds the post id, its author,
+ * its original post, its flags and the offset of its record, then the blogs and the rewins are rebuilt
+ * without reading any record
+ */
+public class BinarySnapshot implements Closeable {
+    public static final String FILE_NAME = "snapshot.bin";
+    static final int MAGIC = 0x57534E50;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int POST_INDEX_ENTRY = 24;
+    static final int COMMENT_INDEX_ENTRY = 8;
+    // the post has votes or comments not rewarded yet
+    static final int FLAG_PENDING_REWARDS = 1;
+
+    private final MappedFile file;
+    private final String[] strings;
+    private final int userCount;
+    private final int postCount;
+    private final int commentCount;
+    private final long usersOffset;
+    private final long postIndexOffset;
+    private final long commentIndexOffset;
+
+    private BinarySnapshot(MappedFile file) throws IOException {
+        this.file = file;
+        if(file.size() < HEADER_SIZE || file.getInt(0) != MAGIC) {
+            throw new IOException("Not a snapshot file!");
+        }
+        if(file.getInt(4) != VERSION) {
+            throw new IOException("Unsupported snapshot version " + file.getInt(4));
+        }
+        int stringCount = file.getInt(8);
+        userCount = file.getInt(12);
+        postCount = file.getInt(16);
+        commentCount = file.getInt(20);
+        long stringsOffset = file.getLong(24);
+        usersOffset = file.getLong(32);
+        postIndexOffset = file.getLong(48);
+        commentIndexOffset = file.getLong(56);
+
+        strings = new String[stringCount];
+        long position = stringsOffset;
+        for(int i = 0; i < stringCount; i++) {
+            ByteBuffer record = readRecord(position);
+            strings[i] = SnapshotRecord.readString(record);
+            position += Integer.BYTES + record.capacity();
+        }
+    }
+
+    /**
+     * Open a snapshot file, only the header and the string table are read
+     * @param path snapshot file
+     * @return the opened snapshot
+     * @throws IOException if the file cannot be mapped or it is not a supported snapshot
+     */
+    public static BinarySnapshot open(Path path) throws IOException {
+        MappedFile file = new MappedFile(path);
+        try {
+            return new BinarySnapshot(file);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    String[] getStrings() {
+        return strings;
+    }
+
+    public int getPostCount() {
+        return postCount;
+    }
+
+    public int getPostId(int slot) {
+        return file.getInt(postIndexOffset + (long) slot * POST_INDEX_ENTRY);
+    }
+
+    public String getPostAuthor(int slot) {
+        return strings[getPostAuthorId(slot)];
+    }
+
+    /**
+     * Get the author of a post as an index of the string table, see getString
+     * @param slot position in the post index
+     * @return string index
+     */
+    public int getPostAuthorId(int slot) {
+        return file.getInt(postIndexOffset + (long) slot * POST_INDEX_ENTRY + 4);
+    }
+
+    public String getString(int id) {
+        return strings[id];
+    }
+
+    /**
+     * Get the original post of a rewin
+     * @param slot position in the post index
+     * @return original post id or -1 if it is not a rewin
+     */
+    public int getOriginalPostId(int slot) {
+        return file.getInt(postIndexOffset + (long) slot * POST_INDEX_ENTRY + 8);
+    }
+
+    public boolean hasPendingRewards(int slot) {
+        return (getPostFlags(slot) & FLAG_PENDING_REWARDS) != 0;
+    }
+
+    int getPostFlags(int slot) {
+        return file.getInt(postIndexOffset + (long) slot * POST_INDEX_ENTRY + 12);
+    }
+
+    private long getPostOffset(int slot) {
+        return file.getLong(postIndexOffset + (long) slot * POST_INDEX_ENTRY + 16);
+    }
+
+    /**
+     * Find a post in the index
+     * @param postId post id
+     * @return its slot or -1 if it is not in this snapshot
+     */
+    public int findPostSlot(int postId) {
+        int low = 0;
+        int high = postCount - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            int id = getPostId(middle);
+            if(id < postId) low = middle + 1;
+            else if(id > postId) high = middle - 1;
+            else return middle;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the first post of the index with an id greater or equal to the given one
+     * @param postId post id
+     * @return its slot or the post count if there is none
+     */
+    public int findPostSlotFrom(int postId) {
+        int low = 0;
+        int high = postCount;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(getPostId(middle) < postId) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Find the post containing a comment
+     * @param commentId comment id
+     * @return slot of its post or -1 if the comment is not in this snapshot
+     */
+    public int findCommentPostSlot(int commentId) {
+        int low = 0;
+        int high = commentCount - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            long entry = commentIndexOffset + (long) middle * COMMENT_INDEX_ENTRY;
+            int id = file.getInt(entry);
+            if(id < commentId) low = middle + 1;
+            else if(id > commentId) high = middle - 1;
+            else return file.getInt(entry + 4);
+        }
+        return -1;
+    }
+
+    public int getMaxCommentId() {
+        return commentCount == 0 ? 0 :
+                file.getInt(commentIndexOffset + (long) (commentCount - 1) * COMMENT_INDEX_ENTRY);
+    }
+
+    /**
+     * Decode every user, they are not synchronized
+     * @return users in the saved order
+     */
+    public List<User> readUsers() {
+        List<User> users = new ArrayList<>(userCount);
+        long position = usersOffset;
+        for(int i = 0; i < userCount; i++) {
+            ByteBuffer record = readRecord(position);
+            position += Integer.BYTES + record.capacity();
+            users.add(decodeUser(record));
+        }
+        return users;
+    }
+
+    /**
+     * Decode a post with its comments, the post is not synchronized and a rewin refers to a placeholder
+     * of its original post containing only the id
+     * @param slot position in the post index
+     * @return the post
+     */
+    public Post readPost(int slot) {
+        ByteBuffer record = readRecord(getPostOffset(slot));
+        int id = record.getInt();
+        String author = strings[record.getInt()];
+        int originalId = record.getInt();
+        long creationTime = record.getLong();
+        int iteration = record.getInt();
+        String title = SnapshotRecord.readString(record);
+        String content = SnapshotRecord.readString(record);
+
+        Post post = new Post(id, author, title, content);
+        post.setCreationTime(creationTime);
+        post.setCurrentIteration(iteration);
+        if(originalId >= 0) {
+            post.setOriginalPost(new Post(originalId));
+        }
+        decodeVotes(record, post);
+
+        int comments = record.getInt();
+        for(int i = 0; i < comments; i++) {
+            Comment comment = new Comment(record.getInt(), strings[record.getInt()], null);
+            comment.setCreationTime(record.getLong());
+            comment.setNeedIteration(record.get() != 0);
+            comment.setContent(SnapshotRecord.readString(record));
+            comment.setPostId(id);
+            decodeVotes(record, comment);
+            post.addComment(comment);
+        }
+        return post;
+    }
+
+    /**
+     * Get the encoded record of a post, to be copied as it is into a new snapshot
+     * @param slot position in the post index
+     * @return record without its length
+     */
+    ByteBuffer readPostRecord(int slot) {
+        return readRecord(getPostOffset(slot));
+    }
+
+    /**
+     * Visit the comment ids of an encoded post without decoding it
+     * @param record post record
+     * @param action consumer of the comment ids
+     */
+    static void forEachCommentId(ByteBuffer record, IntConsumer action) {
+        record.position(Integer.BYTES * 3 + Long.BYTES + Integer.BYTES);
+        SnapshotRecord.skipString(record);
+        SnapshotRecord.skipString(record);
+        skipVotes(record);
+        int comments = record.getInt();
+        for(int i = 0; i < comments; i++) {
+            action.accept(record.getInt());
+            record.position(record.position() + Integer.BYTES + Long.BYTES + 1);
+            SnapshotRecord.skipString(record);
+            skipVotes(record);
+        }
+        record.rewind();
+    }
+
+    private ByteBuffer readRecord(long position) {
+        byte[] bytes = new byte[file.getInt(position)];
+        file.get(position + Integer.BYTES, bytes, 0, bytes.length);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private User decodeUser(ByteBuffer record) {
+        int id = record.getInt();
+        String username = strings[record.getInt()];
+        String password = SnapshotRecord.readString(record);
+        Set<String> tags = decodeStringSet(record);
+        Set<String> followed = decodeStringSet(record);
+        Set<String> following = decodeStringSet(record);
+
+        User user = new User(username, password, tags, following, followed);
+        user.setId(id);
+        double amount = record.getDouble();
+        int transactions = record.getInt();
+        Wallet wallet = new Wallet();
+        for(int i = 0; i < transactions; i++) {
+            wallet.addTransaction(record.getLong(), record.getDouble());
+        }
+        wallet.setAmount(amount);
+        user.setWallet(wallet);
+        return user;
+    }
+
+    private Set<String> decodeStringSet(ByteBuffer record) {
+        int size = record.getInt();
+        Set<String> values = new HashSet<>(Math.max(size * 2, 2));
+        for(int i = 0; i < size; i++) {
+            values.add(strings[record.getInt()]);
+        }
+        return values;
+    }
+
+    private static void decodeVotes(ByteBuffer record, BaseVotableEntity entity) {
+        int upvotes = record.getInt();
+        int downvotes = record.getInt();
+        int[] votes = new int[record.getInt()];
+        for(int i = 0; i < votes.length; i++) {
+            votes[i] = record.getInt();
+        }
+        entity.restoreVotes(votes);
+        entity.setTotalUpvotes(upvotes);
+        entity.setTotalDownvotes(downvotes);
+    }
+
+    private static void skipVotes(ByteBuffer record) {
+        record.position(record.position() + Integer.BYTES * 2);
+        int votes = record.getInt();
+        record.position(record.position() + votes * Integer.BYTES);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,147 @@
+package it.winsome.server.snapshot;
+
+import it.winsome.common.WinsomeHelper;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot file of a data folder. It is replaced by writing a temporary file which is synced and then
+ * renamed over the old one, a crash leaves the previous file untouched. The deltas are merged into it without
+ * decoding the posts they do not change
+ */
+public class BinarySnapshotFile {
+    private final Path path;
+    private final Path temp;
+    private final DeltaStore deltaStore;
+
+    public BinarySnapshotFile(String dataFolder, DeltaStore deltaStore) {
+        path = Paths.get(dataFolder + BinarySnapshot.FILE_NAME);
+        temp = Paths.get(dataFolder + BinarySnapshot.FILE_NAME + ".tmp");
+        this.deltaStore = deltaStore;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public boolean exists() {
+        return Files.exists(path);
+    }
+
+    /**
+     * Replace the snapshot
+     * @param base snapshot whose posts may be copied, null if none
+     * @param content writer of the users and the posts
+     * @return true if written
+     */
+    public boolean write(BinarySnapshot base, Content content) {
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            try (BinarySnapshotWriter writer = new BinarySnapshotWriter(temp, base)) {
+                content.write(writer);
+                writer.finish();
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Merge deltas into the snapshot and delete them, the posts not changed by the deltas are copied
+     * as they are. It only works on the files
+     * @param deltas delta files in order
+     * @return true if merged
+     */
+    public boolean merge(List<File> deltas) {
+        BinarySnapshot base;
+        try {
+            base = BinarySnapshot.open(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        try {
+            DeltaOverlay overlay = new DeltaOverlay(base);
+            for(File file : deltas) {
+                overlay.apply(deltaStore.read(file));
+            }
+            Map<String, User> users = new LinkedHashMap<>();
+            base.readUsers().forEach(x -> users.put(x.getUsername(), x));
+            overlay.getUsers().forEach(x -> users.put(x.getUsername(), x));
+            List<Integer> newPosts = overlay.getNewPostIds();
+
+            boolean completed = write(base, writer -> {
+                for(User user : users.values()) {
+                    writer.writeUser(user);
+                }
+                int next = 0;
+                for(int slot = 0; slot < base.getPostCount(); slot++) {
+                    int id = base.getPostId(slot);
+                    while(next < newPosts.size() && newPosts.get(next) < id) {
+                        writeMergedPost(writer, overlay, newPosts.get(next++));
+                    }
+                    if(overlay.isRemoved(id)) continue;
+                    if(overlay.touches(id)) {
+                        writeMergedPost(writer, overlay, id);
+                    } else {
+                        writer.copyPost(slot);
+                    }
+                }
+                while(next < newPosts.size()) {
+                    writeMergedPost(writer, overlay, newPosts.get(next++));
+                }
+            });
+            // a partial merge is fine, the deltas are applied again over the previous snapshot
+            if(completed) {
+                deltaStore.delete(deltas);
+            }
+            WinsomeHelper.printfDebug("Merged %d deltas into the snapshot!", deltas.size());
+            return completed;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            close(base);
+        }
+    }
+
+    private static void writeMergedPost(BinarySnapshotWriter writer, DeltaOverlay overlay, int id) throws IOException {
+        Post post = overlay.merge(id);
+        if(post != null) {
+            writer.writePost(post, post.getComments());
+        }
+    }
+
+    /**
+     * Close a snapshot reporting the error
+     * @param snapshot snapshot
+     */
+    public static void close(BinarySnapshot snapshot) {
+        try {
+            snapshot.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Content of a binary snapshot
+     */
+    public interface Content {
+        void write(BinarySnapshotWriter writer) throws IOException;
+    }
+}
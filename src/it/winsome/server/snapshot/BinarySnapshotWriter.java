@@ -0,0 +1,294 @@
+package it.winsome.server.snapshot;
+
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.PackedVote;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+import it.winsome.common.entity.abstracts.BaseVotableEntity;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Sequential writer of a binary snapshot (see BinarySnapshot for the layout). The users are written first,
+ * then the posts by ascending id; the string table and the indexes are written by finish.
+ * The string table starts from the one of a base snapshot, so the records of the base can be copied
+ * without decoding them
+ */
+public class BinarySnapshotWriter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final OutputStream out;
+    private final BinarySnapshot base;
+    private final SnapshotRecord record;
+    private final byte[] lengthBuffer;
+    private long position;
+
+    private final Map<String, Integer> stringIds;
+    private final List<String> strings;
+
+    private final long usersOffset;
+    private int userCount;
+    private long postsOffset;
+    private int postCount;
+    private int lastPostId;
+    // post index, one entry for each post
+    private int[] postIds;
+    private int[] postAuthors;
+    private int[] postOriginals;
+    private int[] postFlags;
+    private long[] postOffsets;
+    // comment id in the high bits and post slot in the low ones, sorted on finish
+    private long[] commentIndex;
+    private int commentCount;
+
+    /**
+     * Create the snapshot file
+     * @param path destination file, replaced if it exists
+     * @param base snapshot whose records may be copied, null if none
+     * @throws IOException if the file cannot be created
+     */
+    public BinarySnapshotWriter(Path path, BinarySnapshot base) throws IOException {
+        this.base = base;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+        record = new SnapshotRecord();
+        lengthBuffer = new byte[Integer.BYTES];
+
+        stringIds = new HashMap<>();
+        strings = new ArrayList<>();
+        if(base != null) {
+            for(String value : base.getStrings()) {
+                stringIds.put(value, strings.size());
+                strings.add(value);
+            }
+        }
+
+        postIds = new int[64];
+        postAuthors = new int[64];
+        postOriginals = new int[64];
+        postFlags = new int[64];
+        postOffsets = new long[64];
+        commentIndex = new long[64];
+        lastPostId = -1;
+
+        // the header is written last, when the offsets are known
+        out.write(new byte[BinarySnapshot.HEADER_SIZE]);
+        position = BinarySnapshot.HEADER_SIZE;
+        usersOffset = position;
+        postsOffset = -1;
+    }
+
+    /**
+     * Write a user, every user has to be written before the first post
+     * @param user detached user
+     * @throws IOException if it cannot be written
+     */
+    public void writeUser(User user) throws IOException {
+        if(postsOffset >= 0) throw new IllegalStateException("Users must be written before the posts!");
+        record.reset();
+        record.writeInt(user.getId());
+        record.writeInt(stringId(user.getUsername()));
+        record.writeString(user.getPassword());
+        writeStringSet(user.getTags());
+        writeStringSet(user.getFollowed());
+        writeStringSet(user.getFollowing());
+        record.writeDouble(user.getWallet().getAmount());
+        record.writeInt(user.getWallet().getTransactionCount());
+        user.getWallet().forEachTransaction((time, amount) -> {
+            record.writeLong(time);
+            record.writeDouble(amount);
+        });
+        writeRecord(record.data(), 0, record.size());
+        userCount++;
+    }
+
+    /**
+     * Write a post with its comments, the posts have to be written by ascending id
+     * @param post detached post
+     * @param comments its detached comments
+     * @throws IOException if it cannot be written
+     */
+    public void writePost(Post post, Collection<Comment> comments) throws IOException {
+        int flags = hasPendingVotes(post) ? BinarySnapshot.FLAG_PENDING_REWARDS : 0;
+        record.reset();
+        record.writeInt(post.getId());
+        int author = stringId(post.getUsername());
+        record.writeInt(author);
+        int originalId = post.isRewin() ? post.getOriginalPost().getId() : -1;
+        record.writeInt(originalId);
+        record.writeLong(post.getCreationTime());
+        record.writeInt(post.getCurrentIteration());
+        record.writeString(post.getTitle());
+        record.writeString(post.getContent());
+        writeVotes(post);
+
+        int slot = startPost(post.getId());
+        record.writeInt(comments.size());
+        for(Comment comment : comments) {
+            if(comment.isNeedIteration()) flags |= BinarySnapshot.FLAG_PENDING_REWARDS;
+            record.writeInt(comment.getId());
+            record.writeInt(stringId(comment.getOwner()));
+            record.writeLong(comment.getCreationTime());
+            record.writeByte(comment.isNeedIteration() ? 1 : 0);
+            record.writeString(comment.getContent());
+            writeVotes(comment);
+            addComment(comment.getId(), slot);
+        }
+        endPost(slot, author, originalId, flags, record.data(), 0, record.size());
+    }
+
+    /**
+     * Copy a post of the base snapshot as it is, by ascending id like the written ones
+     * @param baseSlot slot of the post in the base snapshot
+     * @throws IOException if it cannot be written
+     */
+    public void copyPost(int baseSlot) throws IOException {
+        int postId = base.getPostId(baseSlot);
+        ByteBuffer encoded = base.readPostRecord(baseSlot);
+        int slot = startPost(postId);
+        BinarySnapshot.forEachCommentId(encoded, commentId -> addComment(commentId, slot));
+        // same string table, the author index is still valid
+        endPost(slot, encoded.getInt(Integer.BYTES), base.getOriginalPostId(baseSlot), base.getPostFlags(baseSlot),
+                encoded.array(), encoded.arrayOffset(), encoded.capacity());
+    }
+
+    /**
+     * Write the string table, the indexes and the header then sync the file
+     * @throws IOException if it cannot be written
+     */
+    public void finish() throws IOException {
+        if(postsOffset < 0) postsOffset = position;
+        long stringsOffset = position;
+        for(String value : strings) {
+            record.reset();
+            record.writeString(value);
+            writeRecord(record.data(), 0, record.size());
+        }
+
+        long postIndexOffset = position;
+        ByteBuffer entry = ByteBuffer.allocate(BinarySnapshot.POST_INDEX_ENTRY);
+        for(int i = 0; i < postCount; i++) {
+            entry.clear();
+            entry.putInt(postIds[i]).putInt(postAuthors[i]).putInt(postOriginals[i]).putInt(postFlags[i])
+                    .putLong(postOffsets[i]);
+            write(entry.array(), 0, entry.capacity());
+        }
+
+        long commentIndexOffset = position;
+        Arrays.sort(commentIndex, 0, commentCount);
+        entry = ByteBuffer.allocate(BinarySnapshot.COMMENT_INDEX_ENTRY);
+        for(int i = 0; i < commentCount; i++) {
+            entry.clear();
+            entry.putInt((int) (commentIndex[i] >>> 32)).putInt((int) commentIndex[i]);
+            write(entry.array(), 0, entry.capacity());
+        }
+        out.flush();
+
+        ByteBuffer header = ByteBuffer.allocate(BinarySnapshot.HEADER_SIZE);
+        header.putInt(BinarySnapshot.MAGIC).putInt(BinarySnapshot.VERSION)
+                .putInt(strings.size()).putInt(userCount).putInt(postCount).putInt(commentCount)
+                .putLong(stringsOffset).putLong(usersOffset).putLong(postsOffset)
+                .putLong(postIndexOffset).putLong(commentIndexOffset);
+        header.flip();
+        long headerPosition = 0;
+        while(header.hasRemaining()) {
+            headerPosition += channel.write(header, headerPosition);
+        }
+        channel.force(false);
+    }
+
+    private int startPost(int postId) {
+        if(postId <= lastPostId) throw new IllegalStateException("Posts must be written by ascending id!");
+        if(postsOffset < 0) postsOffset = position;
+        if(postCount == postIds.length) {
+            int length = postCount * 2;
+            postIds = Arrays.copyOf(postIds, length);
+            postAuthors = Arrays.copyOf(postAuthors, length);
+            postOriginals = Arrays.copyOf(postOriginals, length);
+            postFlags = Arrays.copyOf(postFlags, length);
+            postOffsets = Arrays.copyOf(postOffsets, length);
+        }
+        lastPostId = postId;
+        postIds[postCount] = postId;
+        return postCount++;
+    }
+
+    private void endPost(int slot, int author, int originalId, int flags, byte[] data, int offset, int length)
+            throws IOException {
+        postAuthors[slot] = author;
+        postOriginals[slot] = originalId;
+        postFlags[slot] = flags;
+        postOffsets[slot] = position;
+        writeRecord(data, offset, length);
+    }
+
+    private void addComment(int commentId, int slot) {
+        if(commentCount == commentIndex.length) {
+            commentIndex = Arrays.copyOf(commentIndex, commentCount * 2);
+        }
+        commentIndex[commentCount++] = ((long) commentId << 32) | (slot & 0xFFFFFFFFL);
+    }
+
+    private void writeVotes(BaseVotableEntity entity) {
+        int votes = entity.getVoteCount();
+        record.writeInt(entity.getTotalUpvotes());
+        record.writeInt(entity.getTotalDownvotes());
+        record.writeInt(votes);
+        for(int i = 0; i < votes; i++) {
+            record.writeInt(entity.getVote(i));
+        }
+    }
+
+    private static boolean hasPendingVotes(Post post) {
+        // the comment votes are not rewarded
+        int votes = post.getVoteCount();
+        for(int i = 0; i < votes; i++) {
+            if(PackedVote.isNeedIteration(post.getVote(i))) return true;
+        }
+        return false;
+    }
+
+    private void writeStringSet(Set<String> values) {
+        record.writeInt(values.size());
+        for(String value : values) {
+            record.writeInt(stringId(value));
+        }
+    }
+
+    private int stringId(String value) {
+        Integer id = stringIds.get(value);
+        if(id == null) {
+            id = strings.size();
+            stringIds.put(value, id);
+            strings.add(value);
+        }
+        return id;
+    }
+
+    private void writeRecord(byte[] data, int offset, int length) throws IOException {
+        ByteBuffer.wrap(lengthBuffer).putInt(length);
+        write(lengthBuffer, 0, lengthBuffer.length);
+        write(data, offset, length);
+    }
+
+    private void write(byte[] data, int offset, int length) throws IOException {
+        out.write(data, offset, length);
+        position += length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
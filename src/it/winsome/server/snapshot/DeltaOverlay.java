@@ -0,0 +1,129 @@
+package it.winsome.server.snapshot;
+
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+
+import java.util.*;
+
+/**
+ * The deltas applied in order over a binary snapshot without decoding it: only the posts touched by a delta
+ * are decoded and merged, the other ones are still read from the snapshot
+ */
+public class DeltaOverlay {
+    private final BinarySnapshot base;
+    private final Map<String, User> users;
+    private final Map<Integer, Post> posts;
+    private final TreeMap<Integer, Comment> comments;
+    private final Set<Integer> removedPosts;
+    private final Set<Integer> removedComments;
+    // built on the first query, after every delta has been applied, then it can be queried by many threads
+    private Map<Integer, List<Comment>> commentsByPost;
+    private volatile Set<Integer> touchedPosts;
+
+    public DeltaOverlay(BinarySnapshot base) {
+        this.base = base;
+        users = new LinkedHashMap<>();
+        posts = new TreeMap<>();
+        comments = new TreeMap<>();
+        removedPosts = new HashSet<>();
+        removedComments = new HashSet<>();
+    }
+
+    /**
+     * Apply the next delta
+     * @param delta delta
+     */
+    public void apply(DeltaStore.Delta delta) {
+        delta.applyTo(users, posts, comments);
+        removedPosts.addAll(delta.removedPosts);
+        removedComments.addAll(delta.removedComments);
+        commentsByPost = null;
+        touchedPosts = null;
+    }
+
+    /**
+     * Get the users written by the deltas, they replace the ones of the snapshot
+     * @return users in the order they have been written
+     */
+    public Collection<User> getUsers() {
+        return users.values();
+    }
+
+    public boolean isRemoved(int postId) {
+        return removedPosts.contains(postId);
+    }
+
+    /**
+     * Check if a post of the snapshot has been changed by the deltas, itself or one of its comments
+     * @param postId post id
+     * @return true if it has to be merged
+     */
+    public boolean touches(int postId) {
+        index();
+        return touchedPosts.contains(postId);
+    }
+
+    /**
+     * Get the posts added by the deltas which are not part of the snapshot
+     * @return post ids in ascending order
+     */
+    public List<Integer> getNewPostIds() {
+        List<Integer> ids = new ArrayList<>();
+        for(int id : posts.keySet()) {
+            if(base.findPostSlot(id) < 0) ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * Merge a post with the deltas, its comments are ordered by id and the post is not synchronized
+     * @param postId post id
+     * @return the merged post or null if it does not exist
+     */
+    public Post merge(int postId) {
+        if(removedPosts.contains(postId)) return null;
+        index();
+        Post post = posts.get(postId);
+        Map<Integer, Comment> merged = new TreeMap<>();
+        int slot = base.findPostSlot(postId);
+        if(slot >= 0) {
+            Post basePost = base.readPost(slot);
+            if(post == null) post = basePost;
+            for(Comment comment : basePost.getComments()) {
+                merged.put(comment.getId(), comment);
+            }
+        }
+        if(post == null) return null;
+
+        for(Comment comment : commentsByPost.getOrDefault(postId, Collections.emptyList())) {
+            merged.put(comment.getId(), comment);
+        }
+        merged.keySet().removeAll(removedComments);
+        post.setComments(merged.values());
+        return post;
+    }
+
+    public int getMaxCommentId() {
+        return comments.isEmpty() ? 0 : comments.lastKey();
+    }
+
+    private void index() {
+        if(touchedPosts != null) return;
+        synchronized (this) {
+            if(touchedPosts != null) return;
+            Map<Integer, List<Comment>> byPost = new HashMap<>();
+            Set<Integer> touched = new HashSet<>(posts.keySet());
+            for(Comment comment : comments.values()) {
+                byPost.computeIfAbsent(comment.getPostId(), x -> new ArrayList<>()).add(comment);
+                touched.add(comment.getPostId());
+            }
+            for(int commentId : removedComments) {
+                int slot = base.findCommentPostSlot(commentId);
+                if(slot >= 0) touched.add(base.getPostId(slot));
+            }
+            commentsByPost = byPost;
+            touchedPosts = touched;
+        }
+    }
+}
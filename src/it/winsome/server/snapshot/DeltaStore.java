@@ -0,0 +1,154 @@
+package it.winsome.server.snapshot;
+
+import com.google.gson.Gson;
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+import it.winsome.common.json.EntityGson;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Folder of the delta files written by the incremental checkpoints. Each delta contains the entities changed
+ * after the previous checkpoint and the ids of the removed ones, the deltas are applied in order over the
+ * base snapshot until the compactor merges them into it
+ */
+public class DeltaStore {
+    private static final String EXTENSION = ".json";
+
+    private final File folder;
+    private final AtomicLong nextSequence;
+    private final Gson gson;
+
+    public DeltaStore(String folder) {
+        this.folder = new File(folder);
+        gson = EntityGson.get();
+        long last = 0;
+        for(File file : list()) {
+            last = Math.max(last, sequenceOf(file));
+        }
+        nextSequence = new AtomicLong(last + 1);
+    }
+
+    /**
+     * Write a new delta after the existing ones, the file appears only when it is complete
+     * @param json serialized delta
+     * @throws IOException if the file cannot be written
+     */
+    public void write(String json) throws IOException {
+        folder.mkdirs();
+        File file = new File(folder, String.format("%020d%s", nextSequence.getAndIncrement(), EXTENSION));
+        File temp = new File(folder, file.getName() + ".tmp");
+        try (FileOutputStream oFile = new FileOutputStream(temp, false)) {
+            oFile.write(json.getBytes(StandardCharsets.UTF_8));
+            oFile.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a delta file
+     * @param file delta file
+     * @return its content
+     * @throws IOException if the file cannot be read
+     */
+    public Delta read(File file) throws IOException {
+        String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        Delta delta = gson.fromJson(json, Delta.class);
+        return delta != null ? delta : new Delta();
+    }
+
+    /**
+     * Parse the deltas concurrently on the common pool, they are applied in order by the caller
+     * @param deltas delta files in order
+     * @return the pending deltas in the same order
+     */
+    public List<CompletableFuture<Delta>> readAll(List<File> deltas) {
+        List<CompletableFuture<Delta>> pending = new ArrayList<>(deltas.size());
+        for(File file : deltas) {
+            pending.add(ParallelLoader.read(() -> read(file)));
+        }
+        return pending;
+    }
+
+    /**
+     * Get the complete delta files in the order they have been written
+     * @return delta files
+     */
+    public List<File> list() {
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if(files == null) return new ArrayList<>(0);
+        List<File> ordered = new ArrayList<>(Arrays.asList(files));
+        ordered.sort(Comparator.comparingLong(DeltaStore::sequenceOf));
+        return ordered;
+    }
+
+    /**
+     * Delete the deltas merged into the base snapshot
+     * @param files delta files
+     */
+    public void delete(List<File> files) {
+        for(File file : files) {
+            if(!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    private static long sequenceOf(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Entities changed between two checkpoints
+     */
+    public static class Delta {
+        public List<User> users = new ArrayList<>();
+        public List<Post> posts = new ArrayList<>();
+        public List<Comment> comments = new ArrayList<>();
+        public List<Integer> removedPosts = new ArrayList<>();
+        public List<Integer> removedComments = new ArrayList<>();
+
+        public boolean isEmpty() {
+            return users.isEmpty() && posts.isEmpty() && comments.isEmpty() &&
+                    removedPosts.isEmpty() && removedComments.isEmpty();
+        }
+
+        /**
+         * Apply this delta over the entities of a snapshot, not synchronized yet
+         * @param usersByName users by username
+         * @param postsById posts by id
+         * @param commentsById comments by id
+         */
+        public void applyTo(Map<String, User> usersByName, Map<Integer, Post> postsById, Map<Integer, Comment> commentsById) {
+            for(User user : users) {
+                usersByName.put(user.getUsername(), user);
+            }
+            for(Post post : posts) {
+                postsById.put(post.getId(), post);
+            }
+            for(Comment comment : comments) {
+                commentsById.put(comment.getId(), comment);
+            }
+            for(int id : removedPosts) {
+                postsById.remove(id);
+            }
+            for(int id : removedComments) {
+                commentsById.remove(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package it.winsome.server.snapshot;
+
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.CommentSnapshot;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.IntFunction;
+
+/**
+ * Entities flagged dirty after the last checkpoint, each one is queued once until it is written in a delta
+ * or in a snapshot. A checkpoint drains the queues clearing the flags, an entity changed after that is queued
+ * for the next checkpoint. No lock is required
+ */
+public class DirtyEntities {
+    private final Queue<Post> posts;
+    private final Queue<Comment> comments;
+    private final Queue<User> users;
+    private final Queue<Integer> removedPosts;
+    private final Queue<Integer> removedComments;
+
+    public DirtyEntities() {
+        posts = new ConcurrentLinkedQueue<>();
+        comments = new ConcurrentLinkedQueue<>();
+        users = new ConcurrentLinkedQueue<>();
+        removedPosts = new ConcurrentLinkedQueue<>();
+        removedComments = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Flag a post as changed
+     * @param post real post
+     */
+    public void markDirty(Post post) {
+        if(post.markDirty()) posts.add(post);
+    }
+
+    /**
+     * Flag a comment as changed
+     * @param comment real comment
+     */
+    public void markDirty(Comment comment) {
+        if(comment.markDirty()) comments.add(comment);
+    }
+
+    /**
+     * Flag a user as changed
+     * @param user real user
+     */
+    public void markDirty(User user) {
+        if(user.markDirty()) users.add(user);
+    }
+
+    /**
+     * Record a removed post, it is deleted by the next checkpoint
+     * @param id post id
+     */
+    public void markRemovedPost(int id) {
+        removedPosts.add(id);
+    }
+
+    /**
+     * Record a removed comment, it is deleted by the next checkpoint
+     * @param id comment id
+     */
+    public void markRemovedComment(int id) {
+        removedComments.add(id);
+    }
+
+    /**
+     * Take every flagged entity and clear its flag, to be requeued if the checkpoint is not written
+     * @return the changes since the previous drain
+     */
+    public Changes drain() {
+        Changes changes = new Changes();
+        Post post;
+        while((post = posts.poll()) != null) {
+            post.clearDirty();
+            changes.posts.add(post);
+        }
+        Comment comment;
+        while((comment = comments.poll()) != null) {
+            comment.clearDirty();
+            changes.comments.add(comment);
+        }
+        User user;
+        while((user = users.poll()) != null) {
+            user.clearDirty();
+            changes.users.add(user);
+        }
+        drainIds(removedPosts, changes.removedPosts);
+        drainIds(removedComments, changes.removedComments);
+        return changes;
+    }
+
+    /**
+     * Flag again the entities of a checkpoint which has not been written
+     * @param changes drained changes
+     */
+    public void requeue(Changes changes) {
+        changes.posts.forEach(this::markDirty);
+        changes.comments.forEach(this::markDirty);
+        changes.users.forEach(this::markDirty);
+        removedPosts.addAll(changes.removedPosts);
+        removedComments.addAll(changes.removedComments);
+    }
+
+    private static void drainIds(Queue<Integer> queue, List<Integer> to) {
+        Integer id;
+        while((id = queue.poll()) != null) {
+            to.add(id);
+        }
+    }
+
+    /**
+     * Entities changed between two checkpoints, still referring to the live ones
+     */
+    public static class Changes {
+        public final Set<Post> posts = Collections.newSetFromMap(new IdentityHashMap<>());
+        public final Set<Comment> comments = Collections.newSetFromMap(new IdentityHashMap<>());
+        public final Set<User> users = Collections.newSetFromMap(new IdentityHashMap<>());
+        public final List<Integer> removedPosts = new ArrayList<>();
+        public final List<Integer> removedComments = new ArrayList<>();
+
+        /**
+         * Copy the changed entities still alive into a delta, each one under its read lock
+         * @param livePosts live post by id
+         * @param liveComments live comment by id
+         * @return the delta to be written
+         */
+        public DeltaStore.Delta toDelta(IntFunction<Post> livePosts, IntFunction<Comment> liveComments) {
+            DeltaStore.Delta delta = new DeltaStore.Delta();
+            delta.removedPosts = removedPosts;
+            delta.removedComments = removedComments;
+            for(Post post : posts) {
+                // a removed post is part of the removed ids
+                if(livePosts.apply(post.getSnapshot().getId()) == post) {
+                    delta.posts.add(EntityCopies.copyPost(post));
+                }
+            }
+            for(Comment comment : comments) {
+                CommentSnapshot snapshot = comment.getSnapshot();
+                Post post = livePosts.apply(snapshot.getPostId());
+                if(post == null || liveComments.apply(snapshot.getId()) != comment) continue;
+                post.prepareRead();
+                delta.comments.add(comment.deepCopyAs());
+                post.releaseRead();
+            }
+            for(User user : users) {
+                delta.users.add(EntityCopies.copyUser(user));
+            }
+            return delta;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package it.winsome.server.snapshot;
+
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Detached copies of the live entities taken by the checkpoints, each entity is copied under its read lock
+ * and written after releasing it, so the writers are never blocked by the file I/O
+ */
+public final class EntityCopies {
+    private EntityCopies() { }
+
+    /**
+     * Copy a post under its read lock, to be written after releasing it
+     * @param post real post
+     * @return detached copy
+     */
+    public static Post copyPost(Post post) {
+        post.prepareRead();
+        try {
+            return post.persistentCopy();
+        } finally {
+            post.releaseRead();
+        }
+    }
+
+    /**
+     * Copy the comments of a post under its read lock, to be written after releasing it
+     * @param post real post
+     * @return detached copies
+     */
+    public static List<Comment> copyComments(Post post) {
+        post.prepareRead();
+        try {
+            List<Comment> comments = post.getComments();
+            List<Comment> copies = new ArrayList<>(comments.size());
+            for(Comment comment : comments) {
+                copies.add(comment.deepCopyAs());
+            }
+            return copies;
+        } finally {
+            post.releaseRead();
+        }
+    }
+
+    /**
+     * Copy a user under its read lock, to be written after releasing it
+     * @param user real user
+     * @return detached copy
+     */
+    public static User copyUser(User user) {
+        user.prepareRead();
+        try {
+            return user.deepCopy();
+        } finally {
+            user.releaseRead();
+        }
+    }
+}
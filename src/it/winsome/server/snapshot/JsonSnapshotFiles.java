@@ -0,0 +1,160 @@
+package it.winsome.server.snapshot;
+
+import com.google.gson.reflect.TypeToken;
+import it.winsome.common.WinsomeHelper;
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+import it.winsome.common.json.EntityGson;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * JSON files written by the previous versions (users.json, posts.json and comments.json), read on startup
+ * until the first full checkpoint replaces them with the binary snapshot. They are then renamed with
+ * BACKUP_SUFFIX and kept until deleted by the SnapshotConverter
+ */
+public class JsonSnapshotFiles {
+    private static final String USERS_FILE = "users.json";
+    private static final String POSTS_FILE = "posts.json";
+    private static final String COMMENTS_FILE = "comments.json";
+    private static final String[] FILE_NAMES = { USERS_FILE, POSTS_FILE, COMMENTS_FILE };
+    public static final String BACKUP_SUFFIX = ".bak";
+
+    private final String dataFolder;
+    private final DeltaStore deltaStore;
+
+    public JsonSnapshotFiles(String dataFolder, DeltaStore deltaStore) {
+        this.dataFolder = dataFolder;
+        this.deltaStore = deltaStore;
+    }
+
+    /**
+     * Read every entity of the JSON files and apply the deltas over them, the files and the deltas are
+     * parsed concurrently
+     * @param users destination of the users
+     * @param posts destination of the posts
+     * @param comments destination of the comments
+     * @return true if all data have been read, false if partially
+     */
+    public boolean read(List<User> users, List<Post> posts, List<Comment> comments) {
+        boolean allCompleted = true;
+        CompletableFuture<List<User>> pendingUsers = ParallelLoader.read(
+                () -> readFile(USERS_FILE, new TypeToken<List<User>>(){}.getType()));
+        CompletableFuture<List<Post>> pendingPosts = ParallelLoader.read(
+                () -> readFile(POSTS_FILE, new TypeToken<List<Post>>(){}.getType()));
+        CompletableFuture<List<Comment>> pendingComments = ParallelLoader.read(
+                () -> readFile(COMMENTS_FILE, new TypeToken<List<Comment>>(){}.getType()));
+        List<File> deltas = deltaStore.list();
+        List<CompletableFuture<DeltaStore.Delta>> pendingDeltas = deltaStore.readAll(deltas);
+
+        List<User> readUsers = new ArrayList<>(0);
+        List<Post> readPosts = new ArrayList<>(0);
+        List<Comment> readComments = new ArrayList<>(0);
+        try {
+            readUsers = ParallelLoader.join(pendingUsers);
+        } catch (IOException e) {
+            e.printStackTrace();
+            allCompleted = false;
+        }
+        try {
+            readPosts = ParallelLoader.join(pendingPosts);
+        } catch (IOException e) {
+            e.printStackTrace();
+            allCompleted = false;
+        }
+        try {
+            readComments = ParallelLoader.join(pendingComments);
+        } catch (IOException e) {
+            e.printStackTrace();
+            allCompleted = false;
+        }
+
+        if(!deltas.isEmpty()) {
+            Map<String, User> usersByName = new LinkedHashMap<>();
+            readUsers.forEach(x -> usersByName.put(x.getUsername(), x));
+            Map<Integer, Post> postsById = new TreeMap<>();
+            readPosts.forEach(x -> postsById.put(x.getId(), x));
+            Map<Integer, Comment> commentsById = new TreeMap<>();
+            readComments.forEach(x -> commentsById.put(x.getId(), x));
+            for(int i = 0; i < deltas.size(); i++) {
+                try {
+                    ParallelLoader.join(pendingDeltas.get(i)).applyTo(usersByName, postsById, commentsById);
+                } catch (IOException | RuntimeException e) {
+                    // the following deltas may depend on this one
+                    WinsomeHelper.printfDebug("WARNING Load from disk! Delta %s cannot be read!", deltas.get(i).getName());
+                    e.printStackTrace();
+                    allCompleted = false;
+                    break;
+                }
+            }
+            readUsers = new ArrayList<>(usersByName.values());
+            readPosts = new ArrayList<>(postsById.values());
+            readComments = new ArrayList<>(commentsById.values());
+            WinsomeHelper.printfDebug("Applied %d deltas to the snapshot!", deltas.size());
+        }
+
+        users.addAll(readUsers);
+        posts.addAll(readPosts);
+        comments.addAll(readComments);
+        return allCompleted;
+    }
+
+    /**
+     * Rename the files, replaced by the binary snapshot, so that they are no more read. They are kept as a
+     * backup until deleted by deleteBackups
+     */
+    public void backup() {
+        for(String fileName : FILE_NAMES) {
+            Path file = Paths.get(dataFolder + fileName);
+            if(!Files.exists(file)) continue;
+            try {
+                Files.move(file, Paths.get(dataFolder + fileName + BACKUP_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Delete the backups of the files left by the first full checkpoint
+     * @param dataFolder data folder of the server
+     * @return number of files deleted
+     * @throws IOException if a file cannot be deleted
+     */
+    public static int deleteBackups(String dataFolder) throws IOException {
+        int deleted = 0;
+        for(String fileName : FILE_NAMES) {
+            if(Files.deleteIfExists(Paths.get(dataFolder + fileName + BACKUP_SUFFIX))) deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Read a file
+     * @param fileName file name inside the data folder
+     * @param type list type
+     * @param <T> entity type
+     * @return the entities, empty if the file does not exist
+     * @throws IOException if the file cannot be read
+     */
+    private <T> List<T> readFile(String fileName, Type type) throws IOException {
+        try (Reader reader = Files.newBufferedReader(Paths.get(dataFolder + fileName), StandardCharsets.UTF_8)) {
+            List<T> entities = EntityGson.get().fromJson(reader, type);
+            return entities != null ? entities : new ArrayList<>(0);
+        } catch (NoSuchFileException e) {
+            return new ArrayList<>(0);
+        }
+    }
+}
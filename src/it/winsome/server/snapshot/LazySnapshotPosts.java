@@ -0,0 +1,159 @@
+package it.winsome.server.snapshot;
+
+import it.winsome.common.entity.Post;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Posts of the binary snapshot loaded on startup, each one is read on its first access and only once.
+ * The state of each post is kept by slot, the mapping is closed as soon as every post has been read
+ */
+public class LazySnapshotPosts {
+    private static final int SLOT_LAZY = 0;
+    private static final int SLOT_LOADED = 1;
+    private static final int LOCK_STRIPES = 64;
+
+    // null once every post of it has been read
+    private volatile BinarySnapshot snapshot;
+    private final AtomicIntegerArray slots;
+    private final AtomicInteger pending;
+    private final Object[] locks;
+    // the snapshot is still used by the startup, it is not closed before finishLoading
+    private volatile boolean loading;
+
+    public LazySnapshotPosts(BinarySnapshot snapshot) {
+        this.snapshot = snapshot;
+        slots = new AtomicIntegerArray(snapshot.getPostCount());
+        pending = new AtomicInteger(snapshot.getPostCount());
+        loading = true;
+        locks = new Object[LOCK_STRIPES];
+        for(int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Get the snapshot while some of its posts are still to be read
+     * @return the snapshot or null if every post has been read
+     */
+    public BinarySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Get the number of posts not read yet
+     * @return posts left in the snapshot
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * Check if the post of a slot has never been read, then it has never been changed
+     * @param slot slot
+     * @return true if it is only in the snapshot
+     */
+    public boolean isLazy(int slot) {
+        return slots.get(slot) == SLOT_LAZY;
+    }
+
+    /**
+     * Check if a post is only in the snapshot without reading it
+     * @param id post id
+     * @return true if it has never been read
+     */
+    public boolean isLazyPost(int id) {
+        BinarySnapshot current = snapshot;
+        if(current == null) return false;
+        int slot = current.findPostSlot(id);
+        return slot >= 0 && isLazy(slot);
+    }
+
+    /**
+     * Flag the post of a slot as read, or as never to be read
+     * @param slot slot
+     */
+    public void markLoaded(int slot) {
+        slots.set(slot, SLOT_LOADED);
+        if(pending.decrementAndGet() == 0 && !loading) {
+            release();
+        }
+    }
+
+    /**
+     * Read a post on its first access, every post is read once
+     * @param id post id
+     * @param installer owner of the live posts
+     * @return the real post or null if it does not exist
+     */
+    public Post load(int id, PostInstaller installer) {
+        BinarySnapshot current = snapshot;
+        if(current == null) return installer.getResident(id);
+        int slot = current.findPostSlot(id);
+        if(slot < 0) return null;
+
+        if(isLazy(slot)) {
+            int originalId = current.getOriginalPostId(slot);
+            // the original post is read first, a slot lock is never held while waiting for another one
+            Post original = originalId >= 0 ? installer.resolve(originalId) : null;
+            synchronized (locks[slot & (LOCK_STRIPES - 1)]) {
+                if(isLazy(slot)) {
+                    installer.install(current.readPost(slot), original);
+                    markLoaded(slot);
+                }
+            }
+        }
+        return installer.getResident(id);
+    }
+
+    /**
+     * Read every post not read yet
+     * @param onlyPendingRewards true to read only the posts with votes or comments not rewarded yet
+     * @param installer owner of the live posts
+     */
+    public void loadAll(boolean onlyPendingRewards, PostInstaller installer) {
+        BinarySnapshot current = snapshot;
+        if(current == null) return;
+        for(int slot = 0; slot < current.getPostCount(); slot++) {
+            if(isLazy(slot) && (!onlyPendingRewards || current.hasPendingRewards(slot))) {
+                load(current.getPostId(slot), installer);
+            }
+        }
+    }
+
+    /**
+     * Read the post of a comment if it is in the snapshot and not read yet
+     * @param commentId comment id
+     * @param installer owner of the live posts
+     */
+    public void loadCommentPost(int commentId, PostInstaller installer) {
+        BinarySnapshot current = snapshot;
+        if(current == null) return;
+        int slot = current.findCommentPostSlot(commentId);
+        if(slot >= 0) {
+            installer.resolve(current.getPostId(slot));
+        }
+    }
+
+    /**
+     * End of the startup, from now on the snapshot is closed as soon as every post has been read
+     */
+    public void finishLoading() {
+        loading = false;
+        if(pending.get() == 0) {
+            release();
+        }
+    }
+
+    /**
+     * Every post of the snapshot has been read, the mapping is not needed anymore
+     */
+    private synchronized void release() {
+        BinarySnapshot current = snapshot;
+        snapshot = null;
+        if(current != null) {
+            BinarySnapshotFile.close(current);
+        }
+    }
+}
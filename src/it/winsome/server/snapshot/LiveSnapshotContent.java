@@ -0,0 +1,112 @@
+package it.winsome.server.snapshot;
+
+import it.winsome.common.collection.StripedIntMap;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+import it.winsome.server.cache.ColdPostCache;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Content of a full checkpoint: the users and every live post by ascending id. The posts never read are copied
+ * from the loaded snapshot and the evicted ones are read back from disk. A post read while writing is found in
+ * the map, in the snapshot or in the evicted posts, it is written once.
+ * The caller must not evict any post while writing
+ */
+public class LiveSnapshotContent implements BinarySnapshotFile.Content {
+    private final List<User> users;
+    private final StripedIntMap<Post> posts;
+    private final LazySnapshotPosts lazyPosts;
+    private final BinarySnapshot base;
+    private final ColdPostCache coldPosts;
+    // next slot of the loaded snapshot, last post id written, next evicted post
+    private int nextSlot;
+    private int lastWritten;
+    private int nextCold;
+    private int[] coldIds;
+
+    /**
+     * @param users live users
+     * @param posts live posts
+     * @param lazyPosts posts of the loaded snapshot, null if none
+     * @param base loaded snapshot captured for this checkpoint, null if every post is in memory
+     * @param coldPosts evicted posts, null if none
+     */
+    public LiveSnapshotContent(List<User> users, StripedIntMap<Post> posts, LazySnapshotPosts lazyPosts,
+                               BinarySnapshot base, ColdPostCache coldPosts) {
+        this.users = users;
+        this.posts = posts;
+        this.lazyPosts = lazyPosts;
+        this.base = base;
+        this.coldPosts = coldPosts;
+    }
+
+    @Override
+    public void write(BinarySnapshotWriter writer) throws IOException {
+        for(User user : users) {
+            writer.writeUser(EntityCopies.copyUser(user));
+        }
+
+        coldIds = coldPosts != null ? coldPosts.getPostIds() : new int[0];
+        nextSlot = 0;
+        lastWritten = -1;
+        nextCold = 0;
+        IOException[] error = { null };
+        posts.forEachOrdered(false, (id, post) -> {
+            try {
+                copyStoredPosts(writer, id);
+                if(id > lastWritten) {
+                    writer.writePost(EntityCopies.copyPost(post), EntityCopies.copyComments(post));
+                    lastWritten = id;
+                }
+                return true;
+            } catch (IOException e) {
+                error[0] = e;
+                return false;
+            }
+        });
+        if(error[0] != null) throw error[0];
+        copyStoredPosts(writer, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Write the posts not in memory with an id lower than the given one, merging the loaded snapshot
+     * and the evicted posts by ascending id
+     */
+    private void copyStoredPosts(BinarySnapshotWriter writer, int beforeId) throws IOException {
+        while(true) {
+            int lazyId = base != null && nextSlot < base.getPostCount() ? base.getPostId(nextSlot) : Integer.MAX_VALUE;
+            int coldId = nextCold < coldIds.length ? coldIds[nextCold] : Integer.MAX_VALUE;
+            int id = Math.min(lazyId, coldId);
+            if(id >= beforeId || id == Integer.MAX_VALUE) return;
+
+            if(id == lazyId) {
+                int slot = nextSlot++;
+                if(id <= lastWritten) continue;
+                if(lazyPosts.isLazy(slot)) {
+                    // never read then never changed
+                    writer.copyPost(slot);
+                } else {
+                    // an evicted post is written with the evicted ones
+                    Post post = posts.get(id);
+                    if(post == null) continue;
+                    writer.writePost(EntityCopies.copyPost(post), EntityCopies.copyComments(post));
+                }
+            } else {
+                nextCold++;
+                if(id <= lastWritten) continue;
+                Post evicted = coldPosts.read(id);
+                if(evicted != null) {
+                    writer.writePost(evicted, evicted.getComments());
+                } else {
+                    // read back into memory after the iteration of the map has passed it
+                    Post post = posts.get(id);
+                    if(post == null) continue;
+                    writer.writePost(EntityCopies.copyPost(post), EntityCopies.copyComments(post));
+                }
+            }
+            lastWritten = id;
+        }
+    }
+}
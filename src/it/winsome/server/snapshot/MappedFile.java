@@ -0,0 +1,88 @@
+package it.winsome.server.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read only memory mapping of a file of any size, mapped in segments of 1GB since a single mapping is
+ * limited to 2GB. The segments are read only by absolute reads or through their duplicates, then it can be read
+ * by many threads at the same time
+ */
+final class MappedFile implements Closeable {
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+
+    MappedFile(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+        segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+        for(int i = 0; i < segments.length; i++) {
+            long start = (long) i << SEGMENT_BITS;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    int getInt(long position) {
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+        int offset = (int) (position & SEGMENT_MASK);
+        if(offset + Integer.BYTES <= segment.limit()) {
+            return segment.getInt(offset);
+        }
+        // across two segments
+        byte[] bytes = new byte[Integer.BYTES];
+        get(position, bytes, 0, bytes.length);
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+
+    long getLong(long position) {
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+        int offset = (int) (position & SEGMENT_MASK);
+        if(offset + Long.BYTES <= segment.limit()) {
+            return segment.getLong(offset);
+        }
+        byte[] bytes = new byte[Long.BYTES];
+        get(position, bytes, 0, bytes.length);
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
+    void get(long position, byte[] destination, int offset, int length) {
+        if(position < 0 || position + length > size) {
+            throw new IndexOutOfBoundsException("Read outside of the snapshot at " + position);
+        }
+        while(length > 0) {
+            MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+            int segmentOffset = (int) (position & SEGMENT_MASK);
+            int count = Math.min(length, segment.limit() - segmentOffset);
+            // a positioned view, the position of the shared segment is never moved
+            ByteBuffer view = segment.duplicate();
+            view.position(segmentOffset);
+            view.get(destination, offset, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Close the channel, the mapped segments stay readable until they are collected
+     * @throws IOException if the channel cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
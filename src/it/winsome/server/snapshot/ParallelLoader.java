@@ -0,0 +1,158 @@
+package it.winsome.server.snapshot;
+
+import it.winsome.common.WinsomeHelper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join helpers used on startup: the files are parsed concurrently and the loaded entities are processed
+ * in ranges split in halves until they are small enough, on the common pool.
+ * The ranges are used also by the reward calculation
+ */
+public final class ParallelLoader {
+    // elements processed by a single task
+    private static final int BATCH_SIZE = 2048;
+
+    private ParallelLoader() { }
+
+    /**
+     * Read a file on the common pool
+     * @param reader reader of the file
+     * @param <T> result type
+     * @return the pending result, to be collected with join
+     */
+    public static <T> CompletableFuture<T> read(IOSupplier<T> reader) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return reader.get();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Wait for a file read with read
+     * @param pending pending result
+     * @param <T> result type
+     * @return the result
+     * @throws IOException if the file cannot be read
+     */
+    public static <T> T join(CompletableFuture<T> pending) throws IOException {
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException) e.getCause()).getCause();
+            if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Apply an action to the indexes from 0 to length, split in ranges processed in parallel
+     * @param length number of elements
+     * @param action action applied to each range
+     */
+    public static void forEachRange(int length, RangeAction action) {
+        forEachRange(length, BATCH_SIZE, action);
+    }
+
+    /**
+     * Like forEachRange, with ranges of at most batchSize elements for actions heavier on each element
+     * @param length number of elements
+     * @param batchSize elements processed by a single task
+     * @param action action applied to each range
+     */
+    public static void forEachRange(int length, int batchSize, RangeAction action) {
+        if(length <= 0) return;
+        ForkJoinPool.commonPool().invoke(new RangeTask(0, length, batchSize, action));
+    }
+
+    /**
+     * Like forEachRange, but a group of consecutive elements is never split between two ranges:
+     * each range is moved forward until it starts with a new group
+     * @param length number of elements
+     * @param sameGroup tells if two adjacent indexes belong to the same group
+     * @param action action applied to each range of whole groups
+     */
+    public static void forEachGroup(int length, SameGroup sameGroup, RangeAction action) {
+        forEachRange(length, (from, to) -> {
+            int start = alignToGroup(from, length, sameGroup);
+            int end = alignToGroup(to, length, sameGroup);
+            if(start < end) action.apply(start, end);
+        });
+    }
+
+    /**
+     * Log the time of a startup phase
+     * @param phase phase name
+     * @param startNanos start of the phase
+     * @return now, the start of the next phase
+     */
+    public static long logPhase(String phase, long startNanos) {
+        long now = System.nanoTime();
+        WinsomeHelper.printfDebug("Load phase %s completed in %dms!", phase, (now - startNanos) / 1_000_000);
+        return now;
+    }
+
+    private static int alignToGroup(int index, int length, SameGroup sameGroup) {
+        while(index > 0 && index < length && sameGroup.test(index - 1, index)) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Reader of a file which can fail
+     * @param <T> result type
+     */
+    @FunctionalInterface
+    public interface IOSupplier<T> {
+        T get() throws IOException;
+    }
+
+    /**
+     * Action applied to the range of indexes [from, to)
+     */
+    @FunctionalInterface
+    public interface RangeAction {
+        void apply(int from, int to);
+    }
+
+    /**
+     * Predicate over two adjacent indexes
+     */
+    @FunctionalInterface
+    public interface SameGroup {
+        boolean test(int previous, int next);
+    }
+
+    private static final class RangeTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final int batchSize;
+        private final RangeAction action;
+
+        RangeTask(int from, int to, int batchSize, RangeAction action) {
+            this.from = from;
+            this.to = to;
+            this.batchSize = batchSize;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= batchSize) {
+                action.apply(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, middle, batchSize, action), new RangeTask(middle, to, batchSize, action));
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package it.winsome.server.snapshot;
+
+import it.winsome.common.entity.Post;
+
+/**
+ * Owner of the live posts, used by the sources which read posts back from disk on their first access
+ */
+public interface PostInstaller {
+    /**
+     * Get a live post, reading it from disk if needed
+     * @param id post id
+     * @return the real post or null if it does not exist
+     */
+    Post resolve(int id);
+
+    /**
+     * Get a post only if it is already in memory
+     * @param id post id
+     * @return the real post or null
+     */
+    Post getResident(int id);
+
+    /**
+     * Make a post read from disk visible with its comments
+     * @param post post not synchronized yet, a rewin refers to a placeholder of its original post
+     * @param original real original post if it is a rewin, null if it has been removed
+     */
+    void install(Post post, Post original);
+}
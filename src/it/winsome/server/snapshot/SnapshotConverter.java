@@ -0,0 +1,39 @@
+package it.winsome.server.snapshot;
+
+import it.winsome.common.WinsomeHelper;
+import it.winsome.server.ServerLogic;
+import it.winsome.server.config.ServerConfiguration;
+
+import java.io.IOException;
+
+/**
+ * Convert the data folder of a server from the JSON files (users.json, posts.json, comments.json and
+ * their deltas) to the binary snapshot, while the server is stopped.
+ * The server does the same on its first checkpoint, this only avoids loading the JSON files on the next start.
+ * The JSON files are kept with the .bak suffix, they are deleted only when --delete-json is passed
+ */
+public class SnapshotConverter {
+    private static final String DELETE_JSON_OPTION = "--delete-json";
+
+    public static void main(String[] args) throws IOException {
+        WinsomeHelper.setDebugMode(true);
+        boolean deleteJson = args.length > 0 && args[args.length - 1].equals(DELETE_JSON_OPTION);
+        int pathArgs = deleteJson ? args.length - 1 : args.length;
+        String configPath = pathArgs > 0 ? args[0] : "./server_config.json";
+        ServerConfiguration configuration = new ServerConfiguration();
+        configuration.loadFromJson(configPath);
+
+        ServerLogic serverLogic = new ServerLogic(configuration.dataFolder, configuration);
+        boolean converted = serverLogic.saveToDisk();
+        serverLogic.close();
+        if(!converted) {
+            System.out.println("Conversion failed, the JSON files are kept!");
+            System.exit(1);
+        }
+        System.out.printf("Converted %s to %s%n", configuration.dataFolder, BinarySnapshot.FILE_NAME);
+        if(deleteJson) {
+            int deleted = JsonSnapshotFiles.deleteBackups(configuration.dataFolder);
+            System.out.printf("Deleted %d JSON backup files%n", deleted);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package it.winsome.server.snapshot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable buffer used to encode a single record of the binary snapshot, strings are stored as their
+ * UTF-8 length followed by the bytes (-1 for null)
+ */
+final class SnapshotRecord {
+    private byte[] data = new byte[256];
+    private int size;
+
+    void reset() {
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte[] data() {
+        return data;
+    }
+
+    SnapshotRecord writeByte(int value) {
+        ensureCapacity(1);
+        data[size++] = (byte) value;
+        return this;
+    }
+
+    SnapshotRecord writeInt(int value) {
+        ensureCapacity(Integer.BYTES);
+        ByteBuffer.wrap(data, size, Integer.BYTES).putInt(value);
+        size += Integer.BYTES;
+        return this;
+    }
+
+    SnapshotRecord writeLong(long value) {
+        ensureCapacity(Long.BYTES);
+        ByteBuffer.wrap(data, size, Long.BYTES).putLong(value);
+        size += Long.BYTES;
+        return this;
+    }
+
+    SnapshotRecord writeDouble(double value) {
+        return writeLong(Double.doubleToRawLongBits(value));
+    }
+
+    SnapshotRecord writeString(String value) {
+        if(value == null) {
+            return writeInt(-1);
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, data, size, bytes.length);
+        size += bytes.length;
+        return this;
+    }
+
+    static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if(length < 0) return null;
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    static void skipString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if(length > 0) buffer.position(buffer.position() + length);
+    }
+
+    private void ensureCapacity(int needed) {
+        if(size + needed > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + needed));
+        }
+    }
+}
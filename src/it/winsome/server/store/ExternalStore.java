@@ -0,0 +1,100 @@
+package it.winsome.server.store;
+
+import it.winsome.common.WinsomeHelper;
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+import it.winsome.server.snapshot.DeltaStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Storage engine chosen in the configuration instead of the binary snapshot, as seen by the server:
+ * every entity is read on startup, the checkpoints write their deltas into it and the full checkpoints
+ * compact it
+ */
+public class ExternalStore implements Closeable {
+    private final SocialStore store;
+
+    private ExternalStore(SocialStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Open a storage engine inside the data folder
+     * @param engine engine name: json, wal or lsm
+     * @param dataFolder data folder of the server, ending with a separator
+     * @return the opened store
+     * @throws IOException if its files cannot be read
+     * @throws IllegalArgumentException if the engine does not exist
+     */
+    public static ExternalStore open(String engine, String dataFolder) throws IOException {
+        return new ExternalStore(SocialStores.open(engine, dataFolder));
+    }
+
+    public String getName() {
+        return store.getName();
+    }
+
+    /**
+     * Read every entity through the scans of the store
+     * @param users destination of the users
+     * @param posts destination of the posts
+     * @param comments destination of the comments
+     * @throws IOException if the store cannot be read
+     */
+    public void readAll(List<User> users, List<Post> posts, List<Comment> comments) throws IOException {
+        store.scanUsers(users::add);
+        store.scanPosts(0, Integer.MAX_VALUE, posts::add);
+        store.scanComments(0, Integer.MAX_VALUE, comments::add);
+    }
+
+    /**
+     * Write a delta and make it durable, the entities are written before the deletions as when a delta file
+     * is applied
+     * @param delta delta
+     * @throws IOException if the store cannot be written
+     */
+    public void write(DeltaStore.Delta delta) throws IOException {
+        for(User user : delta.users) {
+            store.putUser(user);
+        }
+        for(Post post : delta.posts) {
+            store.putPost(post);
+        }
+        for(Comment comment : delta.comments) {
+            store.putComment(comment);
+        }
+        for(int id : delta.removedComments) {
+            store.deleteComment(id);
+        }
+        for(int id : delta.removedPosts) {
+            store.deletePost(id);
+        }
+        store.flush();
+    }
+
+    /**
+     * Compact the files of the store
+     * @return true if compacted
+     */
+    public boolean compact() {
+        try {
+            long start = System.nanoTime();
+            store.compact();
+            WinsomeHelper.printfDebug("Storage engine %s compacted in %dms!", store.getName(),
+                    (System.nanoTime() - start) / 1_000_000);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+}
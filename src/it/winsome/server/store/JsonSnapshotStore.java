@@ -0,0 +1,261 @@
+package it.winsome.server.store;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+import it.winsome.common.entity.Wallet;
+import it.winsome.common.json.EntityGson;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Store kept entirely in memory and written as the JSON snapshot: users.json, posts.json and comments.json,
+ * each one an array of entities. Every flush after a change rewrites the three files, then it fits small
+ * datasets with few writes; the files of the previous versions are read as well
+ */
+public class JsonSnapshotStore implements SocialStore {
+    public static final String NAME = "json";
+    private static final String USERS_FILE = "users.json";
+    private static final String POSTS_FILE = "posts.json";
+    private static final String COMMENTS_FILE = "comments.json";
+
+    private final Path folder;
+    private final Gson gson;
+    private final TreeMap<String, User> users;
+    private final TreeMap<Integer, Post> posts;
+    // post id in the high bits and comment id in the low ones, ordered as the scans
+    private final TreeMap<Long, Comment> comments;
+    private final Map<Integer, Integer> commentPosts;
+    private boolean changed;
+
+    /**
+     * Open the store reading the snapshot files of a folder, the missing ones are empty
+     * @param folder data folder
+     * @throws IOException if a file cannot be read
+     */
+    public JsonSnapshotStore(String folder) throws IOException {
+        this.folder = Paths.get(folder);
+        gson = EntityGson.get();
+        users = new TreeMap<>();
+        posts = new TreeMap<>();
+        comments = new TreeMap<>();
+        commentPosts = new HashMap<>();
+
+        List<User> loadedUsers = new ArrayList<>();
+        readFile(USERS_FILE, User.class, loadedUsers::add);
+        assignMissingUserIds(loadedUsers);
+        for(User user : loadedUsers) {
+            users.put(user.getUsername(), user);
+        }
+        ToIntFunction<String> userIds = username -> {
+            User user = users.get(username);
+            return user != null ? user.getId() : -1;
+        };
+        readFile(POSTS_FILE, Post.class, post -> {
+            post.setComments(Collections.emptyList());
+            if(post.migrateLegacyVotes(userIds)) changed = true;
+            posts.put(post.getId(), post);
+        });
+        readFile(COMMENTS_FILE, Comment.class, comment -> {
+            if(comment.migrateLegacyVotes(userIds)) changed = true;
+            comments.put(commentKey(comment.getPostId(), comment.getId()), comment);
+            commentPosts.put(comment.getId(), comment.getPostId());
+        });
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public synchronized void putUser(User user) {
+        users.put(user.getUsername(), StoredEntities.copyUser(user));
+        changed = true;
+    }
+
+    @Override
+    public synchronized User getUser(String username) {
+        User user = users.get(username);
+        return user != null ? StoredEntities.copyUser(user) : null;
+    }
+
+    @Override
+    public synchronized void deleteUser(String username) {
+        if(users.remove(username) != null) changed = true;
+    }
+
+    @Override
+    public synchronized void scanUsers(Consumer<User> action) {
+        for(User user : users.values()) {
+            action.accept(StoredEntities.copyUser(user));
+        }
+    }
+
+    @Override
+    public synchronized boolean putWallet(String username, Wallet wallet) {
+        User user = users.get(username);
+        if(user == null) return false;
+        user.setWallet(StoredEntities.copyWallet(wallet));
+        changed = true;
+        return true;
+    }
+
+    @Override
+    public synchronized Wallet getWallet(String username) {
+        User user = users.get(username);
+        return user != null ? StoredEntities.copyWallet(user.getWallet()) : null;
+    }
+
+    @Override
+    public synchronized void putPost(Post post) {
+        posts.put(post.getId(), StoredEntities.copyPost(post));
+        changed = true;
+    }
+
+    @Override
+    public synchronized Post getPost(int id) {
+        Post post = posts.get(id);
+        return post != null ? StoredEntities.copyPost(post) : null;
+    }
+
+    @Override
+    public synchronized void deletePost(int id) {
+        if(posts.remove(id) != null) changed = true;
+        SortedMap<Long, Comment> postComments = comments.subMap(commentKey(id, 0), commentKey(id + 1L, 0));
+        for(Comment comment : postComments.values()) {
+            commentPosts.remove(comment.getId());
+        }
+        if(!postComments.isEmpty()) {
+            postComments.clear();
+            changed = true;
+        }
+    }
+
+    @Override
+    public synchronized void scanPosts(int fromId, int toId, Consumer<Post> action) {
+        if(fromId >= toId) return;
+        for(Post post : posts.subMap(fromId, toId).values()) {
+            action.accept(StoredEntities.copyPost(post));
+        }
+    }
+
+    @Override
+    public synchronized void putComment(Comment comment) {
+        Integer previousPost = commentPosts.put(comment.getId(), comment.getPostId());
+        if(previousPost != null) comments.remove(commentKey(previousPost, comment.getId()));
+        comments.put(commentKey(comment.getPostId(), comment.getId()), StoredEntities.copyComment(comment));
+        changed = true;
+    }
+
+    @Override
+    public synchronized Comment getComment(int id) {
+        Integer postId = commentPosts.get(id);
+        return postId != null ? StoredEntities.copyComment(comments.get(commentKey(postId, id))) : null;
+    }
+
+    @Override
+    public synchronized void deleteComment(int id) {
+        Integer postId = commentPosts.remove(id);
+        if(postId == null) return;
+        comments.remove(commentKey(postId, id));
+        changed = true;
+    }
+
+    @Override
+    public synchronized void scanComments(int fromPostId, int toPostId, Consumer<Comment> action) {
+        if(fromPostId >= toPostId) return;
+        for(Comment comment : comments.subMap(commentKey(fromPostId, 0), commentKey(toPostId, 0)).values()) {
+            action.accept(StoredEntities.copyComment(comment));
+        }
+    }
+
+    /**
+     * Rewrite the three files if anything changed after the previous flush
+     * @throws IOException if a file cannot be written
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if(!changed) return;
+        Files.createDirectories(folder);
+        writeFile(USERS_FILE, User.class, users.values());
+        writeFile(POSTS_FILE, Post.class, posts.values());
+        writeFile(COMMENTS_FILE, Comment.class, comments.values());
+        changed = false;
+    }
+
+    /**
+     * Nothing to reclaim, every flush rewrites the whole snapshot
+     */
+    @Override
+    public void compact() { }
+
+    @Override
+    public void close() { }
+
+    /**
+     * The previous versions saved the users without ids, they are given the next ones in file order and
+     * the legacy votes are converted with them, then the files are written again by the next flush
+     * @param loaded users in file order
+     */
+    private void assignMissingUserIds(List<User> loaded) {
+        int maxId = 0;
+        for(User user : loaded) {
+            maxId = Math.max(maxId, user.getId());
+        }
+        for(User user : loaded) {
+            if(user.getId() != 0) continue;
+            user.setId(++maxId);
+            changed = true;
+        }
+    }
+
+    private static long commentKey(long postId, int commentId) {
+        return (postId << 32) | (commentId & 0xFFFFFFFFL);
+    }
+
+    private <T> void readFile(String fileName, Class<T> type, Consumer<T> action) throws IOException {
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(folder.resolve(fileName), StandardCharsets.UTF_8))) {
+            if(reader.peek() == JsonToken.NULL) return;
+            reader.beginArray();
+            while(reader.hasNext()) {
+                T entity = gson.fromJson(reader, type);
+                if(entity != null) action.accept(entity);
+            }
+            reader.endArray();
+        } catch (NoSuchFileException e) {
+            // not saved yet
+        } catch (EOFException e) {
+            // empty file
+        }
+    }
+
+    private <T> void writeFile(String fileName, Class<T> type, Collection<T> entities) throws IOException {
+        Path file = folder.resolve(fileName);
+        Path temp = folder.resolve(fileName + ".tmp");
+        try (FileOutputStream oFile = new FileOutputStream(temp.toFile(), false)) {
+            JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(oFile, StandardCharsets.UTF_8)));
+            writer.beginArray();
+            for(T entity : entities) {
+                gson.toJson(entity, type, writer);
+            }
+            writer.endArray();
+            writer.flush();
+            oFile.getFD().sync();
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,207 @@
+package it.winsome.server.store;
+
+import com.google.gson.Gson;
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+import it.winsome.common.entity.Wallet;
+import it.winsome.common.json.EntityGson;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Store over an embedded log-structured key-value store (see LsmTree), each entity is a JSON value.
+ * Keys: "u/username", "p/post id", "c/post id/comment id" and "k/comment id" which maps a comment to its post;
+ * the ids are zero padded so that the key order is the id order, then every scan is a range of keys.
+ * The writes are sequential and only the memtable is kept in memory, then it fits datasets larger than
+ * the heap; the ids have to be non negative
+ */
+public class LogStructuredStore implements SocialStore {
+    public static final String NAME = "lsm";
+    private static final long MEMTABLE_LIMIT = 4L * 1024 * 1024;
+    private static final String USER = "u/";
+    private static final String POST = "p/";
+    private static final String COMMENT = "c/";
+    private static final String COMMENT_POST = "k/";
+    private static final int ID_DIGITS = 10;
+
+    private final LsmTree tree;
+    private final Gson gson;
+
+    /**
+     * Open the store in a folder
+     * @param folder store folder, created if it does not exist
+     * @throws IOException if the files cannot be read
+     */
+    public LogStructuredStore(String folder) throws IOException {
+        this(folder, MEMTABLE_LIMIT);
+    }
+
+    /**
+     * Open the store in a folder
+     * @param folder store folder, created if it does not exist
+     * @param memtableLimit approximate size in bytes of the memtable written as a segment
+     * @throws IOException if the files cannot be read
+     */
+    public LogStructuredStore(String folder, long memtableLimit) throws IOException {
+        tree = new LsmTree(folder, memtableLimit);
+        gson = EntityGson.get();
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void putUser(User user) throws IOException {
+        tree.put(USER + user.getUsername(), encode(user, User.class));
+    }
+
+    @Override
+    public User getUser(String username) throws IOException {
+        return decode(tree.get(USER + username), User.class);
+    }
+
+    @Override
+    public void deleteUser(String username) throws IOException {
+        tree.delete(USER + username);
+    }
+
+    @Override
+    public void scanUsers(Consumer<User> action) throws IOException {
+        scan(USER, nextPrefix(USER), User.class, action);
+    }
+
+    @Override
+    public synchronized boolean putWallet(String username, Wallet wallet) throws IOException {
+        User user = getUser(username);
+        if(user == null) return false;
+        user.setWallet(wallet);
+        putUser(user);
+        return true;
+    }
+
+    @Override
+    public Wallet getWallet(String username) throws IOException {
+        User user = getUser(username);
+        return user != null ? user.getWallet() : null;
+    }
+
+    @Override
+    public void putPost(Post post) throws IOException {
+        tree.put(postKey(post.getId()), encode(post, Post.class));
+    }
+
+    @Override
+    public Post getPost(int id) throws IOException {
+        return decode(tree.get(postKey(id)), Post.class);
+    }
+
+    @Override
+    public synchronized void deletePost(int id) throws IOException {
+        tree.delete(postKey(id));
+        List<Integer> commentIds = new ArrayList<>();
+        scanComments(id, id + 1, comment -> commentIds.add(comment.getId()));
+        for(int commentId : commentIds) {
+            tree.delete(commentKey(id, commentId));
+            tree.delete(COMMENT_POST + pad(commentId));
+        }
+    }
+
+    @Override
+    public void scanPosts(int fromId, int toId, Consumer<Post> action) throws IOException {
+        if(fromId >= toId) return;
+        scan(postKey(fromId), postKey(toId), Post.class, action);
+    }
+
+    @Override
+    public synchronized void putComment(Comment comment) throws IOException {
+        Integer previousPost = findCommentPost(comment.getId());
+        if(previousPost != null && previousPost != comment.getPostId()) {
+            tree.delete(commentKey(previousPost, comment.getId()));
+        }
+        tree.put(commentKey(comment.getPostId(), comment.getId()), encode(comment, Comment.class));
+        if(previousPost == null || previousPost != comment.getPostId()) {
+            tree.put(COMMENT_POST + pad(comment.getId()), Integer.toString(comment.getPostId()).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    public Comment getComment(int id) throws IOException {
+        Integer postId = findCommentPost(id);
+        return postId != null ? decode(tree.get(commentKey(postId, id)), Comment.class) : null;
+    }
+
+    @Override
+    public synchronized void deleteComment(int id) throws IOException {
+        Integer postId = findCommentPost(id);
+        if(postId == null) return;
+        tree.delete(commentKey(postId, id));
+        tree.delete(COMMENT_POST + pad(id));
+    }
+
+    @Override
+    public void scanComments(int fromPostId, int toPostId, Consumer<Comment> action) throws IOException {
+        if(fromPostId >= toPostId) return;
+        scan(COMMENT + pad(fromPostId) + "/", COMMENT + pad(toPostId) + "/", Comment.class, action);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        tree.flush();
+    }
+
+    @Override
+    public void compact() throws IOException {
+        tree.compact();
+    }
+
+    @Override
+    public void close() throws IOException {
+        tree.close();
+    }
+
+    private Integer findCommentPost(int commentId) throws IOException {
+        byte[] value = tree.get(COMMENT_POST + pad(commentId));
+        return value != null ? Integer.valueOf(new String(value, StandardCharsets.UTF_8)) : null;
+    }
+
+    private <T> void scan(String fromKey, String toKey, Class<T> type, Consumer<T> action) throws IOException {
+        tree.scan(fromKey, toKey, (key, value) -> action.accept(decode(value, type)));
+    }
+
+    private <T> byte[] encode(T entity, Class<T> type) {
+        return gson.toJson(entity, type).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private <T> T decode(byte[] value, Class<T> type) {
+        return value != null ? gson.fromJson(new String(value, StandardCharsets.UTF_8), type) : null;
+    }
+
+    private static String postKey(int id) {
+        return POST + pad(id);
+    }
+
+    private static String commentKey(int postId, int commentId) {
+        return COMMENT + pad(postId) + "/" + pad(commentId);
+    }
+
+    private static String nextPrefix(String prefix) {
+        return prefix.substring(0, prefix.length() - 1) + (char) (prefix.charAt(prefix.length() - 1) + 1);
+    }
+
+    private static String pad(int id) {
+        String digits = Integer.toString(id);
+        StringBuilder builder = new StringBuilder(ID_DIGITS);
+        for(int i = digits.length(); i < ID_DIGITS; i++) {
+            builder.append('0');
+        }
+        return builder.append(digits).toString();
+    }
+}
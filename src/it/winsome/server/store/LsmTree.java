@@ -0,0 +1,566 @@
+package it.winsome.server.store;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Embedded log-structured key-value store with string keys and binary values.
+ * The writes go to a sorted memtable and to its log; when the memtable is full it is written as an immutable
+ * sorted segment and the log starts again. A read looks at the memtable then at the segments from the newest,
+ * a deletion is a tombstone until the compaction merges every segment into one.
+ * A segment holds the records by key, a sparse index with one key every INDEX_INTERVAL records and a footer;
+ * its name is the range of memtable sequences it contains, then a merged segment makes the ones it replaced
+ * stale even if they are still on disk after a crash
+ */
+public class LsmTree implements Closeable {
+    private static final String LOG_FILE = "memtable.log";
+    private static final String SEGMENT_EXTENSION = ".sst";
+    private static final int SEGMENT_MAGIC = 0x57534C53;
+    private static final int FOOTER_SIZE = Long.BYTES + Integer.BYTES * 3;
+    private static final int INDEX_INTERVAL = 32;
+    private static final int MAX_SEGMENTS = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // compared by reference
+    private static final byte[] TOMBSTONE = new byte[0];
+
+    private final Path folder;
+    private final long memtableLimit;
+    private TreeMap<String, byte[]> memtable;
+    private long memtableBytes;
+    // newest first
+    private final List<Segment> segments;
+    private long nextSequence;
+    private FileOutputStream logFile;
+    private DataOutputStream log;
+
+    /**
+     * Open the store in a folder, the log of the memtable is replayed
+     * @param folder store folder, created if it does not exist
+     * @param memtableLimit approximate size in bytes of the memtable written as a segment
+     * @throws IOException if the files cannot be read
+     */
+    public LsmTree(String folder, long memtableLimit) throws IOException {
+        this.folder = Paths.get(folder);
+        this.memtableLimit = memtableLimit;
+        memtable = new TreeMap<>();
+        segments = new ArrayList<>();
+        Files.createDirectories(this.folder);
+        openSegments();
+
+        long validLength = replayLog();
+        try (FileChannel channel = FileChannel.open(this.folder.resolve(LOG_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            if(channel.size() > validLength) channel.truncate(validLength);
+        }
+        openLog(true);
+    }
+
+    public synchronized void put(String key, byte[] value) throws IOException {
+        write(key, value);
+    }
+
+    public synchronized void delete(String key) throws IOException {
+        write(key, TOMBSTONE);
+    }
+
+    /**
+     * Get the value of a key
+     * @param key key
+     * @return its value or null if it does not exist
+     * @throws IOException if a segment cannot be read
+     */
+    public synchronized byte[] get(String key) throws IOException {
+        byte[] value = memtable.get(key);
+        for(int i = 0; value == null && i < segments.size(); i++) {
+            value = segments.get(i).get(key);
+        }
+        return value == TOMBSTONE ? null : value;
+    }
+
+    /**
+     * Visit the keys in [fromKey, toKey) in ascending order, the store cannot be changed by the action
+     * @param fromKey first key, inclusive
+     * @param toKey last key, exclusive
+     * @param action consumer of each key with its value
+     * @throws IOException if a segment cannot be read
+     */
+    public synchronized void scan(String fromKey, String toKey, BiConsumer<String, byte[]> action) throws IOException {
+        merge(fromKey, toKey, true, action);
+    }
+
+    /**
+     * Sync the log of the memtable
+     * @throws IOException if it cannot be written
+     */
+    public synchronized void flush() throws IOException {
+        log.flush();
+        logFile.getFD().sync();
+    }
+
+    /**
+     * Write the memtable as a segment then merge every segment into one, dropping the tombstones
+     * @throws IOException if the segments cannot be written
+     */
+    public synchronized void compact() throws IOException {
+        flushMemtable();
+        if(segments.size() > 1) compactSegments();
+    }
+
+    /**
+     * Get the number of segments on disk
+     * @return segment count
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        log.close();
+        for(Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    private void write(String key, byte[] value) throws IOException {
+        writeRecord(log, key, value);
+        byte[] previous = memtable.put(key, value);
+        memtableBytes += previous == null ? key.length() * 2L + value.length + 64 : value.length - previous.length;
+        if(memtableBytes >= memtableLimit) flushMemtable();
+    }
+
+    private void flushMemtable() throws IOException {
+        if(memtable.isEmpty()) return;
+        long sequence = nextSequence++;
+        SegmentWriter writer = new SegmentWriter(sequence, sequence);
+        try {
+            for(Map.Entry<String, byte[]> record : memtable.entrySet()) {
+                writer.add(record.getKey(), record.getValue());
+            }
+            segments.add(0, new Segment(writer.finish(), sequence, sequence));
+        } finally {
+            writer.close();
+        }
+
+        // the records are in the segment now
+        log.close();
+        openLog(false);
+        memtable = new TreeMap<>();
+        memtableBytes = 0;
+        if(segments.size() > MAX_SEGMENTS) compactSegments();
+    }
+
+    private void compactSegments() throws IOException {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for(Segment segment : segments) {
+            first = Math.min(first, segment.first);
+            last = Math.max(last, segment.last);
+        }
+
+        // every older record is merged, then the tombstones are not needed anymore
+        SegmentWriter writer = new SegmentWriter(first, last);
+        Segment compacted;
+        try {
+            merge(null, null, false, (key, value) -> {
+                try {
+                    writer.add(key, value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            compacted = new Segment(writer.finish(), first, last);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            writer.close();
+        }
+        for(Segment segment : segments) {
+            segment.close();
+            Files.deleteIfExists(segment.path);
+        }
+        segments.clear();
+        segments.add(compacted);
+    }
+
+    /**
+     * Merge the memtable and the segments, the newest value of each key wins
+     * @param fromKey first key, inclusive, or null
+     * @param toKey last key, exclusive, or null
+     * @param withMemtable false to merge only the segments
+     * @param action consumer of the keys not deleted
+     * @throws IOException if a segment cannot be read
+     */
+    private void merge(String fromKey, String toKey, boolean withMemtable, BiConsumer<String, byte[]> action)
+            throws IOException {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>((a, b) -> {
+            int compare = a.key.compareTo(b.key);
+            return compare != 0 ? compare : Integer.compare(a.age, b.age);
+        });
+        if(withMemtable) {
+            Map<String, byte[]> range = fromKey == null ? memtable : memtable.tailMap(fromKey, true);
+            Cursor cursor = new MemtableCursor(range.entrySet().iterator());
+            if(cursor.advance()) queue.add(cursor);
+        }
+        for(int i = 0; i < segments.size(); i++) {
+            Cursor cursor = segments.get(i).cursor(fromKey, i + 1);
+            if(cursor.advance()) queue.add(cursor);
+        }
+
+        while(!queue.isEmpty()) {
+            Cursor newest = queue.poll();
+            String key = newest.key;
+            if(toKey != null && key.compareTo(toKey) >= 0) return;
+            byte[] value = newest.value;
+            if(value != TOMBSTONE) action.accept(key, value);
+
+            if(newest.advance()) queue.add(newest);
+            while(!queue.isEmpty() && queue.peek().key.equals(key)) {
+                Cursor older = queue.poll();
+                if(older.advance()) queue.add(older);
+            }
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, String key, byte[] value) throws IOException {
+        byte[] encoded = key.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+        if(value == TOMBSTONE) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    private void openSegments() throws IOException {
+        List<Segment> found = new ArrayList<>();
+        try (Stream<Path> files = Files.list(folder)) {
+            for(Path path : (Iterable<Path>) files::iterator) {
+                String name = path.getFileName().toString();
+                if(name.endsWith(".tmp")) {
+                    Files.deleteIfExists(path);
+                } else if(name.endsWith(SEGMENT_EXTENSION)) {
+                    String[] range = name.substring(0, name.length() - SEGMENT_EXTENSION.length()).split("-");
+                    found.add(new Segment(path, Long.parseLong(range[0]), Long.parseLong(range[1])));
+                }
+            }
+        }
+
+        // a segment contained in a merged one has been replaced, the merge crashed before deleting it
+        for(Segment segment : found) {
+            boolean stale = false;
+            for(Segment other : found) {
+                if(other != segment && other.first <= segment.first && other.last >= segment.last &&
+                        (other.first != segment.first || other.last != segment.last)) {
+                    stale = true;
+                    break;
+                }
+            }
+            if(stale) {
+                segment.close();
+                Files.deleteIfExists(segment.path);
+            } else {
+                segments.add(segment);
+            }
+            nextSequence = Math.max(nextSequence, segment.last + 1);
+        }
+        segments.sort((a, b) -> Long.compare(b.last, a.last));
+    }
+
+    private long replayLog() throws IOException {
+        Path path = folder.resolve(LOG_FILE);
+        if(!Files.exists(path)) return 0;
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path.toFile()), BUFFER_SIZE))) {
+            while(true) {
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                int length = in.readInt();
+                byte[] value = TOMBSTONE;
+                if(length >= 0) {
+                    value = new byte[length];
+                    in.readFully(value);
+                }
+                String decoded = new String(key, StandardCharsets.UTF_8);
+                byte[] previous = memtable.put(decoded, value);
+                memtableBytes += previous == null ? decoded.length() * 2L + value.length + 64 : value.length - previous.length;
+                valid += Integer.BYTES * 2 + key.length + Math.max(length, 0);
+            }
+        } catch (EOFException e) {
+            // the last record may be cut by a crash
+        }
+        return valid;
+    }
+
+    private void openLog(boolean append) throws IOException {
+        logFile = new FileOutputStream(folder.resolve(LOG_FILE).toFile(), append);
+        log = new DataOutputStream(new BufferedOutputStream(logFile, BUFFER_SIZE));
+        if(!append) logFile.getFD().sync();
+    }
+
+    /**
+     * Position of a merge over a sorted source, a lower age is a newer source
+     */
+    private abstract static class Cursor {
+        final int age;
+        String key;
+        byte[] value;
+
+        Cursor(int age) {
+            this.age = age;
+        }
+
+        abstract boolean advance() throws IOException;
+    }
+
+    private static final class MemtableCursor extends Cursor {
+        private final Iterator<Map.Entry<String, byte[]>> entries;
+
+        MemtableCursor(Iterator<Map.Entry<String, byte[]>> entries) {
+            super(0);
+            this.entries = entries;
+        }
+
+        @Override
+        boolean advance() {
+            if(!entries.hasNext()) return false;
+            Map.Entry<String, byte[]> entry = entries.next();
+            key = entry.getKey();
+            value = entry.getValue();
+            return true;
+        }
+    }
+
+    /**
+     * Immutable sorted file, only its sparse index is kept in memory
+     */
+    private static final class Segment implements Closeable {
+        final Path path;
+        final long first;
+        final long last;
+        private final FileChannel channel;
+        private final String[] indexKeys;
+        private final long[] indexOffsets;
+        private final long dataEnd;
+
+        Segment(Path path, long first, long last) throws IOException {
+            this.path = path;
+            this.first = first;
+            this.last = last;
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                if(size < FOOTER_SIZE) throw new IOException("Segment " + path + " is truncated!");
+                ByteBuffer footer = read(size - FOOTER_SIZE, FOOTER_SIZE);
+                dataEnd = footer.getLong();
+                int indexCount = footer.getInt();
+                footer.getInt();
+                if(footer.getInt() != SEGMENT_MAGIC) throw new IOException("Segment " + path + " is not valid!");
+
+                ByteBuffer index = read(dataEnd, (int) (size - FOOTER_SIZE - dataEnd));
+                indexKeys = new String[indexCount];
+                indexOffsets = new long[indexCount];
+                for(int i = 0; i < indexCount; i++) {
+                    byte[] key = new byte[index.getInt()];
+                    index.get(key);
+                    indexKeys[i] = new String(key, StandardCharsets.UTF_8);
+                    indexOffsets[i] = index.getLong();
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Find a key reading only the block which may contain it
+         * @param key key
+         * @return its value, TOMBSTONE if deleted, null if this segment does not contain it
+         */
+        byte[] get(String key) throws IOException {
+            int block = floorBlock(key);
+            if(block < 0) return null;
+            ByteBuffer records = readBlock(block);
+            while(records.hasRemaining()) {
+                byte[] encoded = new byte[records.getInt()];
+                records.get(encoded);
+                int length = records.getInt();
+                int compare = new String(encoded, StandardCharsets.UTF_8).compareTo(key);
+                if(compare == 0) {
+                    if(length < 0) return TOMBSTONE;
+                    byte[] value = new byte[length];
+                    records.get(value);
+                    return value;
+                }
+                if(compare > 0) return null;
+                if(length > 0) records.position(records.position() + length);
+            }
+            return null;
+        }
+
+        Cursor cursor(String fromKey, int age) {
+            int start = fromKey == null ? 0 : Math.max(floorBlock(fromKey), 0);
+            return new Cursor(age) {
+                private int block = start;
+                private ByteBuffer records;
+
+                @Override
+                boolean advance() throws IOException {
+                    while(true) {
+                        while(records == null || !records.hasRemaining()) {
+                            if(block >= indexKeys.length) return false;
+                            records = readBlock(block++);
+                        }
+                        byte[] encoded = new byte[records.getInt()];
+                        records.get(encoded);
+                        int length = records.getInt();
+                        key = new String(encoded, StandardCharsets.UTF_8);
+                        if(length < 0) {
+                            value = TOMBSTONE;
+                        } else {
+                            value = new byte[length];
+                            records.get(value);
+                        }
+                        if(fromKey == null || key.compareTo(fromKey) >= 0) return true;
+                    }
+                }
+            };
+        }
+
+        private int floorBlock(String key) {
+            int low = 0;
+            int high = indexKeys.length - 1;
+            int found = -1;
+            while(low <= high) {
+                int middle = (low + high) >>> 1;
+                if(indexKeys[middle].compareTo(key) <= 0) {
+                    found = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return found;
+        }
+
+        private ByteBuffer readBlock(int block) throws IOException {
+            long start = indexOffsets[block];
+            long end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : dataEnd;
+            return read(start, (int) (end - start));
+        }
+
+        private ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while(buffer.hasRemaining()) {
+                if(channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Segment " + path + " is truncated!");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Sequential writer of a segment, the records have to be added by ascending key
+     */
+    private final class SegmentWriter implements Closeable {
+        private final Path path;
+        private final Path temp;
+        private final FileOutputStream file;
+        private final CountingOutputStream counter;
+        private final DataOutputStream out;
+        private final List<byte[]> indexKeys;
+        private final List<Long> indexOffsets;
+        private int count;
+        private boolean finished;
+
+        SegmentWriter(long first, long last) throws IOException {
+            path = folder.resolve(String.format("%016d-%016d%s", first, last, SEGMENT_EXTENSION));
+            temp = folder.resolve(path.getFileName() + ".tmp");
+            file = new FileOutputStream(temp.toFile(), false);
+            counter = new CountingOutputStream(new BufferedOutputStream(file, BUFFER_SIZE));
+            out = new DataOutputStream(counter);
+            indexKeys = new ArrayList<>();
+            indexOffsets = new ArrayList<>();
+        }
+
+        void add(String key, byte[] value) throws IOException {
+            if(count % INDEX_INTERVAL == 0) {
+                indexKeys.add(key.getBytes(StandardCharsets.UTF_8));
+                indexOffsets.add(counter.count);
+            }
+            writeRecord(out, key, value);
+            count++;
+        }
+
+        /**
+         * Write the index and the footer, then move the complete file to its name
+         * @return segment file
+         * @throws IOException if it cannot be written
+         */
+        Path finish() throws IOException {
+            long indexOffset = counter.count;
+            for(int i = 0; i < indexKeys.size(); i++) {
+                out.writeInt(indexKeys.get(i).length);
+                out.write(indexKeys.get(i));
+                out.writeLong(indexOffsets.get(i));
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(indexKeys.size());
+            out.writeInt(count);
+            out.writeInt(SEGMENT_MAGIC);
+            out.flush();
+            file.getFD().sync();
+            file.close();
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+            return path;
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+            if(!finished) Files.deleteIfExists(temp);
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package it.winsome.server.store;
+
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+import it.winsome.common.entity.Wallet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Storage engine of the social network entities, the server keeps every entity in memory and writes here the
+ * ones changed at each checkpoint, then it reads them back on startup with the scans.
+ * Every entity passed to a store is detached and it is not modified after the call, every entity returned is
+ * a new detached copy. The posts are stored without their comments, a rewin refers to a placeholder of its
+ * original post containing only the id. The writes are durable only after flush
+ */
+public interface SocialStore extends Closeable {
+    /**
+     * Get the engine name, as written in the server configuration
+     * @return engine name
+     */
+    String getName();
+
+    /**
+     * Insert or replace a user with its wallet
+     * @param user detached user
+     * @throws IOException if it cannot be written
+     */
+    void putUser(User user) throws IOException;
+
+    /**
+     * Get a user with its wallet
+     * @param username username
+     * @return the user or null if it does not exist
+     * @throws IOException if it cannot be read
+     */
+    User getUser(String username) throws IOException;
+
+    /**
+     * Delete a user with its wallet, its posts are not deleted
+     * @param username username
+     * @throws IOException if it cannot be written
+     */
+    void deleteUser(String username) throws IOException;
+
+    /**
+     * Visit every user by ascending username
+     * @param action consumer of the users
+     * @throws IOException if they cannot be read
+     */
+    void scanUsers(Consumer<User> action) throws IOException;
+
+    /**
+     * Replace the wallet of an existing user
+     * @param username username
+     * @param wallet detached wallet
+     * @return false if the user does not exist
+     * @throws IOException if it cannot be written
+     */
+    boolean putWallet(String username, Wallet wallet) throws IOException;
+
+    /**
+     * Get the wallet of a user
+     * @param username username
+     * @return the wallet or null if the user does not exist
+     * @throws IOException if it cannot be read
+     */
+    Wallet getWallet(String username) throws IOException;
+
+    /**
+     * Insert or replace a post, its comments are ignored
+     * @param post detached post
+     * @throws IOException if it cannot be written
+     */
+    void putPost(Post post) throws IOException;
+
+    /**
+     * Get a post without its comments
+     * @param id post id
+     * @return the post or null if it does not exist
+     * @throws IOException if it cannot be read
+     */
+    Post getPost(int id) throws IOException;
+
+    /**
+     * Delete a post with all its comments
+     * @param id post id
+     * @throws IOException if it cannot be written
+     */
+    void deletePost(int id) throws IOException;
+
+    /**
+     * Visit the posts with an id in [fromId, toId) by ascending id
+     * @param fromId first post id, inclusive
+     * @param toId last post id, exclusive
+     * @param action consumer of the posts
+     * @throws IOException if they cannot be read
+     */
+    void scanPosts(int fromId, int toId, Consumer<Post> action) throws IOException;
+
+    /**
+     * Insert or replace a comment, its post has to exist
+     * @param comment detached comment
+     * @throws IOException if it cannot be written
+     */
+    void putComment(Comment comment) throws IOException;
+
+    /**
+     * Get a comment
+     * @param id comment id
+     * @return the comment or null if it does not exist
+     * @throws IOException if it cannot be read
+     */
+    Comment getComment(int id) throws IOException;
+
+    /**
+     * Delete a comment
+     * @param id comment id
+     * @throws IOException if it cannot be written
+     */
+    void deleteComment(int id) throws IOException;
+
+    /**
+     * Visit the comments of the posts with an id in [fromPostId, toPostId), by ascending post id
+     * then by ascending comment id
+     * @param fromPostId first post id, inclusive
+     * @param toPostId last post id, exclusive
+     * @param action consumer of the comments
+     * @throws IOException if they cannot be read
+     */
+    void scanComments(int fromPostId, int toPostId, Consumer<Comment> action) throws IOException;
+
+    /**
+     * Make every previous write durable
+     * @throws IOException if it cannot be written
+     */
+    void flush() throws IOException;
+
+    /**
+     * Reclaim the space of the replaced and deleted entities, it may take a while
+     * @throws IOException if it cannot be written
+     */
+    void compact() throws IOException;
+}
@@ -0,0 +1,35 @@
+package it.winsome.server.store;
+
+import java.io.IOException;
+
+/**
+ * Open the storage engine chosen in the server configuration
+ */
+public final class SocialStores {
+    // binary snapshot with deltas written by ServerLogic itself, its posts are read lazily
+    public static final String BUILT_IN = "binary";
+
+    private SocialStores() { }
+
+    /**
+     * Open a storage engine inside the data folder
+     * @param engine engine name: json, wal or lsm
+     * @param dataFolder data folder of the server, ending with a separator
+     * @return the opened store
+     * @throws IOException if its files cannot be read
+     * @throws IllegalArgumentException if the engine does not exist
+     */
+    public static SocialStore open(String engine, String dataFolder) throws IOException {
+        switch (engine) {
+            case JsonSnapshotStore.NAME:
+                // the same files written by the previous versions
+                return new JsonSnapshotStore(dataFolder);
+            case WalSnapshotStore.NAME:
+                return new WalSnapshotStore(dataFolder + "walstore/");
+            case LogStructuredStore.NAME:
+                return new LogStructuredStore(dataFolder + "lsm/");
+            default:
+                throw new IllegalArgumentException("Unknown storage engine " + engine);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package it.winsome.server.store;
+
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+import it.winsome.common.entity.Wallet;
+import it.winsome.common.entity.abstracts.BaseVotableEntity;
+
+import java.util.HashSet;
+
+/**
+ * Copies of the entities kept in memory by the stores, so that neither the caller nor the store can
+ * change what the other one holds
+ */
+final class StoredEntities {
+    private StoredEntities() { }
+
+    /**
+     * Copy a post without its comments, the packed votes are copied as they are
+     * @param post detached post
+     * @return detached copy
+     */
+    static Post copyPost(Post post) {
+        Post copy = new Post(post.getId(), post.getUsername(), post.getTitle(), post.getContent());
+        copy.setCreationTime(post.getCreationTime());
+        copy.setCurrentIteration(post.getCurrentIteration());
+        if(post.isRewin()) {
+            copy.setOriginalPost(new Post(post.getOriginalPost().getId()));
+        }
+        copyVotes(post, copy);
+        return copy;
+    }
+
+    static Comment copyComment(Comment comment) {
+        Comment copy = new Comment(comment.getId(), comment.getOwner(), comment.getContent());
+        copy.setPostId(comment.getPostId());
+        copy.setCreationTime(comment.getCreationTime());
+        copy.setNeedIteration(comment.isNeedIteration());
+        copyVotes(comment, copy);
+        return copy;
+    }
+
+    static User copyUser(User user) {
+        User copy = new User(user.getUsername(), user.getPassword(), user.getTags(),
+                new HashSet<>(user.getFollowing()), new HashSet<>(user.getFollowed()));
+        copy.setId(user.getId());
+        copy.setWallet(copyWallet(user.getWallet()));
+        return copy;
+    }
+
+    static Wallet copyWallet(Wallet wallet) {
+        if(wallet == null) return new Wallet();
+        return wallet.deepCopy(1);
+    }
+
+    private static void copyVotes(BaseVotableEntity from, BaseVotableEntity to) {
+        int[] votes = new int[from.getVoteCount()];
+        for(int i = 0; i < votes.length; i++) {
+            votes[i] = from.getVote(i);
+        }
+        to.restoreVotes(votes);
+        to.setTotalUpvotes(from.getTotalUpvotes());
+        to.setTotalDownvotes(from.getTotalDownvotes());
+    }
+}
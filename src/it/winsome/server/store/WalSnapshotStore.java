@@ -0,0 +1,455 @@
+package it.winsome.server.store;
+
+import com.google.gson.Gson;
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+import it.winsome.common.entity.Wallet;
+import it.winsome.common.json.EntityGson;
+import it.winsome.server.snapshot.BinarySnapshot;
+import it.winsome.server.snapshot.BinarySnapshotWriter;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Store made of a binary snapshot and a log of the writes done after it. Each write is appended to the log
+ * as a line and kept in memory over the snapshot, a flush syncs the log; the compaction writes a new snapshot
+ * copying as they are the posts not changed by the log, then it empties the log.
+ * The log lines are "U user", "P post", "C comment", "-U username", "-P post id" and "-C comment id", the
+ * entities are written as JSON. The writes cost one append each, then it fits a high write rate; the users
+ * are always kept in memory while the posts are read from the snapshot
+ */
+public class WalSnapshotStore implements SocialStore {
+    public static final String NAME = "wal";
+    private static final String LOG_FILE = "store.log";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path folder;
+    private final Path snapshotPath;
+    private final Path logPath;
+    private final Gson gson;
+    // null until the first compaction
+    private BinarySnapshot snapshot;
+    private final TreeMap<String, User> users;
+    // written after the snapshot
+    private final TreeMap<Integer, Post> posts;
+    // post id in the high bits and comment id in the low ones, ordered as the scans
+    private final TreeMap<Long, Comment> comments;
+    private final Map<Integer, Integer> commentPosts;
+    // deleted posts of the snapshot
+    private final Set<Integer> deletedPosts;
+    // comments of the snapshot deleted or written again by the log
+    private final Set<Integer> deletedComments;
+    // posts of the snapshot whose comments have been changed, they are written again by the compaction
+    private final Set<Integer> touchedPosts;
+    private FileOutputStream logFile;
+    private Writer log;
+
+    /**
+     * Open the store in a folder, the log is replayed over the snapshot
+     * @param folder store folder, created if it does not exist
+     * @throws IOException if the files cannot be read
+     */
+    public WalSnapshotStore(String folder) throws IOException {
+        this.folder = Paths.get(folder);
+        snapshotPath = this.folder.resolve(BinarySnapshot.FILE_NAME);
+        logPath = this.folder.resolve(LOG_FILE);
+        gson = EntityGson.get();
+        users = new TreeMap<>();
+        posts = new TreeMap<>();
+        comments = new TreeMap<>();
+        commentPosts = new HashMap<>();
+        deletedPosts = new HashSet<>();
+        deletedComments = new HashSet<>();
+        touchedPosts = new HashSet<>();
+
+        Files.createDirectories(this.folder);
+        if(Files.exists(snapshotPath)) {
+            snapshot = BinarySnapshot.open(snapshotPath);
+            for(User user : snapshot.readUsers()) {
+                users.put(user.getUsername(), user);
+            }
+        }
+        long validLength = replayLog();
+        // a record cut by a crash is dropped, the next ones are appended after the last complete record
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if(channel.size() > validLength) channel.truncate(validLength);
+        }
+        openLog(true);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public synchronized void putUser(User user) throws IOException {
+        User copy = StoredEntities.copyUser(user);
+        append("U", gson.toJson(copy, User.class));
+        users.put(copy.getUsername(), copy);
+    }
+
+    @Override
+    public synchronized User getUser(String username) {
+        User user = users.get(username);
+        return user != null ? StoredEntities.copyUser(user) : null;
+    }
+
+    @Override
+    public synchronized void deleteUser(String username) throws IOException {
+        append("-U", gson.toJson(username));
+        users.remove(username);
+    }
+
+    @Override
+    public synchronized void scanUsers(Consumer<User> action) {
+        for(User user : users.values()) {
+            action.accept(StoredEntities.copyUser(user));
+        }
+    }
+
+    @Override
+    public synchronized boolean putWallet(String username, Wallet wallet) throws IOException {
+        User user = users.get(username);
+        if(user == null) return false;
+        user = StoredEntities.copyUser(user);
+        user.setWallet(wallet);
+        putUser(user);
+        return true;
+    }
+
+    @Override
+    public synchronized Wallet getWallet(String username) {
+        User user = users.get(username);
+        return user != null ? StoredEntities.copyWallet(user.getWallet()) : null;
+    }
+
+    @Override
+    public synchronized void putPost(Post post) throws IOException {
+        Post copy = StoredEntities.copyPost(post);
+        append("P", gson.toJson(copy, Post.class));
+        applyPutPost(copy);
+    }
+
+    @Override
+    public synchronized Post getPost(int id) {
+        Post post = posts.get(id);
+        if(post != null) return StoredEntities.copyPost(post);
+        int slot = findSnapshotPost(id);
+        return slot >= 0 ? readSnapshotPost(slot) : null;
+    }
+
+    @Override
+    public synchronized void deletePost(int id) throws IOException {
+        append("-P", Integer.toString(id));
+        applyDeletePost(id);
+    }
+
+    @Override
+    public synchronized void scanPosts(int fromId, int toId, Consumer<Post> action) {
+        forEachPost(fromId, toId, (id, slot, post) ->
+                action.accept(post != null ? StoredEntities.copyPost(post) : readSnapshotPost(slot)));
+    }
+
+    @Override
+    public synchronized void putComment(Comment comment) throws IOException {
+        Comment copy = StoredEntities.copyComment(comment);
+        append("C", gson.toJson(copy, Comment.class));
+        applyPutComment(copy);
+    }
+
+    @Override
+    public synchronized Comment getComment(int id) {
+        Integer postId = commentPosts.get(id);
+        if(postId != null) return StoredEntities.copyComment(comments.get(commentKey(postId, id)));
+        if(snapshot == null || deletedComments.contains(id)) return null;
+        int slot = snapshot.findCommentPostSlot(id);
+        if(slot < 0 || deletedPosts.contains(snapshot.getPostId(slot))) return null;
+        for(Comment comment : snapshot.readPost(slot).getComments()) {
+            if(comment.getId() == id) return comment;
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void deleteComment(int id) throws IOException {
+        append("-C", Integer.toString(id));
+        applyDeleteComment(id);
+    }
+
+    @Override
+    public synchronized void scanComments(int fromPostId, int toPostId, Consumer<Comment> action) {
+        forEachPost(fromPostId, toPostId, (id, slot, post) -> {
+            for(Comment comment : mergeComments(id, slot)) {
+                action.accept(comment);
+            }
+        });
+    }
+
+    /**
+     * Sync the log
+     * @throws IOException if it cannot be written
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        log.flush();
+        logFile.getFD().sync();
+    }
+
+    /**
+     * Write a new snapshot with the content of the log then empty it, the posts of the previous snapshot
+     * not changed by the log are copied without being decoded
+     * @throws IOException if the snapshot cannot be written
+     */
+    @Override
+    public synchronized void compact() throws IOException {
+        flush();
+        if(posts.isEmpty() && comments.isEmpty() && deletedPosts.isEmpty() && deletedComments.isEmpty() &&
+                Files.size(logPath) == 0) return;
+
+        Path temp = folder.resolve(BinarySnapshot.FILE_NAME + ".tmp");
+        try (BinarySnapshotWriter writer = new BinarySnapshotWriter(temp, snapshot)) {
+            for(User user : users.values()) {
+                writer.writeUser(user);
+            }
+            IOException[] failure = new IOException[1];
+            forEachPost(0, Integer.MAX_VALUE, (id, slot, post) -> {
+                if(failure[0] != null) return;
+                try {
+                    if(post == null && !touchedPosts.contains(id)) {
+                        writer.copyPost(slot);
+                    } else {
+                        writer.writePost(post != null ? post : readSnapshotPost(slot), mergeComments(id, slot));
+                    }
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if(failure[0] != null) throw failure[0];
+            writer.finish();
+        }
+        Files.move(temp, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        if(snapshot != null) snapshot.close();
+        snapshot = BinarySnapshot.open(snapshotPath);
+
+        // the log is part of the snapshot now, replaying it again would not change anything
+        log.close();
+        openLog(false);
+        posts.clear();
+        comments.clear();
+        commentPosts.clear();
+        deletedPosts.clear();
+        deletedComments.clear();
+        touchedPosts.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        log.close();
+        if(snapshot != null) {
+            snapshot.close();
+            snapshot = null;
+        }
+    }
+
+    private void applyPutPost(Post post) {
+        posts.put(post.getId(), post);
+    }
+
+    private void applyDeletePost(int id) {
+        posts.remove(id);
+        SortedMap<Long, Comment> postComments = comments.subMap(commentKey(id, 0), commentKey(id + 1L, 0));
+        for(Comment comment : postComments.values()) {
+            commentPosts.remove(comment.getId());
+        }
+        postComments.clear();
+
+        int slot = findSnapshotPost(id);
+        if(slot >= 0) {
+            deletedPosts.add(id);
+            // a post written again with the same id starts without comments
+            for(Comment comment : snapshot.readPost(slot).getComments()) {
+                deletedComments.add(comment.getId());
+            }
+            touchedPosts.add(id);
+        }
+    }
+
+    private void applyPutComment(Comment comment) {
+        Integer previousPost = commentPosts.put(comment.getId(), comment.getPostId());
+        if(previousPost != null) comments.remove(commentKey(previousPost, comment.getId()));
+        comments.put(commentKey(comment.getPostId(), comment.getId()), comment);
+        touchedPosts.add(comment.getPostId());
+        hideSnapshotComment(comment.getId());
+    }
+
+    private void applyDeleteComment(int id) {
+        Integer postId = commentPosts.remove(id);
+        if(postId != null) {
+            comments.remove(commentKey(postId, id));
+            touchedPosts.add(postId);
+        }
+        hideSnapshotComment(id);
+    }
+
+    private void hideSnapshotComment(int id) {
+        if(snapshot == null || deletedComments.contains(id)) return;
+        int slot = snapshot.findCommentPostSlot(id);
+        if(slot >= 0) {
+            deletedComments.add(id);
+            touchedPosts.add(snapshot.getPostId(slot));
+        }
+    }
+
+    /**
+     * Visit the existing posts with an id in [fromId, toId) by ascending id
+     * @param fromId first post id, inclusive
+     * @param toId last post id, exclusive
+     * @param visitor receives the slot of the post in the snapshot (-1 if it is not there) and the post
+     *                written after the snapshot (null if it has not been written)
+     */
+    private void forEachPost(int fromId, int toId, PostVisitor visitor) {
+        if(fromId >= toId) return;
+        int slot = snapshot != null ? snapshot.findPostSlotFrom(fromId) : 0;
+        int slots = snapshot != null ? snapshot.getPostCount() : 0;
+        Iterator<Post> written = posts.subMap(fromId, toId).values().iterator();
+        Post next = written.hasNext() ? written.next() : null;
+        while(true) {
+            long snapshotId = slot < slots ? snapshot.getPostId(slot) : Long.MAX_VALUE;
+            if(snapshotId >= toId) snapshotId = Long.MAX_VALUE;
+            long writtenId = next != null ? next.getId() : Long.MAX_VALUE;
+            if(snapshotId == Long.MAX_VALUE && writtenId == Long.MAX_VALUE) return;
+
+            if(writtenId <= snapshotId) {
+                visitor.visit((int) writtenId, writtenId == snapshotId ? slot++ : -1, next);
+                next = written.hasNext() ? written.next() : null;
+            } else {
+                if(!deletedPosts.contains((int) snapshotId)) visitor.visit((int) snapshotId, slot, null);
+                slot++;
+            }
+        }
+    }
+
+    /**
+     * Get the comments of a post merging the snapshot with the log
+     * @param postId post id
+     * @param slot slot of the post in the snapshot, -1 if it is not there
+     * @return comments by ascending id
+     */
+    private List<Comment> mergeComments(int postId, int slot) {
+        TreeMap<Integer, Comment> merged = new TreeMap<>();
+        if(slot >= 0) {
+            for(Comment comment : snapshot.readPost(slot).getComments()) {
+                if(!deletedComments.contains(comment.getId())) merged.put(comment.getId(), comment);
+            }
+        }
+        for(Comment comment : comments.subMap(commentKey(postId, 0), commentKey(postId + 1L, 0)).values()) {
+            merged.put(comment.getId(), StoredEntities.copyComment(comment));
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    private int findSnapshotPost(int id) {
+        if(snapshot == null || deletedPosts.contains(id)) return -1;
+        return snapshot.findPostSlot(id);
+    }
+
+    private Post readSnapshotPost(int slot) {
+        Post post = snapshot.readPost(slot);
+        post.setComments(Collections.emptyList());
+        return post;
+    }
+
+    private static long commentKey(long postId, int commentId) {
+        return (postId << 32) | (commentId & 0xFFFFFFFFL);
+    }
+
+    private void append(String operation, String payload) throws IOException {
+        log.write(operation);
+        log.write(' ');
+        log.write(payload);
+        log.write('\n');
+    }
+
+    private void openLog(boolean append) throws IOException {
+        logFile = new FileOutputStream(logPath.toFile(), append);
+        log = new BufferedWriter(new OutputStreamWriter(logFile, StandardCharsets.UTF_8), BUFFER_SIZE);
+        if(!append) logFile.getFD().sync();
+    }
+
+    /**
+     * Apply the log over the snapshot, it stops at the first record not complete
+     * @return length of the complete records
+     * @throws IOException if the log cannot be read
+     */
+    private long replayLog() throws IOException {
+        if(!Files.exists(logPath)) return 0;
+        long valid = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(logPath.toFile()), BUFFER_SIZE)) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long read = 0;
+            int next;
+            while((next = in.read()) >= 0) {
+                read++;
+                if(next != '\n') {
+                    line.write(next);
+                    continue;
+                }
+                try {
+                    replayRecord(new String(line.toByteArray(), StandardCharsets.UTF_8));
+                } catch (RuntimeException e) {
+                    break;
+                }
+                line.reset();
+                valid = read;
+            }
+        }
+        return valid;
+    }
+
+    private void replayRecord(String record) {
+        int separator = record.indexOf(' ');
+        String operation = record.substring(0, separator);
+        String payload = record.substring(separator + 1);
+        switch (operation) {
+            case "U":
+                User user = gson.fromJson(payload, User.class);
+                users.put(user.getUsername(), user);
+                break;
+            case "-U":
+                users.remove(gson.fromJson(payload, String.class));
+                break;
+            case "P":
+                Post post = gson.fromJson(payload, Post.class);
+                applyPutPost(post);
+                break;
+            case "-P":
+                applyDeletePost(Integer.parseInt(payload));
+                break;
+            case "C":
+                applyPutComment(gson.fromJson(payload, Comment.class));
+                break;
+            case "-C":
+                applyDeleteComment(Integer.parseInt(payload));
+                break;
+            default:
+                throw new IllegalStateException("Unknown log record " + operation);
+        }
+    }
+
+    @FunctionalInterface
+    private interface PostVisitor {
+        void visit(int id, int slot, Post post);
+    }
+}
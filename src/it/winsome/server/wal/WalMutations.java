@@ -0,0 +1,98 @@
+package it.winsome.server.wal;
+
+import it.winsome.common.entity.enums.VotableType;
+import it.winsome.common.entity.enums.VoteType;
+
+/**
+ * Format of the mutations stored in the write ahead log: each one is encoded here and decoded back in the
+ * same order by replay, then the fields of a record type are listed in a single place
+ */
+public final class WalMutations {
+    private WalMutations() { }
+
+    public static WalRecord registerUser(int id, String username, String password, String[] tags) {
+        return WalRecord.of(WalRecordType.RegisterUser)
+                .writeInt(id).writeString(username).writeString(password).writeStrings(tags);
+    }
+
+    public static WalRecord follow(String from, String to, boolean added) {
+        return WalRecord.of(added ? WalRecordType.AddFollow : WalRecordType.RemoveFollow)
+                .writeString(from).writeString(to);
+    }
+
+    /**
+     * @param originalId original post id, -1 if it is not a rewin
+     */
+    public static WalRecord addPost(int id, String username, String title, String content, long creationTime,
+                                    int originalId) {
+        return WalRecord.of(WalRecordType.AddPost)
+                .writeInt(id).writeString(username).writeString(title).writeString(content)
+                .writeLong(creationTime).writeInt(originalId);
+    }
+
+    public static WalRecord removePost(int id) {
+        return WalRecord.of(WalRecordType.RemovePost).writeInt(id);
+    }
+
+    public static WalRecord addComment(int id, int postId, String owner, String content, long creationTime) {
+        return WalRecord.of(WalRecordType.AddComment)
+                .writeInt(id).writeInt(postId).writeString(owner).writeString(content).writeLong(creationTime);
+    }
+
+    public static WalRecord addVote(VotableType type, int entityId, int voterId, VoteType vote) {
+        return WalRecord.of(WalRecordType.AddVote)
+                .writeInt(type.getId()).writeInt(entityId).writeInt(voterId).writeInt(vote.getId());
+    }
+
+    /**
+     * Decode a record read from the log and apply its mutation
+     * @param record record
+     * @param target state the mutation is applied to
+     */
+    public static void replay(WalRecord record, Target target) {
+        switch (record.getType()) {
+            case RegisterUser:
+                target.registerUser(record.readInt(), record.readString(), record.readString(), record.readStrings());
+                break;
+            case AddFollow:
+                target.follow(record.readString(), record.readString(), true);
+                break;
+            case RemoveFollow:
+                target.follow(record.readString(), record.readString(), false);
+                break;
+            case AddPost:
+                target.addPost(record.readInt(), record.readString(), record.readString(), record.readString(),
+                        record.readLong(), record.readInt());
+                break;
+            case RemovePost:
+                target.removePost(record.readInt());
+                break;
+            case AddComment:
+                target.addComment(record.readInt(), record.readInt(), record.readString(), record.readString(),
+                        record.readLong());
+                break;
+            case AddVote:
+                target.addVote(VotableType.fromId(record.readInt()), record.readInt(), record.readInt(),
+                        VoteType.fromId(record.readInt()));
+                break;
+        }
+    }
+
+    /**
+     * State the replayed mutations are applied to. A record may be already part of the snapshot, then every
+     * mutation must be skipped if already applied
+     */
+    public interface Target {
+        void registerUser(int id, String username, String password, String[] tags);
+
+        void follow(String from, String to, boolean added);
+
+        void addPost(int id, String username, String title, String content, long creationTime, int originalId);
+
+        void removePost(int id);
+
+        void addComment(int id, int postId, String owner, String content, long creationTime);
+
+        void addVote(VotableType type, int entityId, int voterId, VoteType vote);
+    }
+}
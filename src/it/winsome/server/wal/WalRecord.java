@@ -0,0 +1,122 @@
+package it.winsome.server.wal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A compact binary mutation of the write ahead log. Fields are written and read back in the same order,
+ * like a NetMessage, strings are stored as their UTF-8 length followed by the bytes (-1 for null)
+ */
+public class WalRecord {
+    private final WalRecordType type;
+    private byte[] data;
+    private int size;
+    private int position;
+
+    private WalRecord(WalRecordType type, byte[] data, int size) {
+        this.type = type;
+        this.data = data;
+        this.size = size;
+    }
+
+    /**
+     * Create an empty record to be written
+     * @param type mutation type
+     * @return writable record
+     */
+    public static WalRecord of(WalRecordType type) {
+        return new WalRecord(type, new byte[64], 0);
+    }
+
+    /**
+     * Wrap a payload read from the log
+     * @param type mutation type
+     * @param payload payload bytes
+     * @return readable record
+     */
+    static WalRecord fromPayload(WalRecordType type, byte[] payload) {
+        return new WalRecord(type, payload, payload.length);
+    }
+
+    public WalRecordType getType() {
+        return type;
+    }
+
+    public WalRecord writeInt(int value) {
+        ensureCapacity(4);
+        ByteBuffer.wrap(data, size, 4).putInt(value);
+        size += 4;
+        return this;
+    }
+
+    public WalRecord writeLong(long value) {
+        ensureCapacity(8);
+        ByteBuffer.wrap(data, size, 8).putLong(value);
+        size += 8;
+        return this;
+    }
+
+    public WalRecord writeString(String value) {
+        if(value == null) {
+            return writeInt(-1);
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, data, size, bytes.length);
+        size += bytes.length;
+        return this;
+    }
+
+    public WalRecord writeStrings(String[] values) {
+        writeInt(values.length);
+        for(String value : values) {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public int readInt() {
+        int value = ByteBuffer.wrap(data, position, 4).getInt();
+        position += 4;
+        return value;
+    }
+
+    public long readLong() {
+        long value = ByteBuffer.wrap(data, position, 8).getLong();
+        position += 8;
+        return value;
+    }
+
+    public String readString() {
+        int length = readInt();
+        if(length < 0) return null;
+        String value = new String(data, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    public String[] readStrings() {
+        String[] values = new String[readInt()];
+        for(int i = 0; i < values.length; i++) {
+            values[i] = readString();
+        }
+        return values;
+    }
+
+    int getPayloadSize() {
+        return size;
+    }
+
+    byte[] getPayload() {
+        return data;
+    }
+
+    private void ensureCapacity(int needed) {
+        if(size + needed > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + needed));
+        }
+    }
+}
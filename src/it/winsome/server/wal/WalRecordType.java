@@ -0,0 +1,32 @@
+package it.winsome.server.wal;
+
+/**
+ * Type of the mutations stored in the write ahead log, the id is persisted then it cannot change
+ */
+public enum WalRecordType {
+    RegisterUser(1),
+    AddFollow(2),
+    RemoveFollow(3),
+    AddPost(4),
+    RemovePost(5),
+    AddComment(6),
+    AddVote(7);
+
+    private final int id;
+    WalRecordType(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public static WalRecordType fromId(int id) {
+        for (WalRecordType type : values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
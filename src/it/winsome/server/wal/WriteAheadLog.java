@@ -0,0 +1,469 @@
+package it.winsome.server.wal;
+
+import it.winsome.common.WinsomeHelper;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Segmented append only log of the mutations, written before they become visible to other threads.
+ * Each record is framed as [length][type][payload][crc32], a torn or corrupted record ends the log on replay.
+ * Appends only copy the record in memory, a flusher thread writes and fsyncs all the pending records
+ * together (group commit): as soon as possible, or after groupCommitMs unless groupCommitBytes are pending.
+ * A mutation is committed after it was applied, then its caller waits until its record is durable.
+ * A checkpoint rotates to a new segment, waits for the mutations of the older segments to be applied,
+ * saves the snapshot and finally deletes the older segments
+ */
+public class WriteAheadLog {
+    private static final String SEGMENT_EXTENSION = ".wal";
+    // segments following a torn record, kept for inspection and never replayed
+    private static final String DISCARDED_EXTENSION = ".discarded";
+    // length, type and crc
+    private static final int FRAME_OVERHEAD = 4 + 1 + 4;
+
+    private final File folder;
+    private final long groupCommitMs;
+    private final int groupCommitBytes;
+    private final long segmentBytes;
+
+    private final ReentrantLock appendLock;
+    private final Condition flushNeeded;
+    private final Condition durable;
+    // serializes the writes, the fsyncs and the segment switches
+    private final Object ioLock;
+    // records appended after the last flush, guarded by appendLock
+    private ByteBuffer pending;
+    private ByteBuffer spare;
+    private long appendedLsn;
+    private long durableLsn;
+    private long currentSegment;
+    private boolean closed;
+    private boolean failed;
+    // guarded by ioLock
+    private FileChannel channel;
+    private long channelSize;
+    // segment -> appended mutations not applied yet
+    private final Map<Long, AtomicInteger> inFlight;
+    private Thread flusher;
+
+    /**
+     * Create a log stored in a folder, it must be replayed and then opened
+     * @param folder segments folder
+     * @param groupCommitMs max delay of a fsync waiting for more records, 0 to fsync as soon as possible
+     * @param groupCommitBytes pending bytes which trigger a fsync before the delay
+     * @param segmentBytes size after which a new segment is started
+     */
+    public WriteAheadLog(String folder, long groupCommitMs, int groupCommitBytes, long segmentBytes) {
+        this.folder = new File(folder);
+        this.groupCommitMs = groupCommitMs;
+        this.groupCommitBytes = groupCommitBytes;
+        this.segmentBytes = segmentBytes;
+        appendLock = new ReentrantLock();
+        flushNeeded = appendLock.newCondition();
+        durable = appendLock.newCondition();
+        ioLock = new Object();
+        pending = ByteBuffer.allocate(Math.max(groupCommitBytes, 4096));
+        spare = ByteBuffer.allocate(pending.capacity());
+        inFlight = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Read every record of the existing segments in order. A torn or corrupted record ends the log: its segment
+     * is truncated after the last valid record and the following segments are moved aside, then the records
+     * appended after the next open are not hidden behind it on the following replays
+     * @param action applied to each record
+     * @return number of records read
+     * @throws IOException if a segment cannot be read or repaired
+     */
+    public int replay(Consumer<WalRecord> action) throws IOException {
+        int count = 0;
+        List<Long> segments = listSegments();
+        for(int i = 0; i < segments.size(); i++) {
+            File file = segmentFile(segments.get(i));
+            long valid = 0;
+            boolean torn = false;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                long remaining = file.length();
+                while(remaining > 0) {
+                    WalRecord record = readRecord(in, remaining);
+                    if(record == null) {
+                        torn = true;
+                        break;
+                    }
+                    remaining -= FRAME_OVERHEAD + record.getPayloadSize();
+                    valid += FRAME_OVERHEAD + record.getPayloadSize();
+                    action.accept(record);
+                    count++;
+                }
+            }
+
+            if(torn) {
+                WinsomeHelper.printfDebug("WARNING Write ahead log! Segment %s truncated after %d records!",
+                        file.getName(), count);
+                discardAfter(file, valid, segments.subList(i + 1, segments.size()));
+                return count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Start appending to a new segment, after the replayed ones
+     * @throws IOException if the segment cannot be created
+     */
+    public void open() throws IOException {
+        folder.mkdirs();
+        List<Long> segments = listSegments();
+        currentSegment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1;
+        synchronized (ioLock) {
+            channel = openSegment(currentSegment);
+        }
+
+        flusher = new Thread(this::flushLoop, "wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Append a record, it is written by the flusher thread
+     * @param record record
+     * @return the ticket to be committed once the mutation is applied
+     */
+    public Ticket append(WalRecord record) {
+        int payloadSize = record.getPayloadSize();
+        CRC32 crc = new CRC32();
+        crc.update(record.getType().getId());
+        crc.update(record.getPayload(), 0, payloadSize);
+
+        appendLock.lock();
+        try {
+            if(closed) throw new IllegalStateException("Write ahead log is closed!");
+            int frameSize = FRAME_OVERHEAD + payloadSize;
+            if(pending.remaining() < frameSize) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + frameSize));
+                pending.flip();
+                grown.put(pending);
+                pending = grown;
+            }
+            pending.putInt(payloadSize + 1)
+                    .put((byte) record.getType().getId())
+                    .put(record.getPayload(), 0, payloadSize)
+                    .putInt((int) crc.getValue());
+            appendedLsn += frameSize;
+
+            inFlight.computeIfAbsent(currentSegment, k -> new AtomicInteger()).incrementAndGet();
+            if(groupCommitMs == 0 || pending.position() >= groupCommitBytes) {
+                flushNeeded.signal();
+            }
+            return new Ticket(currentSegment, appendedLsn);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Mark the mutation of a ticket as applied and wait until its record is durable
+     * @param ticket ticket returned by append
+     * @return true if the record is durable, false if the log failed or the wait was interrupted
+     */
+    public boolean commit(Ticket ticket) {
+        inFlight.get(ticket.segment).decrementAndGet();
+
+        appendLock.lock();
+        try {
+            while(durableLsn < ticket.lsn && !failed) {
+                durable.await();
+            }
+            return durableLsn >= ticket.lsn;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return durableLsn >= ticket.lsn;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Write the pending records and start a new segment, the records appended from now on are not
+     * part of the older segments
+     * @return the new segment, the older ones can be deleted after a checkpoint
+     */
+    public long rotate() {
+        synchronized (ioLock) {
+            writePending();
+            switchSegment();
+            appendLock.lock();
+            try {
+                return currentSegment;
+            } finally {
+                appendLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Wait until every mutation appended to the segments before this one has been applied
+     * @param segment segment returned by rotate
+     */
+    public void awaitApplied(long segment) {
+        for(Map.Entry<Long, AtomicInteger> entry : inFlight.entrySet()) {
+            if(entry.getKey() >= segment) continue;
+            while(entry.getValue().get() > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            inFlight.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Delete the segments already included in a snapshot
+     * @param segment segment returned by rotate, the older ones are deleted
+     */
+    public void deleteSegmentsBefore(long segment) {
+        for(long current : listSegments()) {
+            if(current < segment && !segmentFile(current).delete()) {
+                WinsomeHelper.printfDebug("WARNING Write ahead log! Cannot delete segment %d!", current);
+            }
+        }
+    }
+
+    /**
+     * Write the pending records and stop the flusher thread
+     */
+    public void close() {
+        appendLock.lock();
+        try {
+            closed = true;
+            flushNeeded.signal();
+        } finally {
+            appendLock.unlock();
+        }
+
+        try {
+            if(flusher != null) flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (ioLock) {
+            writePending();
+            try {
+                if(channel != null) channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while(true) {
+            appendLock.lock();
+            try {
+                while(pending.position() == 0 && !closed) {
+                    flushNeeded.await();
+                }
+                if(pending.position() == 0) return;
+
+                if(groupCommitMs > 0) {
+                    // wait for more records to share the same fsync
+                    long remaining = TimeUnit.MILLISECONDS.toNanos(groupCommitMs);
+                    while(pending.position() < groupCommitBytes && !closed && remaining > 0) {
+                        remaining = flushNeeded.awaitNanos(remaining);
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                appendLock.unlock();
+            }
+
+            synchronized (ioLock) {
+                writePending();
+                if(channelSize >= segmentBytes) {
+                    switchSegment();
+                }
+            }
+        }
+    }
+
+    // called holding ioLock
+    private void writePending() {
+        ByteBuffer toWrite;
+        long lsn;
+        appendLock.lock();
+        try {
+            if(pending.position() == 0) return;
+            toWrite = pending;
+            pending = spare;
+            spare = null;
+            lsn = appendedLsn;
+        } finally {
+            appendLock.unlock();
+        }
+
+        boolean written = true;
+        try {
+            toWrite.flip();
+            channelSize += toWrite.remaining();
+            while(toWrite.hasRemaining()) {
+                channel.write(toWrite);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+            written = false;
+        }
+
+        toWrite.clear();
+        appendLock.lock();
+        try {
+            spare = toWrite;
+            if(written) {
+                durableLsn = lsn;
+            } else {
+                failed = true;
+                WinsomeHelper.printlnDebug("Write ahead log failed, the mutations are durable only after a checkpoint!");
+            }
+            durable.signalAll();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // called holding ioLock
+    private void switchSegment() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        long next;
+        appendLock.lock();
+        try {
+            next = ++currentSegment;
+        } finally {
+            appendLock.unlock();
+        }
+
+        try {
+            channel = openSegment(next);
+        } catch (IOException e) {
+            e.printStackTrace();
+            appendLock.lock();
+            try {
+                failed = true;
+                durable.signalAll();
+            } finally {
+                appendLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Cut a torn segment at its last valid record and move the following segments aside
+     * @param file torn segment
+     * @param valid bytes of the valid records
+     * @param following segments after the torn one
+     * @throws IOException if the segment cannot be truncated
+     */
+    private void discardAfter(File file, long valid, List<Long> following) throws IOException {
+        try (FileChannel torn = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            torn.truncate(valid);
+            torn.force(false);
+        }
+
+        for(long segment : following) {
+            File discarded = segmentFile(segment);
+            File aside = new File(discarded.getPath() + DISCARDED_EXTENSION);
+            if(!discarded.renameTo(aside)) {
+                throw new IOException("Cannot move aside the segment " + discarded.getName());
+            }
+            WinsomeHelper.printfDebug("WARNING Write ahead log! Segment %s after a torn record moved to %s!",
+                    discarded.getName(), aside.getName());
+        }
+    }
+
+    private FileChannel openSegment(long segment) throws IOException {
+        Path path = segmentFile(segment).toPath();
+        channelSize = 0;
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private File segmentFile(long segment) {
+        return Paths.get(folder.getPath(), String.format("%020d%s", segment, SEGMENT_EXTENSION)).toFile();
+    }
+
+    private List<Long> listSegments() {
+        List<Long> segments = new ArrayList<>();
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(SEGMENT_EXTENSION));
+        if(files == null) return segments;
+        for(File file : files) {
+            String name = file.getName();
+            try {
+                segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length())));
+            } catch (NumberFormatException ignored) { }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static WalRecord readRecord(DataInputStream in, long remaining) throws IOException {
+        if(remaining < FRAME_OVERHEAD) return null;
+        try {
+            int length = in.readInt();
+            if(length < 1 || length + 8L > remaining) return null;
+            int typeId = in.readUnsignedByte();
+            byte[] payload = new byte[length - 1];
+            in.readFully(payload);
+            int expected = in.readInt();
+
+            CRC32 crc = new CRC32();
+            crc.update(typeId);
+            crc.update(payload);
+            WalRecordType type = WalRecordType.fromId(typeId);
+            if((int) crc.getValue() != expected || type == null) return null;
+            return WalRecord.fromPayload(type, payload);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Position of an appended record, to be committed once its mutation is applied
+     */
+    public static final class Ticket {
+        private final long segment;
+        private final long lsn;
+
+        private Ticket(long segment, long lsn) {
+            this.segment = segment;
+            this.lsn = lsn;
+        }
+    }
+}
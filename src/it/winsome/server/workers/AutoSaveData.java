@@ -1,10 +1,12 @@
 package it.winsome.server.workers;
 
 import it.winsome.common.WinsomeHelper;
+import it.winsome.common.memory.TextArena;
 import it.winsome.server.ServerLogic;
 
 /**
- * Automatically save all entities of the social network
+ * Automatically save the entities of the social network changed since the previous save, each save also starts
+ * a new epoch of the text arena
  */
 public class AutoSaveData implements Runnable {
     private final ServerLogic serverLogic;
@@ -16,7 +18,12 @@ public class AutoSaveData implements Runnable {
     @Override
     public void run() {
         long start = System.currentTimeMillis();
-        serverLogic.saveToDisk();
+        TextArena textArena = TextArena.get();
+        if(textArena != null) {
+            // the blocks freed before the previous save are reused once their readers are done
+            textArena.reclaim();
+        }
+        serverLogic.saveDelta();
         long elapsed = System.currentTimeMillis() - start;
         WinsomeHelper.printfDebug("Autosave completed in %dms!", elapsed);
     }
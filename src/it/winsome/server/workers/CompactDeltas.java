@@ -0,0 +1,28 @@
+package it.winsome.server.workers;
+
+import it.winsome.common.WinsomeHelper;
+import it.winsome.server.ServerLogic;
+
+/**
+ * Merge in background the delta files written by the autosave into the base snapshot
+ */
+public class CompactDeltas implements Runnable {
+    private final ServerLogic serverLogic;
+    private final int minDeltas;
+
+    public CompactDeltas(ServerLogic serverLogic, int minDeltas) {
+        this.serverLogic = serverLogic;
+        this.minDeltas = minDeltas;
+    }
+
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        if(!serverLogic.compactDeltas(minDeltas)) {
+            WinsomeHelper.printlnDebug("Compaction failed, the deltas are kept!");
+            return;
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        WinsomeHelper.printfDebug("Compaction completed in %dms!", elapsed);
+    }
+}
@@ -0,0 +1,23 @@
+package it.winsome.server.workers;
+
+import it.winsome.common.WinsomeHelper;
+import it.winsome.server.ServerLogic;
+
+/**
+ * Move in background the least recently used posts out of memory, when there are more than the configured limit
+ */
+public class EvictColdPosts implements Runnable {
+    private final ServerLogic serverLogic;
+
+    public EvictColdPosts(ServerLogic serverLogic) {
+        this.serverLogic = serverLogic;
+    }
+
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        int evicted = serverLogic.evictColdPosts();
+        long elapsed = System.currentTimeMillis() - start;
+        WinsomeHelper.printfDebug("Evicted %d posts in %dms!", evicted, elapsed);
+    }
+}
@@ -3,14 +3,17 @@ package it.winsome.server.workers;
 import it.winsome.common.dto.*;
 import it.winsome.common.entity.Comment;
 import it.winsome.common.entity.Post;
+import it.winsome.common.entity.PostSnapshot;
 import it.winsome.common.entity.User;
-import it.winsome.common.entity.Wallet;
+import it.winsome.common.entity.WalletPage;
 import it.winsome.common.entity.enums.CurrencyType;
 import it.winsome.common.entity.enums.VotableType;
 import it.winsome.common.entity.enums.VoteType;
 import it.winsome.common.exception.InvalidParameterException;
+import it.winsome.common.exception.MutationNotDurableException;
 import it.winsome.common.exception.NoAuthorizationException;
 import it.winsome.common.exception.SocketDisconnectedException;
+import it.winsome.common.memory.TextArena;
 import it.winsome.common.network.NetMessage;
 import it.winsome.common.network.enums.NetMessageType;
 import it.winsome.common.network.enums.NetResponseType;
@@ -20,6 +23,7 @@ import it.winsome.server.ServerLogic;
 import it.winsome.server.session.ConnectionSession;
 import it.winsome.server.ServerConnector;
 import it.winsome.server.ServerMain;
+import it.winsome.server.ShardedExecutor;
 
 import java.io.IOException;
 import java.nio.channels.ReadableByteChannel;
@@ -38,6 +42,7 @@ import static it.winsome.common.network.enums.NetMessageType.*;
 public class ReaderRequestHandler implements Runnable {
     private final static Map<NetMessageType, Function<ReaderRequestHandler, Boolean>> mapDispatcher;
     private static ServerLogic userService;
+    private static ShardedExecutor shards;
     private final ServerConnector server;
     private final ConnectionSession session;
     private final WritableByteChannel writableByteChannel;
@@ -48,13 +53,15 @@ public class ReaderRequestHandler implements Runnable {
     public ReaderRequestHandler(ServerConnector server, SelectionKey key) {
         if(userService == null)
             userService = ServerMain.getServerLogic();
+        if(shards == null)
+            shards = ServerMain.getShardedExecutor();
 
         this.server = server;
         this.key = key;
         writableByteChannel = (WritableByteChannel) key.channel();
         readableByteChannel = (ReadableByteChannel) key.channel();
         session = (ConnectionSession) key.attachment();
-        this.key.interestOps(0);
+        session.beginHandling(key);
     }
 
     @Override
@@ -81,7 +88,7 @@ public class ReaderRequestHandler implements Runnable {
 
             if(!incomingMessage.isReadFully()) {
                 System.out.println("Debug, message not read fully!");
-                this.key.interestOps(SelectionKey.OP_READ);
+                session.endHandling(key, false);
                 this.server.onHandlerFinish();
                 return;
             }
@@ -95,7 +102,8 @@ public class ReaderRequestHandler implements Runnable {
         Function<ReaderRequestHandler, Boolean> fn = mapDispatcher.getOrDefault(incomingMessage.getType(),
                                                                         ReaderRequestHandler::handleUnknown);
 
-        // process the request
+        // process the request, the texts of the posts read meanwhile cannot be reused by other posts
+        int arenaReader = TextArena.enterRead();
         try {
             if(!fn.apply(this)) {
                 System.out.println("Connection closed!");
@@ -108,15 +116,22 @@ public class ReaderRequestHandler implements Runnable {
                 onClientDisconnected();
                 return;
             }
+        } catch(MutationNotDurableException e) {
+            // the mutation is applied in memory but it is not acknowledged
+            WinsomeHelper.printfDebug("Incoming %s but %s", incomingMessage.getType(), e.getMessage());
+            if(!sendInternalErrorMessage(incomingMessage.getType())) {
+                System.out.println("Connection closed!");
+                onClientDisconnected();
+                return;
+            }
+        } finally {
+            TextArena.exitRead(arenaReader);
         }
 
-        // we subscribe this key to OP_READ if the message was fully written o/w OP_WRITE
+        // we subscribe this key to OP_READ if the message was fully written and nothing was pushed o/w OP_WRITE
         // we also set this incomingMessage to unused so we can reuse it later
         incomingMessage.setUnused(true);
-        if(didFinishWrite)
-            this.key.interestOps(SelectionKey.OP_READ);
-        else
-            this.key.interestOps(SelectionKey.OP_WRITE);
+        session.endHandling(key, !didFinishWrite);
         // notify the connection handler that this thread finished
         this.server.onHandlerFinish();
     }
@@ -205,7 +220,7 @@ public class ReaderRequestHandler implements Runnable {
             response.writeInt(NetResponseType.ClientNotLoggedIn.getId());
             WinsomeHelper.printfDebug("Incoming follow to %s but client isn't logged in!", toFollow);
         } else {
-            NetResponseType res = userService.addFollow(user.getUsername(), toFollow);
+            NetResponseType res = shards.call(user.getUsername(), () -> userService.addFollow(user.getUsername(), toFollow));
             response.writeInt(res.getId());
 
             if(res == NetResponseType.UserSelfFollow) {
@@ -236,7 +251,7 @@ public class ReaderRequestHandler implements Runnable {
             response.writeInt(NetResponseType.ClientNotLoggedIn.getId());
             WinsomeHelper.printfDebug("Incoming unfollow to %s but client isn't logged in!", toFollow);
         } else {
-            NetResponseType res = userService.removeFollow(user.getUsername(), toFollow);
+            NetResponseType res = shards.call(user.getUsername(), () -> userService.removeFollow(user.getUsername(), toFollow));
             response.writeInt(res.getId());
 
             if(res == NetResponseType.UserSelfFollow) {
@@ -294,12 +309,11 @@ public class ReaderRequestHandler implements Runnable {
             response.writeInt(NetResponseType.ClientNotLoggedIn.getId());
             WinsomeHelper.printlnDebug("Incoming show feed but client is not logged in!");
         } else {
-            Post post = userService.getPost(postId);
-            ShowPostDTO postDTO = new ShowPostDTO(post);
+            PostSnapshot post = userService.getPostSnapshot(postId);
             response = NetMessage.reuseWritableNetMessageOrCreate(response, incomingRequest.getType(),
-                    ShowPostDTO.netSize(postDTO) + 4);
+                    ShowPostDTO.netSize(post) + 4);
             response.writeInt(NetResponseType.Success.getId());
-            response.writeObject(postDTO, ShowPostDTO::netSerialize);
+            ShowPostDTO.netSerialize(response, post);
         }
 
         return sendMessage(readerRequestHandler, response);
@@ -321,13 +335,12 @@ public class ReaderRequestHandler implements Runnable {
             response.writeInt(NetResponseType.ClientNotLoggedIn.getId());
             WinsomeHelper.printlnDebug("Incoming show feed but client is not logged in!");
         } else {
-            List<Post> userFeed = userService.getFeedByUsername(loggedUser.getUsername(), pageIndex);
-            ShowFeedDTO feedDTO = new ShowFeedDTO(0);
-            feedDTO.postList = userFeed;
+            PostSnapshot[] userFeed = new PostSnapshot[ServerLogic.POST_PAGE_SIZE];
+            int count = Math.max(0, userService.getFeedSnapshots(loggedUser.getUsername(), pageIndex, userFeed));
             response = NetMessage.reuseWritableNetMessageOrCreate(response, incomingRequest.getType(),
-                    ShowFeedDTO.netSize(feedDTO) + 4);
+                    ShowFeedDTO.netSize(userFeed, count) + 4);
             response.writeInt(NetResponseType.Success.getId());
-            response.writeObject(feedDTO, ShowFeedDTO::netSerialize);
+            ShowFeedDTO.netSerialize(response, userFeed, count);
         }
 
         return sendMessage(readerRequestHandler, response);
@@ -349,13 +362,12 @@ public class ReaderRequestHandler implements Runnable {
             response.writeInt(NetResponseType.ClientNotLoggedIn.getId());
             WinsomeHelper.printlnDebug("Incoming view blog but client is not logged in!");
         } else {
-            List<Post> userBlog = userService.getBlogByUsername(loggedUser.getUsername(), pageIndex);
-            ViewBlogDTO blogDTO = new ViewBlogDTO(0);
-            blogDTO.postList = userBlog;
+            PostSnapshot[] userBlog = new PostSnapshot[ServerLogic.POST_PAGE_SIZE];
+            int count = userService.getBlogSnapshots(loggedUser.getUsername(), pageIndex, userBlog);
             response = NetMessage.reuseWritableNetMessageOrCreate(response, incomingRequest.getType(),
-                    ViewBlogDTO.netSize(blogDTO) + 4);
+                    ViewBlogDTO.netSize(userBlog, count) + 4);
             response.writeInt(NetResponseType.Success.getId());
-            response.writeObject(blogDTO, ViewBlogDTO::netSerialize);
+            ViewBlogDTO.netSerialize(response, userBlog, count);
         }
 
         return sendMessage(readerRequestHandler, response);
@@ -378,7 +390,7 @@ public class ReaderRequestHandler implements Runnable {
             String title = incomingRequest.readString(Validator::validatePostTitle);
             String content = incomingRequest.readString(Validator::validatePostContent);
             Post newPost = new Post(-1, loggedUser.getUsername(), title, content);
-            NetResponseType result = userService.addPost(newPost);
+            NetResponseType result = shards.call(loggedUser.getUsername(), () -> userService.addPost(newPost));
 
             if(result != NetResponseType.Success) {
                 response = NetMessage.reuseWritableNetMessageOrCreate(response, incomingRequest.getType(), 4);
@@ -414,7 +426,7 @@ public class ReaderRequestHandler implements Runnable {
             response = NetMessage.reuseWritableNetMessageOrCreate(response, incomingRequest.getType(), 4);
 
             try {
-                if(userService.removePostIfOwner(postId, loggedUser.getUsername())) {
+                if(shards.call(loggedUser.getUsername(), () -> userService.removePostIfOwner(postId, loggedUser.getUsername()))) {
                     response.writeInt(NetResponseType.Success.getId());
                     WinsomeHelper.printfDebug("Incoming delete post from %s with id %d successful!", loggedUser.getUsername(), postId);
                 } else {
@@ -448,7 +460,7 @@ public class ReaderRequestHandler implements Runnable {
         } else {
             Post rewin = new Post(-1, loggedUser.getUsername(), null, null);
             rewin.setOriginalPost(new Post(postId));
-            NetResponseType result = userService.addPost(rewin);
+            NetResponseType result = shards.call(loggedUser.getUsername(), () -> userService.addPost(rewin));
             if(result == NetResponseType.OriginalPostNotExists) {
                 response = NetMessage.reuseWritableNetMessageOrCreate(response, incomingRequest.getType(), 4);
                 response.writeInt(NetResponseType.OriginalPostNotExists.getId());
@@ -492,7 +504,8 @@ public class ReaderRequestHandler implements Runnable {
             Comment comment = new Comment(-1, loggedUser.getUsername(), content);
             comment.setPostId(postId);
 
-            NetResponseType result = userService.addComment(comment);
+            NetResponseType result = shards.callOnPostAuthor(postId, loggedUser.getUsername(),
+                    () -> userService.addComment(comment));
             if(result == NetResponseType.Success) {
                 response = NetMessage.reuseWritableNetMessageOrCreate(response, incomingRequest.getType(), 8);
                 response.writeInt(result.getId());
@@ -535,7 +548,8 @@ public class ReaderRequestHandler implements Runnable {
             response.writeInt(NetResponseType.ClientNotLoggedIn.getId());
             WinsomeHelper.printfDebug("Incoming rate %s but client is not logged in!", entityType);
         } else {
-            NetResponseType result = userService.addVote(postId, entityType, type, loggedUser.getUsername());
+            NetResponseType result = shards.callOnVotedAuthor(postId, entityType, loggedUser.getUsername(),
+                    () -> userService.addVote(postId, entityType, type, loggedUser.getUsername()));
             response.writeInt(result.getId());
 
             if(result == NetResponseType.Success) {
@@ -571,6 +585,10 @@ public class ReaderRequestHandler implements Runnable {
         NetMessage incomingRequest = readerRequestHandler.session.getReadableMessage();
         NetMessage response = readerRequestHandler.session.getWritableMessage();
         CurrencyType currencyType = CurrencyType.fromId(incomingRequest.readInt(Validator::validateCurrencyType));
+        int pageIndex = incomingRequest.readInt(Validator::validatePage);
+        long fromTime = incomingRequest.readLong(Validator::validateTime);
+        long toTime = incomingRequest.readLong(Validator::validateTime);
+        boolean daily = incomingRequest.readInt() != 0;
 
         User user;
         if((user = readerRequestHandler.hasAuthorizedUser()) == null) {
@@ -579,14 +597,15 @@ public class ReaderRequestHandler implements Runnable {
             WinsomeHelper.printfDebug("Incoming wallet but client isn't logged in!");
         } else {
             try {
-                Wallet wallet = userService.getWallet(user.getUsername(), currencyType);
-                GetWalletDTO dto = new GetWalletDTO(wallet);
+                double rate = userService.getExchangeRate(currencyType);
+                WalletPage page = userService.getWalletPage(user.getUsername(), pageIndex, fromTime, toTime, daily);
+                GetWalletDTO dto = new GetWalletDTO(page, rate);
                 response = NetMessage.reuseWritableNetMessageOrCreate(response, incomingRequest.getType(),
                         4 + GetWalletDTO.netSize(dto));
                 response.writeInt(NetResponseType.Success.getId());
                 response.writeObject(dto, GetWalletDTO::netSerialize);
-                WinsomeHelper.printfDebug("Incoming wallet %s from %s but internal error occurred!",
-                        currencyType, user.getUsername());
+                WinsomeHelper.printfDebug("Incoming wallet %s from %s page %d with %d rows!",
+                        currencyType, user.getUsername(), pageIndex, page.getRowCount());
             } catch (IOException e) {
                 response = NetMessage.reuseWritableNetMessageOrCreate(response, incomingRequest.getType(), 4);
                 response.writeInt(NetResponseType.InternalError.getId());
@@ -699,4 +718,18 @@ public class ReaderRequestHandler implements Runnable {
             return false;
         }
     }
+
+    private boolean sendInternalErrorMessage(NetMessageType type) {
+        try {
+            NetMessage response = session.getWritableMessage();
+            response = NetMessage.reuseWritableNetMessageOrCreate(response, type, 4)
+                    .writeInt(NetResponseType.InternalError.getId());
+            session.setWritableMessage(response);
+
+            didFinishWrite = response.sendMessage(writableByteChannel);
+            return true;
+        } catch (SocketDisconnectedException e) {
+            return false;
+        }
+    }
 }
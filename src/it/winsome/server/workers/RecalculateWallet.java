@@ -2,131 +2,221 @@ package it.winsome.server.workers;
 
 import it.winsome.common.SynchronizedObject;
 import it.winsome.common.WinsomeHelper;
+import it.winsome.common.collection.IntDoubleHashMap;
+import it.winsome.common.dto.WalletDeltaDTO;
+import it.winsome.common.collection.IntHashSet;
 import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.PackedVote;
 import it.winsome.common.entity.Post;
 import it.winsome.common.entity.User;
-import it.winsome.common.entity.Vote;
+import it.winsome.common.entity.Wallet;
 import it.winsome.common.entity.enums.VoteType;
 import it.winsome.common.network.NetMessage;
 import it.winsome.common.network.enums.NetMessageType;
 import it.winsome.server.ServerLogic;
 import it.winsome.server.ServerMain;
+import it.winsome.server.snapshot.ParallelLoader;
 
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 /**
- * Its task is to recalculate the new rewards of each post and notifying every client in multicast
+ * Its task is to recalculate the new rewards of each post and pushing the wallet delta to each rewarded user
+ * logged in, every client can also be notified in multicast
  */
 public class RecalculateWallet implements Runnable {
+    // posts rewarded by a single task, the smaller ranges are not split
+    private static final int POSTS_PER_TASK = 256;
+
     private final ServerLogic serverLogic;
     private final DatagramSocket multicastSocket;
     private final InetAddress multicastAddress;
     private final int multicastPort;
+    private final boolean multicastEnabled;
     private NetMessage writableMessage;
     private final double percentageAuthor;
+    // some wallet changed since the last multicast
+    private final AtomicBoolean walletsChanged;
+
+    public RecalculateWallet(String multicastIp, int multicastPort, boolean multicastEnabled, double percentageAuthor)
+            throws SocketException, UnknownHostException {
+        this(ServerMain.getServerLogic(), multicastIp, multicastPort, multicastEnabled, percentageAuthor);
+    }
 
-    public RecalculateWallet(String multicastIp, int multicastPort, double percentageAuthor) throws SocketException, UnknownHostException {
-        serverLogic = ServerMain.getServerLogic();
+    public RecalculateWallet(ServerLogic serverLogic, String multicastIp, int multicastPort, boolean multicastEnabled,
+                             double percentageAuthor) throws SocketException, UnknownHostException {
+        this.serverLogic = serverLogic;
         multicastSocket = new DatagramSocket();
         multicastAddress = InetAddress.getByName(multicastIp);
         this.multicastPort = multicastPort;
+        this.multicastEnabled = multicastEnabled;
         this.percentageAuthor = percentageAuthor;
+        walletsChanged = new AtomicBoolean();
     }
 
+    /**
+     * Reward the posts of every bucket
+     */
     @Override
     public void run() {
+        reward(serverLogic::takePostsToReward, true);
+    }
+
+    /**
+     * Reward the posts of a single bucket, the users rewarded are pushed their wallet once it completes.
+     * The multicast is sent only at the end of a turn of the wheel, if any wallet changed during the turn
+     * @param bucket bucket index
+     * @param endOfTurn true for the last bucket of a turn
+     */
+    public void rewardBucket(int bucket, boolean endOfTurn) {
+        reward(() -> serverLogic.takePostsToReward(bucket), endOfTurn);
+    }
+
+    private void reward(Supplier<List<Post>> postsToReward, boolean notifyAll) {
         long start = System.currentTimeMillis();
-        HashMap<String, List<Double>> rewards = new HashMap<>();
-        // calculate rewards
-        Collection<Post> posts = serverLogic.getPostsResource();
-        for(Post post : posts) {
-            calculateIterationAmount(post, rewards);
-        }
-        serverLogic.unlockPosts();
-
-        //update users wallet
-        boolean didUpdate = rewards.size() > 0;
-        if(didUpdate) {
-            Map<String, User> users = serverLogic.getUsersResource();
-            for(Map.Entry<String, List<Double>> entry : rewards.entrySet()) {
-                User user = users.get(entry.getKey());
-                if(user == null) continue;
-
-                user.prepareRead();
-                for(Double transactionValue : entry.getValue()) {
-                    SynchronizedObject.prepareInWriteMode(user.getWallet());
-                    user.getWallet().addTransaction(transactionValue);
-                    user.getWallet().releaseWrite();
-                }
-                user.releaseRead();
-            }
-            serverLogic.unlockUsers();
+        Map<String, WalletDeltaDTO> deltas;
+        int rewardedPosts;
+        // a checkpoint sees the posts and the wallets all before or all after this calculation
+        serverLogic.beginRewards();
+        try {
+            List<Post> posts = postsToReward.get();
+            rewardedPosts = posts.size();
+            deltas = updateWallets(calculateRewards(posts));
+        } finally {
+            serverLogic.endRewards();
         }
 
         // recalculate
         long elapsed = System.currentTimeMillis() - start;
-        WinsomeHelper.printfDebug("Recalculated wallets %dms!", elapsed);
-        if(!didUpdate) return;
+        if(rewardedPosts > 0) {
+            WinsomeHelper.printfDebug("Recalculated wallets of %d posts %dms!", rewardedPosts, elapsed);
+        }
+        if(!deltas.isEmpty()) {
+            // pushed once the wallets are visible to the checkpoints and to the wallet requests
+            int pushed = 0;
+            for(Map.Entry<String, WalletDeltaDTO> delta : deltas.entrySet()) {
+                if(serverLogic.pushWalletDelta(delta.getKey(), delta.getValue())) pushed++;
+            }
+            WinsomeHelper.printfDebug("Pushed wallet update to %d of %d users!", pushed, deltas.size());
+            walletsChanged.set(true);
+        }
+
+        if(!multicastEnabled || !notifyAll || !walletsChanged.getAndSet(false)) return;
         WinsomeHelper.printlnDebug("Sending wallet update!");
         writableMessage = NetMessage.reuseWritableNetMessageOrCreate(writableMessage, NetMessageType.NotifyWallet, 0);
         sendMulticastMessage();
     }
 
     /**
-     * Calculate the next iteration for this post if anything changed, the rewards is added into a map passed in input
+     * Calculate the rewards of the posts in parallel ranges on the common pool. Each task sums the rewards
+     * into its own map by user id, the maps are merged once at the end
+     * @param posts posts to be rewarded
+     * @return total reward of each user id
+     */
+    private IntDoubleHashMap calculateRewards(List<Post> posts) {
+        Queue<IntDoubleHashMap> taskRewards = new ConcurrentLinkedQueue<>();
+        ParallelLoader.forEachRange(posts.size(), POSTS_PER_TASK, (from, to) -> {
+            IntDoubleHashMap rewards = new IntDoubleHashMap();
+            for(int i = from; i < to; i++) {
+                calculateIterationAmount(posts.get(i), rewards);
+            }
+            taskRewards.add(rewards);
+        });
+
+        IntDoubleHashMap total = new IntDoubleHashMap();
+        for(IntDoubleHashMap rewards : taskRewards) {
+            total.addAll(rewards);
+        }
+        return total;
+    }
+
+    /**
+     * Add the rewards to the wallets of the users, a single transaction for each user
+     * @param rewards total reward by user id
+     * @return the delta of each wallet changed by username
+     */
+    private Map<String, WalletDeltaDTO> updateWallets(IntDoubleHashMap rewards) {
+        Map<String, WalletDeltaDTO> deltas = new HashMap<>();
+        rewards.forEach((userId, amount) -> {
+            User user = serverLogic.getRealUserById(userId);
+            if(user == null || amount == 0) return;
+
+            user.prepareRead();
+            Wallet wallet = user.getWallet();
+            SynchronizedObject.prepareInWriteMode(wallet);
+            wallet.addTransaction(amount);
+            double balance = wallet.getAmount();
+            wallet.releaseWrite();
+            deltas.put(user.getUsername(), new WalletDeltaDTO(balance, amount));
+            user.releaseRead();
+            serverLogic.markDirty(user);
+        });
+        return deltas;
+    }
+
+    /**
+     * Calculate the next iteration for this post if anything changed, the rewards are added to the ones of the
+     * calling task
      * @param post post to recalculate
-     * @param interactingUsers map of rewards
+     * @param rewards rewards by user id of the calling task
      */
-    private void calculateIterationAmount(Post post, Map<String, List<Double>> interactingUsers) {
+    private void calculateIterationAmount(Post post, IntDoubleHashMap rewards) {
         SynchronizedObject.prepareInWriteMode(post);
         int it = post.getCurrentIteration() + 1;
 
-        Set<String> contributors = new HashSet<>();
+        // user ids
+        IntHashSet contributors = new IntHashSet();
 
         double commentsScore = 0;
         Map<String, Integer> commentsCount = new HashMap<>();
+        // the comments are guarded by the post write lock
         for(Comment comment : post.getComments()) {
-            comment.prepareRead();
-            if(commentsCount.containsKey(comment.getOwner())) {
-                commentsCount.replace(comment.getOwner(), commentsCount.get(comment.getOwner()) + 1);
-            } else {
-                commentsCount.put(comment.getOwner(), 1);
-            }
-            comment.releaseRead();
+            commentsCount.merge(comment.getOwner(), 1, Integer::sum);
         }
 
         for(Comment comment : post.getComments()) {
-            SynchronizedObject.prepareInWriteMode(comment);
             if(!comment.isNeedIteration()) {
-                comment.releaseWrite();
                 continue;
             }
 
             comment.setNeedIteration(false);
-            contributors.add(comment.getOwner());
+            serverLogic.markDirty(comment);
+            int ownerId = serverLogic.getUserIdByUsername(comment.getOwner());
+            if(ownerId >= 0) contributors.add(ownerId);
             commentsScore += (2/
                     (1 + Math.pow(
                             Math.E, -(commentsCount.get(comment.getOwner()) - 1)
             )));
-            comment.releaseWrite();
         }
 
         double votesScore = 0;
-        for(Vote vote : post.getVotes()) {
-            SynchronizedObject.prepareInWriteMode(vote);
-            if(!vote.isNeedIteration()) {
-                vote.releaseWrite();
-                continue;
+        // the votes after the cursor are the pending ones, appended without locking the post
+        int cursor = post.getRewardCursor();
+        int firstPending = cursor;
+        int voteCount = post.getVoteCount();
+        for(; cursor < voteCount; cursor++) {
+            int vote = post.getVote(cursor);
+            if(vote == 0) {
+                // still being appended, counted by the next iteration
+                break;
             }
-            vote.setNeedIteration(false);
-            votesScore += vote.getType() == VoteType.UP ? 1 : -1;
-            if(vote.getType() == VoteType.DOWN) {
-                contributors.remove(vote.getFrom());
+            int from = PackedVote.getVoterId(vote);
+            if(serverLogic.getRealUserById(from) == null) continue;
+
+            votesScore += PackedVote.getType(vote) == VoteType.UP ? 1 : -1;
+            if(PackedVote.getType(vote) == VoteType.DOWN) {
+                contributors.remove(from);
             } else {
-                contributors.add(vote.getFrom());
+                contributors.add(from);
             }
-            vote.releaseWrite();
+        }
+        post.setRewardCursor(cursor);
+        if(cursor != firstPending) {
+            // the rewarded votes are persisted with their iteration flag cleared
+            serverLogic.markDirty(post);
         }
         votesScore = Math.max(votesScore, 0);
 
@@ -137,22 +227,14 @@ public class RecalculateWallet implements Runnable {
         }
         double authorAmount = total * percentageAuthor / 100;
         double othersAmount = (total - authorAmount) / (double)contributors.size();
-        if(interactingUsers.containsKey(post.getUsername())) {
-            interactingUsers.get(post.getUsername()).add(authorAmount);
-        } else {
-            interactingUsers.put(post.getUsername(), new ArrayList<Double>() {{ add(authorAmount); }});
-        }
+        int authorId = serverLogic.getUserIdByUsername(post.getUsername());
+        if(authorId >= 0) rewards.add(authorId, authorAmount);
 
         post.setCurrentIteration(it);
         post.releaseWrite();
+        serverLogic.markDirty(post);
 
-        for(String contributor : contributors) {
-            if(interactingUsers.containsKey(contributor)) {
-                interactingUsers.get(contributor).add(othersAmount);
-            } else {
-                interactingUsers.put(contributor, new ArrayList<Double>() {{ add(othersAmount); }});
-            }
-        }
+        contributors.forEach(contributor -> rewards.add(contributor, othersAmount));
     }
 
     /**
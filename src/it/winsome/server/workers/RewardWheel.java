@@ -0,0 +1,38 @@
+package it.winsome.server.workers;
+
+/**
+ * Hashed wheel of the rewards, the posts are split in buckets by id and each tick rewards the next bucket.
+ * A turn of the wheel takes the whole calculator period, then the work of a period is spread over it instead of
+ * running in a single burst. A post is always in the same bucket, so it is still rewarded once per period at most.
+ * The multicast notification is sent at the end of each turn, as often as without the wheel
+ */
+public class RewardWheel implements Runnable {
+    private final RecalculateWallet walletCalculator;
+    private final int buckets;
+    // only the scheduler thread moves it
+    private int cursor;
+
+    public RewardWheel(RecalculateWallet walletCalculator, int buckets) {
+        if(buckets < 1) throw new IllegalArgumentException("Buckets must be at least 1");
+        this.walletCalculator = walletCalculator;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Get the time between two ticks
+     * @param periodSeconds time of a whole turn
+     * @param buckets amount of buckets
+     * @return the time of a tick in millis, at least 1
+     */
+    public static long getTickMillis(long periodSeconds, int buckets) {
+        return Math.max(1, periodSeconds * 1000 / Math.max(1, buckets));
+    }
+
+    @Override
+    public void run() {
+        int bucket = cursor;
+        cursor = (cursor + 1) % buckets;
+        // the clients are notified in multicast once per turn
+        walletCalculator.rewardBucket(bucket, cursor == 0);
+    }
+}
@@ -1,6 +1,9 @@
 package it.winsome.server.workers;
 
 import it.winsome.common.WinsomeHelper;
+import it.winsome.common.dto.WalletDeltaDTO;
+import it.winsome.common.network.NetMessage;
+import it.winsome.common.network.enums.NetMessageType;
 import it.winsome.common.exception.SocketDisconnectedException;
 import it.winsome.server.ServerLogic;
 import it.winsome.server.session.ConnectionSession;
@@ -13,7 +16,8 @@ import java.nio.channels.WritableByteChannel;
 
 /**
  * Its task is to write the pending message to a client, usually because of NIO nature, the message might be written
- * partially, we add it on a pending queue and keep trying from where we started
+ * partially, we add it on a pending queue and keep trying from where we started.
+ * The wallet deltas pushed to the session are written after it
  */
 public class WriterRequestHandler implements Runnable {
     private static ServerLogic serverLogic;
@@ -30,7 +34,7 @@ public class WriterRequestHandler implements Runnable {
         this.key = key;
         writableByteChannel = (WritableByteChannel) key.channel();
         session = (ConnectionSession) key.attachment();
-        this.key.interestOps(0);
+        session.beginHandling(key);
     }
 
     @Override
@@ -43,18 +47,25 @@ public class WriterRequestHandler implements Runnable {
 
         boolean didFinishWrite;
         try {
-            didFinishWrite = session.getWritableMessage().sendMessage(writableByteChannel);
+            // finish the pending response first, then the wallet delta pushed meanwhile
+            didFinishWrite = !session.isWritePending()
+                    || session.getWritableMessage().sendMessage(writableByteChannel);
+            NetMessage message;
+            WalletDeltaDTO delta;
+            while(didFinishWrite && (delta = session.takeWalletDelta()) != null) {
+                message = NetMessage.reuseWritableNetMessageOrCreate(session.getWritableMessage(),
+                        NetMessageType.WalletDelta, WalletDeltaDTO.netSize(delta));
+                WalletDeltaDTO.netSerialize(message, delta);
+                session.setWritableMessage(message);
+                didFinishWrite = message.sendMessage(writableByteChannel);
+            }
         } catch (SocketDisconnectedException e) {
             onClientDisconnected();
             WinsomeHelper.printlnDebug("Cannot write back to client, disconnecting it from the server!");
             return;
         }
 
-        if(didFinishWrite) {
-            key.interestOps(SelectionKey.OP_READ);
-        } else {
-            key.interestOps(SelectionKey.OP_WRITE);
-        }
+        session.endHandling(key, !didFinishWrite);
         server.onHandlerFinish();
     }
 
@@ -0,0 +1,111 @@
+package it.winsome.test;
+
+import it.winsome.server.rate.CachedRateProvider;
+import it.winsome.server.rate.ExchangeRateProvider;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of the cached exchange rate, with a local source instead of the network
+ */
+class ExchangeRateTests {
+    @Test
+    void returnTheStaleRateWhileRefreshing() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        CachedRateProvider provider = new CachedRateProvider(source(() -> {
+            int call = calls.incrementAndGet();
+            // every refresh after the first one waits for the test
+            if(call > 1) {
+                started.countDown();
+                release.await();
+            }
+            return call;
+        }), 0, 60_000, 1000);
+
+        // no rate yet, the first one is awaited
+        Assertions.assertEquals(1.0, provider.getRate());
+        long start = System.nanoTime();
+        Assertions.assertEquals(1.0, provider.getRate());
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1.0, provider.getRate());
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        // a single refresh runs at a time
+        Assertions.assertEquals(2, calls.get());
+
+        release.countDown();
+        Assertions.assertEquals(2.0, awaitRate(provider, 2.0));
+        provider.close();
+    }
+
+    @Test
+    void keepTheRateWhenTheRefreshFails() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CachedRateProvider provider = new CachedRateProvider(source(() -> {
+            if(calls.incrementAndGet() > 1) throw new IOException("unreachable");
+            return 0.5;
+        }), 0, 60_000, 1000);
+
+        Assertions.assertEquals(0.5, provider.getRate());
+        for(int i = 0; i < 10; i++) {
+            Assertions.assertEquals(0.5, provider.getRate());
+        }
+        provider.close();
+    }
+
+    @Test
+    void failWhenNoRateArrivesInTime() {
+        CountDownLatch release = new CountDownLatch(1);
+        CachedRateProvider provider = new CachedRateProvider(source(() -> {
+            release.await();
+            return 1;
+        }), 60_000, 60_000, 100);
+
+        boolean failed = false;
+        try {
+            provider.getRate();
+        } catch (IOException e) {
+            failed = true;
+        }
+        Assertions.assertTrue(failed);
+        release.countDown();
+        provider.close();
+    }
+
+    private static double awaitRate(ExchangeRateProvider provider, double expected) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        double rate = provider.getRate();
+        while(rate != expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            rate = provider.getRate();
+        }
+        return rate;
+    }
+
+    private static ExchangeRateProvider source(RateSupplier supplier) {
+        return new ExchangeRateProvider() {
+            @Override
+            public String getName() {
+                return "test";
+            }
+
+            @Override
+            public double getRate() throws IOException {
+                try {
+                    return supplier.get();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+    }
+
+    private interface RateSupplier {
+        double get() throws IOException, InterruptedException;
+    }
+}
@@ -0,0 +1,81 @@
+package it.winsome.test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+import it.winsome.common.entity.enums.VoteType;
+import it.winsome.common.json.EntityGson;
+import it.winsome.server.snapshot.DeltaStore;
+
+/**
+ * Compare the save and load throughput of a delta between the reflective serialization and the streaming
+ * entity adapters, both on the same entities. Each phase is repeated to warm up the JIT and the fastest round
+ * is reported, a garbage collection is forced before each round.
+ * Usage: JsonAdapterBenchmark [posts], default 100000, with two comments per post and a user every ten posts
+ */
+public class JsonAdapterBenchmark {
+    private static final int ROUNDS = 10;
+    private static final int VOTES_PER_POST = 8;
+
+    public static void main(String[] args) {
+        int posts = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        DeltaStore.Delta delta = createDelta(posts);
+        int entities = delta.users.size() + delta.posts.size() + delta.comments.size();
+
+        run("reflective", new GsonBuilder().create(), delta, entities);
+        run("streaming", EntityGson.get(), delta, entities);
+    }
+
+    private static void run(String name, Gson gson, DeltaStore.Delta delta, int entities) {
+        String json = null;
+        long saveNanos = Long.MAX_VALUE;
+        long loadNanos = Long.MAX_VALUE;
+        for(int i = 0; i < ROUNDS; i++) {
+            System.gc();
+            long start = System.nanoTime();
+            json = gson.toJson(delta);
+            saveNanos = Math.min(saveNanos, System.nanoTime() - start);
+
+            System.gc();
+            start = System.nanoTime();
+            DeltaStore.Delta loaded = gson.fromJson(json, DeltaStore.Delta.class);
+            loadNanos = Math.min(loadNanos, System.nanoTime() - start);
+            if(loaded.posts.size() != delta.posts.size()) throw new IllegalStateException("Lost posts!");
+        }
+        System.out.printf("%-10s %8.1f MB  save %8.0f entities/s %7.1f MB/s  load %8.0f entities/s %7.1f MB/s%n",
+                name, json.length() / (1024.0 * 1024.0),
+                entities / (saveNanos / 1e9), json.length() / (1024.0 * 1024.0) / (saveNanos / 1e9),
+                entities / (loadNanos / 1e9), json.length() / (1024.0 * 1024.0) / (loadNanos / 1e9));
+    }
+
+    private static DeltaStore.Delta createDelta(int posts) {
+        DeltaStore.Delta delta = new DeltaStore.Delta();
+        int commentId = 0;
+        for(int i = 0; i < posts; i++) {
+            if(i % 10 == 0) {
+                User user = new User("user" + i, "password", new String[] { "benchmark", "tag" + (i % 7) });
+                user.setId(i / 10 + 1);
+                user.addUserFollowed("user" + (i + 10));
+                user.getWallet().addTransaction(1.5);
+                delta.users.add(user);
+            }
+
+            Post post = new Post(i, "user" + (i - i % 10), "title " + i, "content of the post number " + i);
+            if(i > 0 && i % 5 == 0) post.setOriginalPost(new Post(i - 1));
+            for(int j = 0; j < VOTES_PER_POST; j++) {
+                post.addVote(j + 1, j % 3 == 0 ? VoteType.DOWN : VoteType.UP);
+            }
+            delta.posts.add(post.persistentCopy());
+
+            for(int j = 0; j < 2; j++) {
+                Comment comment = new Comment(commentId++, "user" + j, "comment " + j + " of " + i);
+                comment.setPostId(i);
+                comment.addVote(j + 1, VoteType.UP);
+                delta.comments.add(comment);
+            }
+        }
+        return delta;
+    }
+}
@@ -0,0 +1,100 @@
+package it.winsome.test;
+
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.enums.VoteType;
+import it.winsome.common.exception.DeadlockPreventionException;
+import it.winsome.common.memory.TextArena;
+
+import java.util.Arrays;
+
+/**
+ * Measure the heap retained by posts, comments and votes as the server keeps them.
+ * Each phase creates its entities, forces some garbage collections and reports the difference
+ * of used memory divided by the number of entities created.
+ * The texts are moved to the text arena outside the heap as the server does, unless "heap" is given.
+ * Usage: MemoryFootprintBenchmark [comments and votes] [heap], default 1000000, posts are a quarter of them
+ */
+public class MemoryFootprintBenchmark {
+    private static final int TITLE_LENGTH = 20;
+    private static final int CONTENT_LENGTH = 150;
+    private static final int COMMENTS_PER_POST = 4;
+    private static final int VOTES_PER_POST = 8;
+
+    public static void main(String[] args) throws DeadlockPreventionException {
+        int entities = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        if(args.length < 2 || !args[1].equals("heap")) {
+            TextArena.enable();
+        }
+        int postCount = entities / COMMENTS_PER_POST;
+        String title = repeat('t', TITLE_LENGTH);
+        String content = repeat('c', CONTENT_LENGTH);
+
+        long before = usedMemory();
+        Post[] posts = new Post[postCount];
+        for(int i = 0; i < postCount; i++) {
+            // every post gets its own strings, as when they are read from disk or network
+            posts[i] = new Post(i, "user" + (i % 1000), new String(title.toCharArray()), new String(content.toCharArray()));
+            posts[i].setCreationTime(System.currentTimeMillis());
+            posts[i].enableSynchronization(true);
+        }
+        long afterPosts = usedMemory();
+        report("post", afterPosts - before, postCount);
+
+        int commentCount = 0;
+        for(int i = 0; i < postCount; i++) {
+            Post post = posts[i];
+            post.prepareWrite();
+            for(int j = 0; j < COMMENTS_PER_POST; j++) {
+                Comment comment = new Comment(commentCount++, "user" + (j % 1000), new String(content.toCharArray()));
+                comment.setPostId(i);
+                comment.setCreationTime(System.currentTimeMillis());
+                post.addComment(comment);
+                comment.enableSynchronization(true);
+            }
+            post.releaseWrite();
+        }
+        long afterComments = usedMemory();
+        report("comment", afterComments - afterPosts, commentCount);
+
+        int voteCount = 0;
+        for(int i = 0; i < postCount && voteCount < entities; i++) {
+            Post post = posts[i];
+            for(int j = 0; j < VOTES_PER_POST && voteCount < entities; j++) {
+                post.addVote(j + 1, j % 3 == 0 ? VoteType.DOWN : VoteType.UP);
+                voteCount++;
+            }
+        }
+        long afterVotes = usedMemory();
+        report("vote", afterVotes - afterComments, voteCount);
+
+        System.out.printf("total %.1f MB, %d posts retained%n",
+                (afterVotes - before) / (1024.0 * 1024.0), posts.length);
+        if(TextArena.get() != null) {
+            System.out.printf("texts outside the heap %.1f MB%n", TextArena.get().getReservedBytes() / (1024.0 * 1024.0));
+        }
+    }
+
+    private static void report(String entity, long bytes, int count) {
+        System.out.printf("%-8s %9d entities %8.1f bytes each%n", entity, count, count == 0 ? 0.0 : (double) bytes / count);
+    }
+
+    private static String repeat(char c, int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
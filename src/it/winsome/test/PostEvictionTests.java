@@ -0,0 +1,205 @@
+package it.winsome.test;
+
+import it.winsome.common.SynchronizedObject;
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.PostSnapshot;
+import it.winsome.common.entity.enums.VotableType;
+import it.winsome.common.entity.enums.VoteType;
+import it.winsome.common.network.enums.NetResponseType;
+import it.winsome.server.ServerLogic;
+import it.winsome.server.cache.PostCacheStats;
+import it.winsome.server.config.ServerConfiguration;
+import org.junit.jupiter.api.*;
+
+import java.nio.file.Files;
+
+/**
+ * Tests of the posts moved out of memory and read back on their next access
+ */
+class PostEvictionTests {
+    private static final int POSTS = 40;
+    private static final int RESIDENT_POSTS = 10;
+
+    @Test
+    void evictThePostsOverTheLimit() throws Exception {
+        String folder = createFolder();
+        ServerLogic logic = createLogic(folder, RESIDENT_POSTS);
+        int firstId = fillPosts(logic);
+        rewardPosts(logic);
+        Assertions.assertEquals(true, logic.saveDelta());
+
+        Assertions.assertEquals(POSTS - RESIDENT_POSTS, logic.evictColdPosts());
+        PostCacheStats stats = logic.getPostCacheStats();
+        Assertions.assertEquals(RESIDENT_POSTS, stats.getResidentPosts());
+        Assertions.assertEquals(POSTS - RESIDENT_POSTS, stats.getColdPosts());
+
+        // the oldest posts are the least recently used
+        PostSnapshot oldest = logic.getPostSnapshot(firstId);
+        Assertions.assertEquals("post 0", oldest.getTitle());
+        Assertions.assertEquals(1, oldest.getCommentCount());
+        Assertions.assertEquals(1, oldest.getTotalUpvotes());
+        Assertions.assertEquals(stats.getMisses() + 1, logic.getPostCacheStats().getMisses());
+        Assertions.assertNotNull(logic.getCommentSnapshot(oldest.getCommentSnapshot(0).getId()));
+        logic.close();
+    }
+
+    @Test
+    void keepTheChangesOfEvictedPosts() throws Exception {
+        String folder = createFolder();
+        ServerLogic logic = createLogic(folder, RESIDENT_POSTS);
+        int firstId = fillPosts(logic);
+        rewardPosts(logic);
+        Assertions.assertEquals(true, logic.saveDelta());
+        logic.evictColdPosts();
+
+        Assertions.assertEquals(NetResponseType.UserAlreadyVoted,
+                logic.addVote(firstId, VotableType.Post, VoteType.UP, "bob"));
+        Assertions.assertEquals(NetResponseType.Success, logic.addComment(createComment(firstId + 1)));
+        rewardPosts(logic);
+        Assertions.assertEquals(true, logic.saveDelta());
+        // the two posts read back are over the limit again
+        Assertions.assertEquals(2, logic.evictColdPosts());
+        Assertions.assertEquals(NetResponseType.Success,
+                logic.addVote(firstId + 1, VotableType.Post, VoteType.DOWN, "carol"));
+        // the checkpoint writes the evicted posts too
+        Assertions.assertEquals(true, logic.saveToDisk());
+        logic.close();
+
+        logic = createLogic(folder, 0);
+        PostSnapshot post = logic.getPostSnapshot(firstId + 1);
+        Assertions.assertEquals(2, post.getCommentCount());
+        Assertions.assertEquals(-1, post.getTotalDownvotes());
+        for(int id = firstId; id < firstId + POSTS; id++) {
+            Assertions.assertNotNull(logic.getPostSnapshot(id));
+        }
+        logic.close();
+    }
+
+    @Test
+    void showFeedsAndBlogsOfEvictedPosts() throws Exception {
+        String folder = createFolder();
+        ServerLogic logic = createLogic(folder, RESIDENT_POSTS);
+        int firstId = fillPosts(logic);
+        rewardPosts(logic);
+        Assertions.assertEquals(true, logic.saveDelta());
+        Assertions.assertEquals(POSTS - RESIDENT_POSTS, logic.evictColdPosts());
+
+        PostSnapshot[] page = new PostSnapshot[ServerLogic.POST_PAGE_SIZE];
+        Assertions.assertEquals(ServerLogic.POST_PAGE_SIZE, logic.getFeedSnapshots("bob", 0, page));
+        Assertions.assertEquals(firstId + POSTS - 1, page[0].getId());
+        int lastPage = POSTS / ServerLogic.POST_PAGE_SIZE - 1;
+        Assertions.assertEquals(ServerLogic.POST_PAGE_SIZE, logic.getFeedSnapshots("bob", lastPage, page));
+        Assertions.assertEquals(firstId, page[ServerLogic.POST_PAGE_SIZE - 1].getId());
+        Assertions.assertEquals(0, logic.getFeedSnapshots("bob", lastPage + 1, page));
+        Assertions.assertEquals(ServerLogic.POST_PAGE_SIZE, logic.getBlogSnapshots("alice", lastPage, page));
+        Assertions.assertEquals(firstId, page[ServerLogic.POST_PAGE_SIZE - 1].getId());
+        logic.close();
+    }
+
+    @Test
+    void removeEvictedPostsWithTheirRewins() throws Exception {
+        String folder = createFolder();
+        ServerLogic logic = createLogic(folder, RESIDENT_POSTS);
+        int firstId = fillPosts(logic);
+        Post rewin = new Post(-1, "bob", null, null);
+        rewin.setOriginalPost(new Post(firstId));
+        Assertions.assertEquals(NetResponseType.Success, logic.addPost(rewin));
+        int rewinId = logic.getLatestPostId();
+        rewardPosts(logic);
+        Assertions.assertEquals(true, logic.saveDelta());
+
+        // the rewin is recent, then its original post stays in memory with it
+        logic.evictColdPosts();
+        Assertions.assertEquals(true, logic.removePost(firstId));
+        Assertions.assertNull(logic.getPostSnapshot(firstId));
+        Assertions.assertNull(logic.getPostSnapshot(rewinId));
+        Assertions.assertEquals(true, logic.removePost(firstId + 1));
+        Assertions.assertNull(logic.getPostSnapshot(firstId + 1));
+        Assertions.assertEquals(true, logic.saveToDisk());
+        logic.close();
+
+        logic = createLogic(folder, 0);
+        Assertions.assertNull(logic.getPostSnapshot(firstId));
+        Assertions.assertNull(logic.getPostSnapshot(firstId + 1));
+        Assertions.assertNotNull(logic.getPostSnapshot(firstId + 2));
+        logic.close();
+    }
+
+    /**
+     * Add the posts of alice, each one with a comment and an upvote of bob
+     * @param logic server logic
+     * @return id of the first post
+     */
+    private static int fillPosts(ServerLogic logic) {
+        int firstId = -1;
+        for(int i = 0; i < POSTS; i++) {
+            logic.addPost(new Post(-1, "alice", "post " + i, "content " + i));
+            int id = logic.getLatestPostId();
+            if(firstId < 0) firstId = id;
+            logic.addComment(createComment(id));
+            logic.addVote(id, VotableType.Post, VoteType.UP, "bob");
+        }
+        return firstId;
+    }
+
+    /**
+     * Mark the votes and the comments as rewarded like the wallet calculation, the posts with pending
+     * rewards are never evicted
+     * @param logic server logic
+     */
+    private static void rewardPosts(ServerLogic logic) {
+        logic.beginRewards();
+        try {
+            logic.forEachPostToReward(post -> {
+                SynchronizedObject.prepareInWriteMode(post);
+                for(Comment comment : post.getComments()) {
+                    comment.setNeedIteration(false);
+                    logic.markDirty(comment);
+                }
+                post.setRewardCursor(post.getVoteCount());
+                logic.markDirty(post);
+                post.releaseWrite();
+            });
+        } finally {
+            logic.endRewards();
+        }
+    }
+
+    private static Comment createComment(int postId) {
+        Comment comment = new Comment(-1, "bob", "comment of " + postId);
+        comment.setPostId(postId);
+        return comment;
+    }
+
+    private static String createFolder() throws Exception {
+        return Files.createTempDirectory("winsome-eviction").toString() + "/";
+    }
+
+    /**
+     * Create the server logic of the folder with alice followed by bob and carol
+     * @param folder data folder
+     * @param residentPosts posts kept in memory, 0 to keep all of them
+     * @return server logic
+     */
+    private static ServerLogic createLogic(String folder, int residentPosts) throws Exception {
+        ServerConfiguration configuration = new ServerConfiguration();
+        configuration.walEnabled = false;
+        configuration.maxResidentPosts = residentPosts;
+        configuration.evictionMinIdleSeconds = 0;
+        ServerLogic logic = new ServerLogic(folder, configuration);
+        if(logic.doUserExists("alice")) return logic;
+
+        logic.registerUser("alice", "password", new String[] { "cats" });
+        logic.registerUser("bob", "password", new String[] { "cats" });
+        logic.registerUser("carol", "password", new String[] { "cats" });
+        Assertions.assertEquals(true, logic.saveToDisk());
+        logic.close();
+
+        // reloaded to have the blogs of the registered users
+        logic = new ServerLogic(folder, configuration);
+        logic.addFollow("bob", "alice");
+        logic.addFollow("carol", "alice");
+        return logic;
+    }
+}
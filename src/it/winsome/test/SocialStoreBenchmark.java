@@ -0,0 +1,106 @@
+package it.winsome.test;
+
+import it.winsome.common.entity.Comment;
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.User;
+import it.winsome.common.entity.enums.VoteType;
+import it.winsome.server.store.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Compare the storage engines on the same entities: the writes followed by a flush, random reads of posts,
+ * a full scan of posts and comments, the reopening, the compaction and the size on disk.
+ * Usage: SocialStoreBenchmark [posts], default 50000, with two comments per post and a user every ten posts
+ */
+public class SocialStoreBenchmark {
+    private static final String[] ENGINES = { JsonSnapshotStore.NAME, WalSnapshotStore.NAME, LogStructuredStore.NAME };
+    private static final int VOTES_PER_POST = 8;
+    private static final int READS = 20_000;
+
+    public static void main(String[] args) throws IOException {
+        int posts = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        for(String engine : ENGINES) {
+            run(engine, posts);
+        }
+    }
+
+    private static void run(String engine, int posts) throws IOException {
+        String folder = Files.createTempDirectory("winsome-" + engine).toString() + "/";
+        int entities = posts / 10 + posts * 3;
+
+        long start = System.nanoTime();
+        try (SocialStore store = SocialStores.open(engine, folder)) {
+            fill(store, posts);
+            store.flush();
+        }
+        long writeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        SocialStore store = SocialStores.open(engine, folder);
+        long openNanos = System.nanoTime() - start;
+
+        Random random = new Random(42);
+        start = System.nanoTime();
+        for(int i = 0; i < READS; i++) {
+            if(store.getPost(random.nextInt(posts)) == null) throw new IllegalStateException("Lost posts!");
+        }
+        long readNanos = System.nanoTime() - start;
+
+        AtomicInteger scanned = new AtomicInteger();
+        start = System.nanoTime();
+        store.scanPosts(0, Integer.MAX_VALUE, post -> scanned.incrementAndGet());
+        store.scanComments(0, Integer.MAX_VALUE, comment -> scanned.incrementAndGet());
+        long scanNanos = System.nanoTime() - start;
+        if(scanned.get() != posts * 3) throw new IllegalStateException("Lost posts or comments!");
+
+        start = System.nanoTime();
+        store.compact();
+        long compactNanos = System.nanoTime() - start;
+        store.close();
+
+        System.out.printf("%-5s write %8.0f entities/s  open %7.1f ms  read %8.0f posts/s  scan %8.0f entities/s" +
+                        "  compact %7.1f ms  %7.1f MB%n",
+                engine, entities / (writeNanos / 1e9), openNanos / 1e6, READS / (readNanos / 1e9),
+                scanned.get() / (scanNanos / 1e9), compactNanos / 1e6, folderSize(folder) / (1024.0 * 1024.0));
+    }
+
+    private static void fill(SocialStore store, int posts) throws IOException {
+        int commentId = 0;
+        for(int i = 0; i < posts; i++) {
+            if(i % 10 == 0) {
+                User user = new User("user" + i, "password", new String[] { "benchmark", "tag" + (i % 7) });
+                user.setId(i / 10 + 1);
+                user.addUserFollowed("user" + (i + 10));
+                user.getWallet().addTransaction(1.5);
+                store.putUser(user);
+            }
+
+            Post post = new Post(i, "user" + (i - i % 10), "title " + i, "content of the post number " + i);
+            if(i > 0 && i % 5 == 0) post.setOriginalPost(new Post(i - 1));
+            for(int j = 0; j < VOTES_PER_POST; j++) {
+                post.addVote(j + 1, j % 3 == 0 ? VoteType.DOWN : VoteType.UP);
+            }
+            store.putPost(post.persistentCopy());
+
+            for(int j = 0; j < 2; j++) {
+                Comment comment = new Comment(commentId++, "user" + j, "comment " + j + " of " + i);
+                comment.setPostId(i);
+                comment.addVote(j + 1, VoteType.UP);
+                store.putComment(comment);
+            }
+        }
+    }
+
+    private static long folderSize(String folder) throws IOException {
+        try (Stream<Path> files = Files.walk(Paths.get(folder))) {
+            return files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package it.winsome.test;
+
+import it.winsome.common.entity.*;
+import it.winsome.common.entity.enums.VotableType;
+import it.winsome.common.entity.enums.VoteType;
+import it.winsome.common.network.enums.NetResponseType;
+import it.winsome.server.ServerLogic;
+import it.winsome.server.config.ServerConfiguration;
+import it.winsome.server.store.*;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Conformance tests shared by every storage engine, each test runs once for each engine on a new folder
+ */
+class SocialStoreTests {
+    private static final String[] ENGINES = { JsonSnapshotStore.NAME, WalSnapshotStore.NAME, LogStructuredStore.NAME };
+
+    @Test
+    void storeUsersWithTheirWallets() throws Exception {
+        forEachEngine((engine, folder) -> {
+            try (SocialStore store = SocialStores.open(engine, folder)) {
+                store.putUser(createUser(1, "alice"));
+                store.putUser(createUser(2, "bob"));
+                User alice = store.getUser("alice");
+                Assertions.assertEquals(1, alice.getId());
+                Assertions.assertEquals(true, alice.hasTag("cats"));
+                Assertions.assertEquals(true, alice.hasUserFollowed("bob"));
+                Assertions.assertEquals(1, alice.getWallet().getTransactions().size());
+                Assertions.assertNull(store.getUser("carol"));
+
+                Wallet wallet = new Wallet();
+                wallet.addTransaction(new Timestamp(1_000L), 7.5);
+                Assertions.assertEquals(true, store.putWallet("bob", wallet));
+                Assertions.assertEquals(false, store.putWallet("carol", wallet));
+                Assertions.assertEquals(7.5, store.getWallet("bob").getAmount());
+                Assertions.assertEquals(1_000L, store.getUser("bob").getWallet().getTransactions().iterator().next().time.getTime());
+
+                store.deleteUser("alice");
+                Assertions.assertNull(store.getUser("alice"));
+                Assertions.assertNull(store.getWallet("alice"));
+                List<String> usernames = new ArrayList<>();
+                store.scanUsers(user -> usernames.add(user.getUsername()));
+                Assertions.assertEquals(Arrays.asList("bob"), usernames);
+            }
+        });
+    }
+
+    @Test
+    void scanPostsByIdRange() throws Exception {
+        forEachEngine((engine, folder) -> {
+            try (SocialStore store = SocialStores.open(engine, folder)) {
+                for(int id = 9; id >= 0; id--) {
+                    store.putPost(createPost(id, "alice"));
+                }
+                store.putPost(createPost(4, "bob"));
+                store.deletePost(6);
+
+                Assertions.assertEquals("bob", store.getPost(4).getUsername());
+                Assertions.assertNull(store.getPost(6));
+                Assertions.assertEquals(Arrays.asList(3, 4, 5, 7), scanPostIds(store, 3, 8));
+                Assertions.assertEquals(Collections.emptyList(), scanPostIds(store, 8, 3));
+                Assertions.assertEquals(9, scanPostIds(store, 0, Integer.MAX_VALUE).size());
+            }
+        });
+    }
+
+    @Test
+    void keepRewinsAndVotes() throws Exception {
+        forEachEngine((engine, folder) -> {
+            try (SocialStore store = SocialStores.open(engine, folder)) {
+                Post post = createPost(1, "alice");
+                post.addVote(2, VoteType.UP);
+                post.addVote(3, VoteType.DOWN);
+                // the first vote has been rewarded
+                post.setRewardCursor(1);
+                store.putPost(post.persistentCopy());
+                Post rewin = createPost(2, "bob");
+                rewin.setOriginalPost(new Post(1));
+                store.putPost(rewin);
+
+                Post loaded = store.getPost(1);
+                Assertions.assertEquals(2, loaded.getVoteCount());
+                Assertions.assertEquals(1, loaded.getRewardCursor());
+                Assertions.assertEquals(1, loaded.getTotalUpvotes());
+                Assertions.assertEquals(false, loaded.isRewin());
+                Assertions.assertEquals(1, store.getPost(2).getOriginalPost().getId());
+            }
+        });
+    }
+
+    @Test
+    void commentsFollowTheirPost() throws Exception {
+        forEachEngine((engine, folder) -> {
+            try (SocialStore store = SocialStores.open(engine, folder)) {
+                store.putPost(createPost(1, "alice"));
+                store.putPost(createPost(2, "alice"));
+                store.putComment(createComment(10, 2, "bob"));
+                store.putComment(createComment(3, 1, "bob"));
+                store.putComment(createComment(5, 1, "carol"));
+                store.putComment(createComment(4, 2, "carol"));
+
+                Assertions.assertEquals("carol", store.getComment(5).getOwner());
+                Assertions.assertEquals(1, store.getComment(5).getPostId());
+                Assertions.assertEquals(Arrays.asList(3, 5, 4, 10), scanCommentIds(store, 0, Integer.MAX_VALUE));
+                Assertions.assertEquals(Arrays.asList(4, 10), scanCommentIds(store, 2, 3));
+
+                store.deleteComment(3);
+                Assertions.assertNull(store.getComment(3));
+                store.deletePost(2);
+                Assertions.assertNull(store.getComment(4));
+                Assertions.assertNull(store.getComment(10));
+                Assertions.assertEquals(Arrays.asList(5), scanCommentIds(store, 0, Integer.MAX_VALUE));
+
+                // a post written again after its deletion starts without comments
+                store.putPost(createPost(2, "alice"));
+                Assertions.assertEquals(Collections.emptyList(), scanCommentIds(store, 2, 3));
+            }
+        });
+    }
+
+    @Test
+    void keepTheFlushedWritesOnReopen() throws Exception {
+        forEachEngine((engine, folder) -> {
+            try (SocialStore store = SocialStores.open(engine, folder)) {
+                fillStore(store);
+                store.flush();
+            }
+            try (SocialStore store = SocialStores.open(engine, folder)) {
+                checkFilledStore(store);
+            }
+        });
+    }
+
+    @Test
+    void keepTheDataAfterCompaction() throws Exception {
+        forEachEngine((engine, folder) -> {
+            try (SocialStore store = SocialStores.open(engine, folder)) {
+                fillStore(store);
+                store.compact();
+                checkFilledStore(store);
+                // written over the compacted data
+                store.putComment(createComment(7, 1, "bob"));
+                store.deletePost(3);
+                store.flush();
+            }
+            try (SocialStore store = SocialStores.open(engine, folder)) {
+                Assertions.assertEquals(Arrays.asList(1, 2), scanPostIds(store, 0, Integer.MAX_VALUE));
+                Assertions.assertEquals(Arrays.asList(2, 7), scanCommentIds(store, 0, Integer.MAX_VALUE));
+                store.compact();
+                Assertions.assertEquals(Arrays.asList(2, 7), scanCommentIds(store, 0, Integer.MAX_VALUE));
+                Assertions.assertEquals("bob", store.getComment(7).getOwner());
+            }
+        });
+    }
+
+    @Test
+    void reloadTheServerFromEveryEngine() throws Exception {
+        forEachEngine((engine, folder) -> {
+            ServerConfiguration configuration = new ServerConfiguration();
+            configuration.storageEngine = engine;
+            configuration.walEnabled = false;
+
+            ServerLogic logic = new ServerLogic(folder, configuration);
+            logic.registerUser("alice", "password", new String[] { "cats" });
+            logic.registerUser("bob", "password", new String[] { "cats" });
+            Assertions.assertEquals(true, logic.saveToDisk());
+            logic.close();
+
+            // reloaded to have the blogs of the registered users
+            logic = new ServerLogic(folder, configuration);
+            logic.addFollow("bob", "alice");
+            logic.addPost(new Post(-1, "alice", "kept", "this post is kept"));
+            int keptId = logic.getLatestPostId();
+            logic.addPost(new Post(-1, "alice", "removed", "this post is removed"));
+            int removedId = logic.getLatestPostId();
+            Comment comment = new Comment(-1, "bob", "nice");
+            comment.setPostId(keptId);
+            Assertions.assertEquals(NetResponseType.Success.getId(), logic.addComment(comment).getId());
+            logic.addVote(keptId, VotableType.Post, VoteType.UP, "bob");
+            Assertions.assertEquals(true, logic.removePost(removedId));
+            Assertions.assertEquals(true, logic.saveDelta());
+            logic.close();
+
+            logic = new ServerLogic(folder, configuration);
+            PostSnapshot kept = logic.getPostSnapshot(keptId);
+            Assertions.assertEquals("kept", kept.getTitle());
+            Assertions.assertEquals(1, kept.getCommentCount());
+            Assertions.assertEquals(1, kept.getTotalUpvotes());
+            Assertions.assertNull(logic.getPostSnapshot(removedId));
+            Assertions.assertEquals(NetResponseType.UserAlreadyVoted.getId(),
+                    logic.addVote(keptId, VotableType.Post, VoteType.UP, "bob").getId());
+            logic.close();
+        });
+    }
+
+    private static void fillStore(SocialStore store) throws IOException {
+        store.putUser(createUser(1, "alice"));
+        for(int id = 1; id <= 3; id++) {
+            store.putPost(createPost(id, "alice"));
+        }
+        store.putComment(createComment(1, 3, "alice"));
+        store.putComment(createComment(2, 1, "alice"));
+        store.putPost(createPost(4, "alice"));
+        store.deletePost(4);
+    }
+
+    private static void checkFilledStore(SocialStore store) throws IOException {
+        Assertions.assertEquals(1, store.getUser("alice").getId());
+        Assertions.assertEquals(Arrays.asList(1, 2, 3), scanPostIds(store, 0, Integer.MAX_VALUE));
+        Assertions.assertEquals(Arrays.asList(2, 1), scanCommentIds(store, 0, Integer.MAX_VALUE));
+        Assertions.assertEquals("content 2", store.getPost(2).getContent());
+        Assertions.assertEquals(3, store.getComment(1).getPostId());
+    }
+
+    private static List<Integer> scanPostIds(SocialStore store, int fromId, int toId) throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        store.scanPosts(fromId, toId, post -> ids.add(post.getId()));
+        return ids;
+    }
+
+    private static List<Integer> scanCommentIds(SocialStore store, int fromPostId, int toPostId) throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        store.scanComments(fromPostId, toPostId, comment -> ids.add(comment.getId()));
+        return ids;
+    }
+
+    private static User createUser(int id, String username) {
+        User user = new User(username, "password", new String[] { "cats" });
+        user.setId(id);
+        user.addUserFollowed("bob");
+        user.getWallet().addTransaction(new Timestamp(System.currentTimeMillis()), 1.0);
+        return user;
+    }
+
+    private static Post createPost(int id, String author) {
+        return new Post(id, author, "title " + id, "content " + id);
+    }
+
+    private static Comment createComment(int id, int postId, String owner) {
+        Comment comment = new Comment(id, owner, "comment " + id);
+        comment.setPostId(postId);
+        return comment;
+    }
+
+    private static void forEachEngine(EngineTest test) throws Exception {
+        for(String engine : ENGINES) {
+            String folder = Files.createTempDirectory("winsome-" + engine).toString() + "/";
+            try {
+                test.run(engine, folder);
+            } catch (AssertionError e) {
+                throw new AssertionError("Engine " + engine + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface EngineTest {
+        void run(String engine, String folder) throws Exception;
+    }
+}
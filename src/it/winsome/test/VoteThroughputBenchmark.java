@@ -0,0 +1,79 @@
+package it.winsome.test;
+
+import it.winsome.common.entity.Post;
+import it.winsome.common.entity.enums.VotableType;
+import it.winsome.common.entity.enums.VoteType;
+import it.winsome.common.network.enums.NetResponseType;
+import it.winsome.server.ServerLogic;
+
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measure the vote throughput when every voter votes the same post, with an increasing number of threads.
+ * Each round uses a new post so that every vote is accepted.
+ * Usage: VoteThroughputBenchmark [voters], default 20000
+ */
+public class VoteThroughputBenchmark {
+    private static final String AUTHOR = "author";
+
+    public static void main(String[] args) throws Exception {
+        int voters = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        String dataFolder = Files.createTempDirectory("winsome-votes").toString() + "/";
+        ServerLogic logic = new ServerLogic(dataFolder);
+        logic.registerUser(AUTHOR, "password", new String[] { "benchmark" });
+        for(int i = 0; i < voters; i++) {
+            logic.registerUser("voter" + i, "password", new String[] { "benchmark" });
+        }
+        // reloaded to have the blogs of the registered users
+        logic.saveToDisk();
+        logic = new ServerLogic(dataFolder);
+        for(int i = 0; i < voters; i++) {
+            logic.addFollow("voter" + i, AUTHOR);
+        }
+
+        for(int threads = 1; threads <= maxThreads; threads *= 2) {
+            Post post = new Post(-1, AUTHOR, "viral", "everyone votes this post");
+            logic.addPost(post);
+            int postId = logic.getLatestPostId();
+            long elapsed = runRound(logic, postId, voters, threads);
+            System.out.printf("%2d threads %10.0f votes/s%n", threads, voters / (elapsed / 1e9));
+        }
+        System.exit(0);
+    }
+
+    private static long runRound(ServerLogic logic, int postId, int voters, int threads) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicInteger rejected = new AtomicInteger();
+        for(int t = 0; t < threads; t++) {
+            final int first = t;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for(int i = first; i < voters; i += threads) {
+                        VoteType type = i % 4 == 0 ? VoteType.DOWN : VoteType.UP;
+                        if(logic.addVote(postId, VotableType.Post, type, "voter" + i) != NetResponseType.Success) {
+                            rejected.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        if(rejected.get() > 0) {
+            System.out.println("Rejected votes: " + rejected.get());
+        }
+        return elapsed;
+    }
+}